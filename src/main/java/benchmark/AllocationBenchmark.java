@@ -0,0 +1,554 @@
+package benchmark;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import controller.Connection;
+import controller.ConnectionListener;
+import controller.Controller;
+import controller.FrameDecoder;
+import controller.FrameEncoder;
+import controller.PriorityLaneQueue;
+import controller.ServerManager;
+import events.HeartbeatEvent;
+import events.LogInEvent;
+import events.MessageEvent;
+import model.ChatState;
+import model.ChatState.UserStatus;
+import model.Cursor;
+import model.Message;
+import model.Model;
+
+/**
+ * Benchmark measuring bytes allocated on the hot path of the server. It runs
+ * the real ServerManager, ClientManagers and Controller, with connections
+ * served from memory instead of sockets: one client sends messages, each after
+ * receiving the broadcast of the previous one, and the other clients only
+ * receive broadcasts, written to null sinks. Usage:
+ * AllocationBenchmark [clients] [messages] [contentLength]
+ * It reports bytes allocated per message by the Controller thread, which
+ * stores the message and broadcasts it, and by the thread reading from the
+ * sending client, once with the sender alone and once with all the clients,
+ * and how much every additional client of a broadcast costs. The number of
+ * clients is limited by chatroom.admission.maxLogins
+ *
+ * @author Michal
+ */
+public class AllocationBenchmark {
+    /**
+     * default number of clients receiving every broadcast
+     */
+    private static final int CLIENTS = 50;
+    /**
+     * default number of measured messages
+     */
+    private static final int MESSAGES = 20000;
+    /**
+     * default length of the content of a message
+     */
+    private static final int CONTENT_LENGTH = 100;
+    /**
+     * size in bytes of pipes through which frames are exchanged with the
+     * server
+     */
+    private static final int PIPE_SIZE = 64 * 1024;
+    /**
+     * bean measuring bytes allocated by a thread
+     */
+    private static final com.sun.management.ThreadMXBean THREAD_BEAN =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    public static void main(String[] args) throws Exception {
+        int clients = args.length > 0 ? Math.max(2, Integer.parseInt(args[0])) : CLIENTS;
+        int messages = args.length > 1 ? Integer.parseInt(args[1]) : MESSAGES;
+        int contentLength = args.length > 2 ? Integer.parseInt(args[2]) : CONTENT_LENGTH;
+        char[] content = new char[contentLength];
+        Arrays.fill(content, 'x');
+        String text = new String(content);
+
+        System.out.printf("%-8s %18s %18s %10s%n", "clients", "controller B/msg", "reader B/msg", "rejected");
+        Result alone = run(1, messages, text);
+        Result all = run(clients, messages, text);
+        alone.print(1);
+        all.print(clients);
+        System.out.printf("broadcast bytes per additional client: %d%n",
+                (all.controllerBytes - alone.controllerBytes) / (clients - 1));
+        System.exit(0);
+    }
+
+    /**
+     * Method that starts a server with given number of clients, warms it up
+     * and measures sending messages by one of them
+     *
+     * @param clients  number of logged in clients, including the sending one
+     * @param messages number of measured messages
+     * @param text     content of messages
+     * @return bytes allocated per message
+     * @throws Exception if the server cannot be started
+     */
+    private static Result run(int clients, int messages, String text) throws Exception {
+        PriorityLaneQueue blockingQueue = new PriorityLaneQueue();
+        MemoryListener listener = new MemoryListener();
+        ServerManager serverManager = new ServerManager(listener, blockingQueue);
+        Controller controller = new Controller(new Model(1), serverManager, blockingQueue);
+        serverManager.start();
+        Thread controllerThread = new Thread(controller::start, "controller");
+        controllerThread.start();
+
+        // receivers log in first, so that the sender gets only answers to
+        // its messages
+        List<MemoryConnection> receivers = new ArrayList<>();
+        for (int i = 1; i < clients; ++i) {
+            CountingOutputStream sink = new CountingOutputStream();
+            MemoryConnection receiver = new MemoryConnection(sink);
+            listener.add(receiver);
+            receiver.write(new LogInEvent("user" + i, "localhost", "0"));
+            while (sink.getCount() == 0)
+                Thread.sleep(1);
+            receivers.add(receiver);
+        }
+        HeartbeatThread heartbeatThread = new HeartbeatThread(receivers);
+        heartbeatThread.start();
+
+        Pipe fromServer = new Pipe();
+        MemoryConnection sender = new MemoryConnection(fromServer.getOutputStream());
+        listener.add(sender);
+        sender.write(new LogInEvent("user0", "localhost", "0"));
+        SendingClient client = new SendingClient(sender, new FrameDecoder(fromServer.getInputStream()), text);
+        client.awaitState();
+
+        // the first round warms up, the second one is measured
+        client.send(messages);
+        long controllerStart = THREAD_BEAN.getThreadAllocatedBytes(controllerThread.getId());
+        long readerStart = THREAD_BEAN.getThreadAllocatedBytes(sender.getReaderThread().getId());
+        int rejectedStart = client.rejectedCount;
+        client.send(messages);
+        Result result = new Result(
+                (THREAD_BEAN.getThreadAllocatedBytes(controllerThread.getId()) - controllerStart) / messages,
+                (THREAD_BEAN.getThreadAllocatedBytes(sender.getReaderThread().getId()) - readerStart) / messages,
+                client.rejectedCount - rejectedStart);
+
+        heartbeatThread.interrupt();
+        controller.stop();
+        serverManager.closeSocket();
+        serverManager.dropClients();
+        return result;
+    }
+
+    /**
+     * Bytes allocated per message in one configuration
+     *
+     * @author Michal
+     */
+    private static class Result {
+        /**
+         * bytes allocated by the Controller thread per message
+         */
+        private final long controllerBytes;
+        /**
+         * bytes allocated by the thread reading from the sending client per
+         * message
+         */
+        private final long readerBytes;
+        /**
+         * number of measured messages rejected by the server
+         */
+        private final int rejectedCount;
+
+        Result(long controllerBytes, long readerBytes, int rejectedCount) {
+            this.controllerBytes = controllerBytes;
+            this.readerBytes = readerBytes;
+            this.rejectedCount = rejectedCount;
+        }
+
+        void print(int clients) {
+            System.out.printf("%-8d %18d %18d %10d%n", clients, controllerBytes, readerBytes, rejectedCount);
+        }
+    }
+
+    /**
+     * Client sending messages through a connection served from memory. Every
+     * message carries the position of the last message received, like the
+     * chat client does, and the next one is sent after the answer to it
+     *
+     * @author Michal
+     */
+    private static class SendingClient {
+        /**
+         * connection of the client
+         */
+        private final MemoryConnection connection;
+        /**
+         * decoder of frames sent to the client
+         */
+        private final FrameDecoder decoder;
+        /**
+         * content of messages
+         */
+        private final String text;
+        /**
+         * position of the last received message
+         */
+        private Cursor lastMessageCursor;
+        /**
+         * number of messages rejected by the server
+         */
+        private int rejectedCount;
+
+        SendingClient(MemoryConnection connection, FrameDecoder decoder, String text) {
+            this.connection = connection;
+            this.decoder = decoder;
+            this.text = text;
+        }
+
+        /**
+         * Method that sends messages one by one
+         *
+         * @param count number of messages
+         * @throws Exception if the connection fails
+         */
+        void send(int count) throws Exception {
+            for (int i = 0; i < count; ++i) {
+                MessageEvent event = new MessageEvent(text);
+                event.setPreviousMessageCursor(lastMessageCursor);
+                connection.write(event);
+                if (awaitState().getUserStatus() == UserStatus.MESSAGE_REJECTED)
+                    ++rejectedCount;
+            }
+        }
+
+        /**
+         * Method that reads frames until a chat state, skipping heartbeats
+         *
+         * @return received state
+         * @throws Exception if the connection fails
+         */
+        ChatState awaitState() throws Exception {
+            while (true) {
+                Object object = decoder.read();
+                if (!(object instanceof ChatState))
+                    continue;
+
+                ChatState state = (ChatState) object;
+                List<Message> messages = state.getMessages();
+                if (!messages.isEmpty())
+                    lastMessageCursor = messages.get(messages.size() - 1).getCursor();
+                return state;
+            }
+        }
+    }
+
+    /**
+     * Listener handing out connections served from memory
+     *
+     * @author Michal
+     */
+    private static class MemoryListener extends ConnectionListener {
+        /**
+         * connections waiting to be accepted
+         */
+        private final BlockingQueue<Connection> pendingConnections = new LinkedBlockingQueue<>();
+        /**
+         * boolean value telling if the listener is closed
+         */
+        private volatile boolean closed;
+
+        void add(Connection connection) {
+            pendingConnections.add(connection);
+        }
+
+        @Override
+        public Connection accept() throws IOException {
+            while (!closed) {
+                try {
+                    Connection connection = pendingConnections.poll(100, TimeUnit.MILLISECONDS);
+                    if (connection != null)
+                        return connection;
+                } catch (InterruptedException ignored) {
+                }
+            }
+            throw new IOException("Listener closed");
+        }
+
+        @Override
+        public boolean isClosed() {
+            return closed;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+
+    /**
+     * Connection served from memory: the server reads frames written by the
+     * benchmark to a pipe and writes to given stream
+     *
+     * @author Michal
+     */
+    private static class MemoryConnection extends Connection {
+        /**
+         * pipe through which the server reads frames written by the benchmark
+         */
+        private final Pipe pipe;
+        /**
+         * stream to which the server writes
+         */
+        private final OutputStream outputStream;
+        /**
+         * encoder of frames written by the benchmark
+         */
+        private final FrameEncoder encoder;
+        /**
+         * thread of the server reading from this connection
+         */
+        private volatile Thread readerThread;
+
+        MemoryConnection(OutputStream outputStream) {
+            this.outputStream = outputStream;
+            pipe = new Pipe();
+            encoder = new FrameEncoder();
+        }
+
+        /**
+         * Method that writes object as a frame for the server to read
+         *
+         * @param object written object
+         * @throws IOException if the connection is closed
+         */
+        synchronized void write(Object object) throws IOException {
+            encoder.encode(object);
+            encoder.writeTo(pipe.getOutputStream());
+        }
+
+        Thread getReaderThread() {
+            return readerThread;
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            // the server asks for the stream on the thread reading from it
+            readerThread = Thread.currentThread();
+            return pipe.getInputStream();
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return outputStream;
+        }
+
+        @Override
+        public void setReadTimeout(int timeout) {
+        }
+
+        @Override
+        public InetAddress getInetAddress() {
+            return null;
+        }
+
+        @Override
+        public String getRemoteAddress() {
+            return "memory";
+        }
+
+        @Override
+        public void close() {
+            pipe.close();
+        }
+    }
+
+    /**
+     * Buffer of bytes written by one thread and read by another. A reader
+     * waits while it is empty and a writer waits while it is full
+     *
+     * @author Michal
+     */
+    private static class Pipe {
+        /**
+         * circular buffer of bytes
+         */
+        private final byte[] buffer = new byte[PIPE_SIZE];
+        /**
+         * index of the next byte to be read
+         */
+        private int readIndex;
+        /**
+         * number of bytes waiting to be read
+         */
+        private int size;
+        /**
+         * boolean value telling if the pipe is closed
+         */
+        private boolean closed;
+        /**
+         * stream reading from the pipe
+         */
+        private final InputStream inputStream = new InputStream() {
+            @Override
+            public int read() throws IOException {
+                byte[] b = new byte[1];
+                return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                return Pipe.this.read(b, off, len);
+            }
+        };
+        /**
+         * stream writing to the pipe
+         */
+        private final OutputStream outputStream = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[]{(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                Pipe.this.write(b, off, len);
+            }
+        };
+
+        InputStream getInputStream() {
+            return inputStream;
+        }
+
+        OutputStream getOutputStream() {
+            return outputStream;
+        }
+
+        /**
+         * Method that reads bytes, waiting until there are any
+         *
+         * @param b   array to which bytes are read
+         * @param off index in the array of the first read byte
+         * @param len maximum number of read bytes
+         * @return number of read bytes, -1 if the pipe is closed and empty
+         * @throws IOException if the thread is interrupted
+         */
+        private synchronized int read(byte[] b, int off, int len) throws IOException {
+            try {
+                while (size == 0 && !closed)
+                    wait();
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException();
+            }
+            if (size == 0)
+                return -1;
+
+            int count = Math.min(len, Math.min(size, buffer.length - readIndex));
+            System.arraycopy(buffer, readIndex, b, off, count);
+            readIndex = (readIndex + count) % buffer.length;
+            size -= count;
+            notifyAll();
+            return count;
+        }
+
+        /**
+         * Method that writes bytes, waiting while the buffer is full
+         *
+         * @param b   array of written bytes
+         * @param off index in the array of the first written byte
+         * @param len number of written bytes
+         * @throws IOException if the pipe is closed or the thread is
+         *                     interrupted
+         */
+        private synchronized void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                try {
+                    while (size == buffer.length && !closed)
+                        wait();
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException();
+                }
+                if (closed)
+                    throw new IOException("Pipe closed");
+
+                int writeIndex = (readIndex + size) % buffer.length;
+                int count = Math.min(len, Math.min(buffer.length - size, buffer.length - writeIndex));
+                System.arraycopy(b, off, buffer, writeIndex, count);
+                size += count;
+                off += count;
+                len -= count;
+                notifyAll();
+            }
+        }
+
+        /**
+         * Method that closes the pipe, waking waiting threads
+         */
+        synchronized void close() {
+            closed = true;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Null sink counting bytes written to it
+     *
+     * @author Michal
+     */
+    private static class CountingOutputStream extends OutputStream {
+        /**
+         * number of bytes written
+         */
+        private volatile long count;
+
+        @Override
+        public void write(int b) {
+            ++count;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+
+        long getCount() {
+            return count;
+        }
+    }
+
+    /**
+     * Thread sending heartbeats of clients that only receive, so that the
+     * server doesn't drop them as silent
+     *
+     * @author Michal
+     */
+    private static class HeartbeatThread extends Thread {
+        /**
+         * connections of the receiving clients
+         */
+        private final List<MemoryConnection> connections;
+
+        HeartbeatThread(List<MemoryConnection> connections) {
+            this.connections = connections;
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            HeartbeatEvent heartbeat = new HeartbeatEvent();
+            try {
+                while (true) {
+                    Thread.sleep(HeartbeatEvent.INTERVAL);
+                    for (MemoryConnection connection : connections)
+                        connection.write(heartbeat);
+                }
+            } catch (InterruptedException | IOException ignored) {
+            }
+        }
+    }
+}
@@ -0,0 +1,389 @@
+package benchmark;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * TCP proxy on the loopback interface placed between clients and a server,
+ * which makes the connection behave like a real network: every chunk of bytes
+ * is delayed by a latency with random jitter, the throughput of every
+ * direction is capped and connections are reset at random. Delayed chunks are
+ * never reordered, like in a TCP stream. A connection is reset with RST after
+ * a time drawn from an exponential distribution with given mean, so resets
+ * come at random like cut links, not at a steady pace
+ *
+ * @author Michal
+ */
+public class ImpairmentProxy extends Thread {
+    /**
+     * size in bytes of a chunk read at once
+     */
+    private static final int CHUNK_SIZE = 16 * 1024;
+    /**
+     * socket accepting clients
+     */
+    private final ServerSocket serverSocket;
+    /**
+     * port of the server
+     */
+    private final int targetPort;
+    /**
+     * delay in ms added to every chunk
+     */
+    private final int latency;
+    /**
+     * maximum random delay in ms added to the latency
+     */
+    private final int jitter;
+    /**
+     * maximum number of bytes per second in every direction of a connection,
+     * 0 if unlimited
+     */
+    private final int bandwidth;
+    /**
+     * mean time in ms before a connection is reset, 0 if connections are
+     * never reset
+     */
+    private final int meanResetInterval;
+    /**
+     * connections open at the moment
+     */
+    private final ConcurrentLinkedQueue<Link> links;
+    /**
+     * number of connections reset by this proxy
+     */
+    private final AtomicLong resetCount;
+
+    /**
+     * Constructor
+     *
+     * @param port              port on which clients connect, 0 for any free
+     *                          port
+     * @param targetPort        port of the server on the loopback interface
+     * @param latency           delay in ms added to every chunk
+     * @param jitter            maximum random delay in ms added to the latency
+     * @param bandwidth         maximum number of bytes per second in every
+     *                          direction of a connection, 0 if unlimited
+     * @param meanResetInterval mean time in ms before a connection is reset,
+     *                          0 if connections are never reset
+     * @throws IOException if the port cannot be bound
+     */
+    public ImpairmentProxy(int port, int targetPort, int latency, int jitter, int bandwidth, int meanResetInterval)
+            throws IOException {
+        serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        this.targetPort = targetPort;
+        this.latency = latency;
+        this.jitter = jitter;
+        this.bandwidth = bandwidth;
+        this.meanResetInterval = meanResetInterval;
+        links = new ConcurrentLinkedQueue<>();
+        resetCount = new AtomicLong();
+        setDaemon(true);
+    }
+
+    /**
+     * Method that returns port on which clients connect
+     *
+     * @return local port of the proxy
+     */
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Method that returns number of connections reset so far
+     *
+     * @return number of resets
+     */
+    public long getResetCount() {
+        return resetCount.get();
+    }
+
+    /**
+     * Method that accepts clients and links every one with a new connection
+     * to the server. Expired connections are reset on the way
+     */
+    @Override
+    public void run() {
+        new ResetThread().start();
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket client = serverSocket.accept();
+                Socket server = new Socket(InetAddress.getLoopbackAddress(), targetPort);
+                client.setTcpNoDelay(true);
+                server.setTcpNoDelay(true);
+                links.add(new Link(client, server));
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * Method that stops accepting clients and closes all connections
+     */
+    public void close() {
+        try {
+            serverSocket.close();
+        } catch (IOException ignored) {
+        }
+        for (Link link : links)
+            link.close(false);
+    }
+
+    /**
+     * Method that draws time after which a new connection is reset
+     *
+     * @return time in ms since the epoch, Long.MAX_VALUE if connections are
+     * never reset
+     */
+    private long drawResetTime() {
+        if (meanResetInterval <= 0)
+            return Long.MAX_VALUE;
+
+        double uniform = ThreadLocalRandom.current().nextDouble();
+        return System.currentTimeMillis() + (long) (-Math.log(1 - uniform) * meanResetInterval);
+    }
+
+    /**
+     * Connection of a client linked with its connection to the server
+     *
+     * @author Michal
+     */
+    private class Link {
+        /**
+         * socket of the client
+         */
+        private final Socket client;
+        /**
+         * socket of the server
+         */
+        private final Socket server;
+        /**
+         * time in ms when this link is reset
+         */
+        private final long resetTime;
+        /**
+         * true if this link has been closed
+         */
+        private volatile boolean closed;
+
+        /**
+         * Constructor that starts moving bytes in both directions
+         *
+         * @param client socket of the client
+         * @param server socket of the server
+         * @throws IOException if streams of the sockets cannot be obtained
+         */
+        Link(Socket client, Socket server) throws IOException {
+            this.client = client;
+            this.server = server;
+            resetTime = drawResetTime();
+            new Pipe(this, client.getInputStream(), server.getOutputStream()).start();
+            new Pipe(this, server.getInputStream(), client.getOutputStream()).start();
+        }
+
+        /**
+         * Method that closes both sockets
+         *
+         * @param reset true if the sockets should be closed with RST, as if
+         *              the link was cut
+         */
+        void close(boolean reset) {
+            if (closed)
+                return;
+
+            closed = true;
+            links.remove(this);
+            try {
+                if (reset) {
+                    client.setSoLinger(true, 0);
+                    server.setSoLinger(true, 0);
+                    resetCount.incrementAndGet();
+                }
+                client.close();
+                server.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * Chunk of bytes waiting for the time of its delivery
+     *
+     * @author Michal
+     */
+    private static class Chunk {
+        /**
+         * bytes of the chunk, empty at the end of the stream
+         */
+        private final byte[] bytes;
+        /**
+         * time in ns when the chunk should be written
+         */
+        private final long deliveryTime;
+
+        /**
+         * Constructor
+         *
+         * @param bytes        bytes of the chunk
+         * @param deliveryTime time in ns when the chunk should be written
+         */
+        Chunk(byte[] bytes, long deliveryTime) {
+            this.bytes = bytes;
+            this.deliveryTime = deliveryTime;
+        }
+    }
+
+    /**
+     * Thread that reads one direction of a link and passes the chunks, each
+     * delayed, to a thread writing them
+     *
+     * @author Michal
+     */
+    private class Pipe extends Thread {
+        /**
+         * link to which this direction belongs
+         */
+        private final Link link;
+        /**
+         * stream from which bytes are read
+         */
+        private final InputStream inputStream;
+        /**
+         * chunks waiting to be written
+         */
+        private final BlockingQueue<Chunk> chunks;
+        /**
+         * time in ns of delivery of the previous chunk, a chunk is never
+         * delivered before it
+         */
+        private long lastDeliveryTime;
+
+        /**
+         * Constructor
+         *
+         * @param link         link to which this direction belongs
+         * @param inputStream  stream from which bytes are read
+         * @param outputStream stream to which bytes are written
+         */
+        Pipe(Link link, InputStream inputStream, OutputStream outputStream) {
+            this.link = link;
+            this.inputStream = inputStream;
+            chunks = new LinkedBlockingQueue<>();
+            setDaemon(true);
+            new Writer(outputStream).start();
+        }
+
+        @Override
+        public void run() {
+            byte[] buffer = new byte[CHUNK_SIZE];
+            Random random = ThreadLocalRandom.current();
+            try {
+                while (true) {
+                    int read = inputStream.read(buffer);
+                    if (read < 0)
+                        break;
+
+                    long delay = TimeUnit.MILLISECONDS.toNanos(latency + (jitter > 0 ? random.nextInt(jitter + 1) : 0));
+                    lastDeliveryTime = Math.max(System.nanoTime() + delay, lastDeliveryTime);
+                    chunks.add(new Chunk(Arrays.copyOf(buffer, read), lastDeliveryTime));
+                }
+            } catch (IOException ignored) {
+            }
+            chunks.add(new Chunk(new byte[0], lastDeliveryTime));
+        }
+
+        /**
+         * Thread that writes chunks at their delivery times, no faster than
+         * the bandwidth allows
+         *
+         * @author Michal
+         */
+        private class Writer extends Thread {
+            /**
+             * stream to which bytes are written
+             */
+            private final OutputStream outputStream;
+
+            /**
+             * Constructor
+             *
+             * @param outputStream stream to which bytes are written
+             */
+            Writer(OutputStream outputStream) {
+                this.outputStream = outputStream;
+                setDaemon(true);
+            }
+
+            @Override
+            public void run() {
+                // time in ns when the capped link is free to send again
+                long freeTime = System.nanoTime();
+                try {
+                    while (true) {
+                        Chunk chunk = chunks.take();
+                        if (chunk.bytes.length == 0)
+                            break;
+
+                        long sendTime = bandwidth > 0 ? Math.max(chunk.deliveryTime, freeTime) : chunk.deliveryTime;
+                        sleepUntil(sendTime);
+                        outputStream.write(chunk.bytes);
+                        if (bandwidth > 0)
+                            freeTime = sendTime + chunk.bytes.length * 1_000_000_000L / bandwidth;
+                    }
+                } catch (IOException | InterruptedException ignored) {
+                }
+                link.close(false);
+            }
+
+            private void sleepUntil(long time) throws InterruptedException {
+                long delay = time - System.nanoTime();
+                if (delay > 0)
+                    TimeUnit.NANOSECONDS.sleep(delay);
+            }
+        }
+    }
+
+    /**
+     * Thread that resets links whose time has come
+     *
+     * @author Michal
+     */
+    private class ResetThread extends Thread {
+        /**
+         * time in ms between checks of the links
+         */
+        private static final int CHECK_INTERVAL = 50;
+
+        ResetThread() {
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            while (!serverSocket.isClosed()) {
+                long now = System.currentTimeMillis();
+                for (Link link : links) {
+                    if (link.resetTime <= now)
+                        link.close(true);
+                }
+                try {
+                    Thread.sleep(CHECK_INTERVAL);
+                } catch (InterruptedException ignored) {
+                }
+            }
+        }
+    }
+}
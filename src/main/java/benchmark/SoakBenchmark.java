@@ -0,0 +1,472 @@
+package benchmark;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import controller.Controller;
+import controller.FrameDecoder;
+import controller.FrameEncoder;
+import controller.PriorityLaneQueue;
+import controller.ServerManager;
+import events.BaseEvent;
+import events.HeartbeatEvent;
+import events.LogInEvent;
+import events.MessageEvent;
+import model.ChatState;
+import model.ChatState.UserStatus;
+import model.Cursor;
+import model.Message;
+import model.MessageTrace;
+import model.Model;
+import model.ReceivedMessages;
+import profiling.LatencyHistogram;
+
+/**
+ * Soak benchmark running the server in this JVM behind an ImpairmentProxy.
+ * Clients connect through the proxy, send messages at a steady rate and, when
+ * the proxy resets their connection, resume their sessions like the real
+ * client does. Every message carries the position of the last message
+ * received, so a client that has missed messages has its message rejected and
+ * receives the missing ones instead, like the real client. Usage:
+ * SoakBenchmark [clients] [seconds] [latencyMs] [jitterMs] [bandwidthKBps] [resetIntervalMs]
+ * Every report interval it prints messages sent, delivered and rejected per
+ * second, reconnections and their cost, end-to-end latency of delivered messages,
+ * heap used after a full collection and the number of live threads. Clients
+ * and the proxy have a fixed number of threads per connection, so heap or
+ * threads growing from one report to the next point at a leak in the server
+ *
+ * @author Michal
+ */
+public class SoakBenchmark {
+    /**
+     * default number of clients
+     */
+    private static final int CLIENTS = 20;
+    /**
+     * default duration of the run in seconds
+     */
+    private static final int SECONDS = 60;
+    /**
+     * default latency in ms added by the proxy
+     */
+    private static final int LATENCY = 20;
+    /**
+     * default jitter in ms added by the proxy
+     */
+    private static final int JITTER = 10;
+    /**
+     * default bandwidth in KB/s of every direction of a connection
+     */
+    private static final int BANDWIDTH = 256;
+    /**
+     * default mean time in ms before the proxy resets a connection
+     */
+    private static final int RESET_INTERVAL = 15000;
+    /**
+     * time in ms between two messages of one client
+     */
+    private static final int SEND_INTERVAL = 200;
+    /**
+     * time in ms between two reports
+     */
+    private static final int REPORT_INTERVAL = 5000;
+    /**
+     * time in ms a client waits for the confirmation of its login
+     */
+    private static final int LOGIN_TIMEOUT = 10000;
+    /**
+     * port of the server, it is reached through the proxy only
+     */
+    private static final int SERVER_PORT = 7098;
+    /**
+     * length of the content of a message
+     */
+    private static final int CONTENT_LENGTH = 100;
+    /**
+     * number of messages sent by all clients
+     */
+    private static final AtomicLong SENT = new AtomicLong();
+    /**
+     * number of new messages delivered to all clients
+     */
+    private static final AtomicLong DELIVERED = new AtomicLong();
+    /**
+     * number of messages rejected by the server, because their senders had
+     * missed messages
+     */
+    private static final AtomicLong REJECTED = new AtomicLong();
+    /**
+     * number of times clients have resumed their sessions
+     */
+    private static final AtomicLong RECONNECTS = new AtomicLong();
+    /**
+     * time in ms from losing the connection to the confirmation of the
+     * resumed session
+     */
+    private static final LatencyHistogram RECONNECT_COSTS = new LatencyHistogram(10000);
+    /**
+     * time in ms from sending a message to delivering it to a client
+     */
+    private static final LatencyHistogram DELIVERY_LATENCIES = new LatencyHistogram(100000);
+
+    public static void main(String[] args) throws Exception {
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : CLIENTS;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : SECONDS;
+        int latency = args.length > 2 ? Integer.parseInt(args[2]) : LATENCY;
+        int jitter = args.length > 3 ? Integer.parseInt(args[3]) : JITTER;
+        int bandwidth = args.length > 4 ? Integer.parseInt(args[4]) : BANDWIDTH;
+        int resetInterval = args.length > 5 ? Integer.parseInt(args[5]) : RESET_INTERVAL;
+
+        // every connection comes from the proxy, so limits per address must allow all clients
+        System.setProperty("chatroom.admission.maxConnections", Integer.toString(4 * clients + 16));
+        System.setProperty("chatroom.admission.maxLogins", Integer.toString(2 * clients));
+        System.setProperty("chatroom.admission.maxConnectionsPerAddress", Integer.toString(4 * clients + 16));
+        System.setProperty("chatroom.admission.maxPendingLogins", Integer.toString(clients));
+        startServer();
+
+        ImpairmentProxy proxy = new ImpairmentProxy(0, SERVER_PORT, latency, jitter, bandwidth * 1024,
+                resetInterval);
+        proxy.start();
+
+        char[] content = new char[CONTENT_LENGTH];
+        Arrays.fill(content, 'x');
+        String text = new String(content);
+        List<SoakClient> soakClients = new ArrayList<>();
+        for (int i = 0; i < clients; ++i) {
+            SoakClient client = new SoakClient("soak" + i, proxy.getPort(), text);
+            soakClients.add(client);
+            client.start();
+        }
+
+        System.out.printf("%6s %9s %11s %10s %6s %9s %9s %9s %9s %8s %8s%n", "time s", "sent/s", "delivered/s",
+                "rejected/s", "resets", "recon p50", "recon p99", "e2e p50", "e2e p99", "heap MB", "threads");
+        long start = System.currentTimeMillis();
+        long lastSent = 0;
+        long lastDelivered = 0;
+        long lastRejected = 0;
+        for (long elapsed = 0; elapsed < seconds * 1000L; elapsed = System.currentTimeMillis() - start) {
+            Thread.sleep(Math.min(REPORT_INTERVAL, seconds * 1000L - elapsed));
+            long sent = SENT.get();
+            long delivered = DELIVERED.get();
+            long rejected = REJECTED.get();
+            double interval = (System.currentTimeMillis() - start - elapsed) / 1000.0;
+            report(System.currentTimeMillis() - start, (sent - lastSent) / interval,
+                    (delivered - lastDelivered) / interval, (rejected - lastRejected) / interval,
+                    proxy.getResetCount());
+            lastSent = sent;
+            lastDelivered = delivered;
+            lastRejected = rejected;
+        }
+
+        for (SoakClient client : soakClients)
+            client.shutdown();
+        proxy.close();
+        System.out.printf("total: %d sent, %d delivered, %d rejected, %d resets, %d resumed sessions%n", SENT.get(),
+                DELIVERED.get(), REJECTED.get(), proxy.getResetCount(), RECONNECTS.get());
+        System.exit(0);
+    }
+
+    /**
+     * Method that starts the server like HeadlessServer does, with the
+     * Controller on its own thread
+     *
+     * @throws IOException if the port of the server cannot be bound
+     */
+    private static void startServer() throws IOException {
+        BlockingQueue<BaseEvent> blockingQueue = new PriorityLaneQueue();
+        ServerManager serverManager = new ServerManager(SERVER_PORT, blockingQueue);
+        Controller controller = new Controller(new Model(1), serverManager, blockingQueue);
+        serverManager.start();
+        Thread controllerThread = new Thread(controller::start);
+        controllerThread.setDaemon(true);
+        controllerThread.start();
+    }
+
+    /**
+     * Method that prints one line of the report
+     */
+    private static void report(long elapsed, double sentPerSecond, double deliveredPerSecond,
+                               double rejectedPerSecond, long resets) {
+        MemoryMXBean memoryBean = ManagementFactory.getMemoryMXBean();
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        System.gc();
+        long heap = memoryBean.getHeapMemoryUsage().getUsed();
+        System.out.printf("%6d %9.0f %11.0f %10.1f %6d %9d %9d %9d %9d %8.1f %8d%n", elapsed / 1000, sentPerSecond,
+                deliveredPerSecond, rejectedPerSecond, resets, RECONNECT_COSTS.getPercentile(50), RECONNECT_COSTS.getPercentile(99),
+                DELIVERY_LATENCIES.getPercentile(50), DELIVERY_LATENCIES.getPercentile(99), heap / 1048576.0,
+                threadBean.getThreadCount());
+    }
+
+    /**
+     * Client that logs in through the proxy and sends messages, resuming its
+     * session whenever the connection is lost
+     *
+     * @author Michal
+     */
+    private static class SoakClient extends Thread {
+        /**
+         * name of the user
+         */
+        private final String userName;
+        /**
+         * port of the proxy
+         */
+        private final int port;
+        /**
+         * content of sent messages
+         */
+        private final String text;
+        /**
+         * token of the session, null before the first login
+         */
+        private volatile String sessionToken;
+        /**
+         * position of the last message of the last applied state, which is
+         * the last one to arrive at the server
+         */
+        private volatile Cursor lastMessageCursor;
+        /**
+         * messages received by the client, used to tell new messages and
+         * whether a state follows the received ones
+         */
+        private final ReceivedMessages receivedMessages;
+        /**
+         * socket of the current connection
+         */
+        private volatile Socket socket;
+        /**
+         * thread reading from the current connection
+         */
+        private Reader reader;
+        /**
+         * true if the client should stop
+         */
+        private volatile boolean stopped;
+
+        /**
+         * Constructor
+         *
+         * @param userName name of the user
+         * @param port     port of the proxy
+         * @param text     content of sent messages
+         */
+        SoakClient(String userName, int port, String text) {
+            this.userName = userName;
+            this.port = port;
+            this.text = text;
+            receivedMessages = new ReceivedMessages();
+            setDaemon(true);
+        }
+
+        /**
+         * Method that stops the client and closes its connection
+         */
+        void shutdown() {
+            stopped = true;
+            close();
+        }
+
+        /**
+         * Method that connects, sends messages until the connection is lost,
+         * and connects again. The cost of a reconnection is the time from
+         * noticing the loss to the confirmation of the resumed session
+         */
+        @Override
+        public void run() {
+            FrameEncoder frameEncoder = new FrameEncoder();
+            // time when the last logged in connection was lost, 0 while logged in
+            long lostTime = 0;
+            while (!stopped) {
+                boolean loggedIn = false;
+                try {
+                    OutputStream outputStream = connect(frameEncoder);
+                    if (!reader.awaitLogin())
+                        throw new IOException("Login failed");
+                    loggedIn = true;
+                    if (lostTime != 0) {
+                        RECONNECT_COSTS.record(System.currentTimeMillis() - lostTime);
+                        RECONNECTS.incrementAndGet();
+                        lostTime = 0;
+                    }
+
+                    while (!stopped) {
+                        MessageEvent event = new MessageEvent(text);
+                        event.setPreviousMessageCursor(lastMessageCursor);
+                        event.setTrace(new MessageTrace());
+                        frameEncoder.encode(event);
+                        frameEncoder.writeTo(outputStream);
+                        SENT.incrementAndGet();
+                        Thread.sleep(SEND_INTERVAL);
+                    }
+                } catch (IOException | InterruptedException ignored) {
+                }
+
+                close();
+                if (loggedIn)
+                    lostTime = System.currentTimeMillis();
+            }
+        }
+
+        /**
+         * Method that opens a connection through the proxy, starts reading
+         * from it and sends the login, resuming the session if there is one
+         *
+         * @param frameEncoder encoder of this client
+         * @return stream to which messages are sent
+         * @throws IOException if the connection fails
+         */
+        private OutputStream connect(FrameEncoder frameEncoder) throws IOException {
+            socket = new Socket(InetAddress.getLoopbackAddress(), port);
+            socket.setTcpNoDelay(true);
+            socket.setSoTimeout(HeartbeatEvent.TIMEOUT);
+            reader = new Reader(new FrameDecoder(socket.getInputStream()));
+            reader.start();
+
+            LogInEvent event = new LogInEvent(userName, "localhost", Integer.toString(port));
+            event.setSessionToken(sessionToken);
+            event.setResumeCursor(lastMessageCursor);
+            OutputStream outputStream = socket.getOutputStream();
+            frameEncoder.encode(event);
+            frameEncoder.writeTo(outputStream);
+            return outputStream;
+        }
+
+        /**
+         * Method that closes the current connection
+         */
+        private void close() {
+            try {
+                if (socket != null)
+                    socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+
+        /**
+         * Thread that reads states from one connection and counts delivered
+         * messages
+         *
+         * @author Michal
+         */
+        private class Reader extends Thread {
+            /**
+             * decoder of the connection
+             */
+            private final FrameDecoder frameDecoder;
+            /**
+             * released when login is confirmed or the connection is closed
+             */
+            private final CountDownLatch loginAnswered;
+            /**
+             * true if login has been confirmed
+             */
+            private volatile boolean loggedIn;
+
+            /**
+             * Constructor
+             *
+             * @param frameDecoder decoder of the connection
+             */
+            Reader(FrameDecoder frameDecoder) {
+                this.frameDecoder = frameDecoder;
+                loginAnswered = new CountDownLatch(1);
+                setDaemon(true);
+            }
+
+            /**
+             * Method that waits until the server answers login
+             *
+             * @return true if login has been confirmed in time
+             * @throws InterruptedException if the thread is interrupted
+             */
+            boolean awaitLogin() throws InterruptedException {
+                return loginAnswered.await(LOGIN_TIMEOUT, TimeUnit.MILLISECONDS) && loggedIn;
+            }
+
+            @Override
+            public void run() {
+                try {
+                    while (true) {
+                        Object object = frameDecoder.read();
+                        if (object instanceof ChatState)
+                            receive((ChatState) object);
+                    }
+                } catch (IOException | ClassNotFoundException ignored) {
+                }
+                // the sending thread notices the closed connection at its next write
+                loginAnswered.countDown();
+                SoakClient.this.close();
+            }
+
+            /**
+             * Method that confirms login, counts rejected messages and
+             * applies state like the real client does: a state which doesn't
+             * follow the received messages is skipped, a truncated one
+             * replaces them. Messages that haven't been received before are
+             * counted as delivered, in whatever order they arrive
+             *
+             * @param state received state
+             */
+            private void receive(ChatState state) {
+                if (state.getUserStatus() == UserStatus.LOGGED_IN) {
+                    sessionToken = state.getSessionToken();
+                    loggedIn = true;
+                    loginAnswered.countDown();
+                } else if (state.getUserStatus() == UserStatus.MESSAGE_REJECTED)
+                    REJECTED.incrementAndGet();
+
+                if (!state.isTruncated()) {
+                    // server that doesn't know the last received message starts a new session
+                    if (state.getUserStatus() == UserStatus.LOGGED_IN && !isContinuation(state))
+                        lastMessageCursor = null;
+                    if (!isContinuation(state))
+                        return;
+                }
+
+                long now = System.currentTimeMillis();
+                for (Message message : state.getMessages()) {
+                    if (receivedMessages.contains(message.getCursor()))
+                        continue;
+
+                    DELIVERED.incrementAndGet();
+                    if (message.getTrace() != null)
+                        DELIVERY_LATENCIES.record(now - message.getTrace().getClientSendTime());
+                }
+                if (state.isTruncated())
+                    receivedMessages.replace(state.getMessages());
+                else
+                    receivedMessages.merge(state.getMessages());
+                // unrendered messages are of no use here
+                receivedMessages.takeUnrendered();
+
+                List<Message> messages = state.getMessages();
+                if (!messages.isEmpty())
+                    lastMessageCursor = messages.get(messages.size() - 1).getCursor();
+            }
+
+            /**
+             * Method that tells whether messages of a state follow the
+             * received ones without a gap
+             *
+             * @param state received state
+             * @return true if the state continues the received messages or no
+             * message has been received in this session
+             */
+            private boolean isContinuation(ChatState state) {
+                return lastMessageCursor == null || state.isContinuationOf(receivedMessages);
+            }
+        }
+    }
+}
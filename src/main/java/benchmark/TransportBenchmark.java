@@ -0,0 +1,198 @@
+package benchmark;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+
+import controller.Connection;
+import controller.ConnectionListener;
+import controller.FrameDecoder;
+import controller.FrameEncoder;
+import events.MessageEvent;
+
+/**
+ * Benchmark comparing transports of clients on the same host: loopback TCP and
+ * a Unix domain socket. Messages are sent through the same connections and
+ * frames as the client and the server use, to a thread echoing them
+ * back. Usage:
+ * TransportBenchmark [roundTrips] [messages] [contentLength]
+ * It reports latency of round trips of single messages and throughput of a
+ * stream of messages
+ *
+ * @author Michal
+ */
+public class TransportBenchmark {
+    /**
+     * default number of measured round trips
+     */
+    private static final int ROUND_TRIPS = 20000;
+    /**
+     * default number of messages streamed to measure throughput
+     */
+    private static final int MESSAGES = 200000;
+    /**
+     * default length of the content of a message
+     */
+    private static final int CONTENT_LENGTH = 100;
+    /**
+     * TCP port of the benchmark
+     */
+    private static final int PORT = 7099;
+    /**
+     * maximum number of connections waiting to be accepted
+     */
+    private static final int BACKLOG = 50;
+    /**
+     * read timeout of the client, the same as the one of the client
+     */
+    private static final int READ_TIMEOUT = 5000;
+
+    public static void main(String[] args) throws Exception {
+        int roundTrips = args.length > 0 ? Integer.parseInt(args[0]) : ROUND_TRIPS;
+        int messages = args.length > 1 ? Integer.parseInt(args[1]) : MESSAGES;
+        int contentLength = args.length > 2 ? Integer.parseInt(args[2]) : CONTENT_LENGTH;
+        char[] content = new char[contentLength];
+        Arrays.fill(content, 'x');
+        String text = new String(content);
+
+        System.out.printf("%-10s %10s %10s %10s %10s %12s%n", "transport", "p50 us", "p99 us", "p99.9 us",
+                "mean us", "messages/s");
+
+        ConnectionListener tcpListener = ConnectionListener.listen(PORT, BACKLOG);
+        run("tcp", tcpListener, () -> Connection.open("localhost", PORT), roundTrips, messages, text);
+
+        Path directory = Files.createTempDirectory("chatroom");
+        Path path = directory.resolve("benchmark.sock");
+        ConnectionListener unixListener = ConnectionListener.listen(path);
+        run("unix", unixListener, () -> Connection.open(path), roundTrips, messages, text);
+        Files.deleteIfExists(directory);
+    }
+
+    /**
+     * Method that measures one transport and prints the results
+     *
+     * @param name       name of the transport
+     * @param listener   listener of the transport
+     * @param connector  opens client connection of the transport
+     * @param roundTrips number of measured round trips
+     * @param messages   number of streamed messages
+     * @param text       content of messages
+     * @throws Exception if the connection fails
+     */
+    private static void run(String name, ConnectionListener listener, Callable<Connection> connector, int roundTrips,
+                            int messages, String text) throws Exception {
+        EchoThread echoThread = new EchoThread(listener);
+        echoThread.start();
+        Connection connection = connector.call();
+        connection.setReadTimeout(READ_TIMEOUT);
+        OutputStream outputStream = connection.getOutputStream();
+        FrameDecoder frameDecoder = new FrameDecoder(connection.getInputStream());
+
+        // warm up
+        measureRoundTrips(outputStream, frameDecoder, roundTrips / 4, text);
+        long[] latencies = measureRoundTrips(outputStream, frameDecoder, roundTrips, text);
+        double throughput = measureThroughput(outputStream, frameDecoder, messages, text);
+
+        connection.close();
+        listener.close();
+        echoThread.join();
+
+        Arrays.sort(latencies);
+        System.out.printf("%-10s %10.1f %10.1f %10.1f %10.1f %12.0f%n", name, percentile(latencies, 0.5),
+                percentile(latencies, 0.99), percentile(latencies, 0.999), Arrays.stream(latencies).average()
+                        .orElse(0) / 1000, throughput);
+    }
+
+    /**
+     * Method that sends messages one by one, waiting for every echo
+     *
+     * @return time in ns of every round trip
+     */
+    private static long[] measureRoundTrips(OutputStream outputStream, FrameDecoder frameDecoder, int count,
+                                            String text) throws IOException, ClassNotFoundException {
+        FrameEncoder frameEncoder = new FrameEncoder();
+        long[] latencies = new long[count];
+        for (int i = 0; i < count; ++i) {
+            MessageEvent event = new MessageEvent(text);
+            long start = System.nanoTime();
+            write(frameEncoder, outputStream, event);
+            frameDecoder.read();
+            latencies[i] = System.nanoTime() - start;
+        }
+        return latencies;
+    }
+
+    /**
+     * Method that streams messages from another thread while reading echoes
+     *
+     * @return number of messages per second
+     */
+    private static double measureThroughput(OutputStream outputStream, FrameDecoder frameDecoder, int count,
+                                            String text) throws Exception {
+        Thread writer = new Thread(() -> {
+            FrameEncoder frameEncoder = new FrameEncoder();
+            try {
+                for (int i = 0; i < count; ++i)
+                    write(frameEncoder, outputStream, new MessageEvent(text));
+            } catch (IOException e) {
+                System.err.println("Cannot send messages: " + e.getMessage());
+            }
+        });
+        long start = System.nanoTime();
+        writer.start();
+        for (int i = 0; i < count; ++i)
+            frameDecoder.read();
+        long time = System.nanoTime() - start;
+        writer.join();
+        return count * 1e9 / time;
+    }
+
+    private static void write(FrameEncoder frameEncoder, OutputStream outputStream, Object object)
+            throws IOException {
+        frameEncoder.encode(object);
+        frameEncoder.writeTo(outputStream);
+    }
+
+    private static double percentile(long[] sorted, double percentile) {
+        return sorted[Math.min(sorted.length - 1, (int) (percentile * sorted.length))] / 1000.0;
+    }
+
+    /**
+     * Thread that accepts one connection and sends back every object it reads
+     *
+     * @author Michal
+     */
+    private static class EchoThread extends Thread {
+        /**
+         * listener of the benchmarked transport
+         */
+        private final ConnectionListener listener;
+
+        /**
+         * Constructor
+         *
+         * @param listener listener of the benchmarked transport
+         */
+        EchoThread(ConnectionListener listener) {
+            this.listener = listener;
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            try {
+                Connection connection = listener.accept();
+                OutputStream outputStream = connection.getOutputStream();
+                FrameDecoder frameDecoder = new FrameDecoder(connection.getInputStream());
+                FrameEncoder frameEncoder = new FrameEncoder();
+                while (true)
+                    write(frameEncoder, outputStream, frameDecoder.read());
+            } catch (IOException | ClassNotFoundException ignored) {
+                // the client has closed the connection
+            }
+        }
+    }
+}
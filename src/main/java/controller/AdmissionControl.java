@@ -0,0 +1,125 @@
+package controller;
+
+import java.net.InetAddress;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import model.ChatState.UserStatus;
+
+/**
+ * Class that decides whether a new connection can be accepted by the
+ * ServerManager. It limits the number of connections, the number of
+ * connections from one address and the number of connections that haven't
+ * logged in yet, so that the server keeps serving logged in users when it is
+ * close to its capacity. The limits can be configured with system properties
+ * chatroom.admission.maxConnections, chatroom.admission.maxLogins,
+ * chatroom.admission.maxPendingLogins,
+ * chatroom.admission.maxConnectionsPerAddress,
+ * chatroom.admission.loginTimeout (in ms) and chatroom.admission.backlog. This
+ * class is thread safe
+ *
+ * @author Michal
+ */
+class AdmissionControl {
+    /**
+     * maximum number of connections, logged in or not
+     */
+    static final int MAX_CONNECTIONS = Integer.getInteger("chatroom.admission.maxConnections", 64);
+    /**
+     * maximum number of logged in users
+     */
+    static final int MAX_LOGINS = Integer.getInteger("chatroom.admission.maxLogins", 50);
+    /**
+     * maximum number of connections that haven't logged in yet
+     */
+    static final int MAX_PENDING_LOGINS = Integer.getInteger("chatroom.admission.maxPendingLogins", 16);
+    /**
+     * maximum number of connections from one address
+     */
+    static final int MAX_CONNECTIONS_PER_ADDRESS = Integer.getInteger("chatroom.admission.maxConnectionsPerAddress", 8);
+    /**
+     * time in ms in which a new connection has to log in
+     */
+    static final int LOGIN_TIMEOUT = Integer.getInteger("chatroom.admission.loginTimeout", 10000);
+    /**
+     * length of the queue of connections waiting to be accepted
+     */
+    static final int BACKLOG = Integer.getInteger("chatroom.admission.backlog", 50);
+    /**
+     * mapping admitted clients to their addresses
+     */
+    private Map<ClientManager, InetAddress> clientToAddressMap;
+    /**
+     * number of admitted connections from every address
+     */
+    private Map<InetAddress, Integer> addressToCountMap;
+    /**
+     * admitted clients that haven't logged in yet
+     */
+    private Set<ClientManager> pendingClients;
+
+    /**
+     * Constructor
+     */
+    AdmissionControl() {
+        clientToAddressMap = new HashMap<>();
+        addressToCountMap = new HashMap<>();
+        pendingClients = new HashSet<>();
+    }
+
+    /**
+     * Method that checks whether connection from given address can be
+     * admitted
+     *
+     * @param address address of the connecting client, null if it connects
+     *                from the same host through a Unix domain socket, which
+     *                is not limited per address
+     * @return null if connection can be admitted, or status explaining why
+     * it is rejected
+     */
+    synchronized UserStatus check(InetAddress address) {
+        if (clientToAddressMap.size() >= MAX_CONNECTIONS || pendingClients.size() >= MAX_PENDING_LOGINS)
+            return UserStatus.SERVER_FULL;
+
+        if (address != null && addressToCountMap.getOrDefault(address, 0) >= MAX_CONNECTIONS_PER_ADDRESS)
+            return UserStatus.TOO_MANY_CONNECTIONS;
+
+        return null;
+    }
+
+    /**
+     * Method that counts admitted client as connected, but not logged in
+     *
+     * @param client  admitted client
+     * @param address address of the client, null if it is local
+     */
+    synchronized void admit(ClientManager client, InetAddress address) {
+        clientToAddressMap.put(client, address);
+        if (address != null)
+            addressToCountMap.merge(address, 1, Integer::sum);
+        pendingClients.add(client);
+    }
+
+    /**
+     * Method that stops counting client as waiting for login
+     *
+     * @param client client that has just logged in
+     */
+    synchronized void loginAccepted(ClientManager client) {
+        pendingClients.remove(client);
+    }
+
+    /**
+     * Method that stops counting removed client
+     *
+     * @param client removed client
+     */
+    synchronized void release(ClientManager client) {
+        pendingClients.remove(client);
+        InetAddress address = clientToAddressMap.remove(client);
+        if (address != null)
+            addressToCountMap.computeIfPresent(address, (key, count) -> count > 1 ? count - 1 : null);
+    }
+}
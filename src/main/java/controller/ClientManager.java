@@ -2,14 +2,22 @@ package controller;
 
 import java.io.IOException;
 import java.io.InvalidClassException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.net.Socket;
+import java.io.OutputStream;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 import events.BaseEvent;
+import events.HeartbeatEvent;
+import events.LogInEvent;
 import events.LogOutEvent;
 import model.ChatState;
+import model.ChatState.UserStatus;
+import model.DirectMessage;
+import model.HistoryPage;
+import model.SearchResult;
+import model.UserRegistry;
+import profiling.ClientSendEvent;
+import profiling.SocketReadEvent;
 
 /**
  * Class that is responsible for connection with one client. It is fully
@@ -20,17 +28,26 @@ import model.ChatState;
  */
 public class ClientManager extends Thread {
     /**
-     * socket of this client's connection
+     * connection with this client
      */
-    private Socket socket;
+    private Connection connection;
     /**
-     * stream from which objects are read
+     * heartbeat sent to every client
      */
-    private ObjectInputStream objectInputStream;
+    private static final HeartbeatEvent HEARTBEAT = new HeartbeatEvent();
     /**
-     * stream to which objects are sent
+     * event that is never committed, it only tells whether sends are
+     * recorded, so that a broadcast doesn't create an event for every client
      */
-    private ObjectOutputStream objectOutputStream;
+    private static final ClientSendEvent SEND_PROBE = new ClientSendEvent();
+    /**
+     * decoder of frames read from the client
+     */
+    private FrameDecoder frameDecoder;
+    /**
+     * stream to which frames are sent
+     */
+    private OutputStream outputStream;
     /**
      * BlockingQueue to which received events are sent
      */
@@ -45,25 +62,61 @@ public class ClientManager extends Thread {
      */
     private volatile boolean loginFlag;
     /**
-     * Time in ms to sleep between two messages received by client. Additional
-     * defense mechanism to protect clients sending too many messages
+     * registry in which user names are claimed, null if the Controller checks
+     * them
      */
-    private final static int TIME_BETWEEN_MESSAGES = 100;
+    private final UserRegistry userRegistry;
+    /**
+     * true if this client has already sent a LogInEvent that is handled by
+     * the Controller. Used only by the thread of this manager
+     */
+    private boolean loginRequested;
+    /**
+     * time in ms when anything was last read from the client
+     */
+    private volatile long lastReadTime;
+    /**
+     * time in ms when anything was last sent to the client
+     */
+    private volatile long lastSendTime;
+    /**
+     * time in ms when the client connected
+     */
+    private final long connectTime;
 
     /**
      * Constructor
      *
-     * @param socket        socket to which this client is going to connect
+     * @param connection    connection with the client
+     * @param blockingQueue queue to which this client manager is going to send events
+     * @param userRegistry  registry in which user names are claimed, null if
+     *                      the Controller should check them
+     * @throws IOException if could not get the output stream
+     */
+    ClientManager(Connection connection, BlockingQueue<BaseEvent> blockingQueue, UserRegistry userRegistry)
+            throws IOException {
+        this(blockingQueue, userRegistry);
+        this.connection = connection;
+        outputStream = connection.getOutputStream();
+    }
+
+    /**
+     * Constructor of a client connected through another transport than a
+     * socket with frames. Such client is never started, the
+     * subclass passes received events to receive and overrides write
+     *
      * @param blockingQueue queue to which this client manager is going to send events
-     * @throws IOException if could not create ObjectStream
+     * @param userRegistry  registry in which user names are claimed, null if
+     *                      the Controller should check them
      */
-    ClientManager(Socket socket, BlockingQueue<BaseEvent> blockingQueue) throws IOException {
-        this.socket = socket;
+    ClientManager(BlockingQueue<BaseEvent> blockingQueue, UserRegistry userRegistry) {
         this.blockingQueue = blockingQueue;
-        objectOutputStream = new ObjectOutputStream(socket.getOutputStream());
-        objectInputStream = new ObjectInputStream(socket.getInputStream());
+        this.userRegistry = userRegistry;
         stopFlag = true;
         loginFlag = false;
+        connectTime = System.currentTimeMillis();
+        lastReadTime = connectTime;
+        lastSendTime = connectTime;
     }
 
     /**
@@ -91,13 +144,181 @@ public class ClientManager extends Thread {
      * @param state current ChatState
      */
     public void send(ChatState state) {
+        send(state, null);
+    }
+
+    /**
+     * Method that sends ChatState to the client concerned and records it for
+     * the Flight Recorder, if sends are recorded. Nothing is allocated for a
+     * client of a broadcast when they aren't
+     *
+     * @param state ChatState to be sent
+     * @param frame the state encoded once for all clients of a broadcast,
+     *              null if the state is sent to this client only
+     */
+    void send(ChatState state, FrameEncoder frame) {
+        if (!SEND_PROBE.isEnabled()) {
+            if (frame == null)
+                write(state);
+            else
+                write(state, frame);
+            return;
+        }
+
+        ClientSendEvent sendEvent = new ClientSendEvent();
+        sendEvent.begin();
+        boolean succeeded = frame == null ? write(state) : write(state, frame);
+
+        if (sendEvent.shouldCommit()) {
+            sendEvent.userStatus = state.getUserStatus().name();
+            sendEvent.messageCount = state.getMessages().size();
+            sendEvent.remoteAddress = getRemoteAddress();
+            sendEvent.broadcast = frame != null;
+            sendEvent.succeeded = succeeded;
+            sendEvent.commit();
+        }
+    }
+
+    /**
+     * Method that sends to the client a page of history he has requested
+     *
+     * @param page page of messages to be sent
+     */
+    void sendHistoryPage(HistoryPage page) {
+        write(page);
+    }
+
+    /**
+     * Method that sends to the client result of his search. It can be
+     * invoked from any thread
+     *
+     * @param result found messages
+     */
+    void sendSearchResult(SearchResult result) {
+        write(result);
+    }
+
+    /**
+     * Method that sends to the client a private message addressed to him, or
+     * the confirmation of a private message he has sent
+     *
+     * @param message private message
+     */
+    void sendDirectMessage(DirectMessage message) {
+        write(message);
+    }
+
+    /**
+     * Method that claims the user name of a new session on this thread, so
+     * that taken names are rejected without waiting for the Controller, and
+     * the rejected client is logged out. A client gets only one login handled
+     * by the Controller, further LogInEvents are ignored. Names of resumed sessions are checked by the Controller,
+     * which first drops the connection still holding the session
+     *
+     * @param event LogInEvent sent by the client
+     * @return true if the event should be passed to the Controller
+     */
+    private boolean claimUserName(LogInEvent event) {
+        if (loginRequested || loginFlag)
+            return false;
+
+        if (userRegistry != null && event.getSessionToken() == null) {
+            if (!userRegistry.claim(event.getUserName())) {
+                send(ChatState.rejection(UserStatus.USERNAME_REJECTED));
+                logout();
+                stopFlag = false;
+                return false;
+            }
+            event.setUserNameClaimed();
+        }
+        loginRequested = true;
+        return true;
+    }
+
+    /**
+     * Method that sends heartbeat to the client, so that it knows the
+     * connection works even if nothing happens in the chat
+     */
+    void sendHeartbeat() {
+        write(HEARTBEAT);
+    }
+
+    /**
+     * Method that sends object to the client, encoded by a pooled encoder. It
+     * can be invoked from any thread
+     *
+     * @param object object to be sent
+     * @return true if the object has been sent
+     */
+    boolean write(Object object) {
+        FrameEncoder encoder = FrameEncoder.acquire();
         try {
-            objectOutputStream.writeObject(state);
-        } catch (IOException ignored) {
+            encoder.encode(object);
+            return write(object, encoder);
+        } catch (IOException e) {
+            return false;
+        } finally {
+            FrameEncoder.release(encoder);
+        }
+    }
 
+    /**
+     * Method that sends object already encoded as a frame, so that a frame
+     * shared by many clients is encoded once. It can be invoked from any
+     * thread
+     *
+     * @param object object to be sent
+     * @param frame  encoder holding the object encoded
+     * @return true if the object has been sent
+     */
+    boolean write(Object object, FrameEncoder frame) {
+        try {
+            synchronized (outputStream) {
+                frame.writeTo(outputStream);
+            }
+            lastSendTime = System.currentTimeMillis();
+            return true;
+        } catch (IOException e) {
+            return false;
         }
     }
 
+    /**
+     * Method that returns time when anything was last read from the client
+     *
+     * @return time in ms of the last read
+     */
+    long getLastReadTime() {
+        return lastReadTime;
+    }
+
+    /**
+     * Method that returns time when anything was last sent to the client
+     *
+     * @return time in ms of the last send
+     */
+    long getLastSendTime() {
+        return lastSendTime;
+    }
+
+    /**
+     * Method that returns time when the client connected
+     *
+     * @return time in ms of connecting
+     */
+    long getConnectTime() {
+        return connectTime;
+    }
+
+    /**
+     * Method that tells whether connection with the client has been closed
+     *
+     * @return true if close has been invoked
+     */
+    boolean isClosed() {
+        return !stopFlag;
+    }
+
     /**
      * Method that closes connection with the client, should be invoked before
      * removing the client
@@ -107,41 +328,131 @@ public class ClientManager extends Thread {
         loginFlag = false;
 
         try {
-            if (objectInputStream != null)
-                objectInputStream.close();
-
-            if (objectOutputStream != null)
-                objectOutputStream.close();
+            if (outputStream != null)
+                outputStream.close();
 
-            if (socket != null)
-                socket.close();
+            if (connection != null)
+                connection.close();
         } catch (Exception ignored) {
         }
     }
 
     /**
-     * Method responsible for listening to the client
+     * Method that cuts connection with the client as if it was lost, so the
+     * user is logged out like after a network failure and the client takes
+     * its reconnect path. A session without a connection is logged out
+     */
+    void disconnect() {
+        if (connection == null) {
+            logout();
+            return;
+        }
+
+        try {
+            connection.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    /**
+     * Method responsible for listening to the client, until connection is
+     * closed. Heartbeats only mark the client as alive. Frames are decoded
+     * into a buffer kept for the whole connection
      */
     @Override
     public void run() {
-        while (true) {
+        try {
+            frameDecoder = new FrameDecoder(connection.getInputStream());
+        } catch (IOException e) {
+            logout();
+            return;
+        }
+
+        while (stopFlag) {
             try {
-                BaseEvent event = (BaseEvent) objectInputStream.readObject();
-                event.setClientManager(this);
-                blockingQueue.put(event);
+                SocketReadEvent readEvent = new SocketReadEvent();
+                readEvent.begin();
+                BaseEvent event = (BaseEvent) frameDecoder.read();
+                readEvent.end();
+                lastReadTime = System.currentTimeMillis();
+                if (event instanceof HeartbeatEvent)
+                    continue;
+
+                if (readEvent.shouldCommit()) {
+                    readEvent.eventType = event.getClass().getSimpleName();
+                    readEvent.remoteAddress = getRemoteAddress();
+                    readEvent.commit();
+                }
+
+                receive(event);
             } catch (ClassNotFoundException | InterruptedException | InvalidClassException e) {
                 continue;
             } catch (IOException e) {
                 logout();
-            }
-
-            try {
-                Thread.sleep(TIME_BETWEEN_MESSAGES);
-            } catch (InterruptedException ignored) {
+                return;
             }
         }
     }
 
+    /**
+     * Method that passes event received from the client to the Controller.
+     * LogInEvent is passed only if the user name can be claimed. It waits
+     * while too many events of this client are queued, so a client sending
+     * too many messages is no longer read until the Controller catches up.
+     * The client counts as alive while it waits, as nothing is read from it
+     * only because of the server
+     *
+     * @param event event received from the client
+     * @throws InterruptedException if the thread is interrupted while waiting
+     *                              for the blockingQueue
+     */
+    void receive(BaseEvent event) throws InterruptedException {
+        if (!prepare(event))
+            return;
+
+        while (!blockingQueue.offer(event, HeartbeatEvent.INTERVAL, TimeUnit.MILLISECONDS))
+            lastReadTime = System.currentTimeMillis();
+    }
+
+    /**
+     * Method that passes event received from the client to the Controller
+     * without waiting, e.g. for a client whose requests are served by a few
+     * shared threads. LogInEvent is passed only if the user name can be
+     * claimed
+     *
+     * @param event event received from the client
+     * @return false if too many events of this client are queued and the
+     * event has been dropped
+     */
+    boolean offer(BaseEvent event) {
+        return !prepare(event) || blockingQueue.offer(event);
+    }
+
+    /**
+     * Method that attaches this client to event received from it, claiming
+     * the user name of a LogInEvent
+     *
+     * @param event event received from the client
+     * @return false if the event should not be passed to the Controller
+     */
+    private boolean prepare(BaseEvent event) {
+        if (event instanceof LogInEvent && !claimUserName((LogInEvent) event))
+            return false;
+
+        event.setClientManager(this);
+        event.markEnqueued();
+        return true;
+    }
+
+    /**
+     * Method that returns address of the client, for the Flight Recorder
+     *
+     * @return remote address of the connection
+     */
+    String getRemoteAddress() {
+        return connection.getRemoteAddress();
+    }
+
     /**
      * Method that tries to log out user by adding LogOutEvent to the
      * blockingQueue
@@ -150,8 +461,10 @@ public class ClientManager extends Thread {
         if (!stopFlag)
             return;
 
-        BaseEvent event = new LogOutEvent();
+        LogOutEvent event = new LogOutEvent();
+        event.setConnectionLost();
         event.setClientManager(this);
+        event.markEnqueued();
         try {
             blockingQueue.put(event);
         } catch (InterruptedException e) {
@@ -0,0 +1,370 @@
+package controller;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Connection between a client and the server, over TCP or over a Unix domain
+ * socket. Unix domain sockets are used by processes on the same host, e.g.
+ * bots and sidecars, to skip the loopback TCP stack
+ *
+ * @author Michal
+ */
+public abstract class Connection {
+    /**
+     * prefix of a host name that selects a Unix domain socket, followed by
+     * the path of the socket, e.g. "unix:/tmp/chat.sock"
+     */
+    public static final String UNIX_PREFIX = "unix:";
+    /**
+     * prefix of a host name that selects a room of a sharded deployment,
+     * followed by the name of the room and the host of the directory, e.g.
+     * "room:general@localhost", then the port is the port of the directory
+     */
+    public static final String ROOM_PREFIX = "room:";
+
+    /**
+     * Method that connects to the server. A host starting with "unix:"
+     * selects the Unix domain socket at the path following it, then the port
+     * is ignored. A host starting with "room:" selects a room, which is
+     * looked up in the directory on every connection, so a client that
+     * reconnects follows the room when it moves to another node
+     *
+     * @param host name of the host, path of the Unix domain socket or room
+     *             with the host of the directory
+     * @param port TCP port of the server or of the directory
+     * @return open connection
+     * @throws IOException when connection attempt fails
+     */
+    public static Connection open(String host, int port) throws IOException {
+        if (host.startsWith(UNIX_PREFIX))
+            return open(Paths.get(host.substring(UNIX_PREFIX.length())));
+        if (host.startsWith(ROOM_PREFIX)) {
+            int at = host.lastIndexOf('@');
+            if (at < 0)
+                throw new IOException("Directory host expected in " + host);
+            InetSocketAddress room = RoomDirectory.resolve(host.substring(ROOM_PREFIX.length(), at),
+                    new InetSocketAddress(host.substring(at + 1), port));
+            return new TcpConnection(new Socket(room.getAddress(), room.getPort()));
+        }
+
+        return new TcpConnection(new Socket(host, port));
+    }
+
+    /**
+     * Method that connects to the server listening on a Unix domain socket
+     *
+     * @param path path of the socket
+     * @return open connection
+     * @throws IOException when connection attempt fails
+     */
+    public static Connection open(Path path) throws IOException {
+        return new UnixConnection(SocketChannel.open(UnixDomainSocketAddress.of(path)));
+    }
+
+    /**
+     * Method that wraps TCP socket accepted by a listener
+     *
+     * @param socket connected socket
+     * @return connection over the socket
+     */
+    static Connection of(Socket socket) {
+        return new TcpConnection(socket);
+    }
+
+    /**
+     * Method that wraps Unix domain socket channel accepted by a listener
+     *
+     * @param channel connected channel
+     * @return connection over the channel
+     */
+    static Connection of(SocketChannel channel) {
+        return new UnixConnection(channel);
+    }
+
+    /**
+     * Method that returns stream from which data sent by the other side is
+     * read
+     *
+     * @return input stream of the connection
+     * @throws IOException if the connection is closed
+     */
+    public abstract InputStream getInputStream() throws IOException;
+
+    /**
+     * Method that returns stream to which data for the other side is written
+     *
+     * @return output stream of the connection
+     * @throws IOException if the connection is closed
+     */
+    public abstract OutputStream getOutputStream() throws IOException;
+
+    /**
+     * Method that sets time after which a read waiting for data fails
+     *
+     * @param timeout time in ms, 0 if reads wait forever
+     * @throws IOException if the timeout cannot be set
+     */
+    public abstract void setReadTimeout(int timeout) throws IOException;
+
+    /**
+     * Method that returns network address of the other side, used to limit
+     * connections per address
+     *
+     * @return address of the other side, null if the connection is local
+     */
+    public abstract InetAddress getInetAddress();
+
+    /**
+     * Method that describes address of the other side
+     *
+     * @return printable address of the other side
+     */
+    public abstract String getRemoteAddress();
+
+    /**
+     * Method that closes the connection and its streams
+     *
+     * @throws IOException if the connection cannot be closed
+     */
+    public abstract void close() throws IOException;
+
+    /**
+     * Connection over a TCP socket. Nagle's algorithm is disabled, because
+     * object streams write a message in several small parts, which would wait
+     * for delayed acknowledgements
+     *
+     * @author Michal
+     */
+    private static class TcpConnection extends Connection {
+        /**
+         * connected socket
+         */
+        private final Socket socket;
+
+        /**
+         * Constructor
+         *
+         * @param socket connected socket
+         */
+        TcpConnection(Socket socket) {
+            this.socket = socket;
+            try {
+                socket.setTcpNoDelay(true);
+            } catch (IOException ignored) {
+            }
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            return socket.getInputStream();
+        }
+
+        @Override
+        public OutputStream getOutputStream() throws IOException {
+            return socket.getOutputStream();
+        }
+
+        @Override
+        public void setReadTimeout(int timeout) throws IOException {
+            socket.setSoTimeout(timeout);
+        }
+
+        @Override
+        public InetAddress getInetAddress() {
+            return socket.getInetAddress();
+        }
+
+        @Override
+        public String getRemoteAddress() {
+            return String.valueOf(socket.getRemoteSocketAddress());
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+
+    /**
+     * Connection over a Unix domain socket. The channel blocks, unless a read
+     * timeout is set: channels don't support timeouts, so then the channel is
+     * switched to non-blocking mode and reads and writes wait on selectors.
+     * Reading and writing can be done by two threads at the same time
+     *
+     * @author Michal
+     */
+    private static class UnixConnection extends Connection {
+        /**
+         * size in bytes of the buffer of the input stream
+         */
+        private static final int BUFFER_SIZE = 8192;
+        /**
+         * connected channel
+         */
+        private final SocketChannel channel;
+        /**
+         * buffered stream reading from the channel
+         */
+        private final InputStream inputStream;
+        /**
+         * stream writing to the channel
+         */
+        private final OutputStream outputStream;
+        /**
+         * selector waiting until the channel can be read, null if the channel
+         * blocks
+         */
+        private Selector readSelector;
+        /**
+         * selector waiting until the channel can be written, null if the
+         * channel blocks
+         */
+        private Selector writeSelector;
+        /**
+         * time in ms after which a read waiting for data fails, 0 if it waits
+         * forever
+         */
+        private volatile int readTimeout;
+
+        /**
+         * Constructor
+         *
+         * @param channel connected channel
+         */
+        UnixConnection(SocketChannel channel) {
+            this.channel = channel;
+            inputStream = new BufferedInputStream(new ChannelInputStream(), BUFFER_SIZE);
+            outputStream = new ChannelOutputStream();
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return inputStream;
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return outputStream;
+        }
+
+        /**
+         * Method that sets time after which a read waiting for data fails. It
+         * should be invoked before the streams are used
+         *
+         * @param timeout time in ms, 0 if reads wait forever
+         * @throws IOException if selectors cannot be opened
+         */
+        @Override
+        public synchronized void setReadTimeout(int timeout) throws IOException {
+            if (timeout > 0 && readSelector == null) {
+                channel.configureBlocking(false);
+                readSelector = Selector.open();
+                channel.register(readSelector, SelectionKey.OP_READ);
+                writeSelector = Selector.open();
+                channel.register(writeSelector, SelectionKey.OP_WRITE);
+            }
+            readTimeout = timeout;
+        }
+
+        @Override
+        public InetAddress getInetAddress() {
+            return null;
+        }
+
+        @Override
+        public String getRemoteAddress() {
+            try {
+                return UNIX_PREFIX + channel.getRemoteAddress();
+            } catch (IOException e) {
+                return UNIX_PREFIX;
+            }
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            channel.close();
+            if (readSelector != null) {
+                readSelector.close();
+                writeSelector.close();
+            }
+        }
+
+        /**
+         * Stream reading from the channel
+         *
+         * @author Michal
+         */
+        private class ChannelInputStream extends InputStream {
+            @Override
+            public int read() throws IOException {
+                byte[] b = new byte[1];
+                return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (len == 0)
+                    return 0;
+
+                ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+                int count = channel.read(buffer);
+                // only a non-blocking channel reads nothing
+                while (count == 0) {
+                    if (readSelector.select(readTimeout) == 0)
+                        throw new SocketTimeoutException("Read timed out");
+                    readSelector.selectedKeys().clear();
+                    count = channel.read(buffer);
+                }
+                return count;
+            }
+
+            @Override
+            public void close() throws IOException {
+                UnixConnection.this.close();
+            }
+        }
+
+        /**
+         * Stream writing to the channel
+         *
+         * @author Michal
+         */
+        private class ChannelOutputStream extends OutputStream {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[]{(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+                while (buffer.hasRemaining()) {
+                    // only a non-blocking channel writes nothing
+                    if (channel.write(buffer) == 0) {
+                        writeSelector.select();
+                        writeSelector.selectedKeys().clear();
+                    }
+                }
+            }
+
+            @Override
+            public void close() throws IOException {
+                UnixConnection.this.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package controller;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Listener accepting connections of clients, on a TCP port or on a Unix
+ * domain socket. The ServerManager can accept clients from several listeners
+ *
+ * @author Michal
+ */
+public abstract class ConnectionListener {
+    /**
+     * Method that starts listening on a TCP port
+     *
+     * @param port    port on which clients are accepted
+     * @param backlog maximum number of connections waiting to be accepted
+     * @return listener of the port
+     * @throws IOException when the port cannot be bound
+     */
+    public static ConnectionListener listen(int port, int backlog) throws IOException {
+        return new TcpListener(new ServerSocket(port, backlog));
+    }
+
+    /**
+     * Method that starts listening on a Unix domain socket with the backlog
+     * of the admission control
+     *
+     * @param path path of the socket
+     * @return listener of the socket
+     * @throws IOException when the socket cannot be bound
+     */
+    public static ConnectionListener listen(Path path) throws IOException {
+        return listen(path, AdmissionControl.BACKLOG);
+    }
+
+    /**
+     * Method that starts listening on a Unix domain socket. A file left at the
+     * path by a server that wasn't closed is replaced
+     *
+     * @param path    path of the socket
+     * @param backlog maximum number of connections waiting to be accepted
+     * @return listener of the socket
+     * @throws IOException when the socket cannot be bound
+     */
+    public static ConnectionListener listen(Path path, int backlog) throws IOException {
+        Files.deleteIfExists(path);
+        ServerSocketChannel channel = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        channel.bind(UnixDomainSocketAddress.of(path), backlog);
+        return new UnixListener(channel, path);
+    }
+
+    /**
+     * Method that waits for a client
+     *
+     * @return connection of the accepted client
+     * @throws IOException when accepting fails or the listener is closed
+     */
+    public abstract Connection accept() throws IOException;
+
+    /**
+     * Method that tells whether the listener has been closed
+     *
+     * @return true if the listener is closed
+     */
+    public abstract boolean isClosed();
+
+    /**
+     * Method that stops listening
+     *
+     * @throws IOException if the listener cannot be closed
+     */
+    public abstract void close() throws IOException;
+
+    /**
+     * Method that returns TCP port on which clients are accepted, e.g. an
+     * ephemeral port chosen by the system
+     *
+     * @return local port, -1 if the listener isn't on a TCP port
+     */
+    public int getLocalPort() {
+        return -1;
+    }
+
+    /**
+     * Listener on a TCP port
+     *
+     * @author Michal
+     */
+    private static class TcpListener extends ConnectionListener {
+        /**
+         * socket listening for clients
+         */
+        private final ServerSocket serverSocket;
+
+        /**
+         * Constructor
+         *
+         * @param serverSocket bound socket
+         */
+        TcpListener(ServerSocket serverSocket) {
+            this.serverSocket = serverSocket;
+        }
+
+        @Override
+        public Connection accept() throws IOException {
+            return Connection.of(serverSocket.accept());
+        }
+
+        @Override
+        public boolean isClosed() {
+            return serverSocket.isClosed();
+        }
+
+        @Override
+        public void close() throws IOException {
+            serverSocket.close();
+        }
+
+        @Override
+        public int getLocalPort() {
+            return serverSocket.getLocalPort();
+        }
+    }
+
+    /**
+     * Listener on a Unix domain socket. The file of the socket is removed when
+     * the listener is closed
+     *
+     * @author Michal
+     */
+    private static class UnixListener extends ConnectionListener {
+        /**
+         * channel listening for clients
+         */
+        private final ServerSocketChannel channel;
+        /**
+         * path of the socket
+         */
+        private final Path path;
+
+        /**
+         * Constructor
+         *
+         * @param channel bound channel
+         * @param path    path of the socket
+         */
+        UnixListener(ServerSocketChannel channel, Path path) {
+            this.channel = channel;
+            this.path = path;
+        }
+
+        @Override
+        public Connection accept() throws IOException {
+            return Connection.of(channel.accept());
+        }
+
+        @Override
+        public boolean isClosed() {
+            return !channel.isOpen();
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+            Files.deleteIfExists(path);
+        }
+    }
+}
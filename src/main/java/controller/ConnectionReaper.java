@@ -0,0 +1,111 @@
+package controller;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import events.HeartbeatEvent;
+
+/**
+ * Thread that watches connections of all clients. Every client is checked
+ * once per heartbeat interval using a timer wheel: a client that has been
+ * silent for longer than the heartbeat timeout, or hasn't logged in within the
+ * login timeout, is logged out and its connection is closed, a client to which
+ * nothing has been sent for the interval receives a heartbeat. Reading threads only update timestamps of
+ * their clients, so no lock is taken on the hot path
+ *
+ * @author Michal
+ */
+class ConnectionReaper extends Thread {
+    /**
+     * time in ms of one tick of the wheel
+     */
+    private static final int TICK_MILISECONDS = 100;
+    /**
+     * number of slots of the wheel, enough to schedule every check without
+     * additional rounds
+     */
+    private static final int SLOTS_COUNT = 128;
+    /**
+     * wheel with scheduled checks of clients, used only by this thread
+     */
+    private final TimerWheel<ClientManager> wheel;
+    /**
+     * clients registered since the last tick
+     */
+    private final Queue<ClientManager> newClients;
+    /**
+     * boolean value telling if watching clients should stop
+     */
+    private volatile boolean stopped;
+
+    /**
+     * Constructor
+     */
+    ConnectionReaper() {
+        wheel = new TimerWheel<>(SLOTS_COUNT, TICK_MILISECONDS);
+        newClients = new ConcurrentLinkedQueue<>();
+        setDaemon(true);
+    }
+
+    /**
+     * Method that starts watching connection of a client. It can be invoked
+     * from any thread
+     *
+     * @param client newly connected client
+     */
+    void register(ClientManager client) {
+        newClients.add(client);
+    }
+
+    /**
+     * Method that stops watching clients, e.g. when the server stops
+     * accepting them
+     */
+    void close() {
+        stopped = true;
+        interrupt();
+    }
+
+    /**
+     * Method that advances the wheel every tick and checks clients due in it,
+     * until this reaper is closed
+     */
+    @Override
+    public void run() {
+        long nextTick = System.currentTimeMillis();
+        while (!stopped) {
+            nextTick += wheel.getTickMilliseconds();
+            long sleep = nextTick - System.currentTimeMillis();
+            if (sleep > 0) {
+                try {
+                    Thread.sleep(sleep);
+                } catch (InterruptedException ignored) {
+                }
+            }
+
+            ClientManager client;
+            while ((client = newClients.poll()) != null)
+                wheel.schedule(client, HeartbeatEvent.INTERVAL);
+
+            for (ClientManager dueClient : wheel.advance())
+                check(dueClient);
+        }
+    }
+
+    private void check(ClientManager client) {
+        if (client.isClosed())
+            return;
+
+        long now = System.currentTimeMillis();
+        if (now - client.getLastReadTime() >= HeartbeatEvent.TIMEOUT
+                || !client.getLoginFlag() && now - client.getConnectTime() >= AdmissionControl.LOGIN_TIMEOUT) {
+            client.logout();
+            client.close();
+            return;
+        }
+
+        if (now - client.getLastSendTime() >= HeartbeatEvent.INTERVAL)
+            client.sendHeartbeat();
+        wheel.schedule(client, HeartbeatEvent.INTERVAL);
+    }
+}
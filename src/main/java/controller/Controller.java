@@ -1,18 +1,32 @@
 package controller;
 
 import java.util.concurrent.BlockingQueue;
+import java.util.List;
 import java.util.Map;
 import java.util.HashMap;
-import java.util.Date;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 import events.BaseEvent;
+import events.DirectMessageEvent;
+import events.HistoryRequestEvent;
 import events.LogInEvent;
 import events.LogOutEvent;
 import events.MessageEvent;
+import events.PeerDirectMessageEvent;
+import events.PeerMessageEvent;
+import events.PeerPresenceEvent;
 import events.ResendEvent;
+import events.SearchRequestEvent;
+import model.ChatState;
+import model.Cursor;
+import model.DirectMessage;
 import model.Message;
+import model.MessageTrace;
 import model.Model;
 import model.ChatState.UserStatus;
+import profiling.QueueWaitEvent;
+import profiling.StrategyEvent;
 
 /**
  * Class responsible for handling connection between the model-view using
@@ -41,6 +55,46 @@ public class Controller {
      * mapping ClientManagers to usernames stored in the model
      */
     private Map<ClientManager, String> clientToUserNameMap;
+    /**
+     * mapping usernames of logged in users to their connections, used to
+     * route private messages. It is accessed only by the thread of this
+     * controller
+     */
+    private Map<String, ClientManager> userNameToClientMap;
+    /**
+     * manager of links to federated nodes, null if this node is not federated
+     */
+    private PeerManager peerManager;
+    /**
+     * manager streaming changes to hot-standby followers, null if there are
+     * no followers
+     */
+    private ReplicationManager replicationManager;
+    /**
+     * sessions of logged in users, which can be resumed after connection loss
+     */
+    private SessionRegistry sessionRegistry;
+    /**
+     * strategy releasing names of users whose suspended sessions have expired
+     */
+    private SessionExpiryStrategy sessionExpiryStrategy;
+    /**
+     * thread indexing messages of the model and running searches
+     */
+    private SearchManager searchManager;
+    /**
+     * pool of threads that serve read-only requests from snapshots of the
+     * model
+     */
+    private ReadManager readManager;
+    /**
+     * thread handling events, null until this controller is started
+     */
+    private volatile Thread thread;
+    /**
+     * boolean value telling if this controller should stop handling events
+     */
+    private volatile boolean stopped;
 
     /**
      * Constructor
@@ -54,28 +108,115 @@ public class Controller {
         this.serverManager = serverManager;
         this.blockingQueue = blockingQueue;
 
-        clientToUserNameMap = new HashMap<>();
+        clientToUserNameMap = new ConcurrentHashMap<>();
+        userNameToClientMap = new HashMap<>();
+        sessionRegistry = new SessionRegistry();
+        sessionExpiryStrategy = new SessionExpiryStrategy();
+        searchManager = new SearchManager(model.createSearchIndex());
+        readManager = new ReadManager();
+        serverManager.setUserRegistry(model.getUserRegistry());
         eventsToStrategyMap = new HashMap<>();
         eventsToStrategyMap.put(LogInEvent.class, new LoginInStrategy());
         eventsToStrategyMap.put(LogOutEvent.class, new LogOutStrategy());
         eventsToStrategyMap.put(MessageEvent.class, new MessageStrategy());
+        eventsToStrategyMap.put(DirectMessageEvent.class, new DirectMessageStrategy());
         eventsToStrategyMap.put(ResendEvent.class, new ResendStrategy());
+        eventsToStrategyMap.put(HistoryRequestEvent.class, new HistoryRequestStrategy());
+        eventsToStrategyMap.put(SearchRequestEvent.class, new SearchRequestStrategy());
+        eventsToStrategyMap.put(PeerMessageEvent.class, new PeerMessageStrategy());
+        eventsToStrategyMap.put(PeerDirectMessageEvent.class, new PeerDirectMessageStrategy());
+        eventsToStrategyMap.put(PeerPresenceEvent.class, new PeerPresenceStrategy());
+        eventsToStrategyMap.put(ReplicationManager.FollowerJoinEvent.class, new FollowerJoinStrategy());
+    }
+
+    /**
+     * Method that makes this controller replicate accepted messages and
+     * presence of its users to federated nodes. It should be invoked before
+     * starting the controller
+     *
+     * @param peerManager manager of links to federated nodes
+     */
+    public void setPeerManager(PeerManager peerManager) {
+        this.peerManager = peerManager;
     }
 
     /**
-     * Method that listens for the blockingQueue and handles events
+     * Method that makes this controller stream appended messages and presence
+     * of its users to hot-standby followers. It should be invoked before
+     * starting the controller
+     *
+     * @param replicationManager manager streaming changes to followers
+     */
+    public void setReplicationManager(ReplicationManager replicationManager) {
+        this.replicationManager = replicationManager;
+    }
+
+    /**
+     * Method that starts indexing messages for searching and serving read-only
+     * requests, then listens for the blockingQueue and handles events until
+     * this controller is stopped. Waiting for an event ends when a suspended
+     * session expires, so that its user name is released on time
      */
     public void start() {
-        while (true) {
+        thread = Thread.currentThread();
+        searchManager.start();
+        readManager.start();
+        while (!stopped) {
             BaseEvent event;
             try {
-                event = blockingQueue.take();
+                event = blockingQueue.poll(sessionRegistry.getExpiryDelay(), TimeUnit.MILLISECONDS);
             } catch (InterruptedException e) {
                 continue;
             }
 
-            getStrategy(event).execute(event);
+            sessionExpiryStrategy.expire();
+            if (event == null)
+                continue;
+
+            ServerStrategy strategy = getStrategy(event);
+            if (strategy == null)
+                continue;
+
+            recordQueueWait(event);
+            StrategyEvent strategyEvent = new StrategyEvent();
+            strategyEvent.begin();
+            strategy.execute(event);
+            if (strategyEvent.shouldCommit()) {
+                strategyEvent.eventType = event.getClass().getSimpleName();
+                strategyEvent.commit();
+            }
         }
+        searchManager.close();
+        readManager.close();
+    }
+
+    /**
+     * Method that makes this controller stop handling events, e.g. when its
+     * room is closed. Events left in the blockingQueue are not handled. It
+     * can be invoked from any thread
+     */
+    public void stop() {
+        stopped = true;
+        Thread controllerThread = thread;
+        if (controllerThread != null)
+            controllerThread.interrupt();
+    }
+
+    /**
+     * Method that records for the Flight Recorder how long given event has
+     * been waiting in the blockingQueue
+     *
+     * @param event event that has just been taken from the queue
+     */
+    private void recordQueueWait(BaseEvent event) {
+        QueueWaitEvent waitEvent = new QueueWaitEvent();
+        if (!waitEvent.isEnabled() || event.getEnqueueTime() == 0)
+            return;
+
+        waitEvent.eventType = event.getClass().getSimpleName();
+        waitEvent.lane = PriorityLaneQueue.laneOf(event).name();
+        waitEvent.waitTime = System.nanoTime() - event.getEnqueueTime();
+        waitEvent.commit();
     }
 
     private ServerStrategy getStrategy(BaseEvent event) {
@@ -98,6 +239,18 @@ public class Controller {
         void sendBroadcast(UserStatus status) {
             serverManager.broadcast(model.getChatStateWithRecentMessages(status));
         }
+
+        void relayPresence() {
+            if (peerManager != null)
+                peerManager.relayPresence(model.getLocalUserNames());
+            if (replicationManager != null)
+                replicationManager.relayPresence(model.getLocalUserNames());
+        }
+
+        void replicateMessage(Message message) {
+            if (replicationManager != null)
+                replicationManager.relayMessage(message);
+        }
     }
 
     /**
@@ -107,9 +260,13 @@ public class Controller {
      */
     private class LoginInStrategy extends ServerStrategy {
         /**
-         * Method that is invoked in response to LogInEvent. It checks
-         * conrrectness of entering username using the model, adds (or not) the
-         * user, and sends status update to all users
+         * Method that is invoked in response to LogInEvent. If the user
+         * resumes his session, the connection that still holds it is dropped
+         * and the user takes over the name kept by the session. Otherwise it
+         * claims the username in the model, unless the thread reading from
+         * the client has already done it. Then it checks the limit of logged
+         * in users, adds (or not) the user, and sends status update to all
+         * users
          *
          * @param e LogInEvent to be handled
          */
@@ -119,25 +276,67 @@ public class Controller {
 
                 LogInEvent event = (LogInEvent) e;
                 ClientManager client = event.getClientManager();
-                if (model.isUserNameAllowed(event.getUserName()))
-                    loginUser(event, client);
-                else
-                    removeUser(client);
+                SessionRegistry.Session session = sessionRegistry.find(event.getSessionToken(), event.getUserName());
+                if (session != null && session.getClient() != null && session.getClient() != client)
+                    dropStaleClient(session.getClient());
+
+                // a resumed session keeps its name claimed
+                if (session == null && !event.isUserNameClaimed() && !model.claimUserName(event.getUserName()))
+                    removeUser(client, UserStatus.USERNAME_REJECTED);
+                else if (!serverManager.isLoginAllowed(clientToUserNameMap.size())) {
+                    if (session == null)
+                        model.removeUser(event.getUserName());
+                    removeUser(client, UserStatus.SERVER_FULL);
+                } else
+                    loginUser(event, client, session);
             }
         }
 
-        private void loginUser(LogInEvent event, ClientManager client) {
+        private void loginUser(LogInEvent event, ClientManager client, SessionRegistry.Session session) {
             String username = event.getUserName();
-            model.addUser(username);
+            relayPresence();
             sendBroadcast(UserStatus.JUST_WORKING);
             clientToUserNameMap.put(client, username);
+            userNameToClientMap.put(username, client);
             client.setLoginFlag();
-            client.send(model.getChatStateWithRecentMessages(UserStatus.LOGGED_IN));
+            serverManager.loginAccepted(client);
+
+            // user who lost connection gets only the messages he is missing
+            ChatState state;
+            Cursor resumeCursor = event.getResumeCursor();
+            if (resumeCursor != null && model.containsMessage(resumeCursor))
+                state = model.getChatStateWithAllMessages(resumeCursor, UserStatus.LOGGED_IN);
+            else
+                state = model.getChatStateWithRecentMessages(UserStatus.LOGGED_IN);
+            client.send(state.withSessionToken(sessionRegistry.open(username, client, session)));
+        }
+
+        /**
+         * Method that removes connection which still holds the session of a
+         * user who logs in again, most likely because the server hasn't
+         * noticed yet that the connection is dead. The session is suspended
+         * and keeps the user name for the user
+         *
+         * @param staleClient connection to be removed
+         */
+        private void dropStaleClient(ClientManager staleClient) {
+            sessionRegistry.suspend(staleClient);
+            String username = clientToUserNameMap.remove(staleClient);
+            if (username != null)
+                userNameToClientMap.remove(username, staleClient);
+            serverManager.removeClient(staleClient);
+            staleClient.close();
         }
 
-        private void removeUser(ClientManager client) {
+        /**
+         * Method that rejects login of given client and closes its connection
+         *
+         * @param client rejected client
+         * @param status reason of rejection
+         */
+        private void removeUser(ClientManager client, UserStatus status) {
             serverManager.removeClient(client);
-            sendBroadcast(UserStatus.USERNAME_REJECTED);
+            client.send(ChatState.rejection(status));
             client.close();
         }
     }
@@ -152,7 +351,10 @@ public class Controller {
          * Method that is invoked in response to LogOutEvent. It disconnects the
          * user from the server, resends update to him saying that log out
          * succeeded and resends update to all without this user mentioned in
-         * the logged in users status
+         * the logged in users status. Session of a user who lost connection is
+         * kept with his name, so that he can resume it, and the name is
+         * released when the session expires. Connection that has never logged
+         * in is only closed
          */
         @Override
         public void execute(BaseEvent e) {
@@ -161,16 +363,65 @@ public class Controller {
 
             LogOutEvent event = (LogOutEvent) e;
             ClientManager client = event.getClientManager();
-            String username = clientToUserNameMap.get(client);
-            clientToUserNameMap.remove(client);
-            model.removeUser(username);
+            boolean suspended = false;
+            if (event.isConnectionLost())
+                suspended = sessionRegistry.suspend(client);
+            else
+                sessionRegistry.close(client);
+
+            String username = clientToUserNameMap.remove(client);
+            if (username == null) {
+                // client that never logged in doesn't change the state of the chat
+                serverManager.removeClient(client);
+                client.close();
+                return;
+            }
+
+            userNameToClientMap.remove(username, client);
             serverManager.removeClient(client);
+            if (suspended) {
+                // the name stays claimed, so nothing changes for other users
+                client.close();
+                return;
+            }
+
+            model.removeUser(username);
+            relayPresence();
             client.send(model.getChatStateWithRecentMessages(UserStatus.LOGGED_OUT));
             client.close();
             sendBroadcast(UserStatus.JUST_WORKING);
         }
     }
 
+    /**
+     * Strategy that releases names of users whose suspended sessions have
+     * expired. It isn't mapped to any event, the Controller invokes it
+     * whenever it wakes up
+     *
+     * @author Michal
+     */
+    private class SessionExpiryStrategy extends ServerStrategy {
+        @Override
+        public void execute(BaseEvent event) {
+            expire();
+        }
+
+        /**
+         * Method that releases names kept by expired sessions and sends
+         * status update to all users if there were any
+         */
+        void expire() {
+            List<String> userNames = sessionRegistry.removeExpired();
+            if (userNames.isEmpty())
+                return;
+
+            for (String userName : userNames)
+                model.removeUser(userName);
+            relayPresence();
+            sendBroadcast(UserStatus.JUST_WORKING);
+        }
+    }
+
     /**
      * Strategy that handles MessageEvent
      *
@@ -195,16 +446,147 @@ public class Controller {
             if (!(client.getLoginFlag()))
                 return;
 
-            Date previousMessageDate = event.getPreviousMessageDate();
-            if (model.isCorrectDate(previousMessageDate))
+            Cursor previousMessageCursor = event.getPreviousMessageCursor();
+            if (model.isUpToDate(previousMessageCursor))
                 addMessage(event, client);
             else
-                client.send(model.getChatStateWithAllMessages(previousMessageDate, UserStatus.MESSAGE_REJECTED));
+                client.send(model.getChatStateWithAllMessages(previousMessageCursor, UserStatus.MESSAGE_REJECTED));
         }
 
         private void addMessage(MessageEvent event, ClientManager client) {
-            Message message = new Message(clientToUserNameMap.get(client), new Date(), event.getMessageString());
+            MessageTrace trace = event.getTrace() == null ? null : new MessageTrace(event.getTrace());
+            Message message = model.createMessage(clientToUserNameMap.get(client), event.getMessageString(), trace);
             model.addMessage(message);
+            if (trace != null)
+                trace.stampServerBroadcast();
+            sendBroadcast(UserStatus.JUST_WORKING);
+            replicateMessage(message);
+            if (peerManager != null)
+                peerManager.relayMessage(message);
+        }
+    }
+
+    /**
+     * Strategy that handles DirectMessageEvent
+     *
+     * @author Michal
+     */
+    private class DirectMessageStrategy extends ServerStrategy {
+        /**
+         * Method that is invoked in response to DirectMessageEvent. It finds
+         * the connection of the recipient by his name and sends the message
+         * only to him, or to the federated node he is logged in to, then
+         * confirms to the author whether the message was delivered. Private
+         * messages are not stored in the model
+         *
+         * @param e DirectMessageEvent to be handled
+         */
+        @Override
+        public void execute(BaseEvent e) {
+            if (!(e instanceof DirectMessageEvent))
+                return;
+
+            DirectMessageEvent event = (DirectMessageEvent) e;
+            ClientManager client = event.getClientManager();
+            if (!(client.getLoginFlag()))
+                return;
+
+            Message message = model.createMessage(clientToUserNameMap.get(client), event.getMessageString(), null);
+            ClientManager recipient = userNameToClientMap.get(event.getRecipient());
+            DirectMessage directMessage;
+            if (recipient != null && recipient.getLoginFlag()) {
+                directMessage = new DirectMessage(message, event.getRecipient(), true);
+                if (recipient != client)
+                    recipient.sendDirectMessage(directMessage);
+            } else {
+                Integer nodeId = peerManager == null ? null : model.getUserRegistry().findNodeOf(event.getRecipient());
+                boolean forwarded = nodeId != null
+                        && peerManager.sendDirectMessage(nodeId, new DirectMessage(message, event.getRecipient(), true));
+                directMessage = new DirectMessage(message, event.getRecipient(), forwarded);
+            }
+            client.sendDirectMessage(directMessage);
+        }
+    }
+
+    /**
+     * Strategy that handles PeerDirectMessageEvent
+     *
+     * @author Michal
+     */
+    private class PeerDirectMessageStrategy extends ServerStrategy {
+        /**
+         * Method that is invoked in response to PeerDirectMessageEvent. A
+         * private message sent by federated node is sent to its recipient,
+         * or returned as not delivered if he isn't logged in to this node any
+         * more. A returned message is sent to its author. Events read from
+         * clients are ignored
+         *
+         * @param e PeerDirectMessageEvent to be handled
+         */
+        @Override
+        public void execute(BaseEvent e) {
+            if (!(e instanceof PeerDirectMessageEvent) || e.getClientManager() != null)
+                return;
+
+            PeerDirectMessageEvent event = (PeerDirectMessageEvent) e;
+            DirectMessage directMessage = event.getDirectMessage();
+            String userName = directMessage.isDelivered() ? directMessage.getRecipient()
+                    : directMessage.getMessage().getAuthor();
+            ClientManager client = userNameToClientMap.get(userName);
+            if (client != null && client.getLoginFlag())
+                client.sendDirectMessage(directMessage);
+            else if (directMessage.isDelivered() && peerManager != null)
+                peerManager.sendDirectMessage(event.getNodeId(),
+                        new DirectMessage(directMessage.getMessage(), directMessage.getRecipient(), false));
+        }
+    }
+
+    /**
+     * Strategy that handles PeerMessageEvent
+     *
+     * @author Michal
+     */
+    private class PeerMessageStrategy extends ServerStrategy {
+        /**
+         * Method that is invoked in response to PeerMessageEvent. It adds the
+         * message replicated by federated node or by the leader to the model,
+         * resends status update to all local users and streams the message to
+         * followers. Events read from clients are ignored
+         *
+         * @param e PeerMessageEvent to be handled
+         */
+        @Override
+        public void execute(BaseEvent e) {
+            if (!(e instanceof PeerMessageEvent) || e.getClientManager() != null)
+                return;
+
+            Message message = ((PeerMessageEvent) e).getMessage();
+            model.addMessage(message);
+            sendBroadcast(UserStatus.JUST_WORKING);
+            replicateMessage(message);
+        }
+    }
+
+    /**
+     * Strategy that handles PeerPresenceEvent
+     *
+     * @author Michal
+     */
+    private class PeerPresenceStrategy extends ServerStrategy {
+        /**
+         * Method that is invoked in response to PeerPresenceEvent. It replaces
+         * users of federated node in the model and resends status update to
+         * all local users. Events read from clients are ignored
+         *
+         * @param e PeerPresenceEvent to be handled
+         */
+        @Override
+        public void execute(BaseEvent e) {
+            if (!(e instanceof PeerPresenceEvent) || e.getClientManager() != null)
+                return;
+
+            PeerPresenceEvent event = (PeerPresenceEvent) e;
+            model.setRemoteUsers(event.getNodeId(), event.getUserNames());
             sendBroadcast(UserStatus.JUST_WORKING);
         }
     }
@@ -216,9 +598,10 @@ public class Controller {
      */
     private class ResendStrategy extends ServerStrategy {
         /**
-         * Method that is invoked in response to ResendEvent. It sends a status
-         * update to the author of this event with all the messages that he is
-         * missing (based on the date he gave in the ResendEvent)
+         * Method that is invoked in response to ResendEvent. The ReadManager
+         * sends a status update to the author of this event with all the
+         * messages that he is missing (based on the position he gave in the
+         * ResendEvent), read from the current snapshot of the model
          */
         @Override
         public void execute(BaseEvent e) {
@@ -230,7 +613,81 @@ public class Controller {
             if (!(client.getLoginFlag()))
                 return;
 
-            client.send(model.getChatStateWithAllMessages(event.getLastMessageDate(), UserStatus.JUST_WORKING));
+            readManager.read(event, model.publishSnapshot());
+        }
+    }
+
+    /**
+     * Strategy that handles HistoryRequestEvent
+     *
+     * @author Michal
+     */
+    private class HistoryRequestStrategy extends ServerStrategy {
+        /**
+         * Method that is invoked in response to HistoryRequestEvent. The
+         * ReadManager sends to the author of this event the requested page of
+         * messages, read from the current snapshot of the model
+         */
+        @Override
+        public void execute(BaseEvent e) {
+            if (!(e instanceof HistoryRequestEvent))
+                return;
+
+            HistoryRequestEvent event = (HistoryRequestEvent) e;
+            ClientManager client = event.getClientManager();
+            if (!(client.getLoginFlag()))
+                return;
+
+            readManager.read(event, model.publishSnapshot());
+        }
+    }
+
+    /**
+     * Strategy that handles SearchRequestEvent
+     *
+     * @author Michal
+     */
+    private class SearchRequestStrategy extends ServerStrategy {
+        /**
+         * Method that is invoked in response to SearchRequestEvent. The search
+         * is passed to the SearchManager, which sends the result to the author
+         * of this event
+         */
+        @Override
+        public void execute(BaseEvent e) {
+            if (!(e instanceof SearchRequestEvent))
+                return;
+
+            SearchRequestEvent event = (SearchRequestEvent) e;
+            if (event.getClientManager().getLoginFlag())
+                searchManager.search(event);
+        }
+    }
+
+    /**
+     * Strategy that handles FollowerJoinEvent
+     *
+     * @author Michal
+     */
+    private class FollowerJoinStrategy extends ServerStrategy {
+        /**
+         * Method that is invoked in response to FollowerJoinEvent. It adds
+         * the follower to the live stream with the snapshot from which the
+         * messages it is missing are sent by another thread
+         *
+         * @param e FollowerJoinEvent to be handled
+         */
+        @Override
+        public void execute(BaseEvent e) {
+            if (!(e instanceof ReplicationManager.FollowerJoinEvent) || replicationManager == null)
+                return;
+
+            ReplicationManager.FollowerJoinEvent event = (ReplicationManager.FollowerJoinEvent) e;
+            if (event.getFollower() == null)
+                return;
+
+            replicationManager.addFollower(event.getFollower(), event.getCursor(), model.publishSnapshot(),
+                    model.getLocalUserNames());
         }
     }
 }
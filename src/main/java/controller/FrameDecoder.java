@@ -0,0 +1,256 @@
+package controller;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.StreamCorruptedException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.TreeSet;
+
+import events.HeartbeatEvent;
+import events.MessageEvent;
+import model.ChatState;
+import model.ChatState.UserStatus;
+import model.Cursor;
+import model.Message;
+import model.MessageTrace;
+
+/**
+ * Decoder of frames written by FrameEncoder, reading from one stream. Bytes
+ * are read into a buffer reused by every frame, in as large chunks as the
+ * stream gives, so a frame usually costs one read and no allocation except
+ * the decoded object itself. Every heartbeat is decoded as the same object.
+ * This class is not thread safe, the stream should be read by one thread
+ *
+ * @author Michal
+ */
+public final class FrameDecoder {
+    /**
+     * initial size in bytes of the buffer
+     */
+    private static final int INITIAL_CAPACITY = 8 * 1024;
+    /**
+     * object returned for every heartbeat, it must not be changed
+     */
+    private static final HeartbeatEvent HEARTBEAT = new HeartbeatEvent();
+    /**
+     * user statuses in order of their ordinals
+     */
+    private static final UserStatus[] USER_STATUSES = UserStatus.values();
+    /**
+     * stream from which frames are read
+     */
+    private final InputStream inputStream;
+    /**
+     * buffer with bytes read from the stream
+     */
+    private byte[] buffer;
+    /**
+     * position of the next byte to be decoded
+     */
+    private int position;
+    /**
+     * position after the last byte read from the stream
+     */
+    private int limit;
+    /**
+     * position after the last byte of the frame being decoded
+     */
+    private int frameEnd;
+
+    /**
+     * Constructor
+     *
+     * @param inputStream stream of a connection
+     */
+    public FrameDecoder(InputStream inputStream) {
+        this.inputStream = inputStream;
+        buffer = new byte[INITIAL_CAPACITY];
+    }
+
+    /**
+     * Method that reads the next frame and decodes its object, blocking until
+     * the whole frame arrives
+     *
+     * @return decoded object
+     * @throws IOException            if the stream is closed or the frame is
+     *                                malformed
+     * @throws ClassNotFoundException if a serialized object is of unknown
+     *                                class
+     */
+    public Object read() throws IOException, ClassNotFoundException {
+        fill(4);
+        int frameSize = readInt();
+        if (frameSize < 1 || frameSize > FrameEncoder.MAX_FRAME_SIZE)
+            throw new StreamCorruptedException("Invalid frame size " + frameSize);
+
+        fill(frameSize);
+        frameEnd = position + frameSize;
+        try {
+            byte type = buffer[position++];
+            switch (type) {
+                case FrameEncoder.HEARTBEAT:
+                    return HEARTBEAT;
+                case FrameEncoder.MESSAGE:
+                    return readMessageEvent();
+                case FrameEncoder.CHAT_STATE:
+                    return readChatState();
+                case FrameEncoder.SERIALIZED:
+                    return new ObjectInputStream(new ByteArrayInputStream(buffer, position, frameEnd - position))
+                            .readObject();
+                default:
+                    throw new StreamCorruptedException("Invalid frame type " + type);
+            }
+        } catch (IndexOutOfBoundsException e) {
+            throw new StreamCorruptedException("Frame shorter than its fields");
+        } finally {
+            // a frame of unknown content is skipped as a whole
+            position = frameEnd;
+        }
+    }
+
+    /**
+     * Method that decodes a message sent by a user
+     *
+     * @return decoded event
+     */
+    private MessageEvent readMessageEvent() {
+        MessageEvent event = new MessageEvent(readString());
+        if (readBoolean())
+            event.setPreviousMessageCursor(new Cursor(readLong(), readInt()));
+        event.setTrace(readTrace());
+        return event;
+    }
+
+    /**
+     * Method that decodes a state of the chat
+     *
+     * @return decoded state
+     */
+    private ChatState readChatState() {
+        UserStatus userStatus = USER_STATUSES[buffer[position++]];
+        boolean truncated = readBoolean();
+        String sessionToken = readString();
+        long namesVersion = readLong();
+        int nameCount = readCount();
+        TreeSet<String> names = new TreeSet<>();
+        for (int i = 0; i < nameCount; ++i)
+            names.add(readString());
+
+        int messageCount = readCount();
+        ArrayList<Message> messages = new ArrayList<>(messageCount);
+        for (int i = 0; i < messageCount; ++i) {
+            String author = readString();
+            long timestamp = readLong();
+            int nodeId = readInt();
+            String content = readString();
+            messages.add(new Message(author, timestamp, nodeId, content, readTrace()));
+        }
+        return ChatState.of(Collections.unmodifiableList(messages), Collections.unmodifiableSortedSet(names),
+                namesVersion, userStatus, sessionToken, truncated);
+    }
+
+    /**
+     * Method that decodes trace of a message, if there is one
+     *
+     * @return decoded trace, null if the message isn't traced
+     */
+    private MessageTrace readTrace() {
+        if (!readBoolean())
+            return null;
+
+        return new MessageTrace(readLong(), readLong(), readLong());
+    }
+
+    /**
+     * Method that decodes string written as its length and UTF-8 bytes
+     *
+     * @return decoded string, may be null
+     */
+    private String readString() {
+        int length = readInt();
+        if (length < 0)
+            return null;
+
+        if (length > frameEnd - position)
+            throw new IndexOutOfBoundsException();
+        String string = new String(buffer, position, length, StandardCharsets.UTF_8);
+        position += length;
+        return string;
+    }
+
+    /**
+     * Method that decodes number of elements, which cannot exceed the number
+     * of bytes left in the frame
+     *
+     * @return decoded number
+     */
+    private int readCount() {
+        int count = readInt();
+        if (count < 0 || count > frameEnd - position)
+            throw new IndexOutOfBoundsException();
+        return count;
+    }
+
+    /**
+     * Method that decodes boolean written as one byte
+     *
+     * @return decoded value
+     */
+    private boolean readBoolean() {
+        return buffer[position++] != 0;
+    }
+
+    /**
+     * Method that decodes int in big-endian order
+     *
+     * @return decoded value
+     */
+    private int readInt() {
+        int value = (buffer[position] & 0xFF) << 24 | (buffer[position + 1] & 0xFF) << 16
+                | (buffer[position + 2] & 0xFF) << 8 | buffer[position + 3] & 0xFF;
+        position += 4;
+        return value;
+    }
+
+    /**
+     * Method that decodes long in big-endian order
+     *
+     * @return decoded value
+     */
+    private long readLong() {
+        return (long) readInt() << 32 | readInt() & 0xFFFFFFFFL;
+    }
+
+    /**
+     * Method that reads from the stream until at least given number of bytes
+     * after the position is in the buffer. Decoded bytes are dropped first
+     * and the buffer grows only for a frame larger than it
+     *
+     * @param count number of needed bytes
+     * @throws IOException if the stream ends before
+     */
+    private void fill(int count) throws IOException {
+        if (limit - position >= count)
+            return;
+
+        if (position + count > buffer.length) {
+            byte[] target = count > buffer.length ? new byte[Math.max(count, 2 * buffer.length)] : buffer;
+            System.arraycopy(buffer, position, target, 0, limit - position);
+            buffer = target;
+            limit -= position;
+            position = 0;
+        }
+
+        while (limit - position < count) {
+            int read = inputStream.read(buffer, limit, buffer.length - limit);
+            if (read < 0)
+                throw new EOFException();
+            limit += read;
+        }
+    }
+}
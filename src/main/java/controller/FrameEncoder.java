@@ -0,0 +1,326 @@
+package controller;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import events.HeartbeatEvent;
+import events.MessageEvent;
+import model.ChatState;
+import model.Cursor;
+import model.Message;
+import model.MessageTrace;
+
+/**
+ * Encoder of objects exchanged between clients and the server into frames: the
+ * length of the rest of the frame, the type of the object and its fields.
+ * Heartbeats, messages sent by users and states of the chat, which make up
+ * almost all the traffic, are written field by field into a buffer reused by
+ * every frame, so encoding them allocates nothing. Other objects are
+ * serialized. A frame doesn't depend on the connection it is sent over, so a
+ * broadcast state is encoded once and the same bytes are written to every
+ * client. Encoders with their buffers are pooled
+ *
+ * @author Michal
+ */
+public final class FrameEncoder {
+    /**
+     * maximum size in bytes of a frame without its length
+     */
+    static final int MAX_FRAME_SIZE = 1 << 20;
+    /**
+     * type of a frame with a heartbeat
+     */
+    static final byte HEARTBEAT = 1;
+    /**
+     * type of a frame with a message sent by a user
+     */
+    static final byte MESSAGE = 2;
+    /**
+     * type of a frame with a state of the chat
+     */
+    static final byte CHAT_STATE = 3;
+    /**
+     * type of a frame with any other serialized object
+     */
+    static final byte SERIALIZED = 4;
+    /**
+     * initial size in bytes of the buffer
+     */
+    private static final int INITIAL_CAPACITY = 512;
+    /**
+     * size in bytes of buffers kept in the pool, larger ones are dropped
+     * after use
+     */
+    private static final int POOLED_MAX_CAPACITY = 64 * 1024;
+    /**
+     * maximum number of encoders kept in the pool
+     */
+    private static final int POOL_MAX_SIZE = 64;
+    /**
+     * encoders waiting to be reused. The queue is backed by an array, so
+     * returning an encoder allocates nothing
+     */
+    private static final BlockingQueue<FrameEncoder> POOL = new ArrayBlockingQueue<>(POOL_MAX_SIZE);
+    /**
+     * buffer with the encoded frame
+     */
+    private byte[] buffer;
+    /**
+     * number of bytes of the encoded frame
+     */
+    private int length;
+    /**
+     * stream writing serialized objects to the buffer
+     */
+    private final OutputStream bufferStream;
+
+    /**
+     * Constructor of an encoder that isn't pooled, e.g. of a client
+     */
+    public FrameEncoder() {
+        buffer = new byte[INITIAL_CAPACITY];
+        bufferStream = new OutputStream() {
+            @Override
+            public void write(int b) {
+                writeByte(b);
+            }
+
+            @Override
+            public void write(byte[] bytes, int offset, int count) {
+                ensureCapacity(count);
+                System.arraycopy(bytes, offset, buffer, length, count);
+                length += count;
+            }
+        };
+    }
+
+    /**
+     * Method that takes an encoder from the pool, or creates one if the pool
+     * is empty. It should be returned with release
+     *
+     * @return encoder for any number of frames
+     */
+    public static FrameEncoder acquire() {
+        FrameEncoder encoder = POOL.poll();
+        return encoder == null ? new FrameEncoder() : encoder;
+    }
+
+    /**
+     * Method that returns encoder to the pool. Encoders whose buffers have
+     * grown too large, or beyond the size of the pool, aren't kept
+     *
+     * @param encoder encoder that won't be used by the caller any more
+     */
+    public static void release(FrameEncoder encoder) {
+        if (encoder.buffer.length <= POOLED_MAX_CAPACITY)
+            POOL.offer(encoder);
+    }
+
+    /**
+     * Method that encodes object as a frame, replacing the previous one
+     *
+     * @param object object to be encoded
+     * @throws IOException if the object cannot be serialized or the frame is
+     *                     too large
+     */
+    public void encode(Object object) throws IOException {
+        length = 0;
+        writeInt(0);
+        if (object instanceof HeartbeatEvent)
+            writeByte(HEARTBEAT);
+        else if (object instanceof MessageEvent)
+            writeMessageEvent((MessageEvent) object);
+        else if (object instanceof ChatState)
+            writeChatState((ChatState) object);
+        else {
+            writeByte(SERIALIZED);
+            ObjectOutputStream objectOutputStream = new ObjectOutputStream(bufferStream);
+            objectOutputStream.writeObject(object);
+            objectOutputStream.flush();
+        }
+
+        int frameSize = length - 4;
+        if (frameSize > MAX_FRAME_SIZE)
+            throw new IOException("Frame of " + frameSize + " bytes is too large");
+        putInt(0, frameSize);
+    }
+
+    /**
+     * Method that writes the encoded frame to a stream in one write
+     *
+     * @param outputStream stream of a connection
+     * @throws IOException if the frame cannot be written
+     */
+    public void writeTo(OutputStream outputStream) throws IOException {
+        outputStream.write(buffer, 0, length);
+    }
+
+    /**
+     * Method that writes fields of a message sent by a user
+     *
+     * @param event message sent by a user
+     */
+    private void writeMessageEvent(MessageEvent event) {
+        writeByte(MESSAGE);
+        writeString(event.getMessageString());
+        Cursor cursor = event.getPreviousMessageCursor();
+        writeBoolean(cursor != null);
+        if (cursor != null) {
+            writeLong(cursor.getTimestamp());
+            writeInt(cursor.getNodeId());
+        }
+        writeTrace(event.getTrace());
+    }
+
+    /**
+     * Method that writes fields of a state of the chat
+     *
+     * @param state state of the chat
+     */
+    private void writeChatState(ChatState state) {
+        writeByte(CHAT_STATE);
+        writeByte(state.getUserStatus().ordinal());
+        writeBoolean(state.isTruncated());
+        writeString(state.getSessionToken());
+        writeLong(state.getNamesVersion());
+        writeInt(state.getLoggedInUserNames().size());
+        for (String name : state.getLoggedInUserNames())
+            writeString(name);
+
+        List<Message> messages = state.getMessages();
+        writeInt(messages.size());
+        for (int i = 0; i < messages.size(); ++i) {
+            Message message = messages.get(i);
+            writeString(message.getAuthor());
+            writeLong(message.getTimestamp());
+            writeInt(message.getNodeId());
+            writeString(message.getContent());
+            writeTrace(message.getTrace());
+        }
+    }
+
+    /**
+     * Method that writes timestamps of a trace, if there is one
+     *
+     * @param trace trace of a message, may be null
+     */
+    private void writeTrace(MessageTrace trace) {
+        writeBoolean(trace != null);
+        if (trace != null) {
+            writeLong(trace.getClientSendTime());
+            writeLong(trace.getServerReceiveTime());
+            writeLong(trace.getServerBroadcastTime());
+        }
+    }
+
+    /**
+     * Method that writes string as its length in bytes followed by its UTF-8
+     * bytes, without creating an intermediate array
+     *
+     * @param string written string, may be null
+     */
+    private void writeString(String string) {
+        if (string == null) {
+            writeInt(-1);
+            return;
+        }
+
+        int lengthPosition = length;
+        writeInt(0);
+        ensureCapacity(3 * string.length());
+        for (int i = 0; i < string.length(); ++i) {
+            char c = string.charAt(i);
+            if (c < 0x80)
+                buffer[length++] = (byte) c;
+            else if (c < 0x800) {
+                buffer[length++] = (byte) (0xC0 | c >> 6);
+                buffer[length++] = (byte) (0x80 | c & 0x3F);
+            } else if (Character.isHighSurrogate(c) && i + 1 < string.length()
+                    && Character.isLowSurrogate(string.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, string.charAt(++i));
+                buffer[length++] = (byte) (0xF0 | codePoint >> 18);
+                buffer[length++] = (byte) (0x80 | codePoint >> 12 & 0x3F);
+                buffer[length++] = (byte) (0x80 | codePoint >> 6 & 0x3F);
+                buffer[length++] = (byte) (0x80 | codePoint & 0x3F);
+            } else if (Character.isSurrogate(c))
+                // an unpaired surrogate is replaced, like by String.getBytes
+                buffer[length++] = '?';
+            else {
+                buffer[length++] = (byte) (0xE0 | c >> 12);
+                buffer[length++] = (byte) (0x80 | c >> 6 & 0x3F);
+                buffer[length++] = (byte) (0x80 | c & 0x3F);
+            }
+        }
+        putInt(lengthPosition, length - lengthPosition - 4);
+    }
+
+    /**
+     * Method that writes boolean as one byte
+     *
+     * @param value written value
+     */
+    private void writeBoolean(boolean value) {
+        writeByte(value ? 1 : 0);
+    }
+
+    /**
+     * Method that writes one byte
+     *
+     * @param value written byte in the lowest bits
+     */
+    private void writeByte(int value) {
+        ensureCapacity(1);
+        buffer[length++] = (byte) value;
+    }
+
+    /**
+     * Method that writes int in big-endian order
+     *
+     * @param value written value
+     */
+    private void writeInt(int value) {
+        ensureCapacity(4);
+        putInt(length, value);
+        length += 4;
+    }
+
+    /**
+     * Method that writes long in big-endian order
+     *
+     * @param value written value
+     */
+    private void writeLong(long value) {
+        writeInt((int) (value >>> 32));
+        writeInt((int) value);
+    }
+
+    /**
+     * Method that puts int in big-endian order at given position of the
+     * buffer
+     *
+     * @param position position of the first byte
+     * @param value    written value
+     */
+    private void putInt(int position, int value) {
+        buffer[position] = (byte) (value >>> 24);
+        buffer[position + 1] = (byte) (value >>> 16);
+        buffer[position + 2] = (byte) (value >>> 8);
+        buffer[position + 3] = (byte) value;
+    }
+
+    /**
+     * Method that grows the buffer, if needed, so that given number of bytes
+     * can be written
+     *
+     * @param count number of bytes to be written
+     */
+    private void ensureCapacity(int count) {
+        if (length + count > buffer.length)
+            buffer = Arrays.copyOf(buffer, Math.max(2 * buffer.length, length + count));
+    }
+}
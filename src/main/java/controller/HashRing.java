@@ -0,0 +1,109 @@
+package controller;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Immutable consistent-hash ring assigning rooms to server nodes. Every node
+ * is placed on the ring at a number of pseudo-random points, and a room
+ * belongs to the node of the first point at or after the hash of its name.
+ * Adding a node takes over only the rooms falling just before its points,
+ * about one in the number of nodes, and removing a node hands its rooms to
+ * the nodes after it, while all other rooms stay where they are. Hashes are
+ * computed the same way in every JVM, so the directory and the nodes agree on
+ * owners given the same members. The number of points of a node is
+ * configured with the system property chatroom.rooms.virtualNodes
+ *
+ * @author Michal
+ */
+public final class HashRing {
+    /**
+     * number of points of every node on the ring
+     */
+    private static final int VIRTUAL_NODES = Math.max(1, Integer.getInteger("chatroom.rooms.virtualNodes", 256));
+    /**
+     * ring without nodes
+     */
+    public static final HashRing EMPTY = new HashRing(Collections.emptyMap());
+    /**
+     * mapping ids of member nodes to their addresses
+     */
+    private final Map<Integer, String> nodeToAddressMap;
+    /**
+     * mapping points of the ring to ids of nodes placed at them
+     */
+    private final TreeMap<Long, Integer> pointToNodeMap;
+
+    /**
+     * Constructor
+     *
+     * @param nodeToAddressMap mapping ids of member nodes to their addresses,
+     *                         it is copied
+     */
+    public HashRing(Map<Integer, String> nodeToAddressMap) {
+        this.nodeToAddressMap = Collections.unmodifiableMap(new TreeMap<>(nodeToAddressMap));
+        pointToNodeMap = new TreeMap<>();
+        for (int nodeId : this.nodeToAddressMap.keySet()) {
+            for (int i = 0; i < VIRTUAL_NODES; ++i)
+                // on a rare collision the node with the lower id keeps the point
+                pointToNodeMap.putIfAbsent(hash(nodeId + "#" + i), nodeId);
+        }
+    }
+
+    /**
+     * Method that returns id of the node owning a room
+     *
+     * @param room name of the room
+     * @return id of the owner, -1 if the ring has no nodes
+     */
+    public int getOwner(String room) {
+        if (pointToNodeMap.isEmpty())
+            return -1;
+
+        Map.Entry<Long, Integer> entry = pointToNodeMap.ceilingEntry(hash(room));
+        return entry != null ? entry.getValue() : pointToNodeMap.firstEntry().getValue();
+    }
+
+    /**
+     * Method that returns address of a member node
+     *
+     * @param nodeId id of the node
+     * @return address of the node as host:port, null if it isn't a member
+     */
+    public String getAddress(int nodeId) {
+        return nodeToAddressMap.get(nodeId);
+    }
+
+    /**
+     * Method that returns member nodes
+     *
+     * @return unmodifiable mapping ids of nodes to their addresses, sorted by
+     * ids
+     */
+    public Map<Integer, String> getNodes() {
+        return nodeToAddressMap;
+    }
+
+    /**
+     * Method that computes position of a key on the ring: 64-bit FNV-1a of
+     * its characters, mixed by the finalizer of MurmurHash3 so that similar
+     * keys land far apart
+     *
+     * @param key name of a room or of a point of a node
+     * @return position on the ring
+     */
+    static long hash(String key) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); ++i) {
+            hash ^= key.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
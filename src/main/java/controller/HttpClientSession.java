@@ -0,0 +1,310 @@
+package controller;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+
+import com.sun.net.httpserver.HttpExchange;
+
+import events.BaseEvent;
+import model.ChatState;
+import model.Cursor;
+import model.Message;
+import model.UserRegistry;
+
+/**
+ * Client connected through the HTTP gateway. It is handled by the Controller
+ * like any other client, but objects sent to it are encoded as JSON and kept
+ * until the client polls for them. A poll with nothing to return is parked
+ * without any thread waiting for it: it is answered by the thread that sends
+ * the next update, or expired by the connection reaper
+ *
+ * @author Michal
+ */
+class HttpClientSession extends ClientManager {
+    /**
+     * maximum number of updates kept for a client that doesn't poll. A client
+     * that falls further behind is logged out
+     */
+    private static final int OUTBOX_MAX_SIZE = Integer.getInteger("chatroom.http.outboxMaxSize", 1000);
+    /**
+     * token identifying this session in requests
+     */
+    private final String token;
+    /**
+     * gateway that created this session
+     */
+    private final HttpGateway gateway;
+    /**
+     * address from which the session was opened
+     */
+    private final InetSocketAddress remoteAddress;
+    /**
+     * lock guarding the updates, the parked poll and the position of the last
+     * received message
+     */
+    private final Object lock;
+    /**
+     * lock making events of concurrent requests pass to the Controller one by
+     * one
+     */
+    private final Object receiveLock;
+    /**
+     * updates encoded as JSON, waiting for a poll
+     */
+    private List<String> outbox;
+    /**
+     * parked poll, null if the client isn't polling
+     */
+    private HttpExchange pendingExchange;
+    /**
+     * time in ms when the parked poll arrived
+     */
+    private long pendingSince;
+    /**
+     * time in ms of the last request of the client
+     */
+    private volatile long lastRequestTime;
+    /**
+     * position of the last message sent to the client, attached to the
+     * messages it sends
+     */
+    private Cursor lastMessageCursor;
+
+    /**
+     * Constructor
+     *
+     * @param token         token identifying the session
+     * @param gateway       gateway that creates the session
+     * @param remoteAddress address from which the session is opened
+     * @param blockingQueue queue to which events of the client are sent
+     * @param userRegistry  registry in which user names are claimed, null if
+     *                      the Controller should check them
+     */
+    HttpClientSession(String token, HttpGateway gateway, InetSocketAddress remoteAddress,
+                      BlockingQueue<BaseEvent> blockingQueue, UserRegistry userRegistry) {
+        super(blockingQueue, userRegistry);
+        this.token = token;
+        this.gateway = gateway;
+        this.remoteAddress = remoteAddress;
+        lock = new Object();
+        receiveLock = new Object();
+        outbox = new ArrayList<>();
+        lastRequestTime = System.currentTimeMillis();
+    }
+
+    /**
+     * Method that returns token identifying this session
+     *
+     * @return token of the session
+     */
+    String getToken() {
+        return token;
+    }
+
+    /**
+     * Method that returns position of the last message sent to the client
+     *
+     * @return position of the last message, null if none has been sent
+     */
+    Cursor getLastMessageCursor() {
+        synchronized (lock) {
+            return lastMessageCursor;
+        }
+    }
+
+    /**
+     * Method that passes event of a request to the Controller, one request at
+     * a time. It never waits, so a client sending too many requests can't
+     * hold the threads of the gateway
+     *
+     * @param event event created from the request
+     * @return false if too many events of this client are queued and the
+     * event has been dropped
+     */
+    @Override
+    boolean offer(BaseEvent event) {
+        lastRequestTime = System.currentTimeMillis();
+        synchronized (receiveLock) {
+            return super.offer(event);
+        }
+    }
+
+    /**
+     * Method that answers a poll with the waiting updates at once, or parks it
+     * until there are any. A poll parked before is answered with no updates
+     *
+     * @param exchange poll request
+     */
+    void poll(HttpExchange exchange) {
+        lastRequestTime = System.currentTimeMillis();
+        HttpExchange replacedExchange;
+        String batch = null;
+        synchronized (lock) {
+            replacedExchange = pendingExchange;
+            pendingExchange = null;
+            if (!outbox.isEmpty() || isClosed())
+                batch = takeBatch();
+            else {
+                pendingExchange = exchange;
+                pendingSince = lastRequestTime;
+            }
+        }
+
+        if (replacedExchange != null)
+            HttpGateway.respond(replacedExchange, 200, encodeBatch(new ArrayList<>(), false));
+        if (batch != null)
+            HttpGateway.respond(exchange, 200, batch);
+    }
+
+    /**
+     * Method that encodes object as an update for the client and answers the
+     * parked poll, if there is any. It can be invoked from any thread
+     *
+     * @param object object to be sent
+     * @return false if the session is closed or the client is too far behind
+     */
+    @Override
+    boolean write(Object object) {
+        String update = JsonEncoder.encodeUpdate(object);
+        if (update == null)
+            return true;
+
+        HttpExchange exchange = null;
+        String batch = null;
+        boolean overflow = false;
+        synchronized (lock) {
+            if (isClosed())
+                return false;
+
+            if (object instanceof ChatState) {
+                List<Message> messages = ((ChatState) object).getMessages();
+                if (!messages.isEmpty())
+                    lastMessageCursor = messages.get(messages.size() - 1).getCursor();
+            }
+
+            if (outbox.size() >= OUTBOX_MAX_SIZE)
+                overflow = true;
+            else {
+                outbox.add(update);
+                if (pendingExchange != null) {
+                    exchange = pendingExchange;
+                    pendingExchange = null;
+                    batch = takeBatch();
+                }
+            }
+        }
+
+        if (overflow) {
+            logout();
+            return false;
+        }
+        if (exchange != null)
+            HttpGateway.respond(exchange, 200, batch);
+        return true;
+    }
+
+    /**
+     * Method that encodes object as an update for the client, ignoring the
+     * frame encoded for clients connected with sockets
+     *
+     * @param object object to be sent
+     * @param frame  encoder holding the object encoded, not used
+     * @return false if the session is closed or the client is too far behind
+     */
+    @Override
+    boolean write(Object object, FrameEncoder frame) {
+        return write(object);
+    }
+
+    /**
+     * Method that expires the parked poll if it has waited for the poll
+     * timeout, instead of sending a heartbeat. It is invoked by the
+     * connection reaper
+     */
+    @Override
+    void sendHeartbeat() {
+        HttpExchange exchange = null;
+        synchronized (lock) {
+            if (pendingExchange != null && System.currentTimeMillis() - pendingSince >= HttpGateway.POLL_TIMEOUT) {
+                exchange = pendingExchange;
+                pendingExchange = null;
+            }
+        }
+        if (exchange != null)
+            HttpGateway.respond(exchange, 200, encodeBatch(new ArrayList<>(), false));
+    }
+
+    /**
+     * Method that returns time of the last request of the client. A client
+     * with a parked poll is always alive
+     *
+     * @return time in ms of the last request
+     */
+    @Override
+    long getLastReadTime() {
+        synchronized (lock) {
+            if (pendingExchange != null)
+                return System.currentTimeMillis();
+        }
+        return lastRequestTime;
+    }
+
+    @Override
+    String getRemoteAddress() {
+        return String.valueOf(remoteAddress);
+    }
+
+    /**
+     * Method that closes the session. The parked poll receives the last
+     * updates, updates that nobody polls for are dropped
+     */
+    @Override
+    public void close() {
+        super.close();
+        HttpExchange exchange;
+        String batch = null;
+        synchronized (lock) {
+            exchange = pendingExchange;
+            pendingExchange = null;
+            if (exchange != null)
+                batch = takeBatch();
+            outbox.clear();
+        }
+        gateway.removeSession(this);
+        if (exchange != null)
+            HttpGateway.respond(exchange, 200, batch);
+    }
+
+    /**
+     * Method that takes all waiting updates, should be invoked holding the
+     * lock
+     *
+     * @return JSON object with the updates
+     */
+    private String takeBatch() {
+        List<String> updates = outbox;
+        outbox = new ArrayList<>();
+        return encodeBatch(updates, isClosed());
+    }
+
+    /**
+     * Method that encodes answer to a poll
+     *
+     * @param updates updates encoded as JSON
+     * @param closed  true if the session is closed and the client shouldn't
+     *                poll any more
+     * @return JSON object with the token of the session and the updates
+     */
+    private String encodeBatch(List<String> updates, boolean closed) {
+        StringBuilder json = new StringBuilder("{\"session\":");
+        json.append(JsonEncoder.encodeString(token)).append(",\"closed\":").append(closed).append(",\"updates\":[");
+        for (int i = 0; i < updates.size(); ++i) {
+            if (i > 0)
+                json.append(',');
+            json.append(updates.get(i));
+        }
+        return json.append("]}").toString();
+    }
+}
@@ -0,0 +1,363 @@
+package controller;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.math.BigInteger;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import events.BaseEvent;
+import events.DirectMessageEvent;
+import events.LogInEvent;
+import events.LogOutEvent;
+import events.MessageEvent;
+import model.ChatState.UserStatus;
+
+/**
+ * Gateway that lets lightweight clients use the chat over HTTP, without Java
+ * serialization. Every session is a client of the ServerManager, so its
+ * requests become events in the same queue as events of other clients.
+ * Endpoints:
+ * POST /login with the user name as the body opens a session and answers like
+ * a poll, with the result of the login;
+ * GET /poll?session=token waits for updates of the session;
+ * POST /send?session=token with the text as the body sends a message;
+ * POST /msg?session=token&amp;to=name with the text as the body sends a private
+ * message;
+ * POST /logout?session=token logs the user out.
+ * Polls are answered with a JSON object with the token, the updates and a flag
+ * telling whether the session is closed. Waiting polls don't occupy threads,
+ * so a few threads serve all the sessions
+ *
+ * @author Michal
+ */
+public class HttpGateway {
+    /**
+     * number of threads handling requests
+     */
+    private static final int HANDLER_THREADS = Integer.getInteger("chatroom.http.threads", 4);
+    /**
+     * time in ms after which a poll without updates is answered with none
+     */
+    static final int POLL_TIMEOUT = Integer.getInteger("chatroom.http.pollTimeout", 25000);
+    /**
+     * maximum size in bytes of the body of a request
+     */
+    private static final int BODY_MAX_LENGTH = 4096;
+    /**
+     * number of random bits of a session token
+     */
+    private static final int TOKEN_BITS = 130;
+    /**
+     * server receiving requests
+     */
+    private final HttpServer httpServer;
+    /**
+     * manager to which sessions are added as clients
+     */
+    private final ServerManager serverManager;
+    /**
+     * queue to which events of sessions are sent
+     */
+    private final BlockingQueue<BaseEvent> blockingQueue;
+    /**
+     * mapping tokens to open sessions
+     */
+    private final Map<String, HttpClientSession> tokenToSessionMap;
+    /**
+     * source of session tokens
+     */
+    private final SecureRandom random;
+
+    /**
+     * Constructor
+     *
+     * @param port          port on which the gateway listens
+     * @param serverManager manager to which sessions are added as clients
+     * @param blockingQueue queue to which events of sessions are sent
+     * @throws IOException when the server cannot be created on selected port
+     */
+    public HttpGateway(int port, ServerManager serverManager, BlockingQueue<BaseEvent> blockingQueue)
+            throws IOException {
+        this.serverManager = serverManager;
+        this.blockingQueue = blockingQueue;
+        tokenToSessionMap = new ConcurrentHashMap<>();
+        random = new SecureRandom();
+        httpServer = HttpServer.create(new InetSocketAddress(port), AdmissionControl.BACKLOG);
+        httpServer.setExecutor(Executors.newFixedThreadPool(HANDLER_THREADS));
+        httpServer.createContext("/login", this::login);
+        httpServer.createContext("/poll", this::poll);
+        httpServer.createContext("/send", this::send);
+        httpServer.createContext("/msg", this::sendDirectMessage);
+        httpServer.createContext("/logout", this::logout);
+    }
+
+    /**
+     * Method that starts accepting requests
+     */
+    public void start() {
+        httpServer.start();
+    }
+
+    /**
+     * Method that forgets closed session, so that its token isn't accepted
+     * any more
+     *
+     * @param session closed session
+     */
+    void removeSession(HttpClientSession session) {
+        tokenToSessionMap.remove(session.getToken(), session);
+    }
+
+    /**
+     * Method that opens a session for the user name given in the body. The
+     * request is parked as the first poll of the session, so it is answered
+     * when the Controller accepts or rejects the login
+     *
+     * @param exchange login request
+     */
+    private void login(HttpExchange exchange) {
+        if (!checkMethod(exchange, "POST"))
+            return;
+
+        String userName = readBody(exchange);
+        if (userName == null)
+            return;
+
+        String token = new BigInteger(TOKEN_BITS, random).toString(32);
+        HttpClientSession session = new HttpClientSession(token, this, exchange.getRemoteAddress(), blockingQueue,
+                serverManager.getUserRegistry());
+        UserStatus rejection = serverManager.addClient(session, exchange.getRemoteAddress().getAddress());
+        if (rejection != null) {
+            respondError(exchange, 503, rejection.name());
+            return;
+        }
+
+        tokenToSessionMap.put(token, session);
+        session.poll(exchange);
+        InetSocketAddress localAddress = exchange.getLocalAddress();
+        // a control event of a new session is never dropped
+        session.offer(new LogInEvent(userName.trim(), localAddress.getHostString(),
+                String.valueOf(localAddress.getPort())));
+    }
+
+    /**
+     * Method that passes poll to its session
+     *
+     * @param exchange poll request
+     */
+    private void poll(HttpExchange exchange) {
+        if (!checkMethod(exchange, "GET"))
+            return;
+
+        HttpClientSession session = findSession(exchange);
+        if (session != null)
+            session.poll(exchange);
+    }
+
+    /**
+     * Method that sends the body as a message of the user. The position of
+     * the last message the session has received is attached to it
+     *
+     * @param exchange send request
+     */
+    private void send(HttpExchange exchange) {
+        if (!checkMethod(exchange, "POST"))
+            return;
+
+        HttpClientSession session = findSession(exchange);
+        String text = session == null ? null : readBody(exchange);
+        if (text == null)
+            return;
+
+        MessageEvent event = new MessageEvent(text);
+        event.setPreviousMessageCursor(session.getLastMessageCursor());
+        submit(exchange, session, event);
+    }
+
+    /**
+     * Method that sends the body as a private message to the user given in
+     * the parameter "to"
+     *
+     * @param exchange private message request
+     */
+    private void sendDirectMessage(HttpExchange exchange) {
+        if (!checkMethod(exchange, "POST"))
+            return;
+
+        HttpClientSession session = findSession(exchange);
+        if (session == null)
+            return;
+
+        String recipient = getParameter(exchange, "to");
+        if (recipient == null) {
+            respondError(exchange, 400, "recipient expected");
+            return;
+        }
+
+        String text = readBody(exchange);
+        if (text == null)
+            return;
+
+        submit(exchange, session, new DirectMessageEvent(recipient, text));
+    }
+
+    /**
+     * Method that logs the user out. The parked poll receives the last update
+     *
+     * @param exchange logout request
+     */
+    private void logout(HttpExchange exchange) {
+        if (!checkMethod(exchange, "POST"))
+            return;
+
+        HttpClientSession session = findSession(exchange);
+        if (session == null)
+            return;
+
+        submit(exchange, session, new LogOutEvent());
+    }
+
+    /**
+     * Method that passes event of a request to its session and answers the
+     * request, with 429 if too many events of the session are queued
+     *
+     * @param exchange request
+     * @param session  session of the request
+     * @param event    event created from the request
+     */
+    private void submit(HttpExchange exchange, HttpClientSession session, BaseEvent event) {
+        if (session.offer(event))
+            respond(exchange, 202, "{}");
+        else
+            respondError(exchange, 429, "too many requests");
+    }
+
+    /**
+     * Method that finds session given in the parameter "session" of the
+     * request, answering the request with an error if there isn't any
+     *
+     * @param exchange request
+     * @return open session, null if the request has been answered
+     */
+    private HttpClientSession findSession(HttpExchange exchange) {
+        String token = getParameter(exchange, "session");
+        HttpClientSession session = token == null ? null : tokenToSessionMap.get(token);
+        if (session == null || session.isClosed()) {
+            respondError(exchange, 404, "unknown session");
+            return null;
+        }
+        return session;
+    }
+
+    /**
+     * Method that checks method of the request, answering it with an error if
+     * it is wrong
+     *
+     * @param exchange request
+     * @param method   expected method
+     * @return true if the method is right
+     */
+    static boolean checkMethod(HttpExchange exchange, String method) {
+        if (method.equals(exchange.getRequestMethod()))
+            return true;
+
+        exchange.getResponseHeaders().set("Allow", method);
+        respondError(exchange, 405, "method not allowed");
+        return false;
+    }
+
+    /**
+     * Method that returns decoded parameter of the query of the request
+     *
+     * @param exchange request
+     * @param name     name of the parameter
+     * @return value of the parameter, null if it isn't given
+     */
+    static String getParameter(HttpExchange exchange, String name) {
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query == null)
+            return null;
+
+        for (String parameter : query.split("&")) {
+            int equals = parameter.indexOf('=');
+            if (equals < 0 || !parameter.substring(0, equals).equals(name))
+                continue;
+
+            try {
+                return URLDecoder.decode(parameter.substring(equals + 1), "UTF-8");
+            } catch (UnsupportedEncodingException | IllegalArgumentException e) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Method that reads body of the request as UTF-8 text, answering the
+     * request with an error if it is empty or too long
+     *
+     * @param exchange request
+     * @return text of the body, null if the request has been answered
+     */
+    private static String readBody(HttpExchange exchange) {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        try (InputStream inputStream = exchange.getRequestBody()) {
+            byte[] buffer = new byte[1024];
+            int length;
+            while ((length = inputStream.read(buffer)) >= 0) {
+                body.write(buffer, 0, length);
+                if (body.size() > BODY_MAX_LENGTH) {
+                    respondError(exchange, 413, "body too long");
+                    return null;
+                }
+            }
+        } catch (IOException e) {
+            exchange.close();
+            return null;
+        }
+
+        String text = new String(body.toByteArray(), StandardCharsets.UTF_8);
+        if (text.trim().isEmpty()) {
+            respondError(exchange, 400, "body expected");
+            return null;
+        }
+        return text;
+    }
+
+    static void respondError(HttpExchange exchange, int status, String error) {
+        respond(exchange, status, "{\"error\":" + JsonEncoder.encodeString(error) + "}");
+    }
+
+    /**
+     * Method that answers request with JSON and closes the exchange. It can
+     * be invoked from any thread
+     *
+     * @param exchange request to be answered
+     * @param status   HTTP status code
+     * @param json     body of the response
+     */
+    static void respond(HttpExchange exchange, int status, String json) {
+        byte[] body = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.getResponseHeaders().set("Cache-Control", "no-store");
+        try (OutputStream outputStream = exchange.getResponseBody()) {
+            exchange.sendResponseHeaders(status, body.length);
+            outputStream.write(body);
+        } catch (IOException e) {
+            exchange.close();
+        }
+    }
+}
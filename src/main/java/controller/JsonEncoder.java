@@ -0,0 +1,137 @@
+package controller;
+
+import java.util.Collection;
+
+import model.ChatState;
+import model.DirectMessage;
+import model.HistoryPage;
+import model.Message;
+import model.SearchResult;
+
+/**
+ * Class that encodes objects sent to clients as JSON, for clients that don't
+ * use Java serialization. Only the fields useful to such clients are encoded
+ *
+ * @author Michal
+ */
+final class JsonEncoder {
+    private JsonEncoder() {
+    }
+
+    /**
+     * Method that encodes object sent to a client as one update
+     *
+     * @param object ChatState, DirectMessage, HistoryPage or SearchResult
+     * @return JSON object with the type of the update, null if objects of
+     * this class are not sent to such clients
+     */
+    static String encodeUpdate(Object object) {
+        StringBuilder json = new StringBuilder();
+        if (object instanceof ChatState) {
+            ChatState state = (ChatState) object;
+            json.append("{\"type\":\"state\",\"status\":");
+            appendString(json, state.getUserStatus().name());
+            json.append(",\"usersVersion\":").append(state.getNamesVersion()).append(",\"users\":[");
+            appendStrings(json, state.getLoggedInUserNames());
+            json.append("],\"truncated\":").append(state.isTruncated()).append(",\"messages\":");
+            appendMessages(json, state.getMessages());
+        } else if (object instanceof DirectMessage) {
+            DirectMessage directMessage = (DirectMessage) object;
+            json.append("{\"type\":\"direct\",\"recipient\":");
+            appendString(json, directMessage.getRecipient());
+            json.append(",\"delivered\":").append(directMessage.isDelivered()).append(",\"message\":");
+            appendMessage(json, directMessage.getMessage());
+        } else if (object instanceof HistoryPage) {
+            HistoryPage page = (HistoryPage) object;
+            json.append("{\"type\":\"history\",\"direction\":");
+            appendString(json, page.getDirection().name());
+            json.append(",\"hasMore\":").append(page.hasMore()).append(",\"messages\":");
+            appendMessages(json, page.getMessages());
+        } else if (object instanceof SearchResult) {
+            SearchResult result = (SearchResult) object;
+            json.append("{\"type\":\"search\",\"query\":");
+            appendString(json, result.getQuery());
+            json.append(",\"refused\":").append(result.isRefused());
+            json.append(",\"hasMore\":").append(result.hasMore()).append(",\"messages\":");
+            appendMessages(json, result.getMessages());
+        } else
+            return null;
+
+        return json.append('}').toString();
+    }
+
+    /**
+     * Method that encodes text as a JSON string
+     *
+     * @param text encoded text
+     * @return quoted and escaped text
+     */
+    static String encodeString(String text) {
+        StringBuilder json = new StringBuilder();
+        appendString(json, text);
+        return json.toString();
+    }
+
+    private static void appendMessages(StringBuilder json, Collection<Message> messages) {
+        json.append('[');
+        boolean first = true;
+        for (Message message : messages) {
+            if (!first)
+                json.append(',');
+            appendMessage(json, message);
+            first = false;
+        }
+        json.append(']');
+    }
+
+    private static void appendMessage(StringBuilder json, Message message) {
+        json.append("{\"author\":");
+        appendString(json, message.getAuthor());
+        json.append(",\"time\":").append(message.getSentTime());
+        json.append(",\"timestamp\":").append(message.getTimestamp());
+        json.append(",\"nodeId\":").append(message.getNodeId());
+        json.append(",\"content\":");
+        appendString(json, message.getContent());
+        json.append('}');
+    }
+
+    private static void appendStrings(StringBuilder json, Collection<String> strings) {
+        boolean first = true;
+        for (String string : strings) {
+            if (!first)
+                json.append(',');
+            appendString(json, string);
+            first = false;
+        }
+    }
+
+    private static void appendString(StringBuilder json, String text) {
+        json.append('"');
+        for (int i = 0; i < text.length(); ++i) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '"':
+                    json.append("\\\"");
+                    break;
+                case '\\':
+                    json.append("\\\\");
+                    break;
+                case '\n':
+                    json.append("\\n");
+                    break;
+                case '\r':
+                    json.append("\\r");
+                    break;
+                case '\t':
+                    json.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20)
+                        json.append(String.format("\\u%04x", (int) c));
+                    else
+                        json.append(c);
+            }
+        }
+        json.append('"');
+    }
+}
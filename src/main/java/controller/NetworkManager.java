@@ -1,22 +1,29 @@
 package controller;
 
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.net.Socket;
-import java.util.Date;
+import java.io.OutputStream;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.BlockingQueue;
 
 import events.BaseEvent;
+import events.DirectMessageEvent;
+import events.HeartbeatEvent;
+import events.HistoryRequestEvent;
 import events.LogInEvent;
 import events.LogOutEvent;
 import events.MessageEvent;
 import events.ResendEvent;
+import events.SearchRequestEvent;
 import model.ChatState;
+import model.Cursor;
+import model.DirectMessage;
+import model.HistoryPage;
 import model.Message;
+import model.MessageTrace;
+import model.ReceivedMessages;
+import model.SearchResult;
 import view.ClientViewController;
 
 /**
@@ -40,42 +47,84 @@ public class NetworkManager {
      */
     private Map<Class<? extends BaseEvent>, NetworkStrategy> eventToStrategyMap;
     /**
-     * stream receiving objects from the server, exactly in ClientManager
+     * decoder of frames received from the server, exactly in ClientManager
      */
-    private ObjectInputStream objectInputStream;
+    private FrameDecoder frameDecoder;
     /**
-     * stream sending objects to the server, exactly in ClientManager
+     * stream sending frames to the server, exactly in ClientManager
      */
-    private ObjectOutputStream objectOutputStream;
+    private volatile OutputStream outputStream;
     /**
-     * Socket for client-server connections
+     * encoder of frames sent to the server, reused by every event
      */
-    private Socket socket;
+    private final FrameEncoder frameEncoder = new FrameEncoder();
     /**
-     * Date of last received message
+     * connection with the server, over TCP or a Unix domain socket
      */
-    private Date lastMessageDate;
+    private Connection connection;
+    /**
+     * position of last received message
+     */
+    private volatile Cursor lastMessageCursor;
+    /**
+     * messages received from the server, rendered by the view
+     */
+    private final ReceivedMessages receivedMessages;
     /**
      * static value defining how long thread should sleep between sending
      * requests
      */
     private static final int SLEEP_MILISECONDS = 2000;
+    /**
+     * last LogInEvent sent by the user, repeated when reconnecting
+     */
+    private volatile LogInEvent lastLogInEvent;
+    /**
+     * token of the current session, null if there is no session to resume
+     */
+    private volatile String sessionToken;
+    /**
+     * time in ms before the first attempt to reconnect, doubled after every
+     * failed attempt
+     */
+    private static final int RECONNECT_MIN_MILISECONDS = 250;
+    /**
+     * maximum time in ms between two attempts to reconnect
+     */
+    private static final int RECONNECT_MAX_MILISECONDS = 8000;
+    /**
+     * number of attempts to reconnect before the user is told that connection
+     * has been lost
+     */
+    private static final int RECONNECT_ATTEMPTS = 12;
+    /**
+     * number of attempts to reconnect made since the client was last logged
+     * in. A connection accepted by a server that closes it at once, e.g. a
+     * standby one, counts as a failed attempt too
+     */
+    private volatile int reconnectAttempts;
 
     /**
      * Constructor
      *
-     * @param viewController ClientViewController communicating with this manager
-     * @param blockingQueue  BlockingQueue storing events from the view. Events are read in
-     *                       this manager and send to the server
+     * @param viewController   ClientViewController communicating with this manager
+     * @param blockingQueue    BlockingQueue storing events from the view. Events are read in
+     *                         this manager and send to the server
+     * @param receivedMessages store into which received messages are merged
      */
-    public NetworkManager(ClientViewController viewController, BlockingQueue<BaseEvent> blockingQueue) {
+    public NetworkManager(ClientViewController viewController, BlockingQueue<BaseEvent> blockingQueue,
+                          ReceivedMessages receivedMessages) {
         this.viewController = viewController;
         this.blockingQueue = blockingQueue;
-        lastMessageDate = null;
+        this.receivedMessages = receivedMessages;
+        lastMessageCursor = null;
         eventToStrategyMap = new HashMap<>();
         eventToStrategyMap.put(LogInEvent.class, new LogInStrategy());
         eventToStrategyMap.put(LogOutEvent.class, new LogOutStrategy());
         eventToStrategyMap.put(MessageEvent.class, new MessageStrategy());
+        eventToStrategyMap.put(DirectMessageEvent.class, new DirectMessageStrategy());
+        eventToStrategyMap.put(HistoryRequestEvent.class, new HistoryRequestStrategy());
+        eventToStrategyMap.put(SearchRequestEvent.class, new SearchRequestStrategy());
     }
 
     /**
@@ -83,6 +132,7 @@ public class NetworkManager {
      */
     public void start() {
         new RequestThread().start();
+        new HeartbeatThread().start();
         while (true) {
             BaseEvent event;
             try {
@@ -97,35 +147,36 @@ public class NetworkManager {
     }
 
     /**
-     * Method that tries connecting this manager to the server
+     * Method that tries connecting this manager to the server. Reading from
+     * the server times out if not even a heartbeat arrives in time
      *
-     * @param host host name to connect
+     * @param host host name to connect, or "unix:" followed by the path of a
+     *             Unix domain socket of a server on the same host
      * @param port port to connect
      * @throws IOException when connection attempt fails
      */
     private void connect(String host, int port) throws IOException {
-        socket = new Socket(host, port);
-        objectInputStream = new ObjectInputStream(socket.getInputStream());
-        objectOutputStream = new ObjectOutputStream(socket.getOutputStream());
+        connection = Connection.open(host, port);
+        connection.setReadTimeout(HeartbeatEvent.TIMEOUT);
+        frameDecoder = new FrameDecoder(connection.getInputStream());
+        outputStream = connection.getOutputStream();
     }
 
     /**
      * Method that disconnects this manager from the server, without influence
-     * in the view
+     * in the view. Position of the last received message is kept, so that the
+     * user logging in again receives only the missing messages
      */
     private void disconnect() {
         try {
-            objectInputStream.close();
-            objectOutputStream.close();
-            socket.close();
+            connection.close();
         } catch (IOException | NullPointerException ignored) {
 
         }
 
-        objectInputStream = null;
-        objectOutputStream = null;
-        socket = null;
-        lastMessageDate = null;
+        frameDecoder = null;
+        outputStream = null;
+        connection = null;
     }
 
     /**
@@ -134,12 +185,14 @@ public class NetworkManager {
      * @param event BaseEvent to be send to the server
      */
     private void sendEventToServer(BaseEvent event) {
-        if (objectOutputStream == null)
+        OutputStream stream = outputStream;
+        if (stream == null)
             return;
 
         try {
-            synchronized (objectOutputStream) {
-                objectOutputStream.writeObject(event);
+            synchronized (frameEncoder) {
+                frameEncoder.encode(event);
+                frameEncoder.writeTo(stream);
             }
         } catch (IOException e) {
             disconnect();
@@ -157,63 +210,109 @@ public class NetworkManager {
             while (true) {
                 ChatState state;
                 try {
-                    state = (ChatState) objectInputStream.readObject();
+                    Object object = frameDecoder.read();
+                    if (object instanceof HeartbeatEvent)
+                        continue;
+
+                    if (object instanceof HistoryPage) {
+                        viewController.setHistoryPage((HistoryPage) object);
+                        continue;
+                    }
 
-                } catch (IOException | ClassNotFoundException | NullPointerException e) {
+                    if (object instanceof DirectMessage) {
+                        viewController.setDirectMessage((DirectMessage) object);
+                        continue;
+                    }
+
+                    if (object instanceof SearchResult) {
+                        viewController.setSearchResult((SearchResult) object);
+                        continue;
+                    }
+
+                    state = (ChatState) object;
+                } catch (IOException | ClassNotFoundException | ClassCastException | NullPointerException e) {
 
-                    viewController.setDisconnected();
                     disconnect();
+                    if (sessionToken != null)
+                        new ReconnectThread().start();
+                    else
+                        viewController.setDisconnected();
                     return;
                 }
 
+                stampReceived(state);
                 if (!state.isLoggedIn()) {
                     viewController.setBasedOnChatState(state);
                     disconnect();
+                    lastMessageCursor = null;
+                    sessionToken = null;
                     return;
                 }
+
+                if (state.getSessionToken() != null)
+                    sessionToken = state.getSessionToken();
+                reconnectAttempts = 0;
                 handleChatStateChange(state);
             }
         }
     }
 
+    /**
+     * Method that stamps the time of reception on all traced messages of the
+     * received ChatState
+     *
+     * @param state newly received ChatState object
+     */
+    private void stampReceived(ChatState state) {
+        for (Message message : state.getMessages()) {
+            if (message.getTrace() != null)
+                message.getTrace().stampClientReceive();
+        }
+    }
+
     /**
      * Method that takes care of all the operations that need to be executed
      * when a new ChatState object is received. It takes care of changing the
-     * view and sending request for messages to server if needed
+     * view and sending request for messages to server if needed. Messages of
+     * a state that continues the received ones are merged with them,
+     * duplicates are dropped. A truncated state replaces received messages,
+     * the missed ones can be browsed in pages. The last message of a state is
+     * the last one to arrive at the server, so it tells the server from where
+     * to resend
      *
      * @param state newly received ChatState object
      */
     private void handleChatStateChange(ChatState state) {
-        if (lastMessageDate == null)
-            lastMessageDate = getLatestDate(state.getMessages());
+        if (state.isTruncated())
+            receivedMessages.replace(state.getMessages());
+        else {
+            // server that doesn't know the last received message starts a new session
+            if (state.getUserStatus() == ChatState.UserStatus.LOGGED_IN && !isContinuation(state))
+                lastMessageCursor = null;
 
-        if (state.isCompatibleWithDate(lastMessageDate)) {
-            state.deleteAllMessagesBefore(lastMessageDate);
-            viewController.setBasedOnChatState(state);
+            // a gap before the messages of this state is filled by the RequestThread
+            if (!isContinuation(state))
+                return;
 
-            Date lastMessageDate = getLatestDate(state.getMessages());
-            if (lastMessageDate != null)
-                this.lastMessageDate = lastMessageDate;
+            receivedMessages.merge(state.getMessages());
         }
+
+        List<Message> messages = state.getMessages();
+        if (!messages.isEmpty())
+            lastMessageCursor = messages.get(messages.size() - 1).getCursor();
+        viewController.setBasedOnChatState(state);
     }
 
     /**
-     * Method that searches through the list of Messages for a message which was
-     * sent later than all the others
+     * Method that tells whether messages of a state follow the received ones
+     * without a gap
      *
-     * @param messages list of ChatMessages to be searched
-     * @return the latest Date
+     * @param state newly received ChatState object
+     * @return true if the state continues the received messages or no message
+     * has been received in this session
      */
-    private Date getLatestDate(List<Message> messages) {
-        if (messages.size() == 0)
-            return null;
-
-        Date lastDate = messages.get(0).getSentDate();
-        for (Message message : messages) {
-            if (message.getSentDate().after(lastDate))
-                lastDate = message.getSentDate();
-        }
-        return lastDate;
+    private boolean isContinuation(ChatState state) {
+        return lastMessageCursor == null || state.isContinuationOf(receivedMessages);
     }
 
     /**
@@ -230,7 +329,7 @@ public class NetworkManager {
         @Override
         public void run() {
             while (true) {
-                sendEventToServer(new ResendEvent(lastMessageDate));
+                sendEventToServer(new ResendEvent(lastMessageCursor));
                 try {
                     Thread.sleep(SLEEP_MILISECONDS);
                 } catch (InterruptedException ignored) {
@@ -239,6 +338,95 @@ public class NetworkManager {
         }
     }
 
+    /**
+     * Thread that sends heartbeats to the server, so that it knows the
+     * connection works even if the user doesn't write anything
+     *
+     * @author Michal
+     */
+    private class HeartbeatThread extends Thread {
+        HeartbeatThread() {
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                sendEventToServer(new HeartbeatEvent());
+                try {
+                    Thread.sleep(HeartbeatEvent.INTERVAL);
+                } catch (InterruptedException ignored) {
+                }
+            }
+        }
+    }
+
+    /**
+     * Thread that tries to log in again with the session token after the
+     * connection was lost, waiting exponentially longer between attempts. The
+     * server then sends only the messages after the last received one
+     *
+     * @author Michal
+     */
+    private class ReconnectThread extends Thread {
+        /**
+         * Method that repeats attempts to reconnect until one succeeds, the
+         * user logs out or the attempts run out. Attempts are counted until a
+         * state arrives, so a server closing accepted connections doesn't
+         * make the client retry forever
+         */
+        @Override
+        public void run() {
+            viewController.setReconnecting();
+            while (reconnectAttempts < RECONNECT_ATTEMPTS) {
+                int delay = Math.min(RECONNECT_MIN_MILISECONDS << Math.min(reconnectAttempts, 5),
+                        RECONNECT_MAX_MILISECONDS);
+                ++reconnectAttempts;
+                try {
+                    // random part spreads reconnecting clients in time
+                    Thread.sleep(delay + (long) (Math.random() * delay / 2));
+                } catch (InterruptedException ignored) {
+                }
+
+                String token = sessionToken;
+                if (token == null)
+                    return;
+
+                LogInEvent event = new LogInEvent(lastLogInEvent.getUserName(), lastLogInEvent.getServerName(),
+                        lastLogInEvent.getPort());
+                event.setSessionToken(token);
+                if (login(event))
+                    return;
+            }
+
+            sessionToken = null;
+            viewController.setDisconnected();
+        }
+    }
+
+    /**
+     * Method that connects to the server given in LogInEvent, starts
+     * listening to it and sends it the event with the position of the last
+     * received message attached
+     *
+     * @param event LogInEvent to be sent
+     * @return true if connection succeeded
+     */
+    private boolean login(LogInEvent event) {
+        try {
+            int port = Integer.parseInt(event.getPort());
+            connect(event.getServerName(), port);
+            new ServerListener().start();
+        } catch (IOException | NumberFormatException e) {
+            disconnect();
+            return false;
+        }
+
+        event.setResumeCursor(lastMessageCursor);
+        sendEventToServer(event);
+        return true;
+    }
+
     /**
      * Common base for all classes that can handle events from the view
      *
@@ -262,8 +450,9 @@ public class NetworkManager {
         /**
          * Method that handles BaseEvent of type LogInEvent. If connection
          * succeeds, server must first reply with state update message. Next,
-         * LogInEvent is passed to the server to be handled properly. In
-         * different case execution ends
+         * LogInEvent with the position of the last received message is passed
+         * to the server to be handled properly. In different case execution
+         * ends
          *
          * @param event BaseEvent to be handled
          */
@@ -272,18 +461,10 @@ public class NetworkManager {
             if (!(event instanceof LogInEvent))
                 return;
 
-            try {
-                LogInEvent logInEvent = (LogInEvent) event;
-                String serverName = logInEvent.getServerName();
-                int port = Integer.parseInt(logInEvent.getPort());
-                connect(serverName, port);
-                new ServerListener().start();
-            } catch (IOException | NumberFormatException e) {
-                disconnect();
+            lastLogInEvent = (LogInEvent) event;
+            sessionToken = null;
+            if (!login(lastLogInEvent))
                 viewController.setDisconnected();
-                return;
-            }
-            sendEventToServer(event);
         }
     }
 
@@ -295,8 +476,9 @@ public class NetworkManager {
     private class LogOutStrategy extends NetworkStrategy {
         /**
          * Method that handles BaseEvent of type LogOutEvent. If BaseEvent is
-         * type of LogOutEvent is simply forwarded to server. In different case
-         * execution ends
+         * type of LogOutEvent is simply forwarded to server. If the client is
+         * reconnecting, reconnection is abandoned. In different case execution
+         * ends
          *
          * @param event BaseEvent to be handled
          */
@@ -305,6 +487,11 @@ public class NetworkManager {
             if (!(event instanceof LogOutEvent))
                 return;
 
+            if (outputStream == null && sessionToken != null) {
+                sessionToken = null;
+                viewController.setDisconnected();
+                return;
+            }
             sendEventToServer(event);
         }
     }
@@ -317,9 +504,9 @@ public class NetworkManager {
     private class MessageStrategy extends NetworkStrategy {
         /**
          * Method that handles BaseEvent of type MessageEvent. If BaseEvent is
-         * type of MessageEvent the date of last received message is attached to
-         * it and it is forwarded to the server. In different case execution
-         * ends
+         * type of MessageEvent the position of last received message and a new
+         * trace are attached to it and it is forwarded to the server. In
+         * different case execution ends
          *
          * @param event BaseEvent to be handled
          */
@@ -328,7 +515,75 @@ public class NetworkManager {
             if (!(event instanceof MessageEvent))
                 return;
 
-            ((MessageEvent) event).setPreviousMessageDate(lastMessageDate);
+            MessageEvent messageEvent = (MessageEvent) event;
+            messageEvent.setPreviousMessageCursor(lastMessageCursor);
+            messageEvent.setTrace(new MessageTrace());
+            sendEventToServer(messageEvent);
+        }
+    }
+
+    /**
+     * Strategy that handles DirectMessageEvent
+     *
+     * @author Michal
+     */
+    private class DirectMessageStrategy extends NetworkStrategy {
+        /**
+         * Method that handles BaseEvent of type DirectMessageEvent. If
+         * BaseEvent is type of DirectMessageEvent it is simply forwarded to
+         * the server. In different case execution ends
+         *
+         * @param event BaseEvent to be handled
+         */
+        @Override
+        public void execute(BaseEvent event) {
+            if (!(event instanceof DirectMessageEvent))
+                return;
+
+            sendEventToServer(event);
+        }
+    }
+
+    /**
+     * Strategy that handles HistoryRequestEvent
+     *
+     * @author Michal
+     */
+    private class HistoryRequestStrategy extends NetworkStrategy {
+        /**
+         * Method that handles BaseEvent of type HistoryRequestEvent. If
+         * BaseEvent is type of HistoryRequestEvent it is simply forwarded to
+         * the server. In different case execution ends
+         *
+         * @param event BaseEvent to be handled
+         */
+        @Override
+        public void execute(BaseEvent event) {
+            if (!(event instanceof HistoryRequestEvent))
+                return;
+
+            sendEventToServer(event);
+        }
+    }
+
+    /**
+     * Strategy that handles SearchRequestEvent
+     *
+     * @author Michal
+     */
+    private class SearchRequestStrategy extends NetworkStrategy {
+        /**
+         * Method that handles BaseEvent of type SearchRequestEvent. If
+         * BaseEvent is type of SearchRequestEvent it is simply forwarded to
+         * the server. In different case execution ends
+         *
+         * @param event BaseEvent to be handled
+         */
+        @Override
+        public void execute(BaseEvent event) {
+            if (!(event instanceof SearchRequestEvent))
+                return;
+
             sendEventToServer(event);
         }
     }
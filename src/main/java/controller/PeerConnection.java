@@ -0,0 +1,177 @@
+package controller;
+
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.Socket;
+import java.util.Collections;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import events.BaseEvent;
+import events.PeerDirectMessageEvent;
+import events.PeerMessageEvent;
+import events.PeerPresenceEvent;
+
+/**
+ * Class that is responsible for the link with one federated server node. It
+ * reads events replicated by the other node and puts them to the local
+ * blockingQueue. Events for the other node are queued and written by a
+ * thread of the link, so that a slow node doesn't hold the Controller
+ *
+ * @author Michal
+ */
+class PeerConnection extends Thread {
+    /**
+     * socket of the peer link
+     */
+    private Socket socket;
+    /**
+     * stream from which objects are read
+     */
+    private ObjectInputStream objectInputStream;
+    /**
+     * stream to which objects are sent
+     */
+    private ObjectOutputStream objectOutputStream;
+    /**
+     * manager that owns this link
+     */
+    private PeerManager peerManager;
+    /**
+     * BlockingQueue to which received events are sent
+     */
+    private BlockingQueue<BaseEvent> blockingQueue;
+    /**
+     * id of the node on the other side, known after its first presence event
+     */
+    private volatile Integer remoteNodeId;
+    /**
+     * events waiting to be sent to the node on the other side
+     */
+    private BlockingQueue<BaseEvent> outgoingEvents;
+    /**
+     * thread that writes the waiting events
+     */
+    private Writer writer;
+    /**
+     * maximum number of events waiting to be sent, a node that falls further
+     * behind is dropped
+     */
+    private static final int OUTGOING_EVENTS_MAX_COUNT = Integer.getInteger("chatroom.peer.queueSize", 10000);
+
+    /**
+     * Constructor
+     *
+     * @param socket        connected socket of the peer link
+     * @param peerManager   manager that owns this link
+     * @param blockingQueue queue to which received events are sent
+     * @throws IOException if could not create ObjectStream
+     */
+    PeerConnection(Socket socket, PeerManager peerManager, BlockingQueue<BaseEvent> blockingQueue) throws IOException {
+        this.socket = socket;
+        this.peerManager = peerManager;
+        this.blockingQueue = blockingQueue;
+        objectOutputStream = new ObjectOutputStream(socket.getOutputStream());
+        objectOutputStream.flush();
+        objectInputStream = new ObjectInputStream(socket.getInputStream());
+        outgoingEvents = new LinkedBlockingQueue<>(OUTGOING_EVENTS_MAX_COUNT);
+        writer = new Writer();
+        setDaemon(true);
+    }
+
+    /**
+     * Method that queues event to be sent to the node on the other side. It
+     * never blocks, a link whose queue is full is closed
+     *
+     * @param event event to be sent
+     */
+    void send(BaseEvent event) {
+        if (!outgoingEvents.offer(event))
+            close();
+    }
+
+    /**
+     * Method that returns id of the node on the other side
+     *
+     * @return id of the node, null if it hasn't announced itself yet
+     */
+    Integer getRemoteNodeId() {
+        return remoteNodeId;
+    }
+
+    /**
+     * Method that closes the link
+     */
+    void close() {
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+        }
+        writer.interrupt();
+    }
+
+    /**
+     * Method responsible for listening to the node on the other side
+     */
+    @Override
+    public void run() {
+        writer.start();
+        while (true) {
+            BaseEvent event;
+            try {
+                event = (BaseEvent) objectInputStream.readObject();
+            } catch (ClassNotFoundException | InvalidClassException | ClassCastException e) {
+                continue;
+            } catch (IOException e) {
+                break;
+            }
+
+            if (event instanceof PeerPresenceEvent)
+                remoteNodeId = ((PeerPresenceEvent) event).getNodeId();
+            else if (!(event instanceof PeerMessageEvent) && !(event instanceof PeerDirectMessageEvent))
+                continue;
+
+            put(event);
+        }
+
+        close();
+        peerManager.removePeer(this);
+        if (remoteNodeId != null)
+            put(new PeerPresenceEvent(remoteNodeId, Collections.<String>emptySet()));
+    }
+
+    private void put(BaseEvent event) {
+        event.markEnqueued();
+        try {
+            blockingQueue.put(event);
+        } catch (InterruptedException ignored) {
+        }
+    }
+
+    /**
+     * Thread that writes events waiting to be sent to the node on the other
+     * side. The stream is reset after every event, so that it doesn't keep
+     * references to all the replicated messages
+     *
+     * @author Michal
+     */
+    private class Writer extends Thread {
+        Writer() {
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    objectOutputStream.writeObject(outgoingEvents.take());
+                    objectOutputStream.reset();
+                }
+            } catch (IOException | InterruptedException ignored) {
+            }
+            close();
+        }
+    }
+}
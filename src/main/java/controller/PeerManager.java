@@ -0,0 +1,243 @@
+package controller;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+
+import events.BaseEvent;
+import events.PeerDirectMessageEvent;
+import events.PeerMessageEvent;
+import events.PeerPresenceEvent;
+import model.DirectMessage;
+import model.Message;
+
+/**
+ * Class responsible for federation of server nodes. It listens for links from
+ * other nodes, keeps dialing the configured ones and replicates accepted
+ * messages and presence of local users to all linked nodes. Private messages
+ * are sent only to the node of the recipient. Nodes are expected
+ * to form a full mesh in which every pair is linked once, because replicated
+ * events are never forwarded further
+ *
+ * @author Michal
+ */
+public class PeerManager extends Thread {
+    /**
+     * id of this node, unique in the federation
+     */
+    private final int nodeId;
+    /**
+     * ServerSocket to listen for other nodes
+     */
+    private ServerSocket serverSocket;
+    /**
+     * BlockingQueue to which replicated events are sent
+     */
+    private BlockingQueue<BaseEvent> blockingQueue;
+    /**
+     * set of all live peer links (has to be synchronized)
+     */
+    private Set<PeerConnection> peers;
+    /**
+     * addresses of nodes that this node dials
+     */
+    private List<InetSocketAddress> peerAddresses;
+    /**
+     * mapping addresses dialed by this node to their links, concurrent so
+     * that it can be read while the dialing thread changes it
+     */
+    private Map<InetSocketAddress, PeerConnection> dialedPeers;
+    /**
+     * names of users logged in to this node, sent to every new peer
+     */
+    private volatile Set<String> localUserNames;
+    /**
+     * time in ms between attempts to dial nodes that are not linked
+     */
+    private static final int DIAL_MILISECONDS = 2000;
+
+    /**
+     * Constructor
+     *
+     * @param nodeId        id of this node, unique in the federation
+     * @param port          port on which this node listens for other nodes
+     * @param peerAddresses addresses of nodes that this node should dial
+     * @param blockingQueue queue to which replicated events are sent
+     * @throws IOException when ServerSocket cannot be created on selected port
+     */
+    public PeerManager(int nodeId, int port, List<InetSocketAddress> peerAddresses,
+                       BlockingQueue<BaseEvent> blockingQueue) throws IOException {
+        this.nodeId = nodeId;
+        this.serverSocket = new ServerSocket(port);
+        this.blockingQueue = blockingQueue;
+        peers = new HashSet<>();
+        this.peerAddresses = new ArrayList<>(peerAddresses);
+        dialedPeers = new ConcurrentHashMap<>();
+        localUserNames = Collections.emptySet();
+        setDaemon(true);
+    }
+
+    /**
+     * Method that returns id of this node
+     *
+     * @return id of this node
+     */
+    public int getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * Method that replicates message accepted by this node to all linked nodes
+     *
+     * @param message accepted message
+     */
+    public void relayMessage(Message message) {
+        broadcast(new PeerMessageEvent(nodeId, message));
+    }
+
+    /**
+     * Method that replicates current set of users logged in to this node to
+     * all linked nodes
+     *
+     * @param userNames names of users logged in to this node
+     */
+    public void relayPresence(Set<String> userNames) {
+        localUserNames = new TreeSet<>(userNames);
+        broadcast(new PeerPresenceEvent(nodeId, localUserNames));
+    }
+
+    /**
+     * Method that sends private message to the node to which its recipient is
+     * logged in, or returns it to the node of its author
+     *
+     * @param nodeId        id of the node
+     * @param directMessage private message
+     * @return true if the node is linked and the message has been queued for
+     * it
+     */
+    public boolean sendDirectMessage(int nodeId, DirectMessage directMessage) {
+        synchronized (peers) {
+            for (PeerConnection peer : peers) {
+                Integer remoteNodeId = peer.getRemoteNodeId();
+                if (remoteNodeId != null && remoteNodeId == nodeId) {
+                    peer.send(new PeerDirectMessageEvent(this.nodeId, directMessage));
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private void broadcast(BaseEvent event) {
+        synchronized (peers) {
+            for (PeerConnection peer : peers)
+                peer.send(event);
+        }
+    }
+
+    /**
+     * Method that removes given link from the set of live links
+     *
+     * @param peer link to be removed
+     */
+    void removePeer(PeerConnection peer) {
+        synchronized (peers) {
+            peers.remove(peer);
+        }
+    }
+
+    /**
+     * Method responsible for listening for links from other nodes. It also
+     * starts the thread that dials configured nodes
+     */
+    @Override
+    public void run() {
+        new DialThread().start();
+        while (!serverSocket.isClosed()) {
+            try {
+                addPeer(serverSocket.accept());
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * Method that creates link on connected socket, greets the other node with
+     * presence of local users and starts listening to it
+     *
+     * @param socket connected socket
+     * @return created link
+     * @throws IOException when link cannot be created
+     */
+    private PeerConnection addPeer(Socket socket) throws IOException {
+        PeerConnection peer;
+        try {
+            peer = new PeerConnection(socket, this, blockingQueue);
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+
+        synchronized (peers) {
+            peers.add(peer);
+            peer.send(new PeerPresenceEvent(nodeId, localUserNames));
+        }
+        peer.start();
+        return peer;
+    }
+
+    /**
+     * Method that closes the peer socket and all links
+     *
+     * @throws IOException if socket cannot be closed
+     */
+    public void closeSocket() throws IOException {
+        serverSocket.close();
+        synchronized (peers) {
+            for (PeerConnection peer : peers)
+                peer.close();
+        }
+    }
+
+    /**
+     * Thread that periodically dials configured nodes which are not linked
+     *
+     * @author Michal
+     */
+    private class DialThread extends Thread {
+        DialThread() {
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            while (!serverSocket.isClosed()) {
+                for (InetSocketAddress address : peerAddresses) {
+                    PeerConnection peer = dialedPeers.get(address);
+                    if (peer != null && peer.isAlive())
+                        continue;
+
+                    try {
+                        dialedPeers.put(address, addPeer(new Socket(address.getHostString(), address.getPort())));
+                    } catch (IOException ignored) {
+                    }
+                }
+
+                try {
+                    Thread.sleep(DIAL_MILISECONDS);
+                } catch (InterruptedException ignored) {
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,636 @@
+package controller;
+
+import java.util.AbstractQueue;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import events.BaseEvent;
+import events.DirectMessageEvent;
+import events.LogInEvent;
+import events.LogOutEvent;
+import events.MessageEvent;
+import events.PeerPresenceEvent;
+import profiling.LatencyHistogram;
+
+/**
+ * Unbounded queue of events for the Controller with two lanes. Events that
+ * change who is connected (logins, logouts, presence of federated users,
+ * followers joining) go to the control lane, all the others, e.g. messages,
+ * go to the data lane. The lanes are served by weighted round robin favouring
+ * the control lane, so a login never waits behind a flood of messages while
+ * messages still flow. Control events are taken in order. A control event of
+ * a client whose data events are still waiting, e.g. the logout of a client
+ * that has just sent messages, joins the end of its queue instead, so that it
+ * doesn't overtake them; it never waits for space. The data lane keeps
+ * a bounded queue for every client, served by deficit round robin: every
+ * client gets the same share of the Controller measured in bytes, however
+ * many events a heavy sender queues, and a client whose queue is full waits
+ * in put, which holds back reading from its connection only. Events that
+ * don't come from clients, e.g. replicated messages, share one unbounded
+ * queue. Time that events wait in every lane is kept in a rolling histogram
+ *
+ * @author Michal
+ */
+public class PriorityLaneQueue extends AbstractQueue<BaseEvent> implements BlockingQueue<BaseEvent> {
+    /**
+     * number of control events taken for every data event when both lanes
+     * are waiting, configured with the system property
+     * chatroom.lanes.controlWeight
+     */
+    private static final int CONTROL_WEIGHT = Math.max(1, Integer.getInteger("chatroom.lanes.controlWeight", 8));
+    /**
+     * maximum number of data events waiting for one client, configured with
+     * the system property chatroom.fairness.clientQueueSize
+     */
+    private static final int CLIENT_QUEUE_SIZE = Math.max(1, Integer.getInteger("chatroom.fairness.clientQueueSize", 64));
+    /**
+     * estimated cost in bytes added to the deficit of a client in every
+     * round, configured with the system property chatroom.fairness.quantum
+     */
+    private static final int QUANTUM = Math.max(1, Integer.getInteger("chatroom.fairness.quantum", 1024));
+    /**
+     * estimated cost in bytes of an event without its text
+     */
+    private static final int EVENT_COST = 64;
+    /**
+     * key of the queue of events that don't come from clients
+     */
+    private static final Object SERVER_KEY = new Object();
+    /**
+     * number of most recent wait times kept for every lane
+     */
+    private static final int SAMPLES_COUNT = 1024;
+    /**
+     * lock guarding both lanes
+     */
+    private final ReentrantLock lock;
+    /**
+     * condition signalled when an event is added
+     */
+    private final Condition notEmpty;
+    /**
+     * waiting control events
+     */
+    private final ArrayDeque<Entry> controlLane;
+    /**
+     * mapping clients, or the server key, to queues of their waiting data
+     * events. Only queues with waiting events are kept
+     */
+    private final Map<Object, Flow> keyToFlowMap;
+    /**
+     * queues of data events in order of the round robin, the first one is
+     * being served
+     */
+    private final ArrayDeque<Flow> activeFlows;
+    /**
+     * number of waiting data events
+     */
+    private int dataSize;
+    /**
+     * rolling histograms of wait times of every lane
+     */
+    private final Map<Lane, LatencyHistogram> waitHistograms;
+    /**
+     * number of control events taken in a row while data events were waiting
+     */
+    private int controlStreak;
+
+    /**
+     * Constructor
+     */
+    public PriorityLaneQueue() {
+        lock = new ReentrantLock();
+        notEmpty = lock.newCondition();
+        controlLane = new ArrayDeque<>();
+        keyToFlowMap = new HashMap<>();
+        activeFlows = new ArrayDeque<>();
+        waitHistograms = new EnumMap<>(Lane.class);
+        for (Lane lane : Lane.values())
+            waitHistograms.put(lane, new LatencyHistogram(SAMPLES_COUNT));
+    }
+
+    /**
+     * Method that tells to which lane given event goes, unless it is a
+     * control event of a client whose data events are waiting
+     *
+     * @param event event put to the queue
+     * @return lane of the event
+     */
+    public static Lane laneOf(BaseEvent event) {
+        if (event instanceof LogInEvent || event instanceof LogOutEvent || event instanceof PeerPresenceEvent
+                || event instanceof ReplicationManager.FollowerJoinEvent)
+            return Lane.CONTROL;
+        return Lane.DATA;
+    }
+
+    /**
+     * Method that returns histogram of times that events wait in given lane
+     *
+     * @param lane lane of the queue
+     * @return rolling histogram of wait times in milliseconds
+     */
+    public LatencyHistogram getWaitHistogram(Lane lane) {
+        return waitHistograms.get(lane);
+    }
+
+    /**
+     * Method that returns readable summary of wait times of all the lanes
+     *
+     * @return summary with percentiles of all the lanes
+     */
+    public String getWaitReport() {
+        StringBuilder builder = new StringBuilder("lane, waiting, samples, p50 ms, p99 ms, max ms\n");
+        for (Lane lane : Lane.values()) {
+            LatencyHistogram histogram = waitHistograms.get(lane);
+            builder.append(lane.name()).append(", ").append(getLaneSize(lane))
+                    .append(", ").append(histogram.getCount())
+                    .append(", ").append(histogram.getPercentile(50))
+                    .append(", ").append(histogram.getPercentile(99))
+                    .append(", ").append(histogram.getPercentile(100)).append('\n');
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Method that returns number of events waiting in given lane
+     *
+     * @param lane lane of the queue
+     * @return number of waiting events
+     */
+    public int getLaneSize(Lane lane) {
+        lock.lock();
+        try {
+            return lane == Lane.CONTROL ? controlLane.size() : dataSize;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Method that adds event if the queue of its client is not full
+     *
+     * @param event added event
+     * @return false if the queue of the client is full
+     */
+    @Override
+    public boolean offer(BaseEvent event) {
+        if (event == null)
+            throw new NullPointerException();
+
+        lock.lock();
+        try {
+            Flow flow = getFlow(event);
+            if (mustWait(event, flow))
+                return false;
+
+            enqueue(event, flow);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Method that adds event, waiting while the queue of its client is full
+     *
+     * @param event added event
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    @Override
+    public void put(BaseEvent event) throws InterruptedException {
+        if (event == null)
+            throw new NullPointerException();
+
+        lock.lockInterruptibly();
+        try {
+            Flow flow = getFlow(event);
+            while (mustWait(event, flow)) {
+                flow.notFull.await();
+                flow = getFlow(event);
+            }
+            enqueue(event, flow);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Method that adds event, waiting at most given time while the queue of
+     * its client is full
+     *
+     * @param event   added event
+     * @param timeout maximum time to wait
+     * @param unit    unit of the timeout
+     * @return false if the queue of the client is still full
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    @Override
+    public boolean offer(BaseEvent event, long timeout, TimeUnit unit) throws InterruptedException {
+        if (event == null)
+            throw new NullPointerException();
+
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            Flow flow = getFlow(event);
+            while (mustWait(event, flow)) {
+                if (nanos <= 0)
+                    return false;
+                nanos = flow.notFull.awaitNanos(nanos);
+                flow = getFlow(event);
+            }
+            enqueue(event, flow);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public BaseEvent take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (isEmptyLocked())
+                notEmpty.await();
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public BaseEvent poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (isEmptyLocked()) {
+                if (nanos <= 0)
+                    return null;
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public BaseEvent poll() {
+        lock.lock();
+        try {
+            return isEmptyLocked() ? null : dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public BaseEvent peek() {
+        lock.lock();
+        try {
+            if (isEmptyLocked())
+                return null;
+            if (selectLane() == Lane.CONTROL)
+                return controlLane.peek().event;
+            return peekData().event;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int remainingCapacity() {
+        return Integer.MAX_VALUE;
+    }
+
+    @Override
+    public int drainTo(Collection<? super BaseEvent> collection) {
+        return drainTo(collection, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(Collection<? super BaseEvent> collection, int maxElements) {
+        if (collection == this)
+            throw new IllegalArgumentException();
+
+        lock.lock();
+        try {
+            int count = 0;
+            while (count < maxElements && !isEmptyLocked()) {
+                collection.add(dequeue());
+                ++count;
+            }
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        lock.lock();
+        try {
+            return controlLane.size() + dataSize;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Method that returns iterator over a snapshot of waiting events, control
+     * lane first, then the data events client by client. Events cannot be
+     * removed through it
+     *
+     * @return iterator over waiting events
+     */
+    @Override
+    public Iterator<BaseEvent> iterator() {
+        List<BaseEvent> snapshot = new ArrayList<>();
+        lock.lock();
+        try {
+            for (Entry entry : controlLane)
+                snapshot.add(entry.event);
+            for (Flow flow : activeFlows)
+                for (Entry entry : flow.entries)
+                    snapshot.add(entry.event);
+        } finally {
+            lock.unlock();
+        }
+        final Iterator<BaseEvent> iterator = snapshot.iterator();
+        return new Iterator<BaseEvent>() {
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public BaseEvent next() {
+                return iterator.next();
+            }
+        };
+    }
+
+    private boolean isEmptyLocked() {
+        return controlLane.isEmpty() && dataSize == 0;
+    }
+
+    /**
+     * Method that returns queue of data events of the client that sent given
+     * event, should be invoked holding the lock
+     *
+     * @param event added event
+     * @return queue of the client, a new one if it has no waiting events and
+     * the event is a data event, or null if the event doesn't come from a
+     * client or is a control event of a client without waiting data events
+     */
+    private Flow getFlow(BaseEvent event) {
+        if (event.getClientManager() == null)
+            return null;
+
+        Flow flow = keyToFlowMap.get(event.getClientManager());
+        if (flow != null || laneOf(event) == Lane.CONTROL)
+            return flow;
+        return new Flow(event.getClientManager(), true);
+    }
+
+    /**
+     * Method that tells whether given event has to wait for space in the
+     * queue of its client. Control events never wait
+     *
+     * @param event added event
+     * @param flow  queue of the client, null if the event doesn't go to one
+     * @return true if the event is a data event and the queue is full
+     */
+    private static boolean mustWait(BaseEvent event, Flow flow) {
+        return flow != null && laneOf(event) == Lane.DATA && flow.isFull();
+    }
+
+    /**
+     * Method that adds event to its lane, should be invoked holding the lock
+     *
+     * @param event added event
+     * @param flow  queue of the client of the event, null if it doesn't come
+     *              from a client or it is a control event that goes to the
+     *              control lane
+     */
+    private void enqueue(BaseEvent event, Flow flow) {
+        if (laneOf(event) == Lane.CONTROL && flow == null)
+            controlLane.add(new Entry(event));
+        else {
+            if (flow == null) {
+                flow = keyToFlowMap.get(SERVER_KEY);
+                if (flow == null)
+                    flow = new Flow(SERVER_KEY, false);
+            }
+            if (flow.entries.isEmpty()) {
+                keyToFlowMap.put(flow.key, flow);
+                activeFlows.add(flow);
+                // the only queue starts its round at once
+                if (activeFlows.size() == 1)
+                    flow.deficit += QUANTUM;
+            }
+            flow.entries.add(new Entry(event));
+            ++dataSize;
+        }
+        notEmpty.signal();
+    }
+
+    /**
+     * Method that finds the next data event by deficit round robin: the
+     * first queue is served while its deficit covers the cost of its first
+     * event, otherwise it moves to the end and the next queue starts its
+     * round with the quantum added to its deficit. It should be invoked
+     * holding the lock when there are data events
+     *
+     * @return the next data event, still in its queue
+     */
+    private Entry peekData() {
+        while (true) {
+            Flow flow = activeFlows.peek();
+            Entry entry = flow.entries.peek();
+            if (flow.deficit >= entry.cost)
+                return entry;
+
+            activeFlows.add(activeFlows.poll());
+            activeFlows.peek().deficit += QUANTUM;
+        }
+    }
+
+    /**
+     * Method that takes the next data event from its queue, should be invoked
+     * holding the lock when there are data events
+     *
+     * @return the next data event
+     */
+    private Entry pollData() {
+        Entry entry = peekData();
+        Flow flow = activeFlows.peek();
+        flow.entries.poll();
+        flow.deficit -= entry.cost;
+        --dataSize;
+        if (flow.entries.isEmpty()) {
+            // a queue without events doesn't keep its deficit
+            flow.deficit = 0;
+            activeFlows.poll();
+            keyToFlowMap.remove(flow.key);
+            if (!activeFlows.isEmpty())
+                activeFlows.peek().deficit += QUANTUM;
+        }
+        if (flow.bounded)
+            flow.notFull.signal();
+        return entry;
+    }
+
+    /**
+     * Method that estimates how much given event costs the Controller
+     *
+     * @param event data event
+     * @return estimated cost in bytes
+     */
+    private static int costOf(BaseEvent event) {
+        if (event instanceof MessageEvent)
+            return EVENT_COST + 2 * ((MessageEvent) event).getMessageString().length();
+        if (event instanceof DirectMessageEvent)
+            return EVENT_COST + 2 * ((DirectMessageEvent) event).getMessageString().length();
+        return EVENT_COST;
+    }
+
+    /**
+     * Method that chooses lane from which the next event is taken, should be
+     * invoked holding the lock when the queue is not empty
+     *
+     * @return lane of the next event
+     */
+    private Lane selectLane() {
+        if (controlLane.isEmpty())
+            return Lane.DATA;
+        if (dataSize == 0 || controlStreak < CONTROL_WEIGHT)
+            return Lane.CONTROL;
+        return Lane.DATA;
+    }
+
+    /**
+     * Method that takes the next event and records how long it has waited,
+     * should be invoked holding the lock when the queue is not empty
+     *
+     * @return the next event
+     */
+    private BaseEvent dequeue() {
+        Lane lane = selectLane();
+        if (lane == Lane.CONTROL && dataSize > 0)
+            ++controlStreak;
+        else
+            controlStreak = 0;
+
+        Entry entry = lane == Lane.CONTROL ? controlLane.poll() : pollData();
+        waitHistograms.get(lane).record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - entry.enqueueTime));
+        return entry.event;
+    }
+
+    /**
+     * Lanes of the queue
+     *
+     * @author Michal
+     */
+    public enum Lane {
+        /**
+         * events changing who is connected, served first
+         */
+        CONTROL,
+        /**
+         * messages and requests of connected users
+         */
+        DATA
+    }
+
+    /**
+     * Event waiting in a lane with the time it was added
+     *
+     * @author Michal
+     */
+    private static class Entry {
+        /**
+         * waiting event
+         */
+        private final BaseEvent event;
+        /**
+         * time in ns when the event was added
+         */
+        private final long enqueueTime;
+        /**
+         * estimated cost in bytes of the event when it waits in the data lane
+         */
+        private final int cost;
+
+        /**
+         * Constructor
+         *
+         * @param event waiting event
+         */
+        Entry(BaseEvent event) {
+            this.event = event;
+            this.enqueueTime = System.nanoTime();
+            this.cost = costOf(event);
+        }
+    }
+
+    /**
+     * Queue of data events of one client in the deficit round robin
+     *
+     * @author Michal
+     */
+    private class Flow {
+        /**
+         * client that sent the events, or the server key
+         */
+        private final Object key;
+        /**
+         * true if the number of waiting events is limited
+         */
+        private final boolean bounded;
+        /**
+         * waiting events in order
+         */
+        private final ArrayDeque<Entry> entries;
+        /**
+         * condition signalled when an event of this queue is taken
+         */
+        private final Condition notFull;
+        /**
+         * cost in bytes that the queue can still use in its round
+         */
+        private int deficit;
+
+        /**
+         * Constructor
+         *
+         * @param key     client that sent the events, or the server key
+         * @param bounded true if the number of waiting events is limited
+         */
+        Flow(Object key, boolean bounded) {
+            this.key = key;
+            this.bounded = bounded;
+            entries = new ArrayDeque<>();
+            notFull = lock.newCondition();
+        }
+
+        /**
+         * Method that tells whether events of the client have to wait
+         *
+         * @return true if the queue is bounded and full
+         */
+        boolean isFull() {
+            return bounded && entries.size() >= CLIENT_QUEUE_SIZE;
+        }
+    }
+}
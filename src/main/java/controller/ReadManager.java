@@ -0,0 +1,208 @@
+package controller;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import events.BaseEvent;
+import events.HistoryRequestEvent;
+import events.ResendEvent;
+import model.ChatState.UserStatus;
+import model.ModelSnapshot;
+
+/**
+ * Pool of threads that serve read-only requests of clients from snapshots of
+ * the model, so that resending missed messages and pages of history neither
+ * wait behind changes of the model nor hold the Controller. A request is read
+ * from the snapshot published when the Controller took it, so it sees every
+ * change made before. The number of threads is configured with the system
+ * property chatroom.readers.threads
+ *
+ * @author Michal
+ */
+class ReadManager {
+    /**
+     * number of threads serving requests
+     */
+    private static final int READER_THREADS = Math.max(1, Integer.getInteger("chatroom.readers.threads", 2));
+    /**
+     * maximum number of requests waiting for a thread, further ones are
+     * served by the Controller
+     */
+    private static final int PENDING_READS_MAX_COUNT = 256;
+    /**
+     * requests waiting to be served
+     */
+    private final BlockingQueue<PendingRead> pendingReads;
+    /**
+     * mapping classes of events to strategies serving them
+     */
+    private final Map<Class<? extends BaseEvent>, ReadStrategy> eventsToStrategyMap;
+    /**
+     * threads serving requests
+     */
+    private final List<ReaderThread> readerThreads;
+    /**
+     * boolean value telling if the threads should stop serving requests
+     */
+    private volatile boolean stopped;
+
+    /**
+     * Constructor
+     */
+    ReadManager() {
+        pendingReads = new ArrayBlockingQueue<>(PENDING_READS_MAX_COUNT);
+        readerThreads = new ArrayList<>(READER_THREADS);
+        eventsToStrategyMap = new HashMap<>();
+        eventsToStrategyMap.put(ResendEvent.class, new ResendStrategy());
+        eventsToStrategyMap.put(HistoryRequestEvent.class, new HistoryRequestStrategy());
+    }
+
+    /**
+     * Method that starts threads serving requests
+     */
+    void start() {
+        for (int i = 0; i < READER_THREADS; ++i) {
+            ReaderThread readerThread = new ReaderThread();
+            readerThreads.add(readerThread);
+            readerThread.start();
+        }
+    }
+
+    /**
+     * Method that stops threads serving requests, queued requests are dropped
+     */
+    void close() {
+        stopped = true;
+        for (ReaderThread readerThread : readerThreads)
+            readerThread.interrupt();
+    }
+
+    /**
+     * Method that queues request to be served from given snapshot. It never
+     * blocks, if too many requests are waiting this one is served at once by
+     * the calling thread
+     *
+     * @param event    request with the client that sent it
+     * @param snapshot snapshot published when the request was taken
+     */
+    void read(BaseEvent event, ModelSnapshot snapshot) {
+        PendingRead read = new PendingRead(event, snapshot);
+        if (!pendingReads.offer(read))
+            serve(read);
+    }
+
+    /**
+     * Method that serves request by the strategy of its event
+     *
+     * @param read request with its snapshot
+     */
+    private void serve(PendingRead read) {
+        ReadStrategy strategy = eventsToStrategyMap.get(read.event.getClass());
+        if (strategy != null)
+            strategy.execute(read.event, read.snapshot);
+    }
+
+    /**
+     * Request waiting to be served with the snapshot it is read from
+     *
+     * @author Michal
+     */
+    private static class PendingRead {
+        /**
+         * request with the client that sent it
+         */
+        private final BaseEvent event;
+        /**
+         * snapshot published when the request was taken
+         */
+        private final ModelSnapshot snapshot;
+
+        /**
+         * Constructor
+         *
+         * @param event    request with the client that sent it
+         * @param snapshot snapshot published when the request was taken
+         */
+        PendingRead(BaseEvent event, ModelSnapshot snapshot) {
+            this.event = event;
+            this.snapshot = snapshot;
+        }
+    }
+
+    /**
+     * Thread that serves queued requests
+     *
+     * @author Michal
+     */
+    private class ReaderThread extends Thread {
+        ReaderThread() {
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            while (!stopped) {
+                try {
+                    serve(pendingReads.take());
+                } catch (InterruptedException ignored) {
+                }
+            }
+        }
+    }
+
+    /**
+     * Class that provides common base for strategies used to serve requests
+     *
+     * @author Michal
+     */
+    private abstract class ReadStrategy {
+        /**
+         * Abstract method that serves request from a snapshot
+         *
+         * @param event    request with the client that sent it
+         * @param snapshot snapshot from which the request is read
+         */
+        abstract void execute(BaseEvent event, ModelSnapshot snapshot);
+    }
+
+    /**
+     * Strategy that serves ResendEvent
+     *
+     * @author Michal
+     */
+    private class ResendStrategy extends ReadStrategy {
+        /**
+         * Method that sends a status update to the author of this event with
+         * all the messages that he is missing (based on the position he gave
+         * in the ResendEvent)
+         */
+        @Override
+        void execute(BaseEvent e, ModelSnapshot snapshot) {
+            ResendEvent event = (ResendEvent) e;
+            event.getClientManager().send(snapshot.getChatStateWithAllMessages(event.getLastMessageCursor(),
+                    UserStatus.JUST_WORKING));
+        }
+    }
+
+    /**
+     * Strategy that serves HistoryRequestEvent
+     *
+     * @author Michal
+     */
+    private class HistoryRequestStrategy extends ReadStrategy {
+        /**
+         * Method that sends to the author of this event the requested page of
+         * messages
+         */
+        @Override
+        void execute(BaseEvent e, ModelSnapshot snapshot) {
+            HistoryRequestEvent event = (HistoryRequestEvent) e;
+            event.getClientManager().sendHistoryPage(snapshot.getHistoryPage(event.getCursor(),
+                    event.getDirection(), event.getMaxCount(), event.getMaxBytes()));
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package controller;
+
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.Collections;
+import java.util.concurrent.BlockingQueue;
+
+import events.BaseEvent;
+import events.PeerMessageEvent;
+import events.PeerPresenceEvent;
+import model.Cursor;
+
+/**
+ * Class responsible for the follower side of hot-standby replication. It keeps
+ * a link to the leader and puts the streamed messages and presence changes to
+ * the local queue, while the local ServerManager stays in standby. The leader
+ * sends heartbeats while it has nothing to stream, so a link on which nothing
+ * arrives for the promotion timeout is considered lost. When the leader has
+ * been unreachable for the promotion timeout, users of the leader
+ * are removed from the local model and the ServerManager starts accepting
+ * clients, which can then resume from their last received message
+ *
+ * @author Michal
+ */
+public class ReplicaFollower extends Thread {
+    /**
+     * address of the leader's replication port
+     */
+    private InetSocketAddress leaderAddress;
+    /**
+     * local ServerManager, in standby until promotion
+     */
+    private ServerManager serverManager;
+    /**
+     * BlockingQueue to which streamed events are sent
+     */
+    private BlockingQueue<BaseEvent> blockingQueue;
+    /**
+     * time in ms after which unreachable leader is replaced by this node
+     */
+    private final int promotionTimeout;
+    /**
+     * position of the last streamed message
+     */
+    private Cursor lastMessageCursor;
+    /**
+     * id of the leader, known after its first presence event
+     */
+    private Integer leaderNodeId;
+    /**
+     * time in ms when anything was last received from the leader
+     */
+    private long lastContactTime;
+    /**
+     * time in ms between attempts to reach the leader
+     */
+    private static final int RETRY_MILISECONDS = 200;
+
+    /**
+     * Constructor
+     *
+     * @param leaderAddress    address of the leader's replication port
+     * @param serverManager    local ServerManager, it is put in standby
+     * @param blockingQueue    queue to which streamed events are sent
+     * @param promotionTimeout time in ms after which unreachable leader is
+     *                         replaced by this node
+     */
+    public ReplicaFollower(InetSocketAddress leaderAddress, ServerManager serverManager,
+                           BlockingQueue<BaseEvent> blockingQueue, int promotionTimeout) {
+        this.leaderAddress = leaderAddress;
+        this.serverManager = serverManager;
+        this.blockingQueue = blockingQueue;
+        this.promotionTimeout = promotionTimeout;
+        serverManager.setStandby(true);
+        setDaemon(true);
+    }
+
+    /**
+     * Method that follows the leader until it is lost for longer than the
+     * promotion timeout. A node that has never reached its leader is never
+     * promoted
+     */
+    @Override
+    public void run() {
+        while (true) {
+            try {
+                follow();
+            } catch (IOException ignored) {
+            }
+
+            if (leaderNodeId != null && System.currentTimeMillis() - lastContactTime >= promotionTimeout)
+                break;
+            sleep();
+        }
+        promote();
+    }
+
+    /**
+     * Method that connects to the leader and puts streamed events to the
+     * queue until the link breaks or stays silent for the promotion timeout
+     *
+     * @throws IOException when the leader cannot be reached or the link breaks
+     */
+    private void follow() throws IOException {
+        Socket socket = new Socket(leaderAddress.getHostString(), leaderAddress.getPort());
+        try {
+            socket.setTcpNoDelay(true);
+            socket.setSoTimeout(promotionTimeout);
+            ObjectOutputStream objectOutputStream = new ObjectOutputStream(socket.getOutputStream());
+            objectOutputStream.writeObject(lastMessageCursor);
+            objectOutputStream.flush();
+            ObjectInputStream objectInputStream = new ObjectInputStream(socket.getInputStream());
+            lastContactTime = System.currentTimeMillis();
+            stream(objectInputStream);
+        } finally {
+            socket.close();
+        }
+    }
+
+    private void stream(ObjectInputStream objectInputStream) throws IOException {
+        while (true) {
+            BaseEvent event;
+            try {
+                event = (BaseEvent) objectInputStream.readObject();
+            } catch (ClassNotFoundException | InvalidClassException | ClassCastException e) {
+                continue;
+            }
+            lastContactTime = System.currentTimeMillis();
+
+            if (event instanceof PeerMessageEvent)
+                lastMessageCursor = ((PeerMessageEvent) event).getMessage().getCursor();
+            else if (event instanceof PeerPresenceEvent)
+                leaderNodeId = ((PeerPresenceEvent) event).getNodeId();
+            else
+                continue;
+
+            put(event);
+        }
+    }
+
+    /**
+     * Method that removes users of the leader from the local model and makes
+     * the ServerManager accept clients
+     */
+    private void promote() {
+        put(new PeerPresenceEvent(leaderNodeId, Collections.<String>emptySet()));
+        serverManager.setStandby(false);
+        System.out.println("Leader lost, this node has been promoted");
+    }
+
+    private void put(BaseEvent event) {
+        event.markEnqueued();
+        try {
+            blockingQueue.put(event);
+        } catch (InterruptedException ignored) {
+        }
+    }
+
+    private void sleep() {
+        try {
+            Thread.sleep(RETRY_MILISECONDS);
+        } catch (InterruptedException ignored) {
+        }
+    }
+}
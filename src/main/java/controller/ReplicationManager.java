@@ -0,0 +1,428 @@
+package controller;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import events.BaseEvent;
+import events.HeartbeatEvent;
+import events.PeerMessageEvent;
+import events.PeerPresenceEvent;
+import model.Cursor;
+import model.Message;
+import model.ModelSnapshot;
+
+/**
+ * Class responsible for the leader side of hot-standby replication. It listens
+ * for followers and streams to them every message appended to the model and
+ * every change of users logged in to this server. A follower first sends the
+ * position of the last message it holds, on a thread of its own, then the
+ * Controller adds it to the followers together with a snapshot of the model.
+ * The missing messages are streamed from the snapshot by a thread of the
+ * follower, while events of the live stream wait behind them in a bounded
+ * queue, so that no append is lost or duplicated. The same thread then writes
+ * the live stream and heartbeats while it is silent, so the Controller never
+ * waits for a follower and a follower can tell a quiet leader from a lost one
+ *
+ * @author Michal
+ */
+public class ReplicationManager extends Thread {
+    /**
+     * id of this node
+     */
+    private final int nodeId;
+    /**
+     * ServerSocket to listen for followers
+     */
+    private ServerSocket serverSocket;
+    /**
+     * BlockingQueue to which join events of followers are sent
+     */
+    private BlockingQueue<BaseEvent> blockingQueue;
+    /**
+     * set of followers that receive the live stream (has to be synchronized)
+     */
+    private Set<Follower> followers;
+    /**
+     * time in ms in which a follower has to send its position after connecting
+     */
+    private static final int HANDSHAKE_MILISECONDS = 5000;
+    /**
+     * maximum number of live events waiting to be written to a follower, a
+     * follower that falls further behind is dropped
+     */
+    private static final int PENDING_EVENTS_MAX_COUNT = 100000;
+    /**
+     * time in ms between two heartbeats sent to a follower while there is
+     * nothing to stream, it has to be shorter than the promotion timeout of
+     * followers
+     */
+    private static final int HEARTBEAT_MILISECONDS = Integer.getInteger("chatroom.replication.heartbeat", 200);
+
+    /**
+     * Constructor
+     *
+     * @param nodeId        id of this node
+     * @param port          port on which the manager will listen for followers
+     * @param blockingQueue queue to which join events of followers are sent
+     * @throws IOException when ServerSocket cannot be created on selected port
+     */
+    public ReplicationManager(int nodeId, int port, BlockingQueue<BaseEvent> blockingQueue) throws IOException {
+        this.nodeId = nodeId;
+        this.serverSocket = new ServerSocket(port);
+        this.blockingQueue = blockingQueue;
+        followers = new HashSet<>();
+        setDaemon(true);
+    }
+
+    /**
+     * Method that streams message appended to the model to all followers
+     *
+     * @param message appended message
+     */
+    public void relayMessage(Message message) {
+        broadcast(new PeerMessageEvent(nodeId, message));
+    }
+
+    /**
+     * Method that streams current set of users logged in to this server to all
+     * followers
+     *
+     * @param userNames names of users logged in to this server
+     */
+    public void relayPresence(Set<String> userNames) {
+        broadcast(new PeerPresenceEvent(nodeId, userNames));
+    }
+
+    private void broadcast(BaseEvent event) {
+        synchronized (followers) {
+            followers.removeIf(follower -> !follower.send(event));
+        }
+    }
+
+    /**
+     * Method that adds follower that has just joined to the live stream and
+     * starts the thread that sends it the missing messages and users, then
+     * the live stream. It has to be invoked on the Controller thread with a
+     * snapshot published by it, so that every append is either in the
+     * snapshot or in the live stream
+     *
+     * @param follower  follower that has joined
+     * @param cursor    position of the last message held by the follower
+     * @param snapshot  snapshot of the model with all appended messages
+     * @param userNames names of users logged in to this server
+     */
+    void addFollower(Follower follower, Cursor cursor, ModelSnapshot snapshot, Set<String> userNames) {
+        synchronized (followers) {
+            followers.add(follower);
+        }
+        new StreamThread(follower, cursor, snapshot, userNames).start();
+    }
+
+    /**
+     * Method responsible for listening for followers
+     */
+    @Override
+    public void run() {
+        while (!serverSocket.isClosed()) {
+            Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (IOException e) {
+                continue;
+            }
+
+            new HandshakeThread(socket).start();
+        }
+    }
+
+    /**
+     * Method that closes the replication socket and links to all followers
+     *
+     * @throws IOException if socket cannot be closed
+     */
+    public void closeSocket() throws IOException {
+        serverSocket.close();
+        synchronized (followers) {
+            for (Follower follower : followers)
+                follower.close();
+            followers.clear();
+        }
+    }
+
+    /**
+     * Thread that reads position sent by a follower which has just connected
+     * and puts its join event to the Controller's queue, so that a silent
+     * follower doesn't hold the accepting of others
+     *
+     * @author Michal
+     */
+    private class HandshakeThread extends Thread {
+        /**
+         * socket of the follower
+         */
+        private final Socket socket;
+
+        /**
+         * Constructor
+         *
+         * @param socket connected socket of the follower
+         */
+        HandshakeThread(Socket socket) {
+            this.socket = socket;
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            try {
+                Follower follower = new Follower(socket);
+                FollowerJoinEvent event = new FollowerJoinEvent(follower, follower.readCursor());
+                event.markEnqueued();
+                blockingQueue.put(event);
+            } catch (IOException | ClassNotFoundException | ClassCastException | InterruptedException e) {
+                try {
+                    socket.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    /**
+     * Thread that sends follower which has just joined the messages it is
+     * missing, read from a snapshot of the model, and users of this server,
+     * then the live events that have been waiting behind them and all the
+     * next ones, until the link breaks
+     *
+     * @author Michal
+     */
+    private class StreamThread extends Thread {
+        /**
+         * follower that has joined
+         */
+        private final Follower follower;
+        /**
+         * position of the last message held by the follower
+         */
+        private final Cursor cursor;
+        /**
+         * snapshot of the model published when the follower joined
+         */
+        private final ModelSnapshot snapshot;
+        /**
+         * names of users logged in to this server when the follower joined
+         */
+        private final Set<String> userNames;
+
+        /**
+         * Constructor
+         *
+         * @param follower  follower that has joined
+         * @param cursor    position of the last message held by the follower
+         * @param snapshot  snapshot of the model published when the follower
+         *                  joined
+         * @param userNames names of users logged in to this server
+         */
+        StreamThread(Follower follower, Cursor cursor, ModelSnapshot snapshot, Set<String> userNames) {
+            this.follower = follower;
+            this.cursor = cursor;
+            this.snapshot = snapshot;
+            this.userNames = userNames;
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            for (Message message : snapshot.getMessagesAfter(cursor)) {
+                if (!follower.write(new PeerMessageEvent(nodeId, message)))
+                    return;
+            }
+
+            if (follower.write(new PeerPresenceEvent(nodeId, userNames)))
+                follower.writePendingEvents();
+        }
+    }
+
+    /**
+     * Link to one follower
+     *
+     * @author Michal
+     */
+    static class Follower {
+        /**
+         * socket of the link
+         */
+        private Socket socket;
+        /**
+         * stream to which replicated events are sent
+         */
+        private ObjectOutputStream objectOutputStream;
+        /**
+         * live events waiting to be written by the thread of the follower
+         */
+        private BlockingQueue<BaseEvent> pendingEvents;
+        /**
+         * boolean value telling if the link has been closed
+         */
+        private volatile boolean closed;
+
+        /**
+         * Constructor
+         *
+         * @param socket connected socket of the link
+         * @throws IOException if could not create ObjectStream
+         */
+        Follower(Socket socket) throws IOException {
+            this.socket = socket;
+            socket.setTcpNoDelay(true);
+            objectOutputStream = new ObjectOutputStream(socket.getOutputStream());
+            objectOutputStream.flush();
+            pendingEvents = new LinkedBlockingQueue<>(PENDING_EVENTS_MAX_COUNT);
+        }
+
+        /**
+         * Method that reads position of the last message held by the follower
+         *
+         * @return position of the last message, null if the follower holds
+         * no messages
+         * @throws IOException            when reading fails or times out
+         * @throws ClassNotFoundException when unknown object has been sent
+         */
+        Cursor readCursor() throws IOException, ClassNotFoundException {
+            socket.setSoTimeout(HANDSHAKE_MILISECONDS);
+            ObjectInputStream objectInputStream = new ObjectInputStream(socket.getInputStream());
+            Cursor cursor = (Cursor) objectInputStream.readObject();
+            socket.setSoTimeout(0);
+            return cursor;
+        }
+
+        /**
+         * Method that writes the live events which have been waiting and all
+         * the next ones, with a heartbeat whenever none comes for the
+         * heartbeat interval, until the link is closed. It is invoked by the
+         * thread of the follower once it has caught up
+         */
+        void writePendingEvents() {
+            try {
+                while (!closed) {
+                    BaseEvent event = pendingEvents.poll(HEARTBEAT_MILISECONDS, TimeUnit.MILLISECONDS);
+                    if (!write(event != null ? event : new HeartbeatEvent()))
+                        return;
+                }
+            } catch (InterruptedException e) {
+                close();
+            }
+        }
+
+        /**
+         * Method that queues event of the live stream for the thread of the
+         * follower. It never blocks, a follower that has fallen too far
+         * behind is closed
+         *
+         * @param event event to be sent
+         * @return false if the link is broken and has been closed
+         */
+        boolean send(BaseEvent event) {
+            if (closed)
+                return false;
+
+            if (!pendingEvents.offer(event)) {
+                close();
+                return false;
+            }
+            return true;
+        }
+
+        /**
+         * Method that writes event to the follower. The stream is reset after
+         * every event, so that it doesn't keep references to all the
+         * replicated messages. It is invoked only by the thread of the
+         * follower
+         *
+         * @param event event to be written
+         * @return false if the link is broken and has been closed
+         */
+        private boolean write(BaseEvent event) {
+            try {
+                objectOutputStream.writeObject(event);
+                objectOutputStream.reset();
+                return true;
+            } catch (IOException e) {
+                close();
+                return false;
+            }
+        }
+
+        /**
+         * Method that closes the link
+         */
+        void close() {
+            closed = true;
+            pendingEvents.clear();
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * Event put to the Controller's queue when a follower joins. It is created
+     * only on the server side and never sent over network
+     *
+     * @author Michal
+     */
+    static class FollowerJoinEvent extends BaseEvent {
+        /**
+         * serialVersionUID for this class
+         */
+        private static final long serialVersionUID = 1L;
+        /**
+         * follower that has joined
+         */
+        private transient Follower follower;
+        /**
+         * position of the last message held by the follower
+         */
+        private Cursor cursor;
+
+        /**
+         * Constructor
+         *
+         * @param follower follower that has joined
+         * @param cursor   position of the last message held by the follower
+         */
+        FollowerJoinEvent(Follower follower, Cursor cursor) {
+            this.follower = follower;
+            this.cursor = cursor;
+        }
+
+        /**
+         * Method that returns follower that has joined
+         *
+         * @return follower that has joined, null if the event has been
+         * deserialized
+         */
+        Follower getFollower() {
+            return follower;
+        }
+
+        /**
+         * Method that returns position of the last message held by the
+         * follower
+         *
+         * @return position of the last message, null if it holds no messages
+         */
+        Cursor getCursor() {
+            return cursor;
+        }
+    }
+}
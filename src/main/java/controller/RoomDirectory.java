@@ -0,0 +1,312 @@
+package controller;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Lightweight directory of a sharded deployment, telling clients which node
+ * owns a room. Nodes register over HTTP and renew their registration as a
+ * lease; a node that stops renewing is dropped after the lease timeout and
+ * its rooms move to the remaining nodes. Owners are found on a HashRing of
+ * the registered nodes, which every node rebuilds from the members returned
+ * by its renewal, so a node knows which of its rooms have moved away. The
+ * directory keeps no rooms, it is a stand-in for a real coordination service
+ * and can run next to the nodes on one machine:
+ * POST /register?node=id&amp;address=host:port answers members of the ring,
+ * GET /lookup?room=name answers the owner of the room
+ *
+ * @author Michal
+ */
+public class RoomDirectory {
+    /**
+     * time in ms after which a node that hasn't renewed its lease is dropped
+     */
+    static final int LEASE_TIMEOUT = Integer.getInteger("chatroom.rooms.leaseTimeout", 3000);
+    /**
+     * time in ms a client or node waits for the directory or a node
+     */
+    private static final int REQUEST_TIMEOUT = 2000;
+    /**
+     * pattern of allowed names of rooms
+     */
+    private static final Pattern ROOM_NAME_PATTERN = Pattern.compile("[A-Za-z0-9_-]{1,64}");
+    /**
+     * pattern of a member node in the answer to a registration
+     */
+    private static final Pattern NODE_PATTERN = Pattern.compile("\\{\"node\":(\\d+),\"address\":\"([^\"]*)\"}");
+    /**
+     * server answering requests
+     */
+    private final HttpServer httpServer;
+    /**
+     * mapping ids of registered nodes to their leases
+     */
+    private final Map<Integer, Lease> nodeToLeaseMap;
+    /**
+     * ring of the registered nodes, rebuilt when they change
+     */
+    private HashRing ring;
+
+    /**
+     * Constructor
+     *
+     * @param port port on which the directory answers
+     * @throws IOException if the port cannot be bound
+     */
+    public RoomDirectory(int port) throws IOException {
+        nodeToLeaseMap = new HashMap<>();
+        ring = HashRing.EMPTY;
+        httpServer = HttpServer.create(new InetSocketAddress(port), AdmissionControl.BACKLOG);
+        httpServer.setExecutor(Executors.newSingleThreadExecutor());
+        httpServer.createContext("/register", this::register);
+        httpServer.createContext("/lookup", this::lookup);
+    }
+
+    /**
+     * Method that starts answering requests
+     */
+    public void start() {
+        httpServer.start();
+    }
+
+    /**
+     * Method that registers a node or renews its lease, and answers with all
+     * member nodes
+     *
+     * @param exchange registration request
+     */
+    private void register(HttpExchange exchange) {
+        if (!HttpGateway.checkMethod(exchange, "POST"))
+            return;
+
+        String node = HttpGateway.getParameter(exchange, "node");
+        String address = HttpGateway.getParameter(exchange, "address");
+        int nodeId;
+        try {
+            nodeId = Integer.parseInt(node);
+        } catch (NumberFormatException e) {
+            HttpGateway.respondError(exchange, 400, "node id expected");
+            return;
+        }
+        if (nodeId < 0 || address == null || address.indexOf(':') < 0 || address.indexOf('"') >= 0) {
+            HttpGateway.respondError(exchange, 400, "node id and host:port expected");
+            return;
+        }
+
+        HashRing current;
+        synchronized (this) {
+            nodeToLeaseMap.put(nodeId, new Lease(address, System.currentTimeMillis() + LEASE_TIMEOUT));
+            current = getRing();
+        }
+
+        StringBuilder json = new StringBuilder("{\"nodes\":[");
+        for (Map.Entry<Integer, String> entry : current.getNodes().entrySet()) {
+            if (json.charAt(json.length() - 1) != '[')
+                json.append(',');
+            json.append("{\"node\":").append(entry.getKey()).append(",\"address\":")
+                    .append(JsonEncoder.encodeString(entry.getValue())).append('}');
+        }
+        HttpGateway.respond(exchange, 200, json.append("]}").toString());
+    }
+
+    /**
+     * Method that answers owner of a room
+     *
+     * @param exchange lookup request
+     */
+    private void lookup(HttpExchange exchange) {
+        if (!HttpGateway.checkMethod(exchange, "GET"))
+            return;
+
+        String room = HttpGateway.getParameter(exchange, "room");
+        if (!isValidRoomName(room)) {
+            HttpGateway.respondError(exchange, 400, "room name expected");
+            return;
+        }
+
+        HashRing current;
+        synchronized (this) {
+            current = getRing();
+        }
+        int owner = current.getOwner(room);
+        if (owner < 0) {
+            HttpGateway.respondError(exchange, 503, "no nodes");
+            return;
+        }
+        HttpGateway.respond(exchange, 200, "{\"room\":" + JsonEncoder.encodeString(room) + ",\"node\":" + owner
+                + ",\"address\":" + JsonEncoder.encodeString(current.getAddress(owner)) + "}");
+    }
+
+    /**
+     * Method that drops expired leases and returns ring of the remaining
+     * nodes. The ring is rebuilt only if the nodes have changed. It must be
+     * invoked holding the lock of this directory
+     *
+     * @return ring of the registered nodes
+     */
+    private HashRing getRing() {
+        long now = System.currentTimeMillis();
+        Map<Integer, String> nodes = new HashMap<>();
+        Iterator<Lease> iterator = nodeToLeaseMap.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().expiryTime < now)
+                iterator.remove();
+        }
+        for (Map.Entry<Integer, Lease> entry : nodeToLeaseMap.entrySet())
+            nodes.put(entry.getKey(), entry.getValue().address);
+
+        if (!nodes.equals(ring.getNodes()))
+            ring = new HashRing(nodes);
+        return ring;
+    }
+
+    /**
+     * Method that checks whether a name can be a name of a room: 1 to 64
+     * letters, digits, '_' or '-'
+     *
+     * @param room checked name
+     * @return true if the name is allowed
+     */
+    static boolean isValidRoomName(String room) {
+        return room != null && ROOM_NAME_PATTERN.matcher(room).matches();
+    }
+
+    /**
+     * Method that registers a node in the directory or renews its lease
+     *
+     * @param directory address of the directory
+     * @param nodeId    id of the node
+     * @param address   address of the node as host:port, on which it opens
+     *                  rooms
+     * @return ring of all registered nodes
+     * @throws IOException if the directory cannot be reached
+     */
+    static HashRing register(InetSocketAddress directory, int nodeId, String address) throws IOException {
+        String answer = request("POST", "http://" + directory.getHostString() + ":" + directory.getPort()
+                + "/register?node=" + nodeId + "&address=" + URLEncoder.encode(address, "UTF-8"));
+        Map<Integer, String> nodes = new HashMap<>();
+        Matcher matcher = NODE_PATTERN.matcher(answer);
+        while (matcher.find())
+            nodes.put(Integer.parseInt(matcher.group(1)), matcher.group(2));
+        return new HashRing(nodes);
+    }
+
+    /**
+     * Method that finds address on which a room is served: it asks the
+     * directory for the owner of the room, then asks the owner to open it
+     *
+     * @param room      name of the room
+     * @param directory address of the directory
+     * @return address of the room on its owner
+     * @throws IOException if the room cannot be opened, e.g. it has just
+     *                     moved to another node
+     */
+    public static InetSocketAddress resolve(String room, InetSocketAddress directory) throws IOException {
+        if (!isValidRoomName(room))
+            throw new IOException("Invalid room name " + room);
+
+        String owner = getField(request("GET", "http://" + directory.getHostString() + ":" + directory.getPort()
+                + "/lookup?room=" + room), "address");
+        int colon = owner.lastIndexOf(':');
+        String host = owner.substring(0, colon);
+        String port = getField(request("POST", "http://" + owner + "/open?room=" + room), "port");
+        return new InetSocketAddress(host, Integer.parseInt(port));
+    }
+
+    /**
+     * Method that sends a request without a body and returns the answer
+     *
+     * @param method method of the request
+     * @param url    URL of the request
+     * @return body of a successful answer
+     * @throws IOException if the request fails or is not successful
+     */
+    private static String request(String method, String url) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        try {
+            connection.setRequestMethod(method);
+            connection.setConnectTimeout(REQUEST_TIMEOUT);
+            connection.setReadTimeout(REQUEST_TIMEOUT);
+            if (method.equals("POST")) {
+                connection.setDoOutput(true);
+                connection.getOutputStream().close();
+            }
+
+            int status = connection.getResponseCode();
+            InputStream inputStream = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            if (inputStream != null) {
+                try (InputStream stream = inputStream) {
+                    byte[] buffer = new byte[1024];
+                    int length;
+                    while ((length = stream.read(buffer)) >= 0)
+                        body.write(buffer, 0, length);
+                }
+            }
+            String answer = new String(body.toByteArray(), StandardCharsets.UTF_8);
+            if (status != 200)
+                throw new IOException(url + " answered " + status + " " + answer);
+            return answer;
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * Method that extracts a string or number field from a flat JSON answer
+     * of the directory or a node. Values in these answers are never escaped
+     *
+     * @param json  answer
+     * @param field name of the field
+     * @return value of the field
+     * @throws IOException if the answer has no such field
+     */
+    private static String getField(String json, String field) throws IOException {
+        Matcher matcher = Pattern.compile("\"" + field + "\":\"?([^\",}]*)").matcher(json);
+        if (!matcher.find())
+            throw new IOException("Answer without " + field + ": " + json);
+        return matcher.group(1);
+    }
+
+    /**
+     * Registration of a node, valid until it expires
+     *
+     * @author Michal
+     */
+    private static class Lease {
+        /**
+         * address of the node as host:port
+         */
+        private final String address;
+        /**
+         * time in ms after which the node is dropped
+         */
+        private final long expiryTime;
+
+        /**
+         * Constructor
+         *
+         * @param address    address of the node as host:port
+         * @param expiryTime time in ms after which the node is dropped
+         */
+        Lease(String address, long expiryTime) {
+            this.address = address;
+            this.expiryTime = expiryTime;
+        }
+    }
+}
@@ -0,0 +1,287 @@
+package controller;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import events.BaseEvent;
+import model.Model;
+
+/**
+ * Node of a sharded deployment, serving the rooms that the HashRing assigns
+ * to it. Every room is a separate chat with its own model, queue and
+ * Controller, accepting clients on its own port, so rooms don't share any
+ * state and a busy room doesn't delay others. A room is opened on the first
+ * request for it:
+ * POST /open?room=name answers the port of the room, or 421 if the room
+ * belongs to another node.
+ * The node keeps its registration in the RoomDirectory alive and learns the
+ * members of the ring from it. When a room moves to another node, e.g. after
+ * a node has joined, it is closed and its clients are disconnected so that
+ * they look the room up again. If the directory cannot be reached for as long
+ * as a lease lasts, the directory has already given the rooms of this node to
+ * others, so the node closes all of them until it registers again
+ *
+ * @author Michal
+ */
+public class RoomHost {
+    /**
+     * time in ms between renewals of the registration
+     */
+    private static final int RENEW_INTERVAL = Math.max(100, RoomDirectory.LEASE_TIMEOUT / 3);
+    /**
+     * id of this node
+     */
+    private final int nodeId;
+    /**
+     * address of this node as host:port, as seen by clients
+     */
+    private final String address;
+    /**
+     * address of the directory
+     */
+    private final InetSocketAddress directory;
+    /**
+     * server answering requests to open rooms
+     */
+    private final HttpServer httpServer;
+    /**
+     * mapping names of rooms opened on this node to the rooms, guarded by the
+     * lock of this node
+     */
+    private final Map<String, Room> nameToRoomMap;
+    /**
+     * ring of the nodes known from the last renewal, guarded by the lock of
+     * this node
+     */
+    private HashRing ring;
+
+    /**
+     * Constructor
+     *
+     * @param nodeId        id of this node, unique in the deployment
+     * @param port          port on which rooms are opened
+     * @param advertiseHost host on which clients reach this node
+     * @param directory     address of the directory
+     * @throws IOException if the port cannot be bound
+     */
+    public RoomHost(int nodeId, int port, String advertiseHost, InetSocketAddress directory) throws IOException {
+        this.nodeId = nodeId;
+        this.directory = directory;
+        nameToRoomMap = new HashMap<>();
+        ring = HashRing.EMPTY;
+        httpServer = HttpServer.create(new InetSocketAddress(port), AdmissionControl.BACKLOG);
+        httpServer.setExecutor(Executors.newSingleThreadExecutor());
+        httpServer.createContext("/open", this::open);
+        address = advertiseHost + ":" + httpServer.getAddress().getPort();
+    }
+
+    /**
+     * Method that registers this node in the directory and starts opening
+     * rooms
+     */
+    public void start() {
+        new LeaseThread().start();
+        httpServer.start();
+    }
+
+    /**
+     * Method that opens a room owned by this node, or finds an open one, and
+     * answers its port
+     *
+     * @param exchange request to open a room
+     */
+    private void open(HttpExchange exchange) {
+        if (!HttpGateway.checkMethod(exchange, "POST"))
+            return;
+
+        String name = HttpGateway.getParameter(exchange, "room");
+        if (!RoomDirectory.isValidRoomName(name)) {
+            HttpGateway.respondError(exchange, 400, "room name expected");
+            return;
+        }
+
+        Room room;
+        synchronized (this) {
+            if (ring.getOwner(name) != nodeId) {
+                // the client asked a directory that knows more, or less, than
+                // this node, it retries when the rings agree
+                HttpGateway.respondError(exchange, 421, "room not owned by this node");
+                return;
+            }
+
+            room = nameToRoomMap.get(name);
+            try {
+                if (room == null) {
+                    room = new Room(name);
+                    nameToRoomMap.put(name, room);
+                }
+            } catch (IOException e) {
+                HttpGateway.respondError(exchange, 503, "room cannot be opened");
+                return;
+            }
+        }
+        HttpGateway.respond(exchange, 200, "{\"room\":" + JsonEncoder.encodeString(name) + ",\"port\":"
+                + room.serverManager.getLocalPort() + "}");
+    }
+
+    /**
+     * Method that replaces the ring and closes rooms which now belong to
+     * other nodes. A room that moves back later is opened again from scratch
+     *
+     * @param current new ring, empty if this node has lost its lease
+     * @return number of closed rooms
+     */
+    private synchronized int rebalance(HashRing current) {
+        ring = current;
+        int closedCount = 0;
+        Iterator<Map.Entry<String, Room>> iterator = nameToRoomMap.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Room> entry = iterator.next();
+            if (current.getOwner(entry.getKey()) == nodeId)
+                continue;
+
+            iterator.remove();
+            entry.getValue().close();
+            ++closedCount;
+        }
+        return closedCount;
+    }
+
+    /**
+     * Room opened on this node: a chat on an ephemeral port
+     *
+     * @author Michal
+     */
+    private class Room {
+        /**
+         * manager of clients of the room
+         */
+        private final ServerManager serverManager;
+        /**
+         * controller of the room
+         */
+        private final Controller controller;
+        /**
+         * queue of events of the room
+         */
+        private final BlockingQueue<BaseEvent> blockingQueue;
+
+        /**
+         * Constructor that starts the chat of the room
+         *
+         * @param name name of the room
+         * @throws IOException if a port cannot be bound
+         */
+        Room(String name) throws IOException {
+            blockingQueue = new PriorityLaneQueue();
+            serverManager = new ServerManager(ConnectionListener.listen(0, AdmissionControl.BACKLOG), blockingQueue);
+            controller = new Controller(new Model(nodeId), serverManager, blockingQueue);
+            serverManager.start();
+            Thread controllerThread = new Thread(controller::start, "room-" + name);
+            controllerThread.start();
+        }
+
+        /**
+         * Method that closes the room: its port, connections of its clients
+         * and its controller. Its history is dropped
+         */
+        void close() {
+            serverManager.setStandby(true);
+            try {
+                serverManager.closeSocket();
+            } catch (IOException e) {
+                System.err.println("Cannot close room socket!");
+            }
+            serverManager.dropClients();
+            controller.stop();
+            // readers of clients waiting for space in the queue see their
+            // connections closed
+            blockingQueue.clear();
+        }
+    }
+
+    /**
+     * Method that returns the current ring
+     *
+     * @return ring known from the last renewal
+     */
+    private synchronized HashRing getRing() {
+        return ring;
+    }
+
+    /**
+     * Thread that renews the registration of this node and applies changes
+     * of the ring. Failures of renewals are reported once until the next
+     * successful one
+     *
+     * @author Michal
+     */
+    private class LeaseThread extends Thread {
+        /**
+         * time in ms at which the last successful renewal was requested
+         */
+        private long renewalTime;
+        /**
+         * boolean value telling if the last renewal has failed
+         */
+        private boolean failing;
+
+        /**
+         * Constructor
+         */
+        LeaseThread() {
+            setDaemon(true);
+            renewalTime = System.currentTimeMillis();
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                // the directory extends the lease after the request is sent,
+                // so the lease of this node never outlasts that in the directory
+                long requestTime = System.currentTimeMillis();
+                try {
+                    HashRing current = RoomDirectory.register(directory, nodeId, address);
+                    renewalTime = requestTime;
+                    if (failing) {
+                        failing = false;
+                        System.err.println("Registration renewed");
+                    }
+                    if (!current.getNodes().equals(getRing().getNodes()))
+                        rebalance(current);
+                } catch (IOException e) {
+                    if (!failing) {
+                        failing = true;
+                        System.err.println("Cannot renew registration: " + e.getMessage());
+                    }
+                    expire();
+                }
+                try {
+                    Thread.sleep(RENEW_INTERVAL);
+                } catch (InterruptedException ignored) {
+                }
+            }
+        }
+
+        /**
+         * Method that closes all rooms if the lease of this node has expired,
+         * as the directory has already given them to other nodes
+         */
+        private void expire() {
+            if (System.currentTimeMillis() - renewalTime < RoomDirectory.LEASE_TIMEOUT
+                    || getRing() == HashRing.EMPTY)
+                return;
+
+            int closedCount = rebalance(HashRing.EMPTY);
+            System.err.println("Lease expired, closed " + closedCount + " rooms");
+        }
+    }
+}
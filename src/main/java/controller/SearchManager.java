@@ -0,0 +1,119 @@
+package controller;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import events.SearchRequestEvent;
+import model.SearchIndex;
+import model.SearchResult;
+
+/**
+ * Thread that indexes messages added to the model, so that they can be
+ * searched. Searches are run by another thread of this manager against the
+ * already indexed messages, so neither indexing nor searching ever blocks the
+ * Controller
+ *
+ * @author Michal
+ */
+class SearchManager extends Thread {
+    /**
+     * maximum number of messages sent in reply to one search
+     */
+    private static final int RESULTS_MAX_COUNT = 100;
+    /**
+     * maximum number of searches waiting to be run, further ones are refused
+     */
+    private static final int PENDING_SEARCHES_MAX_COUNT = 64;
+    /**
+     * index of messages of the model
+     */
+    private final SearchIndex searchIndex;
+    /**
+     * searches waiting to be run
+     */
+    private final BlockingQueue<SearchRequestEvent> pendingSearches;
+    /**
+     * thread running searches
+     */
+    private final SearchThread searchThread;
+    /**
+     * boolean value telling if indexing and searching should stop
+     */
+    private volatile boolean stopped;
+
+    /**
+     * Constructor
+     *
+     * @param searchIndex index filled by the model
+     */
+    SearchManager(SearchIndex searchIndex) {
+        this.searchIndex = searchIndex;
+        pendingSearches = new ArrayBlockingQueue<>(PENDING_SEARCHES_MAX_COUNT);
+        searchThread = new SearchThread();
+        setDaemon(true);
+    }
+
+    /**
+     * Method that queues search requested by a client. It never blocks, if
+     * too many searches are waiting the search is refused at once
+     *
+     * @param event search request with the client that sent it
+     */
+    void search(SearchRequestEvent event) {
+        if (!pendingSearches.offer(event))
+            event.getClientManager().sendSearchResult(SearchResult.refused(event.getQuery()));
+    }
+
+    /**
+     * Method that stops indexing and searching, queued searches are dropped
+     */
+    void close() {
+        stopped = true;
+        interrupt();
+        searchThread.interrupt();
+    }
+
+    /**
+     * Method that starts the searching thread and indexes queued messages
+     * until this manager is closed
+     */
+    @Override
+    public void run() {
+        searchThread.start();
+        while (!stopped) {
+            try {
+                searchIndex.indexNext();
+            } catch (InterruptedException ignored) {
+            }
+        }
+    }
+
+    /**
+     * Thread that runs queued searches and sends results to the clients that
+     * requested them
+     *
+     * @author Michal
+     */
+    private class SearchThread extends Thread {
+        SearchThread() {
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            while (!stopped) {
+                SearchRequestEvent event;
+                try {
+                    event = pendingSearches.take();
+                } catch (InterruptedException e) {
+                    continue;
+                }
+
+                ClientManager client = event.getClientManager();
+                int maxResults = Math.min(Math.max(event.getMaxResults(), 1), RESULTS_MAX_COUNT);
+                client.sendSearchResult(searchIndex.search(event.getQuery(), event.getAuthor(),
+                        event.getFromTime(), event.getToTime(), maxResults));
+            }
+        }
+    }
+}
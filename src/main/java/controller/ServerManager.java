@@ -1,20 +1,24 @@
 package controller;
 
 import java.io.IOException;
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.net.InetAddress;
 import java.util.HashSet;
-import java.util.Iterator;
+import java.util.List;
 import java.util.Set;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import events.BaseEvent;
 import model.ChatState;
+import model.ChatState.UserStatus;
+import model.UserRegistry;
 
 /**
  * Class responsible for listening for new client connections. It has a
  * collection of all connected clients. It can broadcast messages to all
- * connected clients
+ * connected clients. Clients are accepted on a TCP port and optionally on
+ * additional listeners, e.g. a Unix domain socket, each served by its own
+ * thread
  *
  * @author Michal
  */
@@ -28,13 +32,27 @@ public class ServerManager extends Thread {
      */
     private BlockingQueue<BaseEvent> blockingQueue;
     /**
-     * ServerSocket to listen for clients
+     * listeners of clients, the first one is served by this thread
      */
-    private ServerSocket serverSocket;
+    private List<ConnectionListener> listeners;
     /**
-     * maximum number of clients currently connected to server
+     * limits of connections accepted by this manager
      */
-    private static final int CLIENTS_MAX_COUNT = 50;
+    private AdmissionControl admissionControl;
+    /**
+     * boolean value telling if this manager is a hot standby, which
+     * immediately closes every client connection
+     */
+    private volatile boolean standby;
+    /**
+     * thread that sends heartbeats to clients and drops silent ones
+     */
+    private ConnectionReaper connectionReaper;
+    /**
+     * registry in which new clients claim their user names, null if the
+     * Controller checks them
+     */
+    private volatile UserRegistry userRegistry;
 
     /**
      * Constructor
@@ -44,25 +62,114 @@ public class ServerManager extends Thread {
      * @throws IOException when ServerSocket cannot be created on selected port
      */
     public ServerManager(int port, BlockingQueue<BaseEvent> blockingQueue) throws IOException {
-        this.serverSocket = new ServerSocket(port);
+        this(ConnectionListener.listen(port, AdmissionControl.BACKLOG), blockingQueue);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param listener      listener on which the manager will accept users
+     * @param blockingQueue queue with events
+     */
+    public ServerManager(ConnectionListener listener, BlockingQueue<BaseEvent> blockingQueue) {
         this.blockingQueue = blockingQueue;
+        listeners = new CopyOnWriteArrayList<>();
+        listeners.add(listener);
         clients = new HashSet<>();
+        admissionControl = new AdmissionControl();
+        connectionReaper = new ConnectionReaper();
     }
 
     /**
-     * Method that sends a message to every user connected to the server
+     * Method that sends a message to every user connected to the server. The
+     * state is encoded once and the same frame is written to every client
      *
      * @param state ChatState to be broadcasted
      */
     public void broadcast(ChatState state) {
-        synchronized (clients) {
-            for (ClientManager client : clients) {
-                if (client.getLoginFlag())
-                    client.send(state);
+        FrameEncoder frame = FrameEncoder.acquire();
+        try {
+            frame.encode(state);
+            synchronized (clients) {
+                for (ClientManager client : clients) {
+                    if (client.getLoginFlag())
+                        client.send(state, frame);
+                }
             }
+        } catch (IOException ignored) {
+        } finally {
+            FrameEncoder.release(frame);
         }
     }
 
+    /**
+     * Method that puts this manager in standby or makes it accept clients.
+     * Clients connecting to a standby manager are disconnected at once, so
+     * that they can try another server
+     *
+     * @param standby true if clients should not be accepted
+     */
+    public void setStandby(boolean standby) {
+        this.standby = standby;
+    }
+
+    /**
+     * Method that makes clients connected from now on claim their user names
+     * in given registry as soon as they send LogInEvent
+     *
+     * @param userRegistry registry of names of users
+     */
+    public void setUserRegistry(UserRegistry userRegistry) {
+        this.userRegistry = userRegistry;
+    }
+
+    /**
+     * Method that makes this manager accept users also on given listener,
+     * e.g. a Unix domain socket for clients on the same host. It should be
+     * invoked before starting the manager
+     *
+     * @param listener additional listener
+     */
+    public void addListener(ConnectionListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Method that returns registry in which new clients claim their user
+     * names
+     *
+     * @return registry of names of users, null if the Controller checks them
+     */
+    UserRegistry getUserRegistry() {
+        return userRegistry;
+    }
+
+    /**
+     * Method that adds client connected through another transport than the
+     * server socket, e.g. the HTTP gateway, if limits of the admission control
+     * allow it. The client is watched by the connection reaper
+     *
+     * @param client  newly connected client
+     * @param address address from which the client connected
+     * @return null if the client has been added, otherwise the reason of
+     * rejection. A standby manager reports that it is full
+     */
+    UserStatus addClient(ClientManager client, InetAddress address) {
+        if (standby)
+            return UserStatus.SERVER_FULL;
+
+        synchronized (clients) {
+            UserStatus rejection = admissionControl.check(address);
+            if (rejection != null)
+                return rejection;
+
+            clients.add(client);
+            admissionControl.admit(client, address);
+        }
+        connectionReaper.register(client);
+        return null;
+    }
+
     /**
      * Method that removes given client from the clients set.
      *
@@ -70,88 +177,204 @@ public class ServerManager extends Thread {
      */
     public void removeClient(ClientManager client) {
         synchronized (clients) {
-            clients.remove(client);
+            if (clients.remove(client))
+                admissionControl.release(client);
         }
     }
 
     /**
-     * Method responsible for listening for new clients connections.
+     * Method that tells whether another user can log in
+     *
+     * @param loggedInCount number of users currently logged in
+     * @return true if the limit of logged in users is not reached
+     */
+    public boolean isLoginAllowed(int loggedInCount) {
+        return loggedInCount < AdmissionControl.MAX_LOGINS;
+    }
+
+    /**
+     * Method that should be invoked when login of given client is accepted,
+     * so that it stops counting against the limit of pending logins
+     *
+     * @param client client that has just logged in
+     */
+    public void loginAccepted(ClientManager client) {
+        admissionControl.loginAccepted(client);
+    }
+
+    /**
+     * Method responsible for listening for new clients connections on the
+     * first listener, until it is closed. Additional listeners are served by
+     * their own threads. Connections aren't watched any more after the first
+     * listener is closed
      */
     @Override
     public void run() {
-        while (true) {
-            Socket clientSocket = acceptNewClientSocket();
-            synchronized (clients) {
-                ClientManager clientManager;
-                try {
-                    clientManager = new ClientManager(clientSocket, blockingQueue);
+        connectionReaper.start();
+        for (int i = 1; i < listeners.size(); ++i)
+            new ListenerThread(listeners.get(i)).start();
+        acceptClients(listeners.get(0));
+        connectionReaper.close();
+    }
 
-                } catch (IOException e) {
-                    try {
-                        clientSocket.close();
+    /**
+     * Method that accepts clients on given listener, until it is closed.
+     * Every accepted client is watched by the connection reaper
+     *
+     * @param listener listener of clients
+     */
+    private void acceptClients(ConnectionListener listener) {
+        while (true) {
+            Connection connection = acceptNewConnection(listener);
+            if (connection == null)
+                return;
 
-                    } catch (IOException e1) {
-                        System.err.println("Cannot close clientSocket!");
-                    }
+            ClientManager clientManager;
+            try {
+                clientManager = new ClientManager(connection, blockingQueue, userRegistry);
+            } catch (IOException e) {
+                close(connection);
+                continue;
+            }
 
-                    continue;
-                }
+            synchronized (clients) {
                 clients.add(clientManager);
-                clientManager.start();
+                admissionControl.admit(clientManager, connection.getInetAddress());
             }
+            connectionReaper.register(clientManager);
+            clientManager.start();
         }
     }
 
     /**
-     * Method that accepts new client connection and returns the socket to which
-     * client is connected
+     * Method that accepts new client connection. Connections that exceed
+     * limits of the admission control are told why they are rejected and
+     * closed at once
      *
-     * @return clientSocket the socket to which client is connected
+     * @param listener listener of clients
+     * @return connection of the client, null if the listener has been closed
      */
-    private Socket acceptNewClientSocket() {
+    private Connection acceptNewConnection(ConnectionListener listener) {
         while (true) {
-            Socket clientSocket;
+            Connection connection;
             try {
-                clientSocket = serverSocket.accept();
+                connection = listener.accept();
             } catch (IOException e) {
+                if (listener.isClosed())
+                    return null;
                 continue;
             }
 
-            if (clients.size() > CLIENTS_MAX_COUNT) {
-                try {
-                    clientSocket.close();
+            if (standby) {
+                close(connection);
+                continue;
+            }
 
-                } catch (IOException e) {
-                    continue;
-                }
+            UserStatus rejection = admissionControl.check(connection.getInetAddress());
+            if (rejection != null) {
+                reject(connection, rejection);
+                continue;
             }
-            return clientSocket;
+            return connection;
+        }
+    }
+
+    /**
+     * Method that sends to the client state with the reason of rejection and
+     * closes the connection
+     *
+     * @param connection connection of rejected client
+     * @param status     reason of rejection
+     */
+    private void reject(Connection connection, UserStatus status) {
+        FrameEncoder frame = FrameEncoder.acquire();
+        try {
+            frame.encode(ChatState.rejection(status));
+            frame.writeTo(connection.getOutputStream());
+        } catch (IOException ignored) {
+        } finally {
+            FrameEncoder.release(frame);
         }
+        close(connection);
     }
 
     /**
-     * Method using only in ServerViewController to get serverSocet
+     * Method that closes connection of a client that won't be served
      *
-     * @return serverSocket the socket with all clients
+     * @param connection connection to be closed
      */
-    public ServerSocket getServerSocket() {
-        return serverSocket;
+    private void close(Connection connection) {
+        try {
+            connection.close();
+        } catch (IOException e) {
+            System.err.println("Cannot close clientSocket!");
+        }
     }
 
     /**
      * Method using in case stopping server during logged in any client
      */
     public void close() {
-        for (ClientManager c : clients)
-            c.logout();
+        synchronized (clients) {
+            for (ClientManager c : clients)
+                c.logout();
+        }
     }
 
     /**
-     * Method that close server socket
+     * Method that cuts connections of all clients, e.g. when their room moves
+     * to another node, so that they reconnect and find the new owner
+     */
+    public void dropClients() {
+        synchronized (clients) {
+            for (ClientManager c : clients)
+                c.disconnect();
+        }
+    }
+
+    /**
+     * Method that returns TCP port on which the first listener accepts
+     * clients
      *
-     * @throws IOException if socket cannot be closed
+     * @return local port, -1 if the listener isn't on a TCP port
+     */
+    public int getLocalPort() {
+        return listeners.get(0).getLocalPort();
+    }
+
+    /**
+     * Method that closes all listeners
+     *
+     * @throws IOException if a listener cannot be closed
      */
     public void closeSocket() throws IOException {
-        serverSocket.close();
+        for (ConnectionListener listener : listeners)
+            listener.close();
+    }
+
+    /**
+     * Thread that accepts clients on an additional listener
+     *
+     * @author Michal
+     */
+    private class ListenerThread extends Thread {
+        /**
+         * listener of clients
+         */
+        private final ConnectionListener listener;
+
+        /**
+         * Constructor
+         *
+         * @param listener listener of clients
+         */
+        ListenerThread(ConnectionListener listener) {
+            this.listener = listener;
+        }
+
+        @Override
+        public void run() {
+            acceptClients(listener);
+        }
     }
 }
@@ -0,0 +1,208 @@
+package controller;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Class that keeps sessions of logged in users. A session token is issued at
+ * login and survives loss of the connection for SESSION_TIMEOUT, so that the
+ * client can log in again with the same user name, even if the server hasn't
+ * noticed yet that the previous connection is dead. The user name stays
+ * claimed by a suspended session until it expires. It is used only on the
+ * Controller thread
+ *
+ * @author Michal
+ */
+class SessionRegistry {
+    /**
+     * time in ms for which session of a client that lost connection is kept
+     */
+    private static final long SESSION_TIMEOUT = 60000;
+    /**
+     * number of random bits of a session token
+     */
+    private static final int TOKEN_BITS = 130;
+    /**
+     * mapping tokens to sessions
+     */
+    private Map<String, Session> tokenToSessionMap;
+    /**
+     * mapping connected clients to their sessions
+     */
+    private Map<ClientManager, Session> clientToSessionMap;
+    /**
+     * source of session tokens
+     */
+    private SecureRandom random;
+    /**
+     * time in ms when the first suspended session expires, Long.MAX_VALUE if
+     * no session is suspended
+     */
+    private long nextExpiryTime;
+
+    /**
+     * Constructor
+     */
+    SessionRegistry() {
+        tokenToSessionMap = new HashMap<>();
+        clientToSessionMap = new HashMap<>();
+        random = new SecureRandom();
+        nextExpiryTime = Long.MAX_VALUE;
+    }
+
+    /**
+     * Method that finds session that can be resumed by a user logging in
+     *
+     * @param token    token sent by the user, may be null
+     * @param userName name with which the user logs in
+     * @return session of the user, or null if there is no such session or it
+     * has expired
+     */
+    Session find(String token, String userName) {
+        if (token == null)
+            return null;
+
+        Session session = tokenToSessionMap.get(token);
+        if (session == null || !session.userName.equals(userName))
+            return null;
+
+        return session;
+    }
+
+    /**
+     * Method that opens new session or attaches resumed one to a client that
+     * has just logged in
+     *
+     * @param userName name of the user
+     * @param client   connection of the user
+     * @param resumed  session found for the user, null if a new one should be
+     *                 opened
+     * @return token of the session
+     */
+    String open(String userName, ClientManager client, Session resumed) {
+        Session session = resumed;
+        if (session == null) {
+            session = new Session(new BigInteger(TOKEN_BITS, random).toString(32), userName);
+            tokenToSessionMap.put(session.token, session);
+        } else if (session.client != null)
+            clientToSessionMap.remove(session.client);
+
+        session.client = client;
+        session.expiryTime = 0;
+        clientToSessionMap.put(client, session);
+        return session.token;
+    }
+
+    /**
+     * Method that keeps session of a client that lost connection, so that it
+     * can be resumed before it expires
+     *
+     * @param client connection that has been lost
+     * @return true if the client had a session, which now keeps its user name
+     */
+    boolean suspend(ClientManager client) {
+        Session session = clientToSessionMap.remove(client);
+        if (session == null)
+            return false;
+
+        session.client = null;
+        session.expiryTime = System.currentTimeMillis() + SESSION_TIMEOUT;
+        nextExpiryTime = Math.min(nextExpiryTime, session.expiryTime);
+        return true;
+    }
+
+    /**
+     * Method that ends session of a client that logged out
+     *
+     * @param client connection of the user
+     */
+    void close(ClientManager client) {
+        Session session = clientToSessionMap.remove(client);
+        if (session != null)
+            tokenToSessionMap.remove(session.token);
+    }
+
+    /**
+     * Method that removes suspended sessions which have expired
+     *
+     * @return names of users whose sessions have expired, which should be
+     * released
+     */
+    List<String> removeExpired() {
+        long now = System.currentTimeMillis();
+        if (now < nextExpiryTime)
+            return Collections.emptyList();
+
+        List<String> userNames = new ArrayList<>();
+        nextExpiryTime = Long.MAX_VALUE;
+        Iterator<Session> iterator = tokenToSessionMap.values().iterator();
+        while (iterator.hasNext()) {
+            Session session = iterator.next();
+            if (session.expiryTime == 0)
+                continue;
+
+            if (session.expiryTime <= now) {
+                iterator.remove();
+                userNames.add(session.userName);
+            } else
+                nextExpiryTime = Math.min(nextExpiryTime, session.expiryTime);
+        }
+        return userNames;
+    }
+
+    /**
+     * Method that returns time left until the first suspended session
+     * expires
+     *
+     * @return time in ms, Long.MAX_VALUE if no session is suspended
+     */
+    long getExpiryDelay() {
+        if (nextExpiryTime == Long.MAX_VALUE)
+            return Long.MAX_VALUE;
+        return Math.max(0, nextExpiryTime - System.currentTimeMillis());
+    }
+
+    /**
+     * Session of one user
+     *
+     * @author Michal
+     */
+    static class Session {
+        /**
+         * token identifying the session
+         */
+        private final String token;
+        /**
+         * name of the user
+         */
+        private final String userName;
+        /**
+         * current connection of the user, null if the connection was lost
+         */
+        private ClientManager client;
+        /**
+         * time in ms when suspended session expires, 0 if it is active
+         */
+        private long expiryTime;
+
+        Session(String token, String userName) {
+            this.token = token;
+            this.userName = userName;
+        }
+
+        /**
+         * Method that returns connection that still holds the session
+         *
+         * @return connection of the user, null if it was lost
+         */
+        ClientManager getClient() {
+            return client;
+        }
+    }
+}
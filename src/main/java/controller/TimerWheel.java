@@ -0,0 +1,102 @@
+package controller;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Hashed timer wheel. Items are put to slots of a ring that is advanced by one
+ * slot every tick, so scheduling an item and expiring it costs O(1), and one
+ * tick costs only as much as the number of items due in it. Delays longer
+ * than the whole ring are counted in rounds. This class is not thread safe
+ *
+ * @param <T> type of scheduled items
+ * @author Michal
+ */
+class TimerWheel<T> {
+    /**
+     * slots of the ring
+     */
+    private final List<List<Entry<T>>> slots;
+    /**
+     * time in ms of one tick
+     */
+    private final long tickMilliseconds;
+    /**
+     * index of the slot of the current tick
+     */
+    private int currentSlot;
+
+    /**
+     * Constructor
+     *
+     * @param slotsCount       number of slots of the ring
+     * @param tickMilliseconds time in ms of one tick
+     */
+    TimerWheel(int slotsCount, long tickMilliseconds) {
+        this.tickMilliseconds = tickMilliseconds;
+        slots = new ArrayList<>(slotsCount);
+        for (int i = 0; i < slotsCount; ++i)
+            slots.add(new ArrayList<>());
+    }
+
+    /**
+     * Method that schedules item to expire after given delay, rounded up to
+     * whole ticks
+     *
+     * @param item             item to be scheduled
+     * @param delayMilliseconds delay in ms
+     */
+    void schedule(T item, long delayMilliseconds) {
+        long ticks = Math.max(1, (delayMilliseconds + tickMilliseconds - 1) / tickMilliseconds);
+        int slot = (int) ((currentSlot + ticks) % slots.size());
+        long rounds = (ticks - 1) / slots.size();
+        slots.get(slot).add(new Entry<>(item, rounds));
+    }
+
+    /**
+     * Method that moves the wheel by one tick and returns items that expire
+     *
+     * @return items that expire in this tick
+     */
+    List<T> advance() {
+        currentSlot = (currentSlot + 1) % slots.size();
+        List<Entry<T>> slot = slots.get(currentSlot);
+        List<T> expired = new ArrayList<>();
+        List<Entry<T>> remaining = new ArrayList<>();
+        for (Entry<T> entry : slot) {
+            if (entry.rounds == 0)
+                expired.add(entry.item);
+            else {
+                --entry.rounds;
+                remaining.add(entry);
+            }
+        }
+        slots.set(currentSlot, remaining);
+        return expired;
+    }
+
+    /**
+     * Method that returns time in ms of one tick
+     *
+     * @return time in ms of one tick
+     */
+    long getTickMilliseconds() {
+        return tickMilliseconds;
+    }
+
+    /**
+     * Scheduled item with number of full rounds left before it expires
+     *
+     * @param <T> type of scheduled item
+     * @author Michal
+     */
+    private static class Entry<T> {
+        private final T item;
+        private long rounds;
+
+        Entry(T item, long rounds) {
+            this.item = item;
+            this.rounds = rounds;
+        }
+    }
+}
@@ -19,6 +19,11 @@ public abstract class BaseEvent implements Serializable {
      * connection to client that has created this event
      */
     private ClientManager client;
+    /**
+     * value of System.nanoTime() taken when this event was put to the server's
+     * queue, used only for profiling
+     */
+    private transient long enqueueTime;
 
     /**
      * Basic constructor for this class
@@ -46,4 +51,22 @@ public abstract class BaseEvent implements Serializable {
     public ClientManager getClientManager() {
         return client;
     }
+
+    /**
+     * Method that remembers the moment when this event is put to the queue.
+     * It should be invoked on the server side just before putting the event
+     */
+    public void markEnqueued() {
+        enqueueTime = System.nanoTime();
+    }
+
+    /**
+     * Method that returns the moment when this event was put to the queue
+     *
+     * @return value of System.nanoTime() taken in markEnqueued, or 0 if the
+     * event has never been marked
+     */
+    public long getEnqueueTime() {
+        return enqueueTime;
+    }
 }
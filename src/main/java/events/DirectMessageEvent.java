@@ -0,0 +1,52 @@
+package events;
+
+/**
+ * Event that is created when user sends a private message to one other user.
+ * The message is routed only to the connection of the recipient and is not
+ * stored in the history of the chat
+ *
+ * @author Michal
+ */
+public class DirectMessageEvent extends BaseEvent {
+    /**
+     * serialVersionUID for this class
+     */
+    private static final long serialVersionUID = 1L;
+    /**
+     * name of the user to whom the message is sent
+     */
+    private String recipient;
+    /**
+     * String content of the message
+     */
+    private String messageString;
+
+    /**
+     * Constructor
+     *
+     * @param recipient     name of the user to whom the message is sent
+     * @param messageString content of the message
+     */
+    public DirectMessageEvent(String recipient, String messageString) {
+        this.recipient = recipient;
+        this.messageString = messageString;
+    }
+
+    /**
+     * Method that returns name of the user to whom the message is sent
+     *
+     * @return name of the recipient
+     */
+    public String getRecipient() {
+        return recipient;
+    }
+
+    /**
+     * Method that returns content of the message that was sent
+     *
+     * @return content of the message that was sent
+     */
+    public String getMessageString() {
+        return messageString;
+    }
+}
@@ -0,0 +1,26 @@
+package events;
+
+/**
+ * Event that is sent periodically in both directions between the client and
+ * the server, so that each side can tell a silent but working connection from
+ * a dead one. It never reaches the Controller's queue. The interval and the
+ * timeout can be configured with system properties chatroom.heartbeat.interval
+ * and chatroom.heartbeat.timeout, in ms
+ *
+ * @author Michal
+ */
+public class HeartbeatEvent extends BaseEvent {
+    /**
+     * serialVersionUID for this class
+     */
+    private static final long serialVersionUID = 1L;
+    /**
+     * time in ms between two heartbeats sent over a silent connection
+     */
+    public static final int INTERVAL = Integer.getInteger("chatroom.heartbeat.interval", 1000);
+    /**
+     * time in ms without receiving anything after which connection is
+     * considered dead
+     */
+    public static final int TIMEOUT = Integer.getInteger("chatroom.heartbeat.timeout", 5000);
+}
@@ -0,0 +1,91 @@
+package events;
+
+import model.Cursor;
+import model.HistoryPage.Direction;
+
+/**
+ * Event that is created when the user scrolls to messages that are not
+ * displayed. The server replies with a HistoryPage with messages adjacent to
+ * given position in given direction, limited by given number of messages and
+ * bytes. The server may lower both limits
+ *
+ * @author Michal
+ */
+public class HistoryRequestEvent extends BaseEvent {
+    /**
+     * serialVersionUID for this class
+     */
+    private static final long serialVersionUID = 1L;
+    /**
+     * position next to which messages are requested, the message at it is not
+     * sent. Null means the end of history in the requested direction
+     */
+    private Cursor cursor;
+    /**
+     * direction in which messages are requested
+     */
+    private Direction direction;
+    /**
+     * maximum number of messages to be sent
+     */
+    private int maxCount;
+    /**
+     * maximum estimated size in bytes of messages to be sent, at least one
+     * message is always sent
+     */
+    private int maxBytes;
+
+    /**
+     * Constructor
+     *
+     * @param cursor    position next to which messages are requested, null if
+     *                  the latest (older direction) or the earliest (newer
+     *                  direction) messages are requested
+     * @param direction direction in which messages are requested
+     * @param maxCount  maximum number of messages to be sent
+     * @param maxBytes  maximum estimated size in bytes of messages to be sent
+     */
+    public HistoryRequestEvent(Cursor cursor, Direction direction, int maxCount, int maxBytes) {
+        this.cursor = cursor;
+        this.direction = direction;
+        this.maxCount = maxCount;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Method that returns position next to which messages are requested
+     *
+     * @return position of the request, null if the end of history is
+     * requested
+     */
+    public Cursor getCursor() {
+        return cursor;
+    }
+
+    /**
+     * Method that returns direction in which messages are requested
+     *
+     * @return direction of the request
+     */
+    public Direction getDirection() {
+        return direction;
+    }
+
+    /**
+     * Method that returns maximum number of messages to be sent
+     *
+     * @return maximum number of messages
+     */
+    public int getMaxCount() {
+        return maxCount;
+    }
+
+    /**
+     * Method that returns maximum estimated size of messages to be sent
+     *
+     * @return maximum size in bytes
+     */
+    public int getMaxBytes() {
+        return maxBytes;
+    }
+}
@@ -1,5 +1,7 @@
 package events;
 
+import model.Cursor;
+
 /**
  * Event that is generated when user attempts to connect to server.
  * ClientViewController creates this event, but doesn't assign ClientManager
@@ -27,6 +29,21 @@ public class LogInEvent extends BaseEvent {
      * port value used to create Socket object
      */
     private String port;
+    /**
+     * position of the last message received before the connection was lost,
+     * null if the user starts a new session
+     */
+    private Cursor resumeCursor;
+    /**
+     * token of the session issued at previous login, null if the user starts
+     * a new session
+     */
+    private String sessionToken;
+    /**
+     * true if the server thread reading from the client has already claimed
+     * the user name, so that the Controller doesn't have to check it
+     */
+    private transient boolean userNameClaimed;
 
     /**
      * Constructor for LogInEvent
@@ -71,4 +88,62 @@ public class LogInEvent extends BaseEvent {
     public String getPort() {
         return port;
     }
+
+    /**
+     * Method that should be invoked in the network manager on client side
+     * when the user logs in again after the connection was lost, so that the
+     * server sends only the missing messages
+     *
+     * @param resumeCursor position of the last received message
+     */
+    public void setResumeCursor(Cursor resumeCursor) {
+        this.resumeCursor = resumeCursor;
+    }
+
+    /**
+     * Method that returns position of the last message received before the
+     * connection was lost
+     *
+     * @return position of the last received message, null for a new session
+     */
+    public Cursor getResumeCursor() {
+        return resumeCursor;
+    }
+
+    /**
+     * Method that should be invoked in the network manager on client side
+     * when the client reconnects after the connection was lost, so that the
+     * server lets him take back his user name
+     *
+     * @param sessionToken token received at previous login
+     */
+    public void setSessionToken(String sessionToken) {
+        this.sessionToken = sessionToken;
+    }
+
+    /**
+     * Method that returns token of the session issued at previous login
+     *
+     * @return token of the session, null for a new session
+     */
+    public String getSessionToken() {
+        return sessionToken;
+    }
+
+    /**
+     * Method that marks the user name as claimed on the server
+     */
+    public void setUserNameClaimed() {
+        this.userNameClaimed = true;
+    }
+
+    /**
+     * Method that tells whether the user name has already been claimed on the
+     * server
+     *
+     * @return true if the name has been claimed
+     */
+    public boolean isUserNameClaimed() {
+        return userNameClaimed;
+    }
 }
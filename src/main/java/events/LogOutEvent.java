@@ -12,4 +12,27 @@ public class LogOutEvent extends BaseEvent {
      * serialVersionUID for this class
      */
     private static final long serialVersionUID = 1L;
+    /**
+     * boolean value telling if this event has been created by the server,
+     * because connection with client was lost
+     */
+    private boolean connectionLost;
+
+    /**
+     * Method that marks this event as created because connection with client
+     * was lost, so that session of the user is kept
+     */
+    public void setConnectionLost() {
+        this.connectionLost = true;
+    }
+
+    /**
+     * Method that tells whether this event has been created because
+     * connection with client was lost
+     *
+     * @return true if connection was lost, false if user decided to log out
+     */
+    public boolean isConnectionLost() {
+        return connectionLost;
+    }
 }
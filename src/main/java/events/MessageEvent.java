@@ -1,13 +1,14 @@
 package events;
 
-import java.util.Date;
+import model.Cursor;
+import model.MessageTrace;
 
 /**
  * Event that is created when user sends a message to the server to be
  * broadcasted. Content of the message is appling in the constructor, but the
- * Date of last received message by client is seting by the method. The date is
- * needed for the server to determine whether user is up to date with his
- * messages
+ * position of last received message by client is seting by the method. The
+ * position is needed for the server to determine whether user is up to date
+ * with his messages
  *
  * @author Michal
  */
@@ -21,9 +22,13 @@ public class MessageEvent extends BaseEvent {
      */
     private String messageString;
     /**
-     * Date of last received message by the client
+     * position of last received message by the client
      */
-    private Date previousMessageDate;
+    private Cursor previousMessageCursor;
+    /**
+     * optional timestamps collected on the way of the message
+     */
+    private MessageTrace trace;
 
     /**
      * Basic constructor that sets the value of message content
@@ -36,12 +41,42 @@ public class MessageEvent extends BaseEvent {
 
     /**
      * Method that should be invoked in the network manager on client side to
-     * add the date of last received message
+     * add the position of last received message
+     *
+     * @param previousMessageCursor position of last received message by the client
+     */
+    public void setPreviousMessageCursor(Cursor previousMessageCursor) {
+        this.previousMessageCursor = previousMessageCursor;
+    }
+
+    /**
+     * Method that attaches trace to this event. It should be invoked in the
+     * network manager on client side just before sending
+     *
+     * @param trace trace with the time of sending stamped
+     */
+    public void setTrace(MessageTrace trace) {
+        this.trace = trace;
+    }
+
+    /**
+     * Method that returns trace attached to this event
      *
-     * @param previouseMessageDate date of last received message by the client
+     * @return trace of this message, or null if it is not traced
+     */
+    public MessageTrace getTrace() {
+        return trace;
+    }
+
+    /**
+     * Method that additionally stamps the time of receiving on the server, if
+     * this message is traced
      */
-    public void setPreviousMessageDate(Date previouseMessageDate) {
-        this.previousMessageDate = previouseMessageDate;
+    @Override
+    public void markEnqueued() {
+        super.markEnqueued();
+        if (trace != null)
+            trace.stampServerReceive();
     }
 
     /**
@@ -54,12 +89,12 @@ public class MessageEvent extends BaseEvent {
     }
 
     /**
-     * Method that returns date of previously received message by client
+     * Method that returns position of previously received message by client
      *
-     * @return date of previously received message by client
+     * @return position of previously received message by client
      */
-    public Date getPreviousMessageDate() {
-        return previousMessageDate;
+    public Cursor getPreviousMessageCursor() {
+        return previousMessageCursor;
     }
 
 }
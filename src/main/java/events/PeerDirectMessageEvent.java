@@ -0,0 +1,57 @@
+package events;
+
+import model.DirectMessage;
+
+/**
+ * Event that is sent over the peer link between federated server nodes when a
+ * private message is addressed to a user logged in to the other node.
+ * Receiving node sends the message to the recipient, or returns it marked as
+ * not delivered if the recipient is not logged in to it any more, so that the
+ * node of the author can tell him. It is never forwarded further
+ *
+ * @author Michal
+ */
+public class PeerDirectMessageEvent extends BaseEvent {
+    /**
+     * serialVersionUID for this class
+     */
+    private static final long serialVersionUID = 1L;
+    /**
+     * id of the node that sent the event
+     */
+    private int nodeId;
+    /**
+     * private message, delivered if it is sent to the node of the recipient
+     * and not delivered if it is returned to the node of the author
+     */
+    private DirectMessage directMessage;
+
+    /**
+     * Constructor
+     *
+     * @param nodeId        id of the node that sends the event
+     * @param directMessage private message
+     */
+    public PeerDirectMessageEvent(int nodeId, DirectMessage directMessage) {
+        this.nodeId = nodeId;
+        this.directMessage = directMessage;
+    }
+
+    /**
+     * Method that returns id of the node that sent the event
+     *
+     * @return id of the origin node
+     */
+    public int getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * Method that returns the private message
+     *
+     * @return private message, not delivered if it has been returned
+     */
+    public DirectMessage getDirectMessage() {
+        return directMessage;
+    }
+}
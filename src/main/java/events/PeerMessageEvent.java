@@ -0,0 +1,56 @@
+package events;
+
+import model.Message;
+
+/**
+ * Event that is sent over the peer link between federated server nodes when a
+ * message has been accepted by the node to which its author is connected.
+ * Receiving node adds the message to its model and broadcasts it to its own
+ * clients, but never forwards it further. The same event is streamed from a
+ * leader to its hot-standby followers for every appended message
+ *
+ * @author Michal
+ */
+public class PeerMessageEvent extends BaseEvent {
+    /**
+     * serialVersionUID for this class
+     */
+    private static final long serialVersionUID = 1L;
+    /**
+     * id of the node that accepted the message
+     */
+    private int nodeId;
+    /**
+     * replicated message
+     */
+    private Message message;
+
+    /**
+     * Constructor
+     *
+     * @param nodeId  id of the node that accepted the message
+     * @param message replicated message
+     */
+    public PeerMessageEvent(int nodeId, Message message) {
+        this.nodeId = nodeId;
+        this.message = message;
+    }
+
+    /**
+     * Method that returns id of the node that accepted the message
+     *
+     * @return id of the origin node
+     */
+    public int getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * Method that returns replicated message
+     *
+     * @return replicated message
+     */
+    public Message getMessage() {
+        return message;
+    }
+}
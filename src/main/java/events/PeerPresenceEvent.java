@@ -0,0 +1,57 @@
+package events;
+
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Event that is sent over the peer link between federated server nodes, or
+ * streamed from a leader to its followers, whenever the set of users logged in
+ * to a node changes. It always carries the
+ * whole set, so that applying it twice does no harm. Empty set is put to the
+ * queue locally when the link to the node is lost
+ *
+ * @author Michal
+ */
+public class PeerPresenceEvent extends BaseEvent {
+    /**
+     * serialVersionUID for this class
+     */
+    private static final long serialVersionUID = 1L;
+    /**
+     * id of the node whose users are described
+     */
+    private int nodeId;
+    /**
+     * names of users logged in to the node
+     */
+    private TreeSet<String> userNames;
+
+    /**
+     * Constructor
+     *
+     * @param nodeId    id of the node whose users are described
+     * @param userNames names of users logged in to the node
+     */
+    public PeerPresenceEvent(int nodeId, Set<String> userNames) {
+        this.nodeId = nodeId;
+        this.userNames = new TreeSet<>(userNames);
+    }
+
+    /**
+     * Method that returns id of the node whose users are described
+     *
+     * @return id of the node
+     */
+    public int getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * Method that returns names of users logged in to the node
+     *
+     * @return names of users logged in to the node
+     */
+    public Set<String> getUserNames() {
+        return new TreeSet<>(userNames);
+    }
+}
@@ -1,6 +1,6 @@
 package events;
 
-import java.util.Date;
+import model.Cursor;
 
 /**
  * Event that is created when client application finds out that some messages
@@ -14,25 +14,25 @@ public class ResendEvent extends BaseEvent {
      */
     private static final long serialVersionUID = 1L;
     /**
-     * Date since which all messages should be resend
+     * position since which all messages should be resend
      */
-    private Date lastDateOfMessage;
+    private Cursor lastMessageCursor;
 
     /**
-     * Constuructor that sets Date since which all messages should be resend
+     * Constuructor that sets position since which all messages should be resend
      *
-     * @param lastDateOfMessage Date since which all messages should be resend
+     * @param lastMessageCursor position since which all messages should be resend
      */
-    public ResendEvent(Date lastDateOfMessage) {
-        this.lastDateOfMessage = lastDateOfMessage;
+    public ResendEvent(Cursor lastMessageCursor) {
+        this.lastMessageCursor = lastMessageCursor;
     }
 
     /**
-     * Method that returns Date after which all messages should be resend
+     * Method that returns position after which all messages should be resend
      *
-     * @return Date after which all messages should be resend
+     * @return position after which all messages should be resend
      */
-    public Date getLastMessageDate() {
-        return this.lastDateOfMessage;
+    public Cursor getLastMessageCursor() {
+        return this.lastMessageCursor;
     }
 }
\ No newline at end of file
@@ -0,0 +1,98 @@
+package events;
+
+/**
+ * Event that is created when the user searches through the history of the
+ * chat. The server replies with a SearchResult with the latest messages
+ * matching the query
+ *
+ * @author Michal
+ */
+public class SearchRequestEvent extends BaseEvent {
+    /**
+     * serialVersionUID for this class
+     */
+    private static final long serialVersionUID = 1L;
+    /**
+     * words to be searched for, a word ending with * matches every word with
+     * that prefix
+     */
+    private String query;
+    /**
+     * name of the author of searched messages, null if any
+     */
+    private String author;
+    /**
+     * time in ms since which messages are searched, 0 if any
+     */
+    private long fromTime;
+    /**
+     * time in ms until which messages are searched, 0 if any
+     */
+    private long toTime;
+    /**
+     * maximum number of messages to be sent
+     */
+    private int maxResults;
+
+    /**
+     * Constructor
+     *
+     * @param query      words to be searched for
+     * @param author     name of the author of searched messages, null if any
+     * @param fromTime   time in ms since which messages are searched, 0 if any
+     * @param toTime     time in ms until which messages are searched, 0 if any
+     * @param maxResults maximum number of messages to be sent
+     */
+    public SearchRequestEvent(String query, String author, long fromTime, long toTime, int maxResults) {
+        this.query = query;
+        this.author = author;
+        this.fromTime = fromTime;
+        this.toTime = toTime;
+        this.maxResults = maxResults;
+    }
+
+    /**
+     * Method that returns words to be searched for
+     *
+     * @return text of the query
+     */
+    public String getQuery() {
+        return query;
+    }
+
+    /**
+     * Method that returns name of the author of searched messages
+     *
+     * @return name of the author, null if any
+     */
+    public String getAuthor() {
+        return author;
+    }
+
+    /**
+     * Method that returns time since which messages are searched
+     *
+     * @return time in ms, 0 if any
+     */
+    public long getFromTime() {
+        return fromTime;
+    }
+
+    /**
+     * Method that returns time until which messages are searched
+     *
+     * @return time in ms, 0 if any
+     */
+    public long getToTime() {
+        return toTime;
+    }
+
+    /**
+     * Method that returns maximum number of messages to be sent
+     *
+     * @return maximum number of messages
+     */
+    public int getMaxResults() {
+        return maxResults;
+    }
+}
@@ -0,0 +1,26 @@
+package main;
+
+import java.io.IOException;
+
+import controller.RoomDirectory;
+
+/**
+ * Class responsible for running the directory of a sharded deployment, which
+ * tells clients which node owns a room. Usage:
+ * DirectoryServer port
+ *
+ * @author Michal
+ */
+public class DirectoryServer {
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.err.println("Usage: DirectoryServer port");
+            System.exit(1);
+        }
+
+        int port = Integer.parseInt(args[0]);
+        new RoomDirectory(port).start();
+        System.out.println("Room directory is running on port " + port);
+    }
+}
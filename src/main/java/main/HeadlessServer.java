@@ -0,0 +1,133 @@
+package main;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+
+import controller.ConnectionListener;
+import controller.Controller;
+import controller.HttpGateway;
+import controller.PeerManager;
+import controller.PriorityLaneQueue;
+import controller.ReplicaFollower;
+import controller.ReplicationManager;
+import controller.ServerManager;
+import events.BaseEvent;
+import model.Model;
+
+/**
+ * Class responsible for running the server without the view. Usage:
+ * HeadlessServer clientPort nodeId [options]
+ * with options:
+ * --peer-port port - port on which this node listens for federated nodes
+ * --peer host:port - federated node that this node dials, may be repeated
+ * --replication-port port - port on which this node streams changes to
+ * hot-standby followers
+ * --follow host:port - replication port of the leader that this node follows
+ * as a hot standby
+ * --promotion-timeout ms - time after which unreachable leader is replaced
+ * --http-port port - port on which the HTTP gateway for lightweight clients
+ * listens
+ * --unix-socket path - Unix domain socket on which clients on the same host
+ * are accepted besides the client port
+ * <p>
+ * Every pair of federated nodes should be linked once, e.g. the second node
+ * dials the first one, the third dials the first and the second
+ *
+ * @author Michal
+ */
+public class HeadlessServer {
+    /**
+     * default time in ms after which unreachable leader is replaced
+     */
+    private static final int PROMOTION_TIMEOUT = 1000;
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2 || args.length % 2 != 0)
+            printUsageAndExit();
+
+        int clientPort = Integer.parseInt(args[0]);
+        int nodeId = Integer.parseInt(args[1]);
+        int peerPort = -1;
+        int replicationPort = -1;
+        int httpPort = -1;
+        Path unixSocketPath = null;
+        int promotionTimeout = PROMOTION_TIMEOUT;
+        InetSocketAddress leaderAddress = null;
+        List<InetSocketAddress> peerAddresses = new ArrayList<>();
+        for (int i = 2; i + 1 < args.length; i += 2) {
+            String value = args[i + 1];
+            switch (args[i]) {
+                case "--peer-port":
+                    peerPort = Integer.parseInt(value);
+                    break;
+                case "--peer":
+                    peerAddresses.add(parseAddress(value));
+                    break;
+                case "--replication-port":
+                    replicationPort = Integer.parseInt(value);
+                    break;
+                case "--follow":
+                    leaderAddress = parseAddress(value);
+                    break;
+                case "--http-port":
+                    httpPort = Integer.parseInt(value);
+                    break;
+                case "--unix-socket":
+                    unixSocketPath = Paths.get(value);
+                    break;
+                case "--promotion-timeout":
+                    promotionTimeout = Integer.parseInt(value);
+                    break;
+                default:
+                    printUsageAndExit();
+            }
+        }
+
+        BlockingQueue<BaseEvent> blockingQueue = new PriorityLaneQueue();
+        ServerManager serverManager = new ServerManager(clientPort, blockingQueue);
+        if (unixSocketPath != null)
+            serverManager.addListener(ConnectionListener.listen(unixSocketPath));
+        Controller controller = new Controller(new Model(nodeId), serverManager, blockingQueue);
+
+        if (peerPort >= 0) {
+            PeerManager peerManager = new PeerManager(nodeId, peerPort, peerAddresses, blockingQueue);
+            controller.setPeerManager(peerManager);
+            peerManager.start();
+        }
+
+        if (replicationPort >= 0) {
+            ReplicationManager replicationManager = new ReplicationManager(nodeId, replicationPort, blockingQueue);
+            controller.setReplicationManager(replicationManager);
+            replicationManager.start();
+        }
+
+        if (leaderAddress != null)
+            new ReplicaFollower(leaderAddress, serverManager, blockingQueue, promotionTimeout).start();
+
+        if (httpPort >= 0)
+            new HttpGateway(httpPort, serverManager, blockingQueue).start();
+
+        serverManager.start();
+        System.out.println("Node " + nodeId + " is running, clients on port " + clientPort
+                + (leaderAddress != null ? ", following " + leaderAddress.getHostString() + ":" + leaderAddress.getPort() : ""));
+        controller.start();
+    }
+
+    private static void printUsageAndExit() {
+        System.err.println("Usage: HeadlessServer clientPort nodeId [--peer-port port] [--peer host:port]... "
+                + "[--replication-port port] [--follow host:port] [--promotion-timeout ms] [--http-port port] "
+                + "[--unix-socket path]");
+        System.exit(1);
+    }
+
+    private static InetSocketAddress parseAddress(String address) {
+        int colon = address.lastIndexOf(':');
+        return InetSocketAddress.createUnresolved(address.substring(0, colon),
+                Integer.parseInt(address.substring(colon + 1)));
+    }
+}
@@ -0,0 +1,53 @@
+package main;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+
+import controller.RoomHost;
+
+/**
+ * Class responsible for running a node of a sharded deployment, which serves
+ * the rooms assigned to it by the directory. Usage:
+ * RoomNode nodeId port directoryHost:port [--advertise-host host]
+ * with options:
+ * --advertise-host host - host on which clients reach this node, localhost by
+ * default
+ * <p>
+ * Clients connect to a room with the host "room:name@directoryHost" and the
+ * port of the directory
+ *
+ * @author Michal
+ */
+public class RoomNode {
+    /**
+     * default host on which clients reach this node
+     */
+    private static final String ADVERTISE_HOST = "localhost";
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 3 && args.length != 5)
+            printUsageAndExit();
+
+        int nodeId = Integer.parseInt(args[0]);
+        int port = Integer.parseInt(args[1]);
+        String directory = args[2];
+        String advertiseHost = ADVERTISE_HOST;
+        if (args.length == 5) {
+            if (!args[3].equals("--advertise-host"))
+                printUsageAndExit();
+            advertiseHost = args[4];
+        }
+
+        int colon = directory.lastIndexOf(':');
+        if (colon < 0)
+            printUsageAndExit();
+        new RoomHost(nodeId, port, advertiseHost, new InetSocketAddress(directory.substring(0, colon),
+                Integer.parseInt(directory.substring(colon + 1)))).start();
+        System.out.println("Room node " + nodeId + " is running on port " + port);
+    }
+
+    private static void printUsageAndExit() {
+        System.err.println("Usage: RoomNode nodeId port directoryHost:port [--advertise-host host]");
+        System.exit(1);
+    }
+}
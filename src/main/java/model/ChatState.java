@@ -3,69 +3,156 @@ package model;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Date;
-import java.util.Set;
-import java.util.TreeSet;
+import java.util.List;
+import java.util.SortedSet;
 
 /**
  * Objects of this class represent current state of the chat room. It contains
  * few messages that have recently been send and names of all users that
  * currently are logged in to the server. The ChatState class also contains
- * information about his current status on the chat
+ * information about his current status on the chat. A state is immutable: it
+ * shares the sorted messages and names it is created with instead of copying
+ * them, and changes return a new state sharing them too
  *
  * @author Michal
  */
-public class ChatState implements Serializable {
+public final class ChatState implements Serializable {
     /**
      * serialVersionUID for this class
      */
     private static final long serialVersionUID = 1L;
     /**
-     * List of currently exchanged messages, sorted by Date
+     * Unmodifiable list of currently exchanged messages, in order of their
+     * arrival at the server
      */
-    private ArrayList<Message> messages;
+    private final List<Message> messages;
     /**
-     * Set of string names of users currently logged in. TreeSet is used so that
-     * the names are sorted - it's easier to display and browse through them
+     * Unmodifiable set of string names of users currently logged in, sorted so
+     * that it's easier to display and browse through them
      */
-    private Set<String> names;
+    private final SortedSet<String> names;
+    /**
+     * version of the names, names with a greater version are newer
+     */
+    private final long namesVersion;
     /**
      * Status of the user at the moment
      */
-    private UserStatus userStatus;
+    private final UserStatus userStatus;
+    /**
+     * token of the user's session, sent only with the state confirming login
+     */
+    private final String sessionToken;
+    /**
+     * true if messages between the last one received by the user and the
+     * ones in this state have been left out
+     */
+    private final boolean truncated;
 
     /**
      * Constructor
      *
-     * @param messages   messages that have been recently exchanged and need to be sent
-     * @param names      names of users that are currently logged in
-     * @param userStatus current status of the user to which this messages is going to
-     *                   be sent
+     * @param messages   messages that have been recently exchanged and need to
+     *                   be sent, in order of their arrival at the server.
+     *                   The list must not be changed afterwards
+     * @param names        unmodifiable sorted names of users that are
+     *                     currently logged in
+     * @param namesVersion version of the names
+     * @param userStatus   current status of the user to which this messages
+     *                     is going to be sent
      */
-    ChatState(ArrayList<Message> messages, Set<String> names, UserStatus userStatus) {
+    ChatState(ArrayList<Message> messages, SortedSet<String> names, long namesVersion, UserStatus userStatus) {
+        this(Collections.unmodifiableList(messages), names, namesVersion, userStatus, null, false);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param messages     unmodifiable list of messages in order of their
+     *                     arrival at the server
+     * @param names        unmodifiable sorted names of users that are
+     *                     currently logged in
+     * @param namesVersion version of the names
+     * @param userStatus   current status of the user to which this messages
+     *                     is going to be sent
+     * @param sessionToken token of the user's session, null if this state
+     *                     doesn't confirm login
+     * @param truncated    true if messages missed by the user have been left
+     *                     out
+     */
+    private ChatState(List<Message> messages, SortedSet<String> names, long namesVersion, UserStatus userStatus,
+                      String sessionToken, boolean truncated) {
         this.messages = messages;
-        Collections.sort(messages);
         this.names = names;
+        this.namesVersion = namesVersion;
         this.userStatus = userStatus;
+        this.sessionToken = sessionToken;
+        this.truncated = truncated;
+    }
+
+    /**
+     * Method that creates state decoded from a frame received by a client
+     *
+     * @param messages     unmodifiable list of messages in order of their
+     *                     arrival at the server
+     * @param names        unmodifiable sorted names of users that are
+     *                     currently logged in
+     * @param namesVersion version of the names
+     * @param userStatus   current status of the user
+     * @param sessionToken token of the user's session, null if the state
+     *                     doesn't confirm login
+     * @param truncated    true if messages missed by the user have been left
+     *                     out
+     * @return decoded state
+     */
+    public static ChatState of(List<Message> messages, SortedSet<String> names, long namesVersion,
+                               UserStatus userStatus, String sessionToken, boolean truncated) {
+        return new ChatState(messages, names, namesVersion, userStatus, sessionToken, truncated);
+    }
+
+    /**
+     * Method that creates state sent to a client whose connection is rejected
+     * before he could log in
+     *
+     * @param userStatus reason of rejection
+     * @return state without messages and users
+     */
+    public static ChatState rejection(UserStatus userStatus) {
+        return new ChatState(Collections.emptyList(), Collections.emptySortedSet(), 0, userStatus, null, false);
     }
 
     /**
      * Method that returns messages that have recently been exchanged
      *
-     * @return messages that have recently been exchanged
+     * @return unmodifiable list of messages in order of their arrival at the
+     * server. A message replicated late may be older than the ones before it
      */
-    public ArrayList<Message> getMessages() {
-        return new ArrayList<>(messages);
+    public List<Message> getMessages() {
+        return messages;
     }
 
     /**
      * Method that returns a set of names of all the users that are currently
      * logged in
      *
-     * @return a set of names of all the users that are currently logged in
+     * @return unmodifiable sorted set of names of all the users that are
+     * currently logged in
      */
-    public TreeSet<String> getLoggedInUserNames() {
-        return new TreeSet<>(names);
+    public SortedSet<String> getLoggedInUserNames() {
+        return names;
+    }
+
+    /**
+     * Method that returns version of the names of users. States served from
+     * snapshots of the model may reach a client after newer broadcasts, so
+     * names of a state with a lower version than the ones already shown are
+     * out of date and should be ignored. Versions are counted anew by every
+     * server the client logs in to
+     *
+     * @return version of the names, 0 if the state has no names
+     */
+    public long getNamesVersion() {
+        return namesVersion;
     }
 
     /**
@@ -77,6 +164,48 @@ public class ChatState implements Serializable {
         return userStatus;
     }
 
+    /**
+     * Method that returns this state with session token attached. It should
+     * be invoked only for a state sent to one client, which has just logged in
+     *
+     * @param sessionToken token of the user's session
+     * @return new state sharing messages and names with this one
+     */
+    public ChatState withSessionToken(String sessionToken) {
+        return new ChatState(messages, names, namesVersion, userStatus, sessionToken, truncated);
+    }
+
+    /**
+     * Method that returns token of the user's session
+     *
+     * @return token of the session, null if this state doesn't confirm login
+     */
+    public String getSessionToken() {
+        return sessionToken;
+    }
+
+    /**
+     * Method that returns this state marked as truncated, because messages
+     * between the last one received by the user and the ones in this state
+     * have been left out
+     *
+     * @return new state sharing messages and names with this one
+     */
+    ChatState truncated() {
+        return new ChatState(messages, names, namesVersion, userStatus, sessionToken, true);
+    }
+
+    /**
+     * Method that tells whether messages missed by the user have been left
+     * out of this state. Such state isn't compatible with the last received
+     * message and should replace the displayed messages
+     *
+     * @return true if messages have been left out
+     */
+    public boolean isTruncated() {
+        return truncated;
+    }
+
     /**
      * Enumeration representing current status of client that receives this
      * status update
@@ -112,7 +241,17 @@ public class ChatState implements Serializable {
         /**
          * User has been rejected by the server for unknown reason.
          */
-        REJECTED
+        REJECTED,
+        /**
+         * User has been rejected, because the server has reached the limit of
+         * connections or logged in users. He should try again later
+         */
+        SERVER_FULL,
+        /**
+         * User has been rejected, because there are too many connections from
+         * his address
+         */
+        TOO_MANY_CONNECTIONS
     }
 
     /**
@@ -127,41 +266,15 @@ public class ChatState implements Serializable {
     }
 
     /**
-     * Method that determines whether this ChatState update is compatible with
-     * user whose last received message happened on a given date
+     * Method that determines whether this ChatState update continues messages
+     * received by the user. Messages of a state are all the messages which
+     * arrived at the server after the first one, so if the user has the first
+     * one, he has missed nothing between
      *
-     * @param lastMessageDate Date of last received message by the user
+     * @param receivedMessages messages received by the user
      * @return true if this ChatState update is compatible, false if it's not
      */
-    public boolean isCompatibleWithDate(Date lastMessageDate) {
-        if (lastMessageDate == null || messages.size() == 0)
-            return true;
-
-        for (Message message : messages) {
-            // the message previously received is contained in this state
-            if (!getSentDate(message).after(lastMessageDate))
-                return true;
-        }
-        return false;
-    }
-
-    /**
-     * Method that deletes from this ChatState update all messages that happened
-     * before given Date
-     *
-     * @param lastMessageDate Date of last received message by the user
-     */
-    public void deleteAllMessagesBefore(Date lastMessageDate) {
-        for (int i = 0; i < messages.size(); ++i) {
-            Message message = messages.get(i);
-            if (!getSentDate(message).after(lastMessageDate)) {
-                messages.remove(message);
-                --i;
-            }
-        }
-    }
-
-    private Date getSentDate(Message m) {
-        return m.getSentDate();
+    public boolean isContinuationOf(ReceivedMessages receivedMessages) {
+        return messages.isEmpty() || receivedMessages.contains(messages.get(0).getCursor());
     }
 }
@@ -0,0 +1,93 @@
+package model;
+
+import java.io.Serializable;
+
+/**
+ * Position in the total order of messages, given by the hybrid logical
+ * timestamp of a message and id of the node that issued it. Clients use it to
+ * tell the server which messages they have already received
+ *
+ * @author Michal
+ */
+public class Cursor implements Serializable, Comparable<Cursor> {
+    /**
+     * serialVersionUID for this class
+     */
+    private static final long serialVersionUID = 1L;
+    /**
+     * hybrid logical timestamp of the message
+     */
+    private final long timestamp;
+    /**
+     * id of the node that stamped the message
+     */
+    private final int nodeId;
+
+    /**
+     * Constructor
+     *
+     * @param timestamp hybrid logical timestamp of the message
+     * @param nodeId    id of the node that stamped the message
+     */
+    public Cursor(long timestamp, int nodeId) {
+        this.timestamp = timestamp;
+        this.nodeId = nodeId;
+    }
+
+    /**
+     * Method that returns hybrid logical timestamp of the message
+     *
+     * @return hybrid logical timestamp
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * Method that returns id of the node that stamped the message
+     *
+     * @return id of the node
+     */
+    public int getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * Method that compares two positions, first by timestamps, then by node ids
+     */
+    @Override
+    public int compareTo(Cursor o) {
+        return compare(timestamp, nodeId, o.timestamp, o.nodeId);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof Cursor))
+            return false;
+
+        Cursor cursor = (Cursor) o;
+        return timestamp == cursor.timestamp && nodeId == cursor.nodeId;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(timestamp) * 31 + nodeId;
+    }
+
+    /**
+     * Method that compares two positions given as primitive values
+     *
+     * @param timestamp      timestamp of the first position
+     * @param nodeId         node id of the first position
+     * @param otherTimestamp timestamp of the second position
+     * @param otherNodeId    node id of the second position
+     * @return negative value, zero or positive value if the first position is
+     * before, equal to or after the second one
+     */
+    static int compare(long timestamp, int nodeId, long otherTimestamp, int otherNodeId) {
+        if (timestamp != otherTimestamp)
+            return Long.compare(timestamp, otherTimestamp);
+
+        return Integer.compare(nodeId, otherNodeId);
+    }
+}
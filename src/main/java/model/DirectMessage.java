@@ -0,0 +1,71 @@
+package model;
+
+import java.io.Serializable;
+
+/**
+ * Objects of this class are private messages sent by the server to the
+ * recipient, and back to the author to confirm whether they were delivered
+ *
+ * @author Michal
+ */
+public class DirectMessage implements Serializable {
+    /**
+     * serialVersionUID for this class
+     */
+    private static final long serialVersionUID = 1L;
+    /**
+     * the message, with the name of the author
+     */
+    private Message message;
+    /**
+     * name of the user to whom the message is sent
+     */
+    private String recipient;
+    /**
+     * true if the message has been sent to the recipient, or to the federated
+     * node he is logged in to
+     */
+    private boolean delivered;
+
+    /**
+     * Constructor
+     *
+     * @param message   the message
+     * @param recipient name of the user to whom the message is sent
+     * @param delivered true if the message has been sent to the recipient,
+     *                  or to the federated node he is logged in to
+     */
+    public DirectMessage(Message message, String recipient, boolean delivered) {
+        this.message = message;
+        this.recipient = recipient;
+        this.delivered = delivered;
+    }
+
+    /**
+     * Method that returns the message
+     *
+     * @return the message, with the name of the author
+     */
+    public Message getMessage() {
+        return message;
+    }
+
+    /**
+     * Method that returns name of the user to whom the message is sent
+     *
+     * @return name of the recipient
+     */
+    public String getRecipient() {
+        return recipient;
+    }
+
+    /**
+     * Method that tells whether the message has been sent to the recipient
+     *
+     * @return false if the recipient is not logged in to this server or to
+     * any federated one
+     */
+    public boolean isDelivered() {
+        return delivered;
+    }
+}
@@ -0,0 +1,239 @@
+package model;
+
+import java.util.Arrays;
+
+/**
+ * Immutable vector of handles of messages. Changing the vector returns a new
+ * one that shares all unchanged parts with the old one, so every published
+ * snapshot of the model keeps its own version at the cost of a few small
+ * arrays per change. Handles are kept in leaves of 32 in a tree of arrays of
+ * 32 children, and the last leaf is kept outside of the tree so that
+ * appending usually copies just that leaf
+ *
+ * @author Michal
+ */
+final class HandleVector {
+    /**
+     * number of bits of an index used on one level of the tree
+     */
+    private static final int BITS = 5;
+    /**
+     * number of children of a node and of handles in a leaf
+     */
+    private static final int WIDTH = 1 << BITS;
+    /**
+     * mask of bits of an index used on one level of the tree
+     */
+    private static final int MASK = WIDTH - 1;
+    /**
+     * vector without handles
+     */
+    static final HandleVector EMPTY = new HandleVector(0, BITS, new Object[WIDTH], new long[0]);
+    /**
+     * number of handles
+     */
+    private final int size;
+    /**
+     * number of bits of an index below the level of the root
+     */
+    private final int shift;
+    /**
+     * root of the tree of full leaves. Nodes are arrays of children, leaves
+     * are arrays of handles
+     */
+    private final Object[] root;
+    /**
+     * the last leaf, not in the tree yet
+     */
+    private final long[] tail;
+
+    /**
+     * Constructor
+     *
+     * @param size  number of handles
+     * @param shift number of bits of an index below the level of the root
+     * @param root  root of the tree of full leaves
+     * @param tail  the last leaf
+     */
+    private HandleVector(int size, int shift, Object[] root, long[] tail) {
+        this.size = size;
+        this.shift = shift;
+        this.root = root;
+        this.tail = tail;
+    }
+
+    /**
+     * Method that returns number of handles
+     *
+     * @return number of handles
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Method that returns handle at given index
+     *
+     * @param index index of the handle
+     * @return the handle
+     */
+    long get(int index) {
+        if (index < 0 || index >= size)
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+
+        return getLeaf(index)[index & MASK];
+    }
+
+    /**
+     * Method that returns vector with given handle appended
+     *
+     * @param handle appended handle
+     * @return new vector
+     */
+    HandleVector append(long handle) {
+        if (size - getTailOffset() < WIDTH) {
+            long[] newTail = Arrays.copyOf(tail, tail.length + 1);
+            newTail[tail.length] = handle;
+            return new HandleVector(size + 1, shift, root, newTail);
+        }
+
+        // the full tail goes to the tree, the root gets a level if it is full
+        Object[] newRoot;
+        int newShift = shift;
+        if ((size >>> BITS) > (1 << shift)) {
+            newRoot = new Object[WIDTH];
+            newRoot[0] = root;
+            newRoot[1] = newPath(shift, tail);
+            newShift += BITS;
+        } else
+            newRoot = pushTail(shift, root, tail);
+        return new HandleVector(size + 1, newShift, newRoot, new long[]{handle});
+    }
+
+    /**
+     * Method that returns vector with handle at given index replaced
+     *
+     * @param index  index of the replaced handle
+     * @param handle new handle
+     * @return new vector
+     */
+    HandleVector set(int index, long handle) {
+        if (index < 0 || index >= size)
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+
+        if (index >= getTailOffset()) {
+            long[] newTail = tail.clone();
+            newTail[index & MASK] = handle;
+            return new HandleVector(size, shift, root, newTail);
+        }
+        return new HandleVector(size, shift, (Object[]) set(shift, root, index, handle), tail);
+    }
+
+    /**
+     * Method that returns vector with handle inserted at given index. Handles
+     * after the index are moved one by one, which is cheap when the index is
+     * close to the end, as for messages replicated a little late
+     *
+     * @param index  index at which the handle is inserted
+     * @param handle inserted handle
+     * @return new vector
+     */
+    HandleVector insert(int index, long handle) {
+        if (index < 0 || index > size)
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+        if (index == size)
+            return append(handle);
+
+        HandleVector vector = append(get(size - 1));
+        for (int i = size - 1; i > index; --i)
+            vector = vector.set(i, get(i - 1));
+        return vector.set(index, handle);
+    }
+
+    /**
+     * Method that returns index of the first handle in the tail
+     *
+     * @return index of the first handle not in the tree
+     */
+    private int getTailOffset() {
+        return size < WIDTH ? 0 : ((size - 1) >>> BITS) << BITS;
+    }
+
+    /**
+     * Method that returns leaf containing handle at given index
+     *
+     * @param index index of the handle
+     * @return the leaf
+     */
+    private long[] getLeaf(int index) {
+        if (index >= getTailOffset())
+            return tail;
+
+        Object node = root;
+        for (int level = shift; level > 0; level -= BITS)
+            node = ((Object[]) node)[(index >>> level) & MASK];
+        return (long[]) node;
+    }
+
+    /**
+     * Method that copies path from given node to the last full leaf and puts
+     * the tail at its end
+     *
+     * @param level    number of bits of an index below the level of the node
+     * @param parent   node to which the tail is added
+     * @param tailLeaf full tail
+     * @return copy of the node with the tail
+     */
+    private Object[] pushTail(int level, Object[] parent, long[] tailLeaf) {
+        int childIndex = ((size - 1) >>> level) & MASK;
+        Object[] node = parent.clone();
+        Object child;
+        if (level == BITS)
+            child = tailLeaf;
+        else if (parent[childIndex] != null)
+            child = pushTail(level - BITS, (Object[]) parent[childIndex], tailLeaf);
+        else
+            child = newPath(level - BITS, tailLeaf);
+        node[childIndex] = child;
+        return node;
+    }
+
+    /**
+     * Method that creates a branch of first children leading to given leaf
+     *
+     * @param level number of bits of an index below the level of the branch
+     * @param leaf  leaf at the end of the branch
+     * @return top of the branch
+     */
+    private static Object newPath(int level, long[] leaf) {
+        if (level == 0)
+            return leaf;
+
+        Object[] node = new Object[WIDTH];
+        node[0] = newPath(level - BITS, leaf);
+        return node;
+    }
+
+    /**
+     * Method that copies path from given node to the leaf containing handle
+     * at given index, replacing the handle
+     *
+     * @param level  number of bits of an index below the level of the node
+     * @param node   node or leaf containing the handle
+     * @param index  index of the replaced handle
+     * @param handle new handle
+     * @return copy of the node
+     */
+    private static Object set(int level, Object node, int index, long handle) {
+        if (level == 0) {
+            long[] leaf = ((long[]) node).clone();
+            leaf[index & MASK] = handle;
+            return leaf;
+        }
+
+        Object[] copy = ((Object[]) node).clone();
+        int childIndex = (index >>> level) & MASK;
+        copy[childIndex] = set(level - BITS, copy[childIndex], index, handle);
+        return copy;
+    }
+}
@@ -0,0 +1,87 @@
+package model;
+
+import java.util.Arrays;
+
+/**
+ * Storage of messages as objects on the heap. Messages are kept in order of
+ * insertion, a handle of a message is its index in that order
+ *
+ * @author Michal
+ */
+class HeapMessageStore extends MessageStore {
+    /**
+     * initial capacity of the arrays growing with the storage
+     */
+    private static final int INITIAL_CAPACITY = 16;
+    /**
+     * stored messages in order of insertion. Elements are never changed once
+     * written
+     */
+    private volatile Message[] insertedMessages;
+    /**
+     * handles of stored messages sorted by timestamps of messages
+     */
+    private int[] handles;
+    /**
+     * number of stored messages
+     */
+    private int size;
+
+    /**
+     * Constructor
+     */
+    HeapMessageStore() {
+        insertedMessages = new Message[INITIAL_CAPACITY];
+        handles = new int[INITIAL_CAPACITY];
+    }
+
+    @Override
+    int size() {
+        return size;
+    }
+
+    @Override
+    Message get(int index) {
+        return insertedMessages[handles[index]];
+    }
+
+    @Override
+    long getHandle(int index) {
+        return handles[index];
+    }
+
+    @Override
+    long insert(int index, Message message) {
+        if (size == handles.length) {
+            insertedMessages = Arrays.copyOf(insertedMessages, 2 * size);
+            handles = Arrays.copyOf(handles, 2 * size);
+        }
+        insertedMessages[size] = message;
+        System.arraycopy(handles, index, handles, index + 1, size - index);
+        handles[index] = size;
+        return size++;
+    }
+
+    @Override
+    Message resolve(long handle) {
+        Message message = insertedMessages[(int) handle];
+        return new Message(message.getAuthor(), message.getTimestamp(), message.getNodeId(), message.getContent(),
+                null);
+    }
+
+    @Override
+    long getTimestampOf(long handle) {
+        return insertedMessages[(int) handle].getTimestamp();
+    }
+
+    @Override
+    int getNodeIdOf(long handle) {
+        return insertedMessages[(int) handle].getNodeId();
+    }
+
+    @Override
+    int estimateSizeOf(long handle) {
+        Message message = insertedMessages[(int) handle];
+        return MESSAGE_OVERHEAD_BYTES + 2 * (message.getAuthor().length() + message.getContent().length());
+    }
+}
@@ -0,0 +1,89 @@
+package model;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+
+/**
+ * Objects of this class are answers to requests for history. A page contains
+ * sorted messages adjacent to the requested position, limited both in number
+ * and in size, and tells whether there are more messages in the requested
+ * direction
+ *
+ * @author Michal
+ */
+public class HistoryPage implements Serializable {
+    /**
+     * serialVersionUID for this class
+     */
+    private static final long serialVersionUID = 1L;
+    /**
+     * messages of this page, sorted by timestamps
+     */
+    private ArrayList<Message> messages;
+    /**
+     * direction in which the messages were requested
+     */
+    private Direction direction;
+    /**
+     * true if there are more messages in the requested direction
+     */
+    private boolean hasMore;
+
+    /**
+     * Constructor
+     *
+     * @param messages  sorted messages of this page
+     * @param direction direction in which the messages were requested
+     * @param hasMore   true if there are more messages in the requested
+     *                  direction
+     */
+    HistoryPage(ArrayList<Message> messages, Direction direction, boolean hasMore) {
+        this.messages = messages;
+        this.direction = direction;
+        this.hasMore = hasMore;
+    }
+
+    /**
+     * Method that returns messages of this page
+     *
+     * @return sorted messages
+     */
+    public ArrayList<Message> getMessages() {
+        return new ArrayList<>(messages);
+    }
+
+    /**
+     * Method that returns direction in which the messages were requested
+     *
+     * @return direction of the request
+     */
+    public Direction getDirection() {
+        return direction;
+    }
+
+    /**
+     * Method that tells whether there are more messages in the requested
+     * direction, which can be requested with the next page
+     *
+     * @return true if this is not the last page
+     */
+    public boolean hasMore() {
+        return hasMore;
+    }
+
+    /**
+     * Enumeration of directions in which history can be browsed
+     *
+     * @author Michal
+     */
+    public enum Direction {
+        /**
+         * Messages ordered before the given position
+         */
+        OLDER,
+        /**
+         * Messages ordered after the given position
+         */
+        NEWER
+    }
+}
@@ -0,0 +1,64 @@
+package model;
+
+/**
+ * Hybrid logical clock used to stamp messages on federated server nodes. A
+ * timestamp is packed into one long: the upper 48 bits hold physical time in
+ * milliseconds and the lower 16 bits hold a logical counter. Timestamps issued
+ * by one clock are strictly increasing and never lower than any timestamp the
+ * clock has received, so together with the id of the issuing node they give a
+ * total order consistent with causality, even if clocks of the machines are
+ * skewed. This class is thread safe
+ *
+ * @author Michal
+ */
+public class HybridLogicalClock {
+    /**
+     * number of bits used by the logical counter
+     */
+    private static final int COUNTER_BITS = 16;
+    /**
+     * last timestamp issued or received by this clock
+     */
+    private long lastTimestamp;
+
+    /**
+     * Method that issues new timestamp for a local event
+     *
+     * @return timestamp greater than every timestamp issued or received before
+     */
+    public synchronized long now() {
+        lastTimestamp = Math.max(lastTimestamp + 1, fromPhysicalTime(System.currentTimeMillis()));
+        return lastTimestamp;
+    }
+
+    /**
+     * Method that moves this clock forward after receiving timestamp issued
+     * by another node, so that later local timestamps are greater
+     *
+     * @param timestamp received timestamp
+     */
+    public synchronized void update(long timestamp) {
+        lastTimestamp = Math.max(lastTimestamp, timestamp);
+    }
+
+    /**
+     * Method that converts physical time to the lowest timestamp of that
+     * millisecond
+     *
+     * @param millis physical time in milliseconds
+     * @return timestamp with logical counter equal to 0
+     */
+    public static long fromPhysicalTime(long millis) {
+        return millis << COUNTER_BITS;
+    }
+
+    /**
+     * Method that extracts physical time from a timestamp
+     *
+     * @param timestamp timestamp issued by a clock
+     * @return physical time in milliseconds
+     */
+    public static long toPhysicalTime(long timestamp) {
+        return timestamp >>> COUNTER_BITS;
+    }
+}
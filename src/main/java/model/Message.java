@@ -4,8 +4,11 @@ import java.io.Serializable;
 import java.util.Date;
 
 /**
- * Class that contains information about string message: the author, the date of
- * sending and content of the message. Objects of this type can be compared
+ * Class that contains information about string message: the author, the hybrid
+ * logical timestamp of sending, id of the node that stamped it and content of
+ * the message. Objects of this type can be compared, timestamp together with
+ * node id identifies the message. Messages are immutable, so they are shared
+ * by the model and the states sent to clients instead of being copied
  *
  * @author Michal
  */
@@ -18,52 +21,60 @@ public class Message implements Serializable, Comparable<Message> {
     /**
      * author of the message
      */
-    private String author;
+    private final String author;
     /**
-     * Date of sending the message
+     * hybrid logical timestamp of sending the message
      */
-    private Date sentDate;
+    private final long timestamp;
+    /**
+     * id of the node that stamped the message
+     */
+    private final int nodeId;
     /**
      * content of the message
      */
-    private String content;
+    private final String content;
+    /**
+     * optional timestamps collected on the way of the message
+     */
+    private final MessageTrace trace;
 
     /**
      * Constructor
      *
-     * @param content  content of the message to be send
-     * @param author   user name of the sending person
-     * @param sentDate when was this message sent
+     * @param author    user name of the sending person
+     * @param timestamp hybrid logical timestamp of sending
+     * @param nodeId    id of the node that stamped the message
+     * @param content   content of the message to be send
+     * @param trace     timestamps of the message, may be null
      */
-    public Message(String author, Date sentDate, String content) {
+    public Message(String author, long timestamp, int nodeId, String content, MessageTrace trace) {
         this.author = author;
-        this.sentDate = sentDate;
+        this.timestamp = timestamp;
+        this.nodeId = nodeId;
         this.content = content;
+        this.trace = trace;
     }
 
     /**
-     * Copy constructor for a chatMessage
-     *
-     * @param chatMessage ChatMessage to be copied
+     * Method that compares two messages, by their timestamps and then by ids
+     * of nodes that stamped them
      */
-    Message(Message chatMessage) {
-        this.author = chatMessage.author;
-        this.sentDate = chatMessage.sentDate;
-        this.content = chatMessage.content;
+    @Override
+    public int compareTo(Message o) {
+        return Cursor.compare(timestamp, nodeId, o.timestamp, o.nodeId);
     }
 
     /**
-     * Method that compares two messages, by their sending dates
+     * Method that compares this message with a position in the order of
+     * messages
+     *
+     * @param cursor position to compare with
+     * @return negative value, zero or positive value if this message is
+     * before, at or after given position
      */
-    @Override
-    public int compareTo(Message o) {
-        if (this.sentDate.equals(o.sentDate))
-            return 0;
-
-        if (this.sentDate.before(o.sentDate))
-            return -1;
-
-        return 1;
+    public int compareTo(Cursor cursor) {
+        return Cursor.compare(timestamp, nodeId, cursor.getTimestamp(), cursor.getNodeId());
     }
 
     /**
@@ -76,12 +87,50 @@ public class Message implements Serializable, Comparable<Message> {
     }
 
     /**
-     * Method returning Date on which this message was sent
+     * Method returning Date on which this message was sent, taken from
+     * physical part of its timestamp
      *
      * @return Date on which this message was sent
      */
     public Date getSentDate() {
-        return sentDate;
+        return new Date(getSentTime());
+    }
+
+    /**
+     * Method returning time in ms on which this message was sent, taken from
+     * physical part of its timestamp, without creating a Date
+     *
+     * @return time in ms on which this message was sent
+     */
+    public long getSentTime() {
+        return HybridLogicalClock.toPhysicalTime(timestamp);
+    }
+
+    /**
+     * Method returning hybrid logical timestamp of sending the message
+     *
+     * @return hybrid logical timestamp
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * Method returning id of the node that stamped the message
+     *
+     * @return id of the node
+     */
+    public int getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * Method returning position of this message in the order of messages
+     *
+     * @return cursor pointing at this message
+     */
+    public Cursor getCursor() {
+        return new Cursor(timestamp, nodeId);
     }
 
     /**
@@ -93,4 +142,12 @@ public class Message implements Serializable, Comparable<Message> {
         return content;
     }
 
+    /**
+     * Method returning timestamps collected on the way of the message
+     *
+     * @return trace of the message, or null if it is not traced
+     */
+    public MessageTrace getTrace() {
+        return trace;
+    }
 }
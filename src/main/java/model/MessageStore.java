@@ -0,0 +1,154 @@
+package model;
+
+/**
+ * Storage of messages of the model, sorted by timestamps. Messages are added
+ * and read by the Controller only, except for messages referenced by handles,
+ * which can be read by any thread. The storage is chosen with the system
+ * property chatroom.store: "heap" (default) or "offheap"
+ *
+ * @author Michal
+ */
+abstract class MessageStore {
+    /**
+     * estimated size in bytes of a serialized message without its texts
+     */
+    static final int MESSAGE_OVERHEAD_BYTES = 64;
+
+    /**
+     * Method that creates storage selected by the system property
+     * chatroom.store
+     *
+     * @return empty storage
+     */
+    static MessageStore create() {
+        if ("offheap".equals(System.getProperty("chatroom.store")))
+            return new OffHeapMessageStore();
+        return new HeapMessageStore();
+    }
+
+    /**
+     * Method that returns number of stored messages
+     *
+     * @return number of messages
+     */
+    abstract int size();
+
+    /**
+     * Method that returns timestamp of a stored message
+     *
+     * @param index index of the message
+     * @return hybrid logical timestamp of the message
+     */
+    long getTimestamp(int index) {
+        return getTimestampOf(getHandle(index));
+    }
+
+    /**
+     * Method that returns id of the node that stamped a stored message
+     *
+     * @param index index of the message
+     * @return id of the node
+     */
+    int getNodeId(int index) {
+        return getNodeIdOf(getHandle(index));
+    }
+
+    /**
+     * Method that returns a stored message. Messages are immutable, so the
+     * returned object may be shared with the storage
+     *
+     * @param index index of the message
+     * @return the message
+     */
+    abstract Message get(int index);
+
+    /**
+     * Method that estimates how many bytes a stored message takes when sent
+     *
+     * @param index index of the message
+     * @return estimated size in bytes
+     */
+    int estimateSize(int index) {
+        return estimateSizeOf(getHandle(index));
+    }
+
+    /**
+     * Method that returns handle of a stored message, which doesn't change
+     * when other messages are inserted
+     *
+     * @param index index of the message
+     * @return handle of the message
+     */
+    abstract long getHandle(int index);
+
+    /**
+     * Method that inserts message at given index
+     *
+     * @param index   index at which the message is inserted
+     * @param message inserted message
+     * @return handle of the message, which doesn't change when other messages
+     * are inserted
+     */
+    abstract long insert(int index, Message message);
+
+    /**
+     * Method that returns message referenced by a handle, without its trace.
+     * It can be invoked from any thread that has received the handle after
+     * the message was inserted
+     *
+     * @param handle handle returned when the message was inserted
+     * @return the message
+     */
+    abstract Message resolve(long handle);
+
+    /**
+     * Method that returns timestamp of message referenced by a handle. It can
+     * be invoked from any thread, like resolve
+     *
+     * @param handle handle returned when the message was inserted
+     * @return hybrid logical timestamp of the message
+     */
+    abstract long getTimestampOf(long handle);
+
+    /**
+     * Method that returns id of the node that stamped message referenced by a
+     * handle. It can be invoked from any thread, like resolve
+     *
+     * @param handle handle returned when the message was inserted
+     * @return id of the node
+     */
+    abstract int getNodeIdOf(long handle);
+
+    /**
+     * Method that estimates how many bytes message referenced by a handle
+     * takes when sent. It can be invoked from any thread, like resolve
+     *
+     * @param handle handle returned when the message was inserted
+     * @return estimated size in bytes
+     */
+    abstract int estimateSizeOf(long handle);
+
+    /**
+     * Method that compares a stored message with a position
+     *
+     * @param index  index of the message
+     * @param cursor compared position
+     * @return negative if the message is before the position, 0 if it is at
+     * the position, positive if it is after
+     */
+    int compare(int index, Cursor cursor) {
+        return Cursor.compare(getTimestamp(index), getNodeId(index), cursor.getTimestamp(), cursor.getNodeId());
+    }
+
+    /**
+     * Method that compares a stored message with another message
+     *
+     * @param index   index of the stored message
+     * @param message compared message
+     * @return negative if the stored message is before the other one, 0 if
+     * they are at the same position, positive if it is after
+     */
+    int compare(int index, Message message) {
+        return Cursor.compare(getTimestamp(index), getNodeId(index), message.getTimestamp(), message.getNodeId());
+    }
+}
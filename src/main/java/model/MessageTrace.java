@@ -0,0 +1,148 @@
+package model;
+
+import java.io.Serializable;
+
+/**
+ * Timestamps collected on the way of one message from its author to the
+ * screen of a receiver. All the values are taken with
+ * System.currentTimeMillis(), so differences between stamps made on different
+ * machines include their clock skew. Value 0 means that the stamp has not
+ * been made
+ *
+ * @author Michal
+ */
+public class MessageTrace implements Serializable {
+    /**
+     * serialVersionUID for this class
+     */
+    private static final long serialVersionUID = 1L;
+    /**
+     * time when author's client sent the message
+     */
+    private long clientSendTime;
+    /**
+     * time when the server read the message from the socket
+     */
+    private long serverReceiveTime;
+    /**
+     * time when the server broadcasted the message for the first time
+     */
+    private long serverBroadcastTime;
+    /**
+     * time when receiver's client read the message from the socket
+     */
+    private transient long clientReceiveTime;
+    /**
+     * time when receiver's client displayed the message
+     */
+    private transient long clientRenderTime;
+
+    /**
+     * Constructor that stamps the time of sending by the client
+     */
+    public MessageTrace() {
+        clientSendTime = System.currentTimeMillis();
+    }
+
+    /**
+     * Copy constructor, used when the server moves the trace from the event to
+     * the stored message
+     *
+     * @param trace trace to be copied
+     */
+    public MessageTrace(MessageTrace trace) {
+        this.clientSendTime = trace.clientSendTime;
+        this.serverReceiveTime = trace.serverReceiveTime;
+        this.serverBroadcastTime = trace.serverBroadcastTime;
+    }
+
+    /**
+     * Constructor of a trace received from another node, with the stamps
+     * made before receiving
+     *
+     * @param clientSendTime      time when author's client sent the message
+     * @param serverReceiveTime   time when the server read the message
+     * @param serverBroadcastTime time of the first broadcast of the message
+     */
+    public MessageTrace(long clientSendTime, long serverReceiveTime, long serverBroadcastTime) {
+        this.clientSendTime = clientSendTime;
+        this.serverReceiveTime = serverReceiveTime;
+        this.serverBroadcastTime = serverBroadcastTime;
+    }
+
+    /**
+     * Method that stamps the time of reading the message on the server
+     */
+    public void stampServerReceive() {
+        serverReceiveTime = System.currentTimeMillis();
+    }
+
+    /**
+     * Method that stamps the time of the first broadcast of the message
+     */
+    public void stampServerBroadcast() {
+        if (serverBroadcastTime == 0)
+            serverBroadcastTime = System.currentTimeMillis();
+    }
+
+    /**
+     * Method that stamps the time of reading the message on the client. Only
+     * the first reception is remembered
+     */
+    public void stampClientReceive() {
+        if (clientReceiveTime == 0)
+            clientReceiveTime = System.currentTimeMillis();
+    }
+
+    /**
+     * Method that stamps the time of displaying the message on the client
+     */
+    public void stampClientRender() {
+        clientRenderTime = System.currentTimeMillis();
+    }
+
+    /**
+     * Method that returns time when author's client sent the message
+     *
+     * @return time when author's client sent the message, 0 if not stamped
+     */
+    public long getClientSendTime() {
+        return clientSendTime;
+    }
+
+    /**
+     * Method that returns time when the server read the message
+     *
+     * @return time when the server read the message, 0 if not stamped
+     */
+    public long getServerReceiveTime() {
+        return serverReceiveTime;
+    }
+
+    /**
+     * Method that returns time of the first broadcast of the message
+     *
+     * @return time of the first broadcast of the message, 0 if not stamped
+     */
+    public long getServerBroadcastTime() {
+        return serverBroadcastTime;
+    }
+
+    /**
+     * Method that returns time when this client read the message
+     *
+     * @return time when this client read the message, 0 if not stamped
+     */
+    public long getClientReceiveTime() {
+        return clientReceiveTime;
+    }
+
+    /**
+     * Method that returns time when this client displayed the message
+     *
+     * @return time when this client displayed the message, 0 if not stamped
+     */
+    public long getClientRenderTime() {
+        return clientRenderTime;
+    }
+}
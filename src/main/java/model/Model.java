@@ -1,57 +1,156 @@
 package model;
 
 import java.util.ArrayList;
-import java.util.Map;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.Date;
-import java.util.TreeSet;
+import java.util.List;
+import java.util.Set;
 
 import model.ChatState.UserStatus;
+import model.HistoryPage.Direction;
+import profiling.ModelMutationEvent;
 
 /**
  * Model of this application. It stores names of all users currently connected,
- * and all messages that have been exchanged
+ * and all messages that have been exchanged. Messages are changed only by the
+ * Controller, names of users are kept in a thread safe registry. The
+ * Controller publishes immutable snapshots of the model, which other threads
+ * read in parallel with further changes
  *
  * @author Michal
  */
 
 public class Model {
     /**
-     * list of all delivered messages
+     * all delivered messages, sorted by timestamps
      */
-    private ArrayList<Message> messages;
+    private final MessageStore messages;
     /**
-     * Mapping client's names to their models
+     * names of users logged in to this node and to federated nodes
      */
-    private Map<String, ClientModel> nameToModelMap;
+    private final UserRegistry userRegistry;
     /**
-     * maximum length of user's name
+     * handles of stored messages sorted by timestamps, shared with published
+     * snapshots
      */
-    private static final int NAME_MAX_LENGTH = 15;
+    private HandleVector handles;
     /**
-     * time in ms acceptable between two messages without resending
+     * numbers of stored messages in order of their arrival, in the order of
+     * handles, shared with published snapshots
      */
-    private static final int TIME_MAX_DIFFERENCE = 500;
+    private HandleVector sequences;
+    /**
+     * handles of stored messages in order of their arrival, shared with
+     * published snapshots. A message replicated late is older than messages
+     * stored before it, but it arrives after them
+     */
+    private HandleVector arrivals;
+    /**
+     * the two messages stored last, the latest one second, with their traces
+     */
+    private final Message[] recentMessages;
+    /**
+     * true if messages have been added since the last snapshot was published
+     */
+    private boolean messagesChanged;
+    /**
+     * number of published snapshots
+     */
+    private long version;
+    /**
+     * the latest published snapshot
+     */
+    private volatile ModelSnapshot snapshot;
+    /**
+     * id of the node that owns this model, used to stamp new messages
+     */
+    private final int nodeId;
+    /**
+     * clock used to stamp new messages
+     */
+    private final HybridLogicalClock clock;
+    /**
+     * index to which added messages are passed, null if messages aren't
+     * searched
+     */
+    private SearchIndex searchIndex;
 
     /**
-     * Constructor
+     * Constructor of a model of a server that is not federated
      */
     public Model() {
-        messages = new ArrayList<>();
-        nameToModelMap = new HashMap<>();
+        this(0);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param nodeId id of the node that owns this model, unique in the
+     *               federation
+     */
+    public Model(int nodeId) {
+        this.nodeId = nodeId;
+        clock = new HybridLogicalClock();
+        messages = MessageStore.create();
+        userRegistry = new UserRegistry();
+        handles = HandleVector.EMPTY;
+        sequences = HandleVector.EMPTY;
+        arrivals = HandleVector.EMPTY;
+        recentMessages = new Message[2];
+        snapshot = new ModelSnapshot(version, messages, handles, sequences, arrivals, userRegistry.getPublished());
 
         // adding first message for using it to compares with next messages
-        addMessage(new Message("Server", new Date(), "Server has been created"));
+        addMessage(createMessage("Server", "Server has been created", null));
+    }
+
+    /**
+     * Method that creates new message stamped by this node's clock. The
+     * message is not added to the model
+     *
+     * @param author  user name of the sending person
+     * @param content content of the message
+     * @param trace   timestamps of the message, may be null
+     * @return stamped message
+     */
+    public Message createMessage(String author, String content, MessageTrace trace) {
+        return new Message(author, clock.now(), nodeId, content, trace);
+    }
+
+    /**
+     * Method that creates index of messages of this model, to which all
+     * stored and added messages are passed, so that they can be searched
+     *
+     * @return index of messages
+     */
+    public SearchIndex createSearchIndex() {
+        searchIndex = new SearchIndex(messages);
+        for (int i = 0; i < messages.size(); ++i)
+            searchIndex.add(messages.get(i), messages.getHandle(i));
+        return searchIndex;
+    }
+
+    /**
+     * Method that returns registry of names of users, which can be used from
+     * any thread
+     *
+     * @return registry of names of users
+     */
+    public UserRegistry getUserRegistry() {
+        return userRegistry;
     }
 
     /**
-     * Method that adds new client's to the set
+     * Method that atomically adds new client's name to the set, if it is
+     * allowed and free
      *
      * @param userName name of user
+     * @return true if the name has been added, false if it isn't allowed or
+     * is taken
      */
-    public void addUser(String userName) {
-        nameToModelMap.put(userName, new ClientModel(userName));
+    public boolean claimUserName(String userName) {
+        ModelMutationEvent event = new ModelMutationEvent();
+        event.begin();
+        boolean claimed = userRegistry.claim(userName);
+        commitMutation(event, "claimUserName");
+        return claimed;
     }
 
     /**
@@ -60,77 +159,192 @@ public class Model {
      * @param userName name of user
      */
     public void removeUser(String userName) {
-        nameToModelMap.remove(userName);
+        ModelMutationEvent event = new ModelMutationEvent();
+        event.begin();
+        userRegistry.release(userName);
+        commitMutation(event, "removeUser");
     }
 
     /**
-     * Method that adds message to the messages container
+     * Method that replaces names of users logged in to a federated node
+     *
+     * @param nodeId    id of the node
+     * @param userNames names of users logged in to the node, empty if the node
+     *                  is not linked any more
+     */
+    public void setRemoteUsers(int nodeId, Set<String> userNames) {
+        ModelMutationEvent event = new ModelMutationEvent();
+        event.begin();
+        userRegistry.setRemoteUsers(nodeId, userNames);
+        commitMutation(event, "setRemoteUsers");
+    }
+
+    /**
+     * Method that returns names of users logged in directly to this node
+     *
+     * @return names of local users
+     */
+    public Set<String> getLocalUserNames() {
+        return userRegistry.getLocalUserNames();
+    }
+
+    /**
+     * Method that adds message to the messages container, keeping it sorted
+     * by timestamps and numbering it in order of arrival. Messages replicated
+     * from other nodes may be older than the last stored one, the clock is
+     * moved forward past their timestamps. Message with timestamp and node id
+     * of a stored one is ignored. New messages are queued to be indexed for
+     * searching
      *
      * @param message adding message
      */
     public void addMessage(Message message) {
-        messages.add(message);
+        ModelMutationEvent event = new ModelMutationEvent();
+        event.begin();
+        clock.update(message.getTimestamp());
+        int index = messages.size();
+        while (index > 0 && messages.compare(index - 1, message) > 0)
+            --index;
+
+        // the same message replicated twice is stored once
+        if (index == 0 || messages.compare(index - 1, message) != 0) {
+            long handle = messages.insert(index, message);
+            handles = handles.insert(index, handle);
+            sequences = sequences.insert(index, arrivals.size());
+            arrivals = arrivals.append(handle);
+            recentMessages[0] = recentMessages[1];
+            recentMessages[1] = message;
+            messagesChanged = true;
+            if (searchIndex != null)
+                searchIndex.add(message, handle);
+        }
+        commitMutation(event, "addMessage");
     }
 
     /**
-     * Method that returns all messages that happened after specified date
+     * Method that fills and commits Flight Recorder event describing the
+     * change of this model, if the event is recorded at all
      *
-     * @param date Date object after all messages should be returned
-     * @return list of messages that happened after specified date
+     * @param event     event begun before the change
+     * @param operation name of the operation that changed the model
      */
-    private ArrayList<Message> getAllMessagesAfter(Date date) {
-        ArrayList<Message> list = new ArrayList<>();
-        if (date == null)
-            return list;
+    private void commitMutation(ModelMutationEvent event, String operation) {
+        if (!event.shouldCommit())
+            return;
 
-        for (int i = messages.size() - 1; i >= 0; --i) {
-            Message message = messages.get(i);
-            if (!message.getSentDate().before(date))
-                list.add(new Message(message));
+        event.operation = operation;
+        event.messageCount = messages.size();
+        event.userCount = userRegistry.getPublishedUserNames().size();
+        event.commit();
+    }
 
-            else
-                break;
+    /**
+     * Method that publishes snapshot of the model if it has changed since the
+     * last one. It should be invoked by the Controller after changes, so that
+     * requests read by other threads see them
+     *
+     * @return the latest snapshot
+     */
+    public ModelSnapshot publishSnapshot() {
+        UserRegistry.PublishedUserNames userNames = userRegistry.getPublished();
+        if (messagesChanged || userNames != snapshot.getPublishedUserNames()) {
+            snapshot = new ModelSnapshot(++version, messages, handles, sequences, arrivals, userNames);
+            messagesChanged = false;
         }
-        Collections.sort(list);
-        return list;
+        return snapshot;
     }
 
     /**
-     * Method that returns list of messages that have recently been exchanged.
+     * Method that returns the latest published snapshot. It can be invoked
+     * from any thread
      *
-     * @return list of messages that have recently been exchanged
+     * @return the latest snapshot
      */
-    private ArrayList<Message> getRecentMessages() {
-        ArrayList<Message> list = new ArrayList<>();
-        if (messages.size() > 1) {
-            list.add(messages.get(messages.size() - 2));
-            list.add(messages.get(messages.size() - 1));
-        } else if (messages.size() == 1)
-            list.add(messages.get(messages.size() - 1));
+    public ModelSnapshot getSnapshot() {
+        return snapshot;
+    }
 
+    /**
+     * Method that returns a page of messages adjacent to given position, read
+     * from the latest snapshot
+     *
+     * @param cursor    position next to which messages are requested, the
+     *                  message at it is not returned. Null if the latest
+     *                  (older direction) or the earliest (newer direction)
+     *                  messages are requested
+     * @param direction direction in which messages are requested
+     * @param maxCount  maximum number of messages
+     * @param maxBytes  maximum estimated size of messages in bytes
+     * @return page of messages
+     */
+    public HistoryPage getHistoryPage(Cursor cursor, Direction direction, int maxCount, int maxBytes) {
+        return publishSnapshot().getHistoryPage(cursor, direction, maxCount, maxBytes);
+    }
+
+    /**
+     * Method that returns all messages which arrived after the message at
+     * specified position, e.g. to be streamed to a follower server
+     *
+     * @param cursor position of the last message that should not be returned,
+     *               null if all the messages should be returned
+     * @return list of messages in order of arrival
+     * @see ModelSnapshot#getMessagesAfter(Cursor)
+     */
+    public List<Message> getMessagesAfter(Cursor cursor) {
+        return publishSnapshot().getMessagesAfter(cursor);
+    }
+
+    /**
+     * Method that checks whether message at given position is stored
+     *
+     * @param cursor position of the message
+     * @return true if the message is stored in this model
+     */
+    public boolean containsMessage(Cursor cursor) {
+        return publishSnapshot().containsMessage(cursor);
+    }
+
+    /**
+     * Method that returns list of the two messages stored last, so that a
+     * user who has the first one can tell that he has missed nothing
+     *
+     * @return list of messages in order of arrival
+     */
+    private ArrayList<Message> getRecentMessages() {
+        ArrayList<Message> list = new ArrayList<>(recentMessages.length);
+        for (Message message : recentMessages) {
+            if (message != null)
+                list.add(message);
+        }
         return list;
     }
 
     /**
-     * Method returning current chat state
+     * Method returning current chat state with the two messages stored last,
+     * even if one of them is older than other stored messages. Recent
+     * messages keep their traces, as they are broadcast right after being
+     * added
      *
      * @param userStatus status of the user who is concerned by this ChatState update
      * @return current chat state
      */
     public ChatState getChatStateWithRecentMessages(UserStatus userStatus) {
-        return new ChatState(getRecentMessages(), new TreeSet<>(nameToModelMap.keySet()), userStatus);
+        UserRegistry.PublishedUserNames userNames = userRegistry.getPublished();
+        return new ChatState(getRecentMessages(), userNames.getNames(), userNames.getVersion(), userStatus);
     }
 
     /**
-     * Method returning current chat state with all the messages that happened
-     * after given date
+     * Method returning current chat state with the message at given position
+     * and all the messages which arrived after it, read from the latest
+     * snapshot
      *
-     * @param date       since when messages should be included
+     * @param cursor     position of the last message received by the user
      * @param userStatus status of the user who is concerned by this ChatState update
      * @return current chat state with all expected messages
+     * @see ModelSnapshot#getChatStateWithAllMessages(Cursor, UserStatus)
      */
-    public ChatState getChatStateWithAllMessages(Date date, UserStatus userStatus) {
-        return new ChatState(getAllMessagesAfter(date), new TreeSet<>(nameToModelMap.keySet()), userStatus);
+    public ChatState getChatStateWithAllMessages(Cursor cursor, UserStatus userStatus) {
+        return publishSnapshot().getChatStateWithAllMessages(cursor, userStatus);
     }
 
     /**
@@ -141,28 +355,20 @@ public class Model {
      * @return true if client can connect with this server, false in other case
      */
     public boolean isUserNameAllowed(String userName) {
-        return !nameToModelMap.containsKey(userName) && userName.length() != 0 && userName.length() <= NAME_MAX_LENGTH;
+        return userRegistry.isUserNameAllowed(userName);
     }
 
     /**
-     * Method that checks whether date give as argument is close enough the date
-     * of last received message
+     * Method that checks whether the user who has received message at given
+     * position has missed no message that matters
      *
-     * @param date date to be checked
-     * @return true if given date is close enough or after the date of last
-     * received message. false if this date is before last received
-     * message date
+     * @param cursor position of the last message received by the user
+     * @return true if messages which arrived after the given one are only a
+     * few close to it in time
+     * @see ModelSnapshot#isUpToDate(Cursor)
      */
-    public boolean isCorrectDate(Date date) {
-        if (date == null)
-            return false;
-
-        if (messages.size() == 0)
-            return true;
-
-        Date lastMessageDate = messages.get(messages.size() - 1).getSentDate();
-        long differenceInMilliseconds = lastMessageDate.getTime() - date.getTime();
-        return differenceInMilliseconds <= TIME_MAX_DIFFERENCE;
+    public boolean isUpToDate(Cursor cursor) {
+        return publishSnapshot().isUpToDate(cursor);
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,367 @@
+package model;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SortedSet;
+
+import model.ChatState.UserStatus;
+import model.HistoryPage.Direction;
+
+/**
+ * Immutable version of the model published by the Controller after a change.
+ * It refers to messages stored at that moment and to names of users at the
+ * moment of their last change, so any number of threads can read it while the
+ * Controller goes on changing the model. Messages read from a snapshot have
+ * no traces. Pages of history follow timestamps of messages, while messages
+ * missed by a user are found in order of their arrival at this node, because
+ * a message replicated late is older than messages the user already has
+ *
+ * @author Michal
+ */
+public final class ModelSnapshot {
+    /**
+     * time in ms acceptable between two messages without resending
+     */
+    private static final int TIME_MAX_DIFFERENCE = 500;
+    /**
+     * maximum number of messages in one page of history
+     */
+    private static final int PAGE_MAX_COUNT = 200;
+    /**
+     * maximum estimated size in bytes of messages in one page of history
+     */
+    private static final int PAGE_MAX_BYTES = 64 * 1024;
+    /**
+     * maximum number of messages resent to a user who has missed some. A user
+     * who has missed more receives only the latest ones
+     */
+    private static final int CATCH_UP_MAX_COUNT = 50;
+    /**
+     * number of changes of the model made before this snapshot
+     */
+    private final long version;
+    /**
+     * storage from which messages are read
+     */
+    private final MessageStore store;
+    /**
+     * handles of messages in the storage, sorted by timestamps of messages
+     */
+    private final HandleVector handles;
+    /**
+     * numbers of messages in order of their arrival, in the order of handles
+     */
+    private final HandleVector sequences;
+    /**
+     * handles of messages in the storage, in order of their arrival
+     */
+    private final HandleVector arrivals;
+    /**
+     * names of all users with their version
+     */
+    private final UserRegistry.PublishedUserNames userNames;
+
+    /**
+     * Constructor
+     *
+     * @param version   number of changes of the model made before this
+     *                  snapshot
+     * @param store     storage from which messages are read
+     * @param handles   handles of messages sorted by timestamps of messages
+     * @param sequences numbers of messages in order of their arrival, in the
+     *                  order of handles
+     * @param arrivals  handles of messages in order of their arrival
+     * @param userNames names of all users with their version
+     */
+    ModelSnapshot(long version, MessageStore store, HandleVector handles, HandleVector sequences,
+                  HandleVector arrivals, UserRegistry.PublishedUserNames userNames) {
+        this.version = version;
+        this.store = store;
+        this.handles = handles;
+        this.sequences = sequences;
+        this.arrivals = arrivals;
+        this.userNames = userNames;
+    }
+
+    /**
+     * Method that returns number of changes of the model made before this
+     * snapshot, a newer snapshot has a greater version
+     *
+     * @return version of this snapshot
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Method that returns number of messages in this snapshot
+     *
+     * @return number of messages
+     */
+    public int getMessageCount() {
+        return handles.size();
+    }
+
+    /**
+     * Method that returns names of all users, logged in to this node or to
+     * any federated one
+     *
+     * @return unmodifiable sorted names of all users
+     */
+    public SortedSet<String> getUserNames() {
+        return userNames.getNames();
+    }
+
+    /**
+     * Method that returns names of all users with their version, as published
+     * when this snapshot was taken
+     *
+     * @return published names
+     */
+    UserRegistry.PublishedUserNames getPublishedUserNames() {
+        return userNames;
+    }
+
+    /**
+     * Method that creates chat state with names of users of this snapshot
+     *
+     * @param messages   messages of the state in order of arrival
+     * @param userStatus status of the user who is concerned by this ChatState update
+     * @return new chat state
+     */
+    private ChatState createChatState(ArrayList<Message> messages, UserStatus userStatus) {
+        return new ChatState(messages, userNames.getNames(), userNames.getVersion(), userStatus);
+    }
+
+    /**
+     * Method that returns messages from given range
+     *
+     * @param vector handles of messages, sorted by timestamps or in order of
+     *               arrival
+     * @param begin  index of the first returned message
+     * @param end    index after the last returned message
+     * @return list of messages in the order of the handles
+     */
+    private ArrayList<Message> getMessages(HandleVector vector, int begin, int end) {
+        ArrayList<Message> list = new ArrayList<>(end - begin);
+        for (int i = begin; i < end; ++i)
+            list.add(store.resolve(vector.get(i)));
+        return list;
+    }
+
+    /**
+     * Method that compares message at given index with a position
+     *
+     * @param index  index of the message
+     * @param cursor compared position
+     * @return negative if the message is before the position, 0 if it is at
+     * the position, positive if it is after
+     */
+    private int compare(int index, Cursor cursor) {
+        long handle = handles.get(index);
+        return Cursor.compare(store.getTimestampOf(handle), store.getNodeIdOf(handle), cursor.getTimestamp(),
+                cursor.getNodeId());
+    }
+
+    /**
+     * Method that finds where a page of messages ending at given index begins.
+     * At least one message is included if there is any
+     *
+     * @param vector   handles of messages, sorted by timestamps or in order of
+     *                 arrival
+     * @param end      index after the last message of the page
+     * @param maxCount maximum number of messages in the page
+     * @param maxBytes maximum estimated size of messages in the page
+     * @return index of the first message of the page
+     */
+    private int findPageBegin(HandleVector vector, int end, int maxCount, int maxBytes) {
+        int begin = end;
+        int bytes = 0;
+        while (begin > 0 && end - begin < maxCount) {
+            bytes += store.estimateSizeOf(vector.get(begin - 1));
+            if (bytes > maxBytes && begin < end)
+                break;
+            --begin;
+        }
+        return begin;
+    }
+
+    /**
+     * Method that finds where a page of messages beginning at given index
+     * ends. At least one message is included if there is any
+     *
+     * @param vector   handles of messages, sorted by timestamps or in order of
+     *                 arrival
+     * @param begin    index of the first message of the page
+     * @param maxCount maximum number of messages in the page
+     * @param maxBytes maximum estimated size of messages in the page
+     * @return index after the last message of the page
+     */
+    private int findPageEnd(HandleVector vector, int begin, int maxCount, int maxBytes) {
+        int end = begin;
+        int bytes = 0;
+        while (end < vector.size() && end - begin < maxCount) {
+            bytes += store.estimateSizeOf(vector.get(end));
+            if (bytes > maxBytes && end > begin)
+                break;
+            ++end;
+        }
+        return end;
+    }
+
+    /**
+     * Method that returns a page of messages adjacent to given position. Limits
+     * given by the user are lowered to limits of the model
+     *
+     * @param cursor    position next to which messages are requested, the
+     *                  message at it is not returned. Null if the latest
+     *                  (older direction) or the earliest (newer direction)
+     *                  messages are requested
+     * @param direction direction in which messages are requested
+     * @param maxCount  maximum number of messages
+     * @param maxBytes  maximum estimated size of messages in bytes
+     * @return page of messages
+     */
+    public HistoryPage getHistoryPage(Cursor cursor, Direction direction, int maxCount, int maxBytes) {
+        maxCount = Math.min(Math.max(maxCount, 1), PAGE_MAX_COUNT);
+        maxBytes = maxBytes <= 0 ? PAGE_MAX_BYTES : Math.min(maxBytes, PAGE_MAX_BYTES);
+        if (direction == Direction.OLDER) {
+            int end = cursor == null ? handles.size() : findFirstIndexFrom(cursor);
+            int begin = findPageBegin(handles, end, maxCount, maxBytes);
+            return new HistoryPage(getMessages(handles, begin, end), direction, begin > 0);
+        }
+
+        int begin = cursor == null ? 0 : findFirstIndexAfter(cursor);
+        int end = findPageEnd(handles, begin, maxCount, maxBytes);
+        return new HistoryPage(getMessages(handles, begin, end), direction, end < handles.size());
+    }
+
+    /**
+     * Method that returns all messages which arrived after the message at
+     * specified position, e.g. to be streamed to a follower server. If the
+     * message isn't in this snapshot, all the messages are returned
+     *
+     * @param cursor position of the last message that should not be returned,
+     *               null if all the messages should be returned
+     * @return list of messages in order of arrival
+     */
+    public List<Message> getMessagesAfter(Cursor cursor) {
+        int sequence = cursor == null ? -1 : findSequence(cursor);
+        return getMessages(arrivals, sequence + 1, arrivals.size());
+    }
+
+    /**
+     * Method that checks whether message at given position is in this
+     * snapshot
+     *
+     * @param cursor position of the message
+     * @return true if the message is stored
+     */
+    public boolean containsMessage(Cursor cursor) {
+        int index = findFirstIndexFrom(cursor);
+        return index < handles.size() && compare(index, cursor) == 0;
+    }
+
+    /**
+     * Method that finds number in order of arrival of message at given
+     * position
+     *
+     * @param cursor position of the message
+     * @return number of the message, -1 if it isn't in this snapshot
+     */
+    private int findSequence(Cursor cursor) {
+        int index = findFirstIndexFrom(cursor);
+        if (index < handles.size() && compare(index, cursor) == 0)
+            return (int) sequences.get(index);
+        return -1;
+    }
+
+    /**
+     * Method that finds using binary search index of the first message which
+     * is not before given position
+     *
+     * @param cursor searched position
+     * @return index of the first message at or after the position, number of
+     * the messages if there is no such message
+     */
+    private int findFirstIndexFrom(Cursor cursor) {
+        int low = 0;
+        int high = handles.size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (compare(middle, cursor) < 0)
+                low = middle + 1;
+            else
+                high = middle;
+        }
+        return low;
+    }
+
+    /**
+     * Method that finds index of the first message which is after given
+     * position
+     *
+     * @param cursor searched position
+     * @return index of the first message after the position, number of the
+     * messages if there is no such message
+     */
+    private int findFirstIndexAfter(Cursor cursor) {
+        int index = findFirstIndexFrom(cursor);
+        if (index < handles.size() && compare(index, cursor) == 0)
+            ++index;
+        return index;
+    }
+
+    /**
+     * Method returning chat state with the message at given position and all
+     * the messages which arrived after it, in order of arrival, so that the
+     * user can tell by the first one that nothing is missing between. If the
+     * user has missed too many messages, or the message isn't in this
+     * snapshot, only the latest ones are sent and the state is marked as
+     * truncated, the older ones can be requested in pages
+     *
+     * @param cursor     position of the last message received by the user
+     * @param userStatus status of the user who is concerned by this ChatState update
+     * @return chat state with all expected messages
+     */
+    public ChatState getChatStateWithAllMessages(Cursor cursor, UserStatus userStatus) {
+        if (cursor == null)
+            return createChatState(new ArrayList<>(), userStatus);
+
+        int begin = findSequence(cursor);
+        int size = arrivals.size();
+        if (begin >= 0 && findPageEnd(arrivals, begin, CATCH_UP_MAX_COUNT, PAGE_MAX_BYTES) == size)
+            return createChatState(getMessages(arrivals, begin, size), userStatus);
+
+        return createChatState(getMessages(arrivals, findPageBegin(arrivals, size, CATCH_UP_MAX_COUNT, PAGE_MAX_BYTES),
+                size), userStatus).truncated();
+    }
+
+    /**
+     * Method that checks whether the user who has received message at given
+     * position has missed no message that matters: messages which arrived
+     * after it must be few and close to it in time. Only physical time of the
+     * timestamps is compared. A message replicated late, much older than the
+     * given one, has to be received by the user first
+     *
+     * @param cursor position of the last message received by the user
+     * @return true if the user is up to date, false if he has missed messages
+     * or the message isn't in this snapshot
+     */
+    public boolean isUpToDate(Cursor cursor) {
+        if (cursor == null)
+            return false;
+
+        int sequence = findSequence(cursor);
+        if (sequence < 0 || arrivals.size() - 1 - sequence > CATCH_UP_MAX_COUNT)
+            return false;
+
+        long time = HybridLogicalClock.toPhysicalTime(cursor.getTimestamp());
+        for (int i = sequence + 1; i < arrivals.size(); ++i) {
+            long arrivedTime = HybridLogicalClock.toPhysicalTime(store.getTimestampOf(arrivals.get(i)));
+            if (Math.abs(arrivedTime - time) > TIME_MAX_DIFFERENCE)
+                return false;
+        }
+        return true;
+    }
+}
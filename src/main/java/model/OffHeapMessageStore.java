@@ -0,0 +1,245 @@
+package model;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Storage of messages outside of the heap. Every message is written once as a
+ * record to a direct buffer, or to a file mapped to memory if the system
+ * property chatroom.store.directory is given. A record contains the timestamp,
+ * the node id, the id of the author in a table of interned names and the
+ * content in UTF-8. The only objects kept per message are entries of an array
+ * of record offsets sorted by timestamps, so the garbage collector doesn't see
+ * the history at all. Message objects are created only when they are read.
+ * Traces are kept only for the latest messages, which are broadcast
+ *
+ * @author Michal
+ */
+class OffHeapMessageStore extends MessageStore {
+    /**
+     * size in bytes of one buffer of records, configured with the system
+     * property chatroom.store.slabSize
+     */
+    private static final int SLAB_SIZE = Integer.getInteger("chatroom.store.slabSize", 1 << 20);
+    /**
+     * directory in which files of mapped buffers are created, null if direct
+     * buffers are used
+     */
+    private static final String SLAB_DIRECTORY = System.getProperty("chatroom.store.directory");
+    /**
+     * size in bytes of a record without the content
+     */
+    private static final int HEADER_BYTES = 8 + 4 + 4 + 4;
+    /**
+     * initial capacity of the array of offsets
+     */
+    private static final int INITIAL_CAPACITY = 1024;
+    /**
+     * number of the latest messages whose traces are kept
+     */
+    private static final int TRACES_MAX_COUNT = 256;
+    /**
+     * true if a failure to map a buffer to a file has been reported, so that
+     * it is reported once and not for every buffer
+     */
+    private static final AtomicBoolean MAPPING_FAILURE_REPORTED = new AtomicBoolean();
+    /**
+     * buffers with records. They are only added, so records can be read by
+     * any thread
+     */
+    private final List<ByteBuffer> slabs;
+    /**
+     * buffer to which records are written
+     */
+    private ByteBuffer currentSlab;
+    /**
+     * offsets of records sorted by timestamps of messages: index of the
+     * buffer in the upper half, position in the buffer in the lower half
+     */
+    private long[] offsets;
+    /**
+     * number of stored messages
+     */
+    private int size;
+    /**
+     * interned names of authors, an id of an author is an index in this list
+     */
+    private final List<String> authors;
+    /**
+     * mapping names of authors to their ids
+     */
+    private final Map<String, Integer> authorToIdMap;
+    /**
+     * traces of the latest inserted messages
+     */
+    private final Map<Cursor, MessageTrace> cursorToTraceMap;
+
+    /**
+     * Constructor
+     */
+    OffHeapMessageStore() {
+        slabs = new CopyOnWriteArrayList<>();
+        offsets = new long[INITIAL_CAPACITY];
+        authors = new CopyOnWriteArrayList<>();
+        authorToIdMap = new HashMap<>();
+        cursorToTraceMap = new LinkedHashMap<Cursor, MessageTrace>() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Cursor, MessageTrace> eldest) {
+                return size() > TRACES_MAX_COUNT;
+            }
+        };
+    }
+
+    @Override
+    int size() {
+        return size;
+    }
+
+    @Override
+    Message get(int index) {
+        Message message = resolve(offsets[index]);
+        MessageTrace trace = cursorToTraceMap.get(message.getCursor());
+        if (trace == null)
+            return message;
+
+        return new Message(message.getAuthor(), message.getTimestamp(), message.getNodeId(), message.getContent(),
+                trace);
+    }
+
+    @Override
+    long getHandle(int index) {
+        return offsets[index];
+    }
+
+    @Override
+    long insert(int index, Message message) {
+        byte[] content = message.getContent().getBytes(StandardCharsets.UTF_8);
+        int recordSize = HEADER_BYTES + content.length;
+        if (currentSlab == null || currentSlab.remaining() < recordSize) {
+            currentSlab = allocateSlab(Math.max(SLAB_SIZE, recordSize));
+            slabs.add(currentSlab);
+        }
+
+        long offset = (long) (slabs.size() - 1) << 32 | currentSlab.position();
+        currentSlab.putLong(message.getTimestamp());
+        currentSlab.putInt(message.getNodeId());
+        currentSlab.putInt(internAuthor(message.getAuthor()));
+        currentSlab.putInt(content.length);
+        currentSlab.put(content);
+
+        if (size == offsets.length)
+            offsets = Arrays.copyOf(offsets, 2 * size);
+        System.arraycopy(offsets, index, offsets, index + 1, size - index);
+        offsets[index] = offset;
+        ++size;
+
+        if (message.getTrace() != null)
+            cursorToTraceMap.put(message.getCursor(), message.getTrace());
+        return offset;
+    }
+
+    @Override
+    Message resolve(long handle) {
+        ByteBuffer slab = getSlab(handle);
+        int position = getPosition(handle);
+        byte[] content = new byte[slab.getInt(position + 16)];
+        ByteBuffer record = slab.duplicate();
+        ((Buffer) record).position(position + HEADER_BYTES);
+        record.get(content);
+        return new Message(authors.get(slab.getInt(position + 12)), slab.getLong(position),
+                slab.getInt(position + 8), new String(content, StandardCharsets.UTF_8), null);
+    }
+
+    @Override
+    long getTimestampOf(long handle) {
+        return getSlab(handle).getLong(getPosition(handle));
+    }
+
+    @Override
+    int getNodeIdOf(long handle) {
+        return getSlab(handle).getInt(getPosition(handle) + 8);
+    }
+
+    @Override
+    int estimateSizeOf(long handle) {
+        ByteBuffer slab = getSlab(handle);
+        int position = getPosition(handle);
+        String author = authors.get(slab.getInt(position + 12));
+        return MESSAGE_OVERHEAD_BYTES + 2 * author.length() + slab.getInt(position + 16);
+    }
+
+    /**
+     * Method that returns id of an author, adding the name to the table if
+     * needed
+     *
+     * @param author name of the author
+     * @return id of the author
+     */
+    private int internAuthor(String author) {
+        Integer id = authorToIdMap.get(author);
+        if (id == null) {
+            id = authors.size();
+            authors.add(author);
+            authorToIdMap.put(author, id);
+        }
+        return id;
+    }
+
+    /**
+     * Method that returns buffer containing a record
+     *
+     * @param offset offset of the record
+     * @return buffer of the record
+     */
+    private ByteBuffer getSlab(long offset) {
+        return slabs.get((int) (offset >>> 32));
+    }
+
+    /**
+     * Method that returns position of a record in its buffer
+     *
+     * @param offset offset of the record
+     * @return position of the record
+     */
+    private static int getPosition(long offset) {
+        return (int) offset;
+    }
+
+    /**
+     * Method that allocates buffer for records, mapped to a new file if a
+     * directory is configured and direct otherwise. Only the first failure to
+     * map a file is reported
+     *
+     * @param capacity size of the buffer in bytes
+     * @return empty buffer
+     */
+    private static ByteBuffer allocateSlab(int capacity) {
+        if (SLAB_DIRECTORY != null) {
+            try {
+                File file = File.createTempFile("messages", ".slab", new File(SLAB_DIRECTORY));
+                file.deleteOnExit();
+                try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+                    return randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+                }
+            } catch (IOException e) {
+                if (MAPPING_FAILURE_REPORTED.compareAndSet(false, true))
+                    System.err.println("Cannot map messages to a file, using direct memory: " + e.getMessage());
+            }
+        }
+        return ByteBuffer.allocateDirect(capacity);
+    }
+}
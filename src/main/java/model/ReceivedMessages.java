@@ -0,0 +1,157 @@
+package model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeMap;
+
+/**
+ * Messages received by a client, merged from consecutive states in order of
+ * their positions. A message received again, e.g. in the next broadcast or in
+ * resent messages, is recognized by its position and merged once, so merging
+ * a state of k messages costs O(k log n). Messages merged since the view last
+ * rendered are kept aside, so that the view takes just them once per frame.
+ * Only the latest messages are kept, older ones can be requested in pages.
+ * This class is thread safe
+ *
+ * @author Michal
+ */
+public class ReceivedMessages {
+    /**
+     * maximum number of kept messages, the oldest ones are forgotten
+     */
+    private static final int MAX_SIZE = 1000;
+    /**
+     * mapping positions of kept messages to the messages
+     */
+    private final TreeMap<Cursor, Message> cursorToMessageMap;
+    /**
+     * messages merged since the view last rendered, in order of merging
+     */
+    private final ArrayList<Message> unrendered;
+    /**
+     * true if the kept messages have been replaced since the view last
+     * rendered
+     */
+    private boolean replaced;
+
+    /**
+     * Constructor
+     */
+    public ReceivedMessages() {
+        cursorToMessageMap = new TreeMap<>();
+        unrendered = new ArrayList<>();
+    }
+
+    /**
+     * Method that merges received messages with the kept ones
+     *
+     * @param messages received messages, in any order
+     * @return number of messages that haven't been received before
+     */
+    public synchronized int merge(List<Message> messages) {
+        int added = 0;
+        for (Message message : messages) {
+            // a forgotten message may have been rendered already
+            if (cursorToMessageMap.size() == MAX_SIZE
+                    && message.getCursor().compareTo(cursorToMessageMap.firstKey()) < 0)
+                continue;
+
+            if (cursorToMessageMap.putIfAbsent(message.getCursor(), message) == null) {
+                unrendered.add(message);
+                ++added;
+            }
+        }
+        while (cursorToMessageMap.size() > MAX_SIZE)
+            cursorToMessageMap.pollFirstEntry();
+        return added;
+    }
+
+    /**
+     * Method that replaces all kept messages with given ones, e.g. when the
+     * server has left out messages missed by the user. The view is told to
+     * replace the rendered messages too
+     *
+     * @param messages received messages, in any order
+     */
+    public synchronized void replace(List<Message> messages) {
+        cursorToMessageMap.clear();
+        unrendered.clear();
+        replaced = true;
+        merge(messages);
+    }
+
+    /**
+     * Method that tells whether message at given position has been received.
+     * Messages older than the kept ones count as received
+     *
+     * @param cursor position of the message
+     * @return true if the message has been received
+     */
+    public synchronized boolean contains(Cursor cursor) {
+        return cursorToMessageMap.containsKey(cursor) || cursorToMessageMap.size() == MAX_SIZE
+                && cursor.compareTo(cursorToMessageMap.firstKey()) < 0;
+    }
+
+    /**
+     * Method that returns messages merged since the previous invocation and
+     * forgets them, so that the view renders every message once
+     *
+     * @return messages to be rendered
+     */
+    public synchronized RenderBatch takeUnrendered() {
+        ArrayList<Message> messages = new ArrayList<>(unrendered);
+        Collections.sort(messages);
+        RenderBatch batch = new RenderBatch(messages, replaced);
+        unrendered.clear();
+        replaced = false;
+        return batch;
+    }
+
+    /**
+     * Messages to be rendered by the view in one frame
+     *
+     * @author Michal
+     */
+    public static class RenderBatch {
+        /**
+         * new messages sorted by positions
+         */
+        private final List<Message> messages;
+        /**
+         * true if rendered messages should be replaced by these ones
+         */
+        private final boolean replacing;
+
+        /**
+         * Constructor
+         *
+         * @param messages  new messages sorted by positions
+         * @param replacing true if rendered messages should be replaced
+         */
+        RenderBatch(List<Message> messages, boolean replacing) {
+            this.messages = Collections.unmodifiableList(messages);
+            this.replacing = replacing;
+        }
+
+        /**
+         * Method that returns new messages
+         *
+         * @return unmodifiable list of messages sorted by positions, some may
+         * be older than messages already rendered
+         */
+        public List<Message> getMessages() {
+            return messages;
+        }
+
+        /**
+         * Method that tells whether rendered messages should be dropped before
+         * rendering these ones
+         *
+         * @return true if rendered messages should be replaced
+         */
+        public boolean isReplacing() {
+            return replacing;
+        }
+    }
+}
@@ -0,0 +1,299 @@
+package model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Inverted index of words of messages. Messages added to the model are queued
+ * and indexed by one background thread, searching threads read the index at
+ * the same time without locking. The index only grows: every searching thread
+ * sees the messages indexed before the search started, as a snapshot. The
+ * index keeps only handles, authors and times of messages, so filters are
+ * applied without reading messages, and reads only the returned ones from
+ * the storage of the model
+ *
+ * @author Michal
+ */
+public class SearchIndex {
+    /**
+     * initial capacity of arrays growing with the index
+     */
+    private static final int INITIAL_CAPACITY = 16;
+    /**
+     * character ending a word of a query that matches every word with this
+     * prefix
+     */
+    private static final char PREFIX_WILDCARD = '*';
+    /**
+     * mapping words to ids of messages containing them, sorted so that
+     * prefixes can be searched
+     */
+    private final ConcurrentSkipListMap<String, Postings> wordToPostingsMap;
+    /**
+     * mapping authors to ids of their messages
+     */
+    private final ConcurrentHashMap<String, Postings> authorToPostingsMap;
+    /**
+     * storage of indexed messages
+     */
+    private final MessageStore store;
+    /**
+     * handles of indexed messages, an id of a message is its index in this
+     * array
+     */
+    private volatile long[] documents;
+    /**
+     * physical times in ms of indexed messages, by ids
+     */
+    private volatile long[] times;
+    /**
+     * number of indexed messages, messages with greater ids aren't visible to
+     * searching threads yet
+     */
+    private volatile int documentCount;
+    /**
+     * messages waiting to be indexed
+     */
+    private final BlockingQueue<PendingMessage> pendingMessages;
+
+    /**
+     * Constructor
+     *
+     * @param store storage of indexed messages
+     */
+    SearchIndex(MessageStore store) {
+        this.store = store;
+        wordToPostingsMap = new ConcurrentSkipListMap<>();
+        authorToPostingsMap = new ConcurrentHashMap<>();
+        documents = new long[INITIAL_CAPACITY];
+        times = new long[INITIAL_CAPACITY];
+        pendingMessages = new LinkedBlockingQueue<>();
+    }
+
+    /**
+     * Method that queues message to be indexed. It can be invoked from any
+     * thread and never blocks
+     *
+     * @param message message to be indexed
+     * @param handle  handle of the message in the storage
+     */
+    void add(Message message, long handle) {
+        pendingMessages.add(new PendingMessage(message, handle));
+    }
+
+    /**
+     * Method that waits for a queued message and indexes it. It should be
+     * invoked only by the indexing thread
+     *
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    public void indexNext() throws InterruptedException {
+        PendingMessage message = pendingMessages.take();
+        int id = documentCount;
+        if (id == documents.length) {
+            documents = Arrays.copyOf(documents, 2 * id);
+            times = Arrays.copyOf(times, 2 * id);
+        }
+        documents[id] = message.handle;
+        times[id] = message.time;
+
+        for (String word : tokenize(message.content))
+            wordToPostingsMap.computeIfAbsent(word, key -> new Postings()).add(id);
+        authorToPostingsMap.computeIfAbsent(message.author, key -> new Postings()).add(id);
+        // publishes the message to searching threads
+        documentCount = id + 1;
+    }
+
+    /**
+     * Method that searches for the latest messages containing all words of
+     * the query. A word ending with * matches every word with that prefix.
+     * Only the returned messages are read from the storage. It can be invoked
+     * from any thread
+     *
+     * @param query      words to be searched for, may be empty if only the
+     *                   author and the time are given
+     * @param author     name of the author of messages, null if any
+     * @param fromTime   time in ms since which messages are searched, 0 if any
+     * @param toTime     time in ms until which messages are searched, 0 if any
+     * @param maxResults maximum number of returned messages
+     * @return the latest matching messages
+     */
+    public SearchResult search(String query, String author, long fromTime, long toTime, int maxResults) {
+        int count = documentCount;
+        long[] documents = this.documents;
+        long[] times = this.times;
+        BitSet matching = null;
+        for (String part : query.trim().split("\\s+")) {
+            boolean prefix = part.length() > 0 && part.charAt(part.length() - 1) == PREFIX_WILDCARD;
+            ArrayList<String> words = new ArrayList<>(tokenize(part));
+            for (int i = 0; i < words.size(); ++i) {
+                BitSet ids = find(words.get(i), prefix && i == words.size() - 1, count);
+                if (matching == null)
+                    matching = ids;
+                else
+                    matching.and(ids);
+            }
+        }
+        if (author != null) {
+            BitSet ids = new BitSet(count);
+            Postings postings = authorToPostingsMap.get(author);
+            if (postings != null)
+                postings.addTo(ids, count);
+            if (matching == null)
+                matching = ids;
+            else
+                matching.and(ids);
+        }
+        if (matching == null) {
+            matching = new BitSet(count);
+            matching.set(0, count);
+        }
+
+        ArrayList<Message> messages = new ArrayList<>();
+        boolean hasMore = false;
+        for (int id = matching.previousSetBit(count - 1); id >= 0; id = matching.previousSetBit(id - 1)) {
+            if (fromTime != 0 && times[id] < fromTime || toTime != 0 && times[id] > toTime)
+                continue;
+
+            if (messages.size() == maxResults) {
+                hasMore = true;
+                break;
+            }
+            messages.add(store.resolve(documents[id]));
+        }
+        Collections.sort(messages);
+        return new SearchResult(query, messages, hasMore);
+    }
+
+    /**
+     * Method that finds ids of messages containing given word
+     *
+     * @param word   searched word
+     * @param prefix true if every word with given prefix is searched
+     * @param count  number of messages visible to this search
+     * @return ids of matching messages
+     */
+    private BitSet find(String word, boolean prefix, int count) {
+        BitSet ids = new BitSet(count);
+        if (!prefix) {
+            Postings postings = wordToPostingsMap.get(word);
+            if (postings != null)
+                postings.addTo(ids, count);
+            return ids;
+        }
+
+        for (Postings postings : wordToPostingsMap.subMap(word, true, word + Character.MAX_VALUE, true).values())
+            postings.addTo(ids, count);
+        return ids;
+    }
+
+    /**
+     * Method that splits text into lower case words made of letters and
+     * digits
+     *
+     * @param text text to be split
+     * @return distinct words of the text, in order of appearance
+     */
+    private static Set<String> tokenize(String text) {
+        Set<String> words = new LinkedHashSet<>();
+        int begin = -1;
+        for (int i = 0; i <= text.length(); ++i) {
+            boolean wordCharacter = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (wordCharacter && begin < 0)
+                begin = i;
+            else if (!wordCharacter && begin >= 0) {
+                words.add(text.substring(begin, i).toLowerCase(Locale.ROOT));
+                begin = -1;
+            }
+        }
+        return words;
+    }
+
+    /**
+     * Message waiting to be indexed
+     *
+     * @author Michal
+     */
+    private static class PendingMessage {
+        /**
+         * content of the message
+         */
+        private final String content;
+        /**
+         * author of the message
+         */
+        private final String author;
+        /**
+         * physical time in ms of the message
+         */
+        private final long time;
+        /**
+         * handle of the message in the storage
+         */
+        private final long handle;
+
+        /**
+         * Constructor
+         *
+         * @param message message to be indexed
+         * @param handle  handle of the message in the storage
+         */
+        PendingMessage(Message message, long handle) {
+            this.content = message.getContent();
+            this.author = message.getAuthor();
+            this.time = HybridLogicalClock.toPhysicalTime(message.getTimestamp());
+            this.handle = handle;
+        }
+    }
+
+    /**
+     * Growing list of ids of messages containing one word. Ids are appended
+     * only by the indexing thread, in increasing order
+     *
+     * @author Michal
+     */
+    private static class Postings {
+        /**
+         * ids of messages, only the first size of them are valid
+         */
+        private volatile int[] ids = new int[INITIAL_CAPACITY];
+        /**
+         * number of valid ids
+         */
+        private volatile int size;
+
+        /**
+         * Method that appends id of a message
+         *
+         * @param id id of the message
+         */
+        void add(int id) {
+            if (size == ids.length)
+                ids = Arrays.copyOf(ids, 2 * size);
+            ids[size] = id;
+            ++size;
+        }
+
+        /**
+         * Method that sets in given set all ids less than given count
+         *
+         * @param set   set of ids to be filled
+         * @param count number of messages visible to the search
+         */
+        void addTo(BitSet set, int count) {
+            int size = this.size;
+            int[] ids = this.ids;
+            for (int i = 0; i < size && ids[i] < count; ++i)
+                set.set(ids[i]);
+        }
+    }
+}
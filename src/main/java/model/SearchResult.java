@@ -0,0 +1,96 @@
+package model;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+
+/**
+ * Objects of this class are answers to search requests. They contain the
+ * latest messages matching the query, sorted by timestamps
+ *
+ * @author Michal
+ */
+public class SearchResult implements Serializable {
+    /**
+     * serialVersionUID for this class
+     */
+    private static final long serialVersionUID = 1L;
+    /**
+     * text of the query as typed by the user
+     */
+    private String query;
+    /**
+     * matching messages, sorted by timestamps
+     */
+    private ArrayList<Message> messages;
+    /**
+     * true if more messages match the query than are sent
+     */
+    private boolean hasMore;
+    /**
+     * true if the server hasn't run the search
+     */
+    private boolean refused;
+
+    /**
+     * Constructor
+     *
+     * @param query    text of the query
+     * @param messages sorted matching messages
+     * @param hasMore  true if more messages match the query
+     */
+    SearchResult(String query, ArrayList<Message> messages, boolean hasMore) {
+        this.query = query;
+        this.messages = messages;
+        this.hasMore = hasMore;
+    }
+
+    /**
+     * Method that creates result sent instead of running the search when too
+     * many searches are waiting, so that the client isn't left waiting for an
+     * answer
+     *
+     * @param query text of the query
+     * @return result without messages
+     */
+    public static SearchResult refused(String query) {
+        SearchResult result = new SearchResult(query, new ArrayList<>(), false);
+        result.refused = true;
+        return result;
+    }
+
+    /**
+     * Method that returns text of the query
+     *
+     * @return text of the query
+     */
+    public String getQuery() {
+        return query;
+    }
+
+    /**
+     * Method that returns matching messages
+     *
+     * @return matching messages, sorted by timestamps
+     */
+    public ArrayList<Message> getMessages() {
+        return new ArrayList<>(messages);
+    }
+
+    /**
+     * Method that tells whether older messages also match the query
+     *
+     * @return true if not all matching messages are sent
+     */
+    public boolean hasMore() {
+        return hasMore;
+    }
+
+    /**
+     * Method that tells whether the server has refused to run the search
+     *
+     * @return true if the search hasn't been run
+     */
+    public boolean isRefused() {
+        return refused;
+    }
+}
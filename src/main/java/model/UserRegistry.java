@@ -0,0 +1,215 @@
+package model;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Registry of names of users logged in to this node and to federated nodes.
+ * Names of local users are claimed and released atomically, so that logins
+ * can be validated by the threads reading from clients, in parallel with the
+ * Controller. Every change publishes an unmodifiable sorted set of all names,
+ * which readers share without copying. This class is thread safe
+ *
+ * @author Michal
+ */
+public class UserRegistry {
+    /**
+     * maximum length of user's name
+     */
+    private static final int NAME_MAX_LENGTH = 15;
+    /**
+     * Mapping names of local users to their models
+     */
+    private final ConcurrentMap<String, ClientModel> nameToModelMap;
+    /**
+     * Mapping ids of federated nodes to unmodifiable sets of names of users
+     * logged in to them
+     */
+    private final ConcurrentMap<Integer, Set<String>> nodeToRemoteUsersMap;
+    /**
+     * names of all users with their version, replaced after every change
+     */
+    private volatile PublishedUserNames publishedUserNames;
+    /**
+     * number of changes of names of users
+     */
+    private long version;
+
+    /**
+     * Constructor
+     */
+    UserRegistry() {
+        nameToModelMap = new ConcurrentHashMap<>();
+        nodeToRemoteUsersMap = new ConcurrentHashMap<>();
+        publishedUserNames = new PublishedUserNames(Collections.unmodifiableSortedSet(new TreeSet<>()), 0);
+    }
+
+    /**
+     * Method that atomically claims name for a local user, if it is allowed
+     * and nobody has claimed it before
+     *
+     * @param userName name of the user
+     * @return true if the name has been claimed, false if it isn't allowed or
+     * is taken
+     */
+    public boolean claim(String userName) {
+        if (!isUserNameAllowed(userName))
+            return false;
+
+        if (nameToModelMap.putIfAbsent(userName, new ClientModel(userName)) != null)
+            return false;
+
+        publishUserNames();
+        return true;
+    }
+
+    /**
+     * Method that releases name of a local user
+     *
+     * @param userName name of the user
+     */
+    public void release(String userName) {
+        if (nameToModelMap.remove(userName) != null)
+            publishUserNames();
+    }
+
+    /**
+     * Method that checks the correctness of a user name and whether it is
+     * free at the moment
+     *
+     * @param userName name of the user
+     * @return true if the name can be claimed
+     */
+    public boolean isUserNameAllowed(String userName) {
+        return userName != null && userName.length() != 0 && userName.length() <= NAME_MAX_LENGTH
+                && !isUserNameTaken(userName);
+    }
+
+    private boolean isUserNameTaken(String userName) {
+        if (nameToModelMap.containsKey(userName))
+            return true;
+
+        for (Set<String> remoteUsers : nodeToRemoteUsersMap.values()) {
+            if (remoteUsers.contains(userName))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Method that replaces names of users logged in to a federated node
+     *
+     * @param nodeId    id of the node
+     * @param userNames names of users logged in to the node, empty if the node
+     *                  is not linked any more
+     */
+    void setRemoteUsers(int nodeId, Set<String> userNames) {
+        if (userNames.isEmpty())
+            nodeToRemoteUsersMap.remove(nodeId);
+        else
+            nodeToRemoteUsersMap.put(nodeId, Collections.unmodifiableSet(new TreeSet<>(userNames)));
+        publishUserNames();
+    }
+
+    /**
+     * Method that finds federated node to which a user is logged in
+     *
+     * @param userName name of the user
+     * @return id of the node, null if the user isn't logged in to any
+     * federated node
+     */
+    public Integer findNodeOf(String userName) {
+        for (Map.Entry<Integer, Set<String>> entry : nodeToRemoteUsersMap.entrySet()) {
+            if (entry.getValue().contains(userName))
+                return entry.getKey();
+        }
+        return null;
+    }
+
+    /**
+     * Method that returns names of users logged in directly to this node
+     *
+     * @return sorted names of local users
+     */
+    public TreeSet<String> getLocalUserNames() {
+        return new TreeSet<>(nameToModelMap.keySet());
+    }
+
+    /**
+     * Method that returns names of all users, logged in to this node or to
+     * any federated one
+     *
+     * @return sorted names of all users
+     */
+    public TreeSet<String> getUserNames() {
+        return new TreeSet<>(publishedUserNames.names);
+    }
+
+    /**
+     * Method that returns names of all users as of the last change, without
+     * copying them
+     *
+     * @return unmodifiable sorted names of all users
+     */
+    public SortedSet<String> getPublishedUserNames() {
+        return publishedUserNames.names;
+    }
+
+    /**
+     * Method that returns names of all users as of the last change together
+     * with the version of that change
+     *
+     * @return the last published names
+     */
+    PublishedUserNames getPublished() {
+        return publishedUserNames;
+    }
+
+    /**
+     * Method that publishes names of all users after a change. Publishing is
+     * serialized, so the last published set contains all changes made before
+     * it
+     */
+    private synchronized void publishUserNames() {
+        TreeSet<String> names = new TreeSet<>(nameToModelMap.keySet());
+        for (Set<String> remoteUsers : nodeToRemoteUsersMap.values())
+            names.addAll(remoteUsers);
+        publishedUserNames = new PublishedUserNames(Collections.unmodifiableSortedSet(names), ++version);
+    }
+
+    /**
+     * Names of all users published after a change, with the number of the
+     * change. Names with a greater version are newer, so that a client can
+     * ignore names read from an older snapshot of the model
+     *
+     * @author Michal
+     */
+    static final class PublishedUserNames {
+        /**
+         * unmodifiable sorted names of all users
+         */
+        private final SortedSet<String> names;
+        /**
+         * number of changes of names made up to these ones
+         */
+        private final long version;
+
+        PublishedUserNames(SortedSet<String> names, long version) {
+            this.names = names;
+            this.version = version;
+        }
+
+        SortedSet<String> getNames() {
+            return names;
+        }
+
+        long getVersion() {
+            return version;
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package profiling;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder event that covers sending one ChatState to one client,
+ * either as a part of broadcast or as a direct answer
+ *
+ * @author Michal
+ */
+@Name("chatroom.ClientSend")
+@Label("Client Send")
+@Category({"ChatRoom", "Server"})
+@Description("Writing one ChatState to a client connection")
+@StackTrace(false)
+public class ClientSendEvent extends jdk.jfr.Event {
+    /**
+     * status of the user attached to the sent ChatState
+     */
+    @Label("User Status")
+    public String userStatus;
+    /**
+     * number of messages in the sent ChatState
+     */
+    @Label("Message Count")
+    public int messageCount;
+    /**
+     * address of the client to which the state has been sent
+     */
+    @Label("Remote Address")
+    public String remoteAddress;
+    /**
+     * true if the state has been sent as a part of broadcast
+     */
+    @Label("Broadcast")
+    public boolean broadcast;
+    /**
+     * false if writing to the client failed
+     */
+    @Label("Succeeded")
+    public boolean succeeded;
+}
@@ -0,0 +1,107 @@
+package profiling;
+
+import java.util.Arrays;
+
+/**
+ * Rolling histogram of latency samples in milliseconds. It keeps only the most
+ * recent samples in a ring, so the statistics describe current behaviour
+ * rather than the whole lifetime of the application. This class is thread
+ * safe
+ *
+ * @author Michal
+ */
+public class LatencyHistogram {
+    /**
+     * upper bounds in ms of the histogram buckets, the last bucket has no bound
+     */
+    private static final long[] BUCKET_BOUNDS = {1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000};
+    /**
+     * ring of the most recent samples
+     */
+    private final long[] samples;
+    /**
+     * index in the ring to which next sample is written
+     */
+    private int next;
+    /**
+     * number of valid samples in the ring
+     */
+    private int count;
+
+    /**
+     * Constructor
+     *
+     * @param capacity number of most recent samples that are kept
+     */
+    public LatencyHistogram(int capacity) {
+        samples = new long[capacity];
+    }
+
+    /**
+     * Method that adds a sample, negative values caused by clock skew are
+     * counted as 0
+     *
+     * @param millis latency in milliseconds
+     */
+    public synchronized void record(long millis) {
+        samples[next] = Math.max(0, millis);
+        next = (next + 1) % samples.length;
+        if (count < samples.length)
+            ++count;
+    }
+
+    /**
+     * Method that returns number of samples currently kept
+     *
+     * @return number of samples currently kept
+     */
+    public synchronized int getCount() {
+        return count;
+    }
+
+    /**
+     * Method that returns given percentile of kept samples
+     *
+     * @param percentile value between 0 and 100
+     * @return latency in milliseconds, or 0 if there are no samples
+     */
+    public long getPercentile(double percentile) {
+        long[] sorted = getSortedSamples();
+        if (sorted.length == 0)
+            return 0;
+
+        int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+    }
+
+    /**
+     * Method that counts kept samples in the buckets of the histogram
+     *
+     * @return array of counts, one more than number of bucket bounds
+     */
+    public long[] getBucketCounts() {
+        long[] counts = new long[BUCKET_BOUNDS.length + 1];
+        for (long sample : getSortedSamples()) {
+            int bucket = 0;
+            while (bucket < BUCKET_BOUNDS.length && sample > BUCKET_BOUNDS[bucket])
+                ++bucket;
+            ++counts[bucket];
+        }
+        return counts;
+    }
+
+    /**
+     * Method that returns upper bounds of the buckets used in getBucketCounts
+     *
+     * @return upper bounds in milliseconds
+     */
+    public static long[] getBucketBounds() {
+        return BUCKET_BOUNDS.clone();
+    }
+
+    private synchronized long[] getSortedSamples() {
+        long[] sorted = Arrays.copyOf(samples, count);
+        Arrays.sort(sorted);
+        return sorted;
+    }
+}
@@ -0,0 +1,129 @@
+package profiling;
+
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.Map;
+
+import model.MessageTrace;
+
+/**
+ * Class that splits traced latency of displayed messages into segments and
+ * keeps a rolling histogram for each of them. It is used on the client side
+ *
+ * @author Michal
+ */
+public class LatencyRecorder {
+    /**
+     * number of most recent samples kept for every segment
+     */
+    private static final int SAMPLES_COUNT = 1024;
+    /**
+     * mapping segments to their histograms
+     */
+    private final Map<Segment, LatencyHistogram> histograms;
+
+    /**
+     * Constructor
+     */
+    public LatencyRecorder() {
+        histograms = new EnumMap<>(Segment.class);
+        for (Segment segment : Segment.values())
+            histograms.put(segment, new LatencyHistogram(SAMPLES_COUNT));
+    }
+
+    /**
+     * Method that records all the segments of given trace which have both of
+     * their stamps made
+     *
+     * @param trace trace of a message that has just been displayed
+     */
+    public void record(MessageTrace trace) {
+        if (trace == null)
+            return;
+
+        record(Segment.NETWORK_UP, trace.getClientSendTime(), trace.getServerReceiveTime());
+        record(Segment.SERVER_QUEUE, trace.getServerReceiveTime(), trace.getServerBroadcastTime());
+        record(Segment.NETWORK_DOWN, trace.getServerBroadcastTime(), trace.getClientReceiveTime());
+        record(Segment.UI, trace.getClientReceiveTime(), trace.getClientRenderTime());
+        record(Segment.END_TO_END, trace.getClientSendTime(), trace.getClientRenderTime());
+    }
+
+    private void record(Segment segment, long from, long to) {
+        if (from != 0 && to != 0)
+            histograms.get(segment).record(to - from);
+    }
+
+    /**
+     * Method that returns histogram of given segment
+     *
+     * @param segment segment of the message's way
+     * @return rolling histogram of the segment
+     */
+    public LatencyHistogram getHistogram(Segment segment) {
+        return histograms.get(segment);
+    }
+
+    /**
+     * Method that writes readable summary of all the segments
+     *
+     * @param out destination of the summary
+     * @throws IOException when writing to destination fails
+     */
+    public void export(Appendable out) throws IOException {
+        out.append("segment, samples, p50 ms, p90 ms, p99 ms, max ms\n");
+        for (Segment segment : Segment.values()) {
+            LatencyHistogram histogram = histograms.get(segment);
+            out.append(segment.name()).append(", ").append(String.valueOf(histogram.getCount()))
+                    .append(", ").append(String.valueOf(histogram.getPercentile(50)))
+                    .append(", ").append(String.valueOf(histogram.getPercentile(90)))
+                    .append(", ").append(String.valueOf(histogram.getPercentile(99)))
+                    .append(", ").append(String.valueOf(histogram.getPercentile(100))).append('\n');
+        }
+    }
+
+    /**
+     * Method that returns readable summary of all the segments
+     *
+     * @return summary with percentiles of all the segments
+     */
+    public String getReport() {
+        StringBuilder builder = new StringBuilder();
+        try {
+            export(builder);
+        } catch (IOException ignored) {
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Enumeration of segments of a message's way from the author to the
+     * screen of a receiver
+     *
+     * @author Michal
+     */
+    public enum Segment {
+        /**
+         * from sending by the author's client to reading on the server,
+         * affected by clock skew
+         */
+        NETWORK_UP,
+        /**
+         * from reading on the server to the broadcast
+         */
+        SERVER_QUEUE,
+        /**
+         * from the broadcast to reading on the receiver's client, affected by
+         * clock skew
+         */
+        NETWORK_DOWN,
+        /**
+         * from reading on the client to displaying the message
+         */
+        UI,
+        /**
+         * whole way of the message, affected by clock skew unless the
+         * receiver is the author
+         */
+        END_TO_END
+    }
+}
@@ -0,0 +1,35 @@
+package profiling;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder event that covers one change of the server's Model
+ *
+ * @author Michal
+ */
+@Name("chatroom.ModelMutation")
+@Label("Model Mutation")
+@Category({"ChatRoom", "Server"})
+@Description("One change of users or messages stored in the Model")
+@StackTrace(false)
+public class ModelMutationEvent extends jdk.jfr.Event {
+    /**
+     * name of the Model operation, e.g. addMessage
+     */
+    @Label("Operation")
+    public String operation;
+    /**
+     * number of messages stored in the Model after the change
+     */
+    @Label("Message Count")
+    public int messageCount;
+    /**
+     * number of users stored in the Model after the change
+     */
+    @Label("User Count")
+    public int userCount;
+}
@@ -0,0 +1,38 @@
+package profiling;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Flight Recorder event that is committed when the Controller takes an event
+ * from the blockingQueue. It tells how long the event has been waiting there
+ *
+ * @author Michal
+ */
+@Name("chatroom.QueueWait")
+@Label("Queue Wait")
+@Category({"ChatRoom", "Server"})
+@Description("Time an event spent in the Controller's queue")
+@StackTrace(false)
+public class QueueWaitEvent extends jdk.jfr.Event {
+    /**
+     * simple class name of the event that has been taken from the queue
+     */
+    @Label("Event Type")
+    public String eventType;
+    /**
+     * lane of the queue in which the event has been waiting
+     */
+    @Label("Lane")
+    public String lane;
+    /**
+     * time between putting the event to the queue and taking it
+     */
+    @Label("Wait Time")
+    @Timespan(Timespan.NANOSECONDS)
+    public long waitTime;
+}
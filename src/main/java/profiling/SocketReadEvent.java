@@ -0,0 +1,32 @@
+package profiling;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder event that covers one blocking read of an event from the
+ * client's socket in ClientManager. Its duration includes the time spent
+ * waiting for the client to send anything
+ *
+ * @author Michal
+ */
+@Name("chatroom.SocketRead")
+@Label("Socket Read")
+@Category({"ChatRoom", "Server"})
+@Description("Reading one event from a client connection")
+@StackTrace(false)
+public class SocketReadEvent extends jdk.jfr.Event {
+    /**
+     * simple class name of the event that has been read
+     */
+    @Label("Event Type")
+    public String eventType;
+    /**
+     * address of the client that sent the event
+     */
+    @Label("Remote Address")
+    public String remoteAddress;
+}
@@ -0,0 +1,26 @@
+package profiling;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder event that covers execution of one strategy in the
+ * Controller
+ *
+ * @author Michal
+ */
+@Name("chatroom.StrategyExecution")
+@Label("Strategy Execution")
+@Category({"ChatRoom", "Server"})
+@Description("Handling of one event by its Controller strategy")
+@StackTrace(false)
+public class StrategyEvent extends jdk.jfr.Event {
+    /**
+     * simple class name of the handled event
+     */
+    @Label("Event Type")
+    public String eventType;
+}
@@ -0,0 +1,92 @@
+package view;
+
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+
+import model.Cursor;
+import model.Message;
+import model.MessageTrace;
+
+/**
+ * Objects of this class are lines displayed in the chat list: either a
+ * received message or a notice for the user. The displayed text is formatted
+ * once, when the line is created on any thread, so that recycled cells only
+ * have to set it
+ *
+ * @author Michal
+ */
+class ChatLine {
+    /**
+     * format of the date of a message, immutable and thread safe
+     */
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("dd MMMM HH:mm:ss", Locale.GERMANY)
+            .withZone(ZoneId.systemDefault());
+    /**
+     * displayed message, null if this line is a notice
+     */
+    private final Message message;
+    /**
+     * text displayed in the cell
+     */
+    private final String text;
+
+    /**
+     * Constructor of a line displaying a message
+     *
+     * @param message message to be displayed
+     */
+    ChatLine(Message message) {
+        this.message = message;
+        this.text = format(message);
+    }
+
+    /**
+     * Constructor of a line displaying a notice
+     *
+     * @param notice text of the notice
+     */
+    ChatLine(String notice) {
+        this.message = null;
+        this.text = notice;
+    }
+
+    /**
+     * Method that formats message to be displayed. It can be invoked from any
+     * thread
+     *
+     * @param message message to be formatted
+     * @return date, author and content of the message
+     */
+    static String format(Message message) {
+        return DATE_FORMAT.format(message.getSentDate().toInstant()) + ", " + message.getAuthor() + ":\n" + message.getContent();
+    }
+
+    /**
+     * Method that returns position of the displayed message
+     *
+     * @return position of the message, null if this line is a notice
+     */
+    Cursor getCursor() {
+        return message == null ? null : message.getCursor();
+    }
+
+    /**
+     * Method that returns timestamps of the displayed message
+     *
+     * @return trace of the message, null if it isn't traced or this line is a
+     * notice
+     */
+    MessageTrace getTrace() {
+        return message == null ? null : message.getTrace();
+    }
+
+    /**
+     * Method that returns text displayed in the cell
+     *
+     * @return formatted text of the line
+     */
+    String getText() {
+        return text;
+    }
+}
@@ -0,0 +1,40 @@
+package view;
+
+import javafx.scene.control.ListCell;
+import javafx.scene.control.ListView;
+
+/**
+ * Cell of the chat list. The list creates only as many cells as fit on the
+ * screen and reuses them for different lines while the user scrolls
+ *
+ * @author Michal
+ */
+class ChatLineCell extends ListCell<ChatLine> {
+    /**
+     * width in px left for the border and the scroll bar of the list
+     */
+    private static final double LIST_PADDING = 20.0;
+
+    /**
+     * Constructor
+     *
+     * @param listView list in which the cell is displayed, the text is wrapped
+     *                 at its width
+     */
+    ChatLineCell(ListView<ChatLine> listView) {
+        setWrapText(true);
+        prefWidthProperty().bind(listView.widthProperty().subtract(LIST_PADDING));
+    }
+
+    /**
+     * Method that sets text of this cell when it is reused for another line
+     *
+     * @param line  line to be displayed
+     * @param empty true if the cell doesn't display any line
+     */
+    @Override
+    protected void updateItem(ChatLine line, boolean empty) {
+        super.updateItem(line, empty);
+        setText(empty || line == null ? null : line.getText());
+    }
+}
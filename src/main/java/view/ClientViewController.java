@@ -1,33 +1,51 @@
 package view;
 
-import java.text.SimpleDateFormat;
-import java.util.Collections;
-import java.util.Date;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
-import java.util.Locale;
+import java.util.Queue;
 import java.util.Set;
+import java.util.TreeSet;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import controller.NetworkManager;
 import events.BaseEvent;
+import events.DirectMessageEvent;
+import events.HistoryRequestEvent;
 import events.LogInEvent;
 import events.LogOutEvent;
 import events.MessageEvent;
+import events.SearchRequestEvent;
+import javafx.animation.AnimationTimer;
 import javafx.application.Platform;
 import javafx.collections.ObservableList;
 import javafx.concurrent.Task;
 import javafx.fxml.FXML;
+import javafx.geometry.Orientation;
+import javafx.scene.Node;
 import javafx.scene.control.Button;
 import javafx.scene.control.ListView;
+import javafx.scene.control.ScrollBar;
 import javafx.scene.control.TextArea;
 import javafx.scene.control.TextField;
 import javafx.scene.input.KeyCode;
 import javafx.scene.input.KeyEvent;
+import javafx.scene.input.ScrollEvent;
 import model.ChatState;
+import model.Cursor;
+import model.DirectMessage;
+import model.HistoryPage;
+import model.HistoryPage.Direction;
 import model.Message;
+import model.MessageTrace;
+import model.ReceivedMessages;
+import model.ReceivedMessages.RenderBatch;
+import model.SearchResult;
 import model.ChatState.UserStatus;
+import profiling.LatencyRecorder;
 
 /**
  * Class that sends events to queue and NetworkManager reads them from queue. It
@@ -69,10 +87,11 @@ public class ClientViewController {
     @FXML
     Button sendMessageButton;
     /**
-     * TextArea in which messages are displayed
+     * ListView in which messages and notices are displayed. Only a window of
+     * the latest or the browsed lines is kept in it
      */
     @FXML
-    TextArea chatTextArea;
+    ListView<ChatLine> chatListView;
     /**
      * TextArea in which user can write his message that he wants to send
      */
@@ -96,6 +115,114 @@ public class ClientViewController {
      * maximum length of a message that can be sent
      */
     private final static int MESSAGE_MAX_LENGTH = 200;
+    /**
+     * message typed by the user to display latency statistics instead of
+     * sending anything
+     */
+    private final static String LATENCY_COMMAND = "/latency";
+    /**
+     * prefix of a message typed by the user to search through history instead
+     * of sending anything, e.g. "/search from:anna hours:24 meet*"
+     */
+    private final static String SEARCH_COMMAND = "/search ";
+    /**
+     * prefix of a message typed by the user to send it privately to one user,
+     * e.g. "/msg anna see you at noon"
+     */
+    private final static String DIRECT_MESSAGE_COMMAND = "/msg ";
+    /**
+     * prefix of a search word restricting results to messages of one author
+     */
+    private final static String SEARCH_AUTHOR_PREFIX = "from:";
+    /**
+     * prefix of a search word restricting results to messages sent within
+     * given number of hours
+     */
+    private final static String SEARCH_HOURS_PREFIX = "hours:";
+    /**
+     * maximum number of displayed search results
+     */
+    private final static int SEARCH_RESULTS_MAX_COUNT = 20;
+    /**
+     * rolling histograms of latency of displayed messages
+     */
+    private final LatencyRecorder latencyRecorder = new LatencyRecorder();
+    /**
+     * messages received from the server, merged by NetworkManager and taken
+     * by this controller when they are rendered
+     */
+    private final ReceivedMessages receivedMessages = new ReceivedMessages();
+    /**
+     * maximum number of lines kept in the chat list
+     */
+    private final static int WINDOW_MAX_SIZE = 500;
+    /**
+     * number of messages requested from the server when the user scrolls
+     * beyond the window
+     */
+    private final static int HISTORY_PAGE_SIZE = 50;
+    /**
+     * maximum size in bytes of messages requested in one page
+     */
+    private final static int HISTORY_PAGE_BYTES = 32 * 1024;
+    /**
+     * true if the list should scroll to every new line, because the user
+     * hasn't scrolled up
+     */
+    private boolean followingTail = true;
+    /**
+     * true if the window contains the latest received messages. Otherwise new
+     * messages are not displayed until the user scrolls down and the newer
+     * pages are requested
+     */
+    private boolean newestDisplayed = true;
+    /**
+     * true if a page of history has been requested and hasn't arrived yet
+     */
+    private boolean historyRequested;
+    /**
+     * true if the server has no messages older than the window
+     */
+    private boolean historyComplete;
+    /**
+     * version of the displayed names of users, names of a state with a lower
+     * version are out of date
+     */
+    private long userNamesVersion;
+    /**
+     * updates of the view posted by other threads, applied once per frame
+     */
+    private final Queue<Runnable> pendingUpdates = new ConcurrentLinkedQueue<>();
+    /**
+     * lines to be appended to the window at the end of the current frame
+     */
+    private final List<ChatLine> pendingLines = new ArrayList<>();
+    /**
+     * names of users to be displayed at the end of the current frame, null if
+     * they haven't changed
+     */
+    private Set<String> pendingUserNames;
+    /**
+     * true if the frame timer has been started or is being started, so that
+     * only the first update posted to an idle view starts it
+     */
+    private final AtomicBoolean frameRequested = new AtomicBoolean();
+    /**
+     * timer invoked on the JavaFX thread once per frame, which applies all
+     * updates posted since the previous frame as one batch. It runs only
+     * while there are updates, an idle view doesn't wake up every frame
+     */
+    private final AnimationTimer frameTimer = new AnimationTimer() {
+        @Override
+        public void handle(long now) {
+            renderFrame();
+            stop();
+            frameRequested.set(false);
+            // an update posted while the frame was rendered needs one more
+            if (!pendingUpdates.isEmpty() && frameRequested.compareAndSet(false, true))
+                start();
+        }
+    };
 
     /**
      * Method that inits elements of the class, called from Client class
@@ -110,13 +237,65 @@ public class ClientViewController {
         stateToMessageMap.put(UserStatus.MESSAGE_REJECTED, "Your message wasn't delivered. Try again.");
         stateToMessageMap.put(UserStatus.REJECTED, "You have been removed from the server.");
         stateToMessageMap.put(UserStatus.USERNAME_REJECTED, "Username not available. Try another one.");
+        stateToMessageMap.put(UserStatus.SERVER_FULL, "Server is full. Try again later.");
+        stateToMessageMap.put(UserStatus.TOO_MANY_CONNECTIONS, "Too many connections from your address.");
+        chatListView.setCellFactory(ChatLineCell::new);
+        chatListView.addEventFilter(ScrollEvent.SCROLL, event -> {
+            ScrollBar scrollBar = getVerticalScrollBar();
+            if (event.getDeltaY() > 0 && (scrollBar == null || scrollBar.getValue() <= scrollBar.getMin()))
+                requestOlderMessages();
+        });
+        Platform.runLater(() -> {
+            ScrollBar scrollBar = getVerticalScrollBar();
+            if (scrollBar != null)
+                scrollBar.valueProperty().addListener((observable, oldValue, newValue) -> scrolled(scrollBar));
+        });
+    }
+
+    /**
+     * Method that posts update of the view to be applied in the next frame.
+     * It can be invoked from any thread
+     *
+     * @param update update to be run on the JavaFX thread
+     */
+    private void post(Runnable update) {
+        pendingUpdates.add(update);
+        requestFrame();
+    }
+
+    /**
+     * Method that starts the frame timer, unless it is already running or
+     * being started. It can be invoked from any thread
+     */
+    private void requestFrame() {
+        if (frameRequested.compareAndSet(false, true))
+            Platform.runLater(frameTimer::start);
+    }
+
+    /**
+     * Method invoked once per frame on the JavaFX thread. It runs all posted
+     * updates, then appends their lines and replaces user names at once, so
+     * that the lists are laid out once however many updates have arrived
+     */
+    private void renderFrame() {
+        Runnable update;
+        while ((update = pendingUpdates.poll()) != null)
+            update.run();
+
+        flushLines();
+        if (pendingUserNames != null) {
+            ObservableList<String> items = usernameListView.getItems();
+            if (!items.equals(new ArrayList<>(pendingUserNames)))
+                items.setAll(pendingUserNames);
+            pendingUserNames = null;
+        }
     }
 
     /**
      * Method that creates NetworkManager and starts it by creating new thread
      */
     private void startNetworkManager() {
-        final NetworkManager nManager = new NetworkManager(this, blockingQueue);
+        final NetworkManager nManager = new NetworkManager(this, blockingQueue, receivedMessages);
         Task<Void> task = new Task<Void>() {
             @Override
             protected Void call() {
@@ -129,37 +308,76 @@ public class ClientViewController {
 
     /**
      * Method invoked by NetworkManager. It sets the view based on the state
-     * defined in this objects. This method is thread safe
+     * defined in this objects. Messages merged by NetworkManager before this
+     * state are rendered with it, the view is changed in the next frame. This
+     * method is thread safe
      *
      * @param state ChatState object
      */
     public void setBasedOnChatState(final ChatState state) {
-        Platform.runLater(() -> {
+        post(() -> {
             if (stateToMessageMap.containsKey(state.getUserStatus()))
-                print("\n" + stateToMessageMap.get(state.getUserStatus()) + "\n");
+                print(stateToMessageMap.get(state.getUserStatus()));
+            if (state.getUserStatus() == UserStatus.LOGGED_IN) {
+                historyRequested = false;
+                // versions are counted anew by the server just logged in to
+                userNamesVersion = 0;
+            }
 
             setConnected(state.isLoggedIn());
-            clearUserNames();
-            if (state.isLoggedIn()) {
-                addUserNames(state.getLoggedInUserNames());
-                List<Message> messages = state.getMessages();
-                Collections.sort(messages);
-                for (Message message : messages)
-                    addMessage(message);
+            renderMessages(receivedMessages.takeUnrendered());
+            if (!state.isLoggedIn())
+                setUserNames(new TreeSet<>());
+            else if (state.getNamesVersion() >= userNamesVersion) {
+                userNamesVersion = state.getNamesVersion();
+                setUserNames(state.getLoggedInUserNames());
             }
         });
     }
 
+    /**
+     * Method that renders messages merged by NetworkManager since the
+     * previous batch. If the server has left out messages missed by the user,
+     * the window is replaced and older messages can be browsed in pages
+     *
+     * @param batch messages to be rendered
+     */
+    private void renderMessages(RenderBatch batch) {
+        if (batch.isReplacing()) {
+            flushLines();
+            chatListView.getItems().clear();
+            newestDisplayed = true;
+            followingTail = true;
+            historyComplete = false;
+        }
+        addMessages(batch.getMessages());
+    }
+
     /**
      * Method invoked by NetworkManager. It changes the view when connection
      * with the server has been lost for unknown reasons. This method is thread
      * safe
      */
     public void setDisconnected() {
-        Platform.runLater(() -> {
+        post(() -> {
             setConnected(false);
-            clearUserNames();
-            print("\nConnection has been lost. Try reconnecting.\n");
+            setUserNames(new TreeSet<>());
+            historyRequested = false;
+            print("Connection has been lost. Try reconnecting.");
+        });
+    }
+
+    /**
+     * Method invoked by NetworkManager when connection with the server has
+     * been lost and the client tries to resume the session. Only logging out
+     * is possible in the meantime. This method is thread safe
+     */
+    public void setReconnecting() {
+        post(() -> {
+            setConnected(true);
+            sendMessageButton.setDisable(true);
+            messageTextArea.setDisable(true);
+            print("Connection has been lost. Reconnecting...");
         });
     }
 
@@ -179,46 +397,352 @@ public class ClientViewController {
     }
 
     /**
-     * Method that adds user names to usernameListView
+     * Method that sets user names to be displayed on usernameListView at the
+     * end of the current frame
+     *
+     * @param userNames sorted names of logged in users
+     */
+    private void setUserNames(Set<String> userNames) {
+        pendingUserNames = userNames;
+        requestFrame();
+    }
+
+    /**
+     * Method that adds lines of received messages to the window. They aren't
+     * displayed if the user browses older messages and the latest ones have
+     * been dropped from the window. Messages newer than the window are
+     * appended, older ones that arrive late are inserted in their places
+     *
+     * @param messages received messages sorted by positions
+     */
+    private void addMessages(List<Message> messages) {
+        if (!newestDisplayed || messages.isEmpty())
+            return;
+
+        flushLines();
+        Cursor lastCursor = getLastCursor();
+        for (Message message : messages) {
+            ChatLine line = new ChatLine(message);
+            if (lastCursor == null || message.compareTo(lastCursor) > 0)
+                appendLine(line);
+            else
+                insertLine(line);
+        }
+    }
+
+    /**
+     * Method that inserts line of a message that has arrived late before the
+     * lines of newer messages. A message older than the whole window isn't
+     * inserted unless the window begins with the first message, it can be
+     * browsed in pages
+     *
+     * @param line line of the message
+     */
+    private void insertLine(ChatLine line) {
+        ObservableList<ChatLine> items = chatListView.getItems();
+        int index = items.size();
+        while (index > 0 && (items.get(index - 1).getCursor() == null
+                || items.get(index - 1).getCursor().compareTo(line.getCursor()) > 0))
+            --index;
+        if (index == 0 && !historyComplete)
+            return;
+
+        items.add(index, line);
+        recordLatency(line);
+    }
+
+    /**
+     * Method invoked by NetworkManager when requested page of messages
+     * arrives. Older messages are put before the window, dropping the latest
+     * lines if the window is too long. Newer messages are put after the
+     * window, dropping the oldest lines. This method is thread safe
+     *
+     * @param page page of messages
+     */
+    public void setHistoryPage(final HistoryPage page) {
+        final List<ChatLine> pageLines = new ArrayList<>();
+        for (Message message : page.getMessages())
+            pageLines.add(new ChatLine(message));
+
+        post(() -> {
+            historyRequested = false;
+            flushLines();
+            if (page.getDirection() == Direction.NEWER) {
+                Cursor lastCursor = getLastCursor();
+                for (ChatLine line : pageLines) {
+                    if (lastCursor == null || line.getCursor().compareTo(lastCursor) > 0)
+                        appendLine(line);
+                }
+                newestDisplayed = !page.hasMore();
+                return;
+            }
+
+            List<ChatLine> lines = new ArrayList<>();
+            Cursor firstCursor = getFirstCursor();
+            for (ChatLine line : pageLines) {
+                if (firstCursor == null || line.getCursor().compareTo(firstCursor) < 0)
+                    lines.add(line);
+            }
+            historyComplete = !page.hasMore() || lines.isEmpty();
+            if (lines.isEmpty())
+                return;
+
+            ObservableList<ChatLine> items = chatListView.getItems();
+            items.addAll(0, lines);
+            if (items.size() > WINDOW_MAX_SIZE) {
+                items.remove(WINDOW_MAX_SIZE, items.size());
+                newestDisplayed = false;
+            }
+            chatListView.scrollTo(lines.size());
+        });
+    }
+
+    /**
+     * Method that sends search request to the blockingQueue. Words starting
+     * with "from:" and "hours:" restrict the author and the time of searched
+     * messages, the other words are searched for
+     *
+     * @param arguments text typed after the search command
+     */
+    private void search(String arguments) {
+        StringBuilder query = new StringBuilder();
+        String author = null;
+        long fromTime = 0;
+        for (String word : arguments.trim().split("\\s+")) {
+            if (word.startsWith(SEARCH_AUTHOR_PREFIX))
+                author = word.substring(SEARCH_AUTHOR_PREFIX.length());
+            else if (word.startsWith(SEARCH_HOURS_PREFIX)) {
+                try {
+                    long hours = Long.parseLong(word.substring(SEARCH_HOURS_PREFIX.length()));
+                    fromTime = System.currentTimeMillis() - hours * 60 * 60 * 1000;
+                } catch (NumberFormatException e) {
+                    print("Wrong hours input. One number expected");
+                    return;
+                }
+            } else
+                query.append(word).append(' ');
+        }
+
+        try {
+            blockingQueue.put(new SearchRequestEvent(query.toString().trim(), author, fromTime, 0,
+                    SEARCH_RESULTS_MAX_COUNT));
+        } catch (InterruptedException ignored) {
+        }
+    }
+
+    /**
+     * Method invoked by NetworkManager when result of a search arrives. The
+     * found messages are displayed as one notice. This method is thread safe
+     *
+     * @param result found messages
+     */
+    public void setSearchResult(final SearchResult result) {
+        if (result.isRefused()) {
+            post(() -> print("The server cannot run the search for \"" + result.getQuery() + "\" now."));
+            return;
+        }
+
+        List<Message> messages = result.getMessages();
+        if (messages.isEmpty()) {
+            post(() -> print("No messages found for \"" + result.getQuery() + "\"."));
+            return;
+        }
+
+        StringBuilder text = new StringBuilder("Messages found for \"" + result.getQuery() + "\"");
+        if (result.hasMore())
+            text.append(", the latest ").append(messages.size()).append(" of them");
+        text.append(':');
+        for (Message message : messages)
+            text.append('\n').append(ChatLine.format(message));
+        final String notice = text.toString();
+        post(() -> print(notice));
+    }
+
+    /**
+     * Method that sends private message to the blockingQueue. The first word
+     * is the name of the recipient, the rest is the content
      *
-     * @param userNames set string names to be added
+     * @param arguments text typed after the direct message command
      */
-    private void addUserNames(Set<String> userNames) {
-        for (String name : userNames)
-            usernameListView.getItems().add(name);
+    private void sendDirectMessage(String arguments) {
+        String[] words = arguments.trim().split("\\s+", 2);
+        if (words.length < 2) {
+            print("Wrong private message input. User name and text expected");
+            return;
+        }
+
+        try {
+            blockingQueue.put(new DirectMessageEvent(words[0], words[1]));
+        } catch (InterruptedException ignored) {
+        }
     }
 
     /**
-     * Method that clears the displayed user names on the usernameList
+     * Method invoked by NetworkManager when a private message arrives, or
+     * the server confirms a private message sent by this user. This method
+     * is thread safe
+     *
+     * @param directMessage private message
      */
-    private void clearUserNames() {
-        if (!getUsernameListViewItems().isEmpty())
-            getUsernameListViewItems().clear();
+    public void setDirectMessage(final DirectMessage directMessage) {
+        final String notice;
+        if (!directMessage.isDelivered())
+            notice = "User " + directMessage.getRecipient() + " is not logged in, private message not delivered.";
+        else
+            notice = "Private message to " + directMessage.getRecipient() + ", "
+                    + ChatLine.format(directMessage.getMessage());
+        post(() -> print(notice));
     }
 
-    private ObservableList<String> getUsernameListViewItems() {
-        return usernameListView.getItems();
+    /**
+     * Method that adds line at the end of the window at the end of the
+     * current frame
+     *
+     * @param line line to be added
+     */
+    private void appendLine(ChatLine line) {
+        pendingLines.add(line);
+        requestFrame();
+    }
+
+    /**
+     * Method that appends lines added in the current frame to the window at
+     * once, dropping the oldest lines if the window is too long. Latency of
+     * the appended messages is recorded
+     */
+    private void flushLines() {
+        if (pendingLines.isEmpty())
+            return;
+
+        ObservableList<ChatLine> items = chatListView.getItems();
+        items.addAll(pendingLines);
+        for (ChatLine line : pendingLines)
+            recordLatency(line);
+        pendingLines.clear();
+
+        if (items.size() > WINDOW_MAX_SIZE) {
+            items.remove(0, items.size() - WINDOW_MAX_SIZE);
+            historyComplete = false;
+        }
+        if (followingTail)
+            chatListView.scrollTo(items.size() - 1);
     }
 
     /**
-     * Method that adds received message to the window
+     * Method that records latency of a message whose line has just been
+     * added to the window
      *
-     * @param chatMessage message to be added to view
+     * @param line added line
      */
-    private void addMessage(Message chatMessage) {
-        SimpleDateFormat format = new SimpleDateFormat("dd MMMM HH:mm:ss", Locale.GERMANY);
-        Date date = chatMessage.getSentDate();
-        print("\n" + format.format(date) + ", " + chatMessage.getAuthor() + ":");
-        print("\n" + chatMessage.getContent() + "\n");
+    private void recordLatency(ChatLine line) {
+        MessageTrace trace = line.getTrace();
+        if (trace != null) {
+            trace.stampClientRender();
+            latencyRecorder.record(trace);
+        }
     }
 
     /**
-     * Method that prints String on the chatTextArea
+     * Method invoked when the user moves the scroll bar of the chat list. At
+     * the top older messages are requested, at the bottom newer ones, if they
+     * have been dropped from the window
+     *
+     * @param scrollBar vertical scroll bar of the chat list
+     */
+    private void scrolled(ScrollBar scrollBar) {
+        followingTail = scrollBar.getValue() >= scrollBar.getMax();
+        if (scrollBar.getValue() <= scrollBar.getMin())
+            requestOlderMessages();
+        else if (followingTail && !newestDisplayed)
+            requestHistory(getLastCursor(), Direction.NEWER);
+    }
+
+    /**
+     * Method that requests messages before the first one in the window,
+     * unless the server has already sent all of them
+     */
+    private void requestOlderMessages() {
+        Cursor firstCursor = getFirstCursor();
+        if (!historyComplete && firstCursor != null)
+            requestHistory(firstCursor, Direction.OLDER);
+    }
+
+    /**
+     * Method that sends request for a page of messages to the blockingQueue,
+     * unless the previous request hasn't been answered yet
+     *
+     * @param cursor    position of the first or the last message in the window
+     * @param direction direction in which messages are requested
+     */
+    private void requestHistory(Cursor cursor, Direction direction) {
+        if (historyRequested)
+            return;
+
+        historyRequested = true;
+        try {
+            blockingQueue.put(new HistoryRequestEvent(cursor, direction, HISTORY_PAGE_SIZE, HISTORY_PAGE_BYTES));
+        } catch (InterruptedException ignored) {
+            historyRequested = false;
+        }
+    }
+
+    /**
+     * Method that returns position of the first message in the window
+     *
+     * @return position of the first message, null if there is no message
+     */
+    private Cursor getFirstCursor() {
+        for (ChatLine line : chatListView.getItems()) {
+            if (line.getCursor() != null)
+                return line.getCursor();
+        }
+        return null;
+    }
+
+    /**
+     * Method that returns position of the last message in the window
+     *
+     * @return position of the last message, null if there is no message
+     */
+    private Cursor getLastCursor() {
+        ObservableList<ChatLine> items = chatListView.getItems();
+        for (int i = items.size() - 1; i >= 0; --i) {
+            if (items.get(i).getCursor() != null)
+                return items.get(i).getCursor();
+        }
+        return null;
+    }
+
+    /**
+     * Method that returns vertical scroll bar of the chat list
+     *
+     * @return the scroll bar, null if the list hasn't been displayed yet
+     */
+    private ScrollBar getVerticalScrollBar() {
+        for (Node node : chatListView.lookupAll(".scroll-bar")) {
+            if (node instanceof ScrollBar && ((ScrollBar) node).getOrientation() == Orientation.VERTICAL)
+                return (ScrollBar) node;
+        }
+        return null;
+    }
+
+    /**
+     * Method that returns latency statistics of messages displayed by this
+     * client, e.g. to be exported
+     *
+     * @return recorder with rolling histograms of latency
+     */
+    public LatencyRecorder getLatencyRecorder() {
+        return latencyRecorder;
+    }
+
+    /**
+     * Method that prints String as a notice in the chatListView
      *
      * @param string String to printed
      */
     private void print(String string) {
-        chatTextArea.appendText(string);
+        appendLine(new ChatLine(string));
     }
 
     /**
@@ -275,7 +799,7 @@ public class ClientViewController {
         String usernameString = usernameTextField.getText();
 
         if (usernameString.isEmpty() || usernameString.charAt(0) == ' ') {
-            print("\nWrong username input. One string expected\n");
+            print("Wrong username input. One string expected");
             return;
         }
         setConnected(true);
@@ -285,10 +809,10 @@ public class ClientViewController {
 
         try {
             int a = Integer.parseInt(portString);
-            print("\nWaiting for answer from server...\n");
+            print("Waiting for answer from server...");
             blockingQueue.put(new LogInEvent(usernameString, ipString, portString));
         } catch (NumberFormatException e) {
-            print("\nWrong port input. One number expected\n");
+            print("Wrong port input. One number expected");
             setConnected(false);
         } catch (InterruptedException e) {
             setConnected(false);
@@ -318,6 +842,21 @@ public class ClientViewController {
             return;
 
         messageTextArea.setText("");
+        if (message.equals(LATENCY_COMMAND)) {
+            print(latencyRecorder.getReport().trim());
+            return;
+        }
+
+        if (message.startsWith(DIRECT_MESSAGE_COMMAND)) {
+            sendDirectMessage(message.substring(DIRECT_MESSAGE_COMMAND.length()));
+            return;
+        }
+
+        if (message.startsWith(SEARCH_COMMAND)) {
+            search(message.substring(SEARCH_COMMAND.length()));
+            return;
+        }
+
         try {
             blockingQueue.put(new MessageEvent(message));
         } catch (InterruptedException ignored) {
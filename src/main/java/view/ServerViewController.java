@@ -7,15 +7,15 @@ import model.Model;
 
 import java.io.IOException;
 import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
 
 import controller.Controller;
+import controller.PriorityLaneQueue;
 import controller.ServerManager;
 import events.BaseEvent;
 
 /**
  * Class responsible for creating all objects that the server composes of. It
- * creates Model, LinkedBlockingQueue type of BaseEvent and ServerManager to
+ * creates Model, PriorityLaneQueue type of BaseEvent and ServerManager to
  * communicate with server. ClientView sends events to queue and NetworkManager
  * reads them from the queue
  *
@@ -58,7 +58,7 @@ public class ServerViewController {
      * Method inits elements of the class, called from Server class
      */
     public void init() {
-        blockingQueue = new LinkedBlockingQueue<>();
+        blockingQueue = new PriorityLaneQueue();
         status.setText("");
         stopButton.setDisable(true);
     }
@@ -0,0 +1,174 @@
+package controller;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeSet;
+
+import org.junit.jupiter.api.Test;
+
+import events.HeartbeatEvent;
+import events.LogInEvent;
+import events.MessageEvent;
+import model.ChatState;
+import model.ChatState.UserStatus;
+import model.Cursor;
+import model.Message;
+import model.MessageTrace;
+
+/**
+ * Tests of frames written by FrameEncoder and read by FrameDecoder
+ *
+ * @author Michal
+ */
+public class FrameCodecTest {
+    /**
+     * Method that encodes objects as consecutive frames
+     *
+     * @param objects encoded objects
+     * @return bytes of the frames
+     * @throws IOException if an object cannot be encoded
+     */
+    private static byte[] encode(Object... objects) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        FrameEncoder encoder = FrameEncoder.acquire();
+        try {
+            for (Object object : objects) {
+                encoder.encode(object);
+                encoder.writeTo(outputStream);
+            }
+        } finally {
+            FrameEncoder.release(encoder);
+        }
+        return outputStream.toByteArray();
+    }
+
+    /**
+     * Method that encodes object and decodes it back
+     *
+     * @param object encoded object
+     * @return decoded object
+     * @throws Exception if the object cannot be encoded or decoded
+     */
+    private static Object roundTrip(Object object) throws Exception {
+        return new FrameDecoder(new ByteArrayInputStream(encode(object))).read();
+    }
+
+    @Test
+    public void messageEventRoundTrip() throws Exception {
+        MessageEvent event = new MessageEvent("hello");
+        event.setPreviousMessageCursor(new Cursor(123456789L, 3));
+        event.setTrace(new MessageTrace(1, 2, 3));
+
+        MessageEvent decoded = (MessageEvent) roundTrip(event);
+        assertEquals("hello", decoded.getMessageString());
+        assertEquals(new Cursor(123456789L, 3), decoded.getPreviousMessageCursor());
+        assertEquals(1, decoded.getTrace().getClientSendTime());
+        assertEquals(3, decoded.getTrace().getServerBroadcastTime());
+
+        MessageEvent plain = (MessageEvent) roundTrip(new MessageEvent(""));
+        assertEquals("", plain.getMessageString());
+        assertNull(plain.getPreviousMessageCursor());
+        assertNull(plain.getTrace());
+    }
+
+    @Test
+    public void chatStateRoundTrip() throws Exception {
+        TreeSet<String> names = new TreeSet<>(Arrays.asList("alice", "bob"));
+        List<Message> messages = Arrays.asList(new Message("alice", 10, 1, "first", null),
+                new Message("bob", 5, 2, "late", new MessageTrace(7, 8, 9)));
+        ChatState state = ChatState.of(messages, Collections.unmodifiableSortedSet(names), 42,
+                UserStatus.LOGGED_IN, "token", true);
+
+        ChatState decoded = (ChatState) roundTrip(state);
+        assertEquals(UserStatus.LOGGED_IN, decoded.getUserStatus());
+        assertEquals("token", decoded.getSessionToken());
+        assertTrue(decoded.isTruncated());
+        assertEquals(42, decoded.getNamesVersion());
+        assertEquals(names, decoded.getLoggedInUserNames());
+        assertEquals(2, decoded.getMessages().size());
+        Message late = decoded.getMessages().get(1);
+        assertEquals("bob", late.getAuthor());
+        assertEquals(new Cursor(5, 2), late.getCursor());
+        assertEquals("late", late.getContent());
+        assertEquals(8, late.getTrace().getServerReceiveTime());
+        assertNull(decoded.getMessages().get(0).getTrace());
+    }
+
+    @Test
+    public void surrogatePairsAreEncodedAsOneCodePoint() throws Exception {
+        String content = "emoji 😀 and ą€";
+        MessageEvent decoded = (MessageEvent) roundTrip(new MessageEvent(content));
+        assertEquals(content, decoded.getMessageString());
+
+        // an unpaired surrogate is replaced like by String.getBytes
+        decoded = (MessageEvent) roundTrip(new MessageEvent("a\uD83Db\uDE00"));
+        assertEquals("a?b?", decoded.getMessageString());
+    }
+
+    @Test
+    public void heartbeatAndSerializedObjectsRoundTrip() throws Exception {
+        FrameDecoder decoder = new FrameDecoder(new ByteArrayInputStream(
+                encode(new HeartbeatEvent(), new LogInEvent("alice", "localhost", "7000"), new HeartbeatEvent())));
+        Object first = decoder.read();
+        assertTrue(first instanceof HeartbeatEvent);
+        LogInEvent login = (LogInEvent) decoder.read();
+        assertEquals("alice", login.getUserName());
+        assertSame(first, decoder.read());
+    }
+
+    @Test
+    public void framesLargerThanBufferAreRead() throws Exception {
+        char[] content = new char[100000];
+        Arrays.fill(content, 'ą');
+        String text = new String(content);
+        FrameDecoder decoder = new FrameDecoder(new ByteArrayInputStream(
+                encode(new MessageEvent(text), new MessageEvent("next"))));
+        assertEquals(text, ((MessageEvent) decoder.read()).getMessageString());
+        assertEquals("next", ((MessageEvent) decoder.read()).getMessageString());
+    }
+
+    @Test
+    public void truncatedStreamIsReportedAsEnd() throws Exception {
+        byte[] bytes = encode(new MessageEvent("hello"));
+        for (int length = 0; length < bytes.length; ++length) {
+            FrameDecoder decoder = new FrameDecoder(new ByteArrayInputStream(Arrays.copyOf(bytes, length)));
+            assertThrows(EOFException.class, decoder::read, "length " + length);
+        }
+    }
+
+    @Test
+    public void frameShorterThanItsFieldsIsRejectedAndSkipped() throws Exception {
+        byte[] message = encode(new MessageEvent("hello"));
+        // the frame ends in the middle of the string
+        byte[] truncated = Arrays.copyOf(message, message.length - 3);
+        ByteBuffer.wrap(truncated).putInt(0, truncated.length - 4);
+        byte[] next = encode(new MessageEvent("next"));
+        byte[] bytes = Arrays.copyOf(truncated, truncated.length + next.length);
+        System.arraycopy(next, 0, bytes, truncated.length, next.length);
+
+        FrameDecoder decoder = new FrameDecoder(new ByteArrayInputStream(bytes));
+        assertThrows(StreamCorruptedException.class, decoder::read);
+        assertEquals("next", ((MessageEvent) decoder.read()).getMessageString());
+    }
+
+    @Test
+    public void invalidFrameSizeIsRejected() {
+        byte[] bytes = ByteBuffer.allocate(8).putInt(FrameEncoder.MAX_FRAME_SIZE + 1).array();
+        assertThrows(StreamCorruptedException.class, new FrameDecoder(new ByteArrayInputStream(bytes))::read);
+        bytes = ByteBuffer.allocate(8).putInt(0).array();
+        assertThrows(StreamCorruptedException.class, new FrameDecoder(new ByteArrayInputStream(bytes))::read);
+    }
+}
@@ -0,0 +1,90 @@
+package controller;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests of assignment of rooms to nodes by HashRing and of rooms moved when
+ * members change
+ *
+ * @author Michal
+ */
+public class HashRingTest {
+    /**
+     * number of rooms assigned in every test
+     */
+    private static final int ROOMS = 20000;
+
+    /**
+     * Method that creates ring of nodes with ids from 1 to given number
+     *
+     * @param nodes number of nodes
+     * @return ring of the nodes
+     */
+    private static HashRing ring(int nodes) {
+        Map<Integer, String> nodeToAddressMap = new HashMap<>();
+        for (int nodeId = 1; nodeId <= nodes; ++nodeId)
+            nodeToAddressMap.put(nodeId, "localhost:" + (7000 + nodeId));
+        return new HashRing(nodeToAddressMap);
+    }
+
+    @Test
+    public void emptyRingOwnsNoRoom() {
+        assertEquals(-1, HashRing.EMPTY.getOwner("room"));
+        assertTrue(HashRing.EMPTY.getNodes().isEmpty());
+    }
+
+    @Test
+    public void ringsOfSameMembersAgreeOnOwners() {
+        HashRing ring = ring(3);
+        HashRing other = ring(3);
+        int[] counts = new int[4];
+        for (int i = 0; i < ROOMS; ++i) {
+            int owner = ring.getOwner("room" + i);
+            assertEquals(owner, other.getOwner("room" + i));
+            ++counts[owner];
+        }
+
+        // every node owns a fair share of rooms
+        for (int nodeId = 1; nodeId <= 3; ++nodeId)
+            assertTrue(counts[nodeId] > ROOMS / 4 && counts[nodeId] < ROOMS / 2, "node " + nodeId);
+        assertEquals("localhost:7002", ring.getAddress(2));
+    }
+
+    @Test
+    public void addedNodeTakesOverOnlyItsShare() {
+        HashRing before = ring(3);
+        HashRing after = ring(4);
+        int moved = 0;
+        for (int i = 0; i < ROOMS; ++i) {
+            int owner = before.getOwner("room" + i);
+            int newOwner = after.getOwner("room" + i);
+            if (owner != newOwner) {
+                assertEquals(4, newOwner, "room" + i);
+                ++moved;
+            }
+        }
+        assertTrue(moved > ROOMS / 6 && moved < ROOMS / 3, "moved " + moved);
+    }
+
+    @Test
+    public void removedNodeHandsOverOnlyItsRooms() {
+        HashRing before = ring(4);
+        Map<Integer, String> nodeToAddressMap = new HashMap<>(before.getNodes());
+        nodeToAddressMap.remove(2);
+        HashRing after = new HashRing(nodeToAddressMap);
+        for (int i = 0; i < ROOMS; ++i) {
+            int owner = before.getOwner("room" + i);
+            int newOwner = after.getOwner("room" + i);
+            if (owner == 2)
+                assertTrue(newOwner != 2, "room" + i);
+            else
+                assertEquals(owner, newOwner, "room" + i);
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests of HandleVector, checking every version against a list of the handles
+ * it should contain, so that changes of a new version are never seen by the
+ * older ones
+ *
+ * @author Michal
+ */
+public class HandleVectorTest {
+    /**
+     * Method that checks that vector contains exactly the handles of a list
+     *
+     * @param expected handles that should be in the vector
+     * @param vector   checked vector
+     */
+    private static void assertContains(List<Long> expected, HandleVector vector) {
+        assertEquals(expected.size(), vector.size());
+        for (int i = 0; i < expected.size(); ++i)
+            assertEquals((long) expected.get(i), vector.get(i), "index " + i);
+    }
+
+    @Test
+    public void appendKeepsOlderVersions() {
+        // enough handles for a root with three levels
+        int count = 40000;
+        List<HandleVector> versions = new ArrayList<>();
+        HandleVector vector = HandleVector.EMPTY;
+        for (int i = 0; i < count; ++i) {
+            if (Integer.bitCount(i) == 1 || i % 1000 == 0)
+                versions.add(vector);
+            vector = vector.append(i);
+        }
+
+        List<Long> expected = new ArrayList<>();
+        for (long i = 0; i < count; ++i)
+            expected.add(i);
+        assertContains(expected, vector);
+        for (HandleVector version : versions)
+            assertContains(expected.subList(0, version.size()), version);
+    }
+
+    @Test
+    public void setKeepsOlderVersions() {
+        HandleVector vector = HandleVector.EMPTY;
+        List<Long> expected = new ArrayList<>();
+        for (long i = 0; i < 2000; ++i) {
+            vector = vector.append(i);
+            expected.add(i);
+        }
+
+        // indices in the tree and in the tail
+        HandleVector changed = vector.set(0, -1).set(1000, -2).set(1999, -3);
+        assertContains(expected, vector);
+        expected.set(0, -1L);
+        expected.set(1000, -2L);
+        expected.set(1999, -3L);
+        assertContains(expected, changed);
+    }
+
+    @Test
+    public void insertKeepsOlderVersions() {
+        Random random = new Random(1);
+        HandleVector vector = HandleVector.EMPTY;
+        List<Long> expected = new ArrayList<>();
+        List<HandleVector> versions = new ArrayList<>();
+        List<List<Long>> expectedVersions = new ArrayList<>();
+        for (long i = 0; i < 3000; ++i) {
+            // mostly close to the end, like messages replicated late
+            int index = random.nextInt(4) == 0 ? random.nextInt(expected.size() + 1)
+                    : Math.max(0, expected.size() - random.nextInt(5));
+            vector = vector.insert(index, i);
+            expected.add(index, i);
+            if (i % 97 == 0) {
+                versions.add(vector);
+                expectedVersions.add(new ArrayList<>(expected));
+            }
+        }
+
+        assertContains(expected, vector);
+        for (int i = 0; i < versions.size(); ++i)
+            assertContains(expectedVersions.get(i), versions.get(i));
+    }
+
+    @Test
+    public void indicesOutsideVectorAreRejected() {
+        HandleVector vector = HandleVector.EMPTY.append(1);
+        assertThrows(IndexOutOfBoundsException.class, () -> vector.get(1));
+        assertThrows(IndexOutOfBoundsException.class, () -> vector.get(-1));
+        assertThrows(IndexOutOfBoundsException.class, () -> vector.set(1, 2));
+        assertThrows(IndexOutOfBoundsException.class, () -> vector.insert(2, 2));
+        assertContains(List.of(1L), vector);
+        assertContains(List.of(0L, 1L), vector.insert(0, 0));
+    }
+}
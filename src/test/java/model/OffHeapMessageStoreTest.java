@@ -0,0 +1,132 @@
+package model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests of offsets of records in buffers of OffHeapMessageStore, with the
+ * default size of a buffer of 1 MB
+ *
+ * @author Michal
+ */
+public class OffHeapMessageStoreTest {
+    /**
+     * size in bytes of a buffer of records
+     */
+    private static final int SLAB_SIZE = 1 << 20;
+    /**
+     * size in bytes of a record without the content
+     */
+    private static final int HEADER_BYTES = 20;
+
+    /**
+     * Method that creates content of given length
+     *
+     * @param length number of characters
+     * @return content of the length
+     */
+    private static String content(int length) {
+        char[] characters = new char[length];
+        Arrays.fill(characters, 'x');
+        return new String(characters);
+    }
+
+    /**
+     * Method that returns handle of a record at given position of a buffer
+     *
+     * @param slab     index of the buffer
+     * @param position position of the record in the buffer
+     * @return handle of the record
+     */
+    private static long handle(int slab, int position) {
+        return (long) slab << 32 | position;
+    }
+
+    @Test
+    public void recordsFollowEachOtherInOneSlab() {
+        OffHeapMessageStore store = new OffHeapMessageStore();
+        long first = store.insert(0, new Message("alice", 1, 0, "hello", null));
+        long second = store.insert(1, new Message("bob", 2, 0, "hi", null));
+
+        assertEquals(handle(0, 0), first);
+        assertEquals(handle(0, HEADER_BYTES + 5), second);
+        assertEquals("hello", store.resolve(first).getContent());
+        assertEquals("bob", store.resolve(second).getAuthor());
+    }
+
+    @Test
+    public void recordThatDoesNotFitStartsNewSlab() {
+        OffHeapMessageStore store = new OffHeapMessageStore();
+        String large = content(600000);
+        long first = store.insert(0, new Message("alice", 1, 0, large, null));
+        long second = store.insert(1, new Message("alice", 2, 0, large, null));
+        long third = store.insert(2, new Message("bob", 3, 0, "hi", null));
+
+        assertEquals(handle(0, 0), first);
+        assertEquals(handle(1, 0), second);
+        assertEquals(handle(1, HEADER_BYTES + large.length()), third);
+        assertEquals(large, store.resolve(second).getContent());
+        assertEquals("hi", store.resolve(third).getContent());
+    }
+
+    @Test
+    public void recordLargerThanSlabGetsOwnSlab() {
+        OffHeapMessageStore store = new OffHeapMessageStore();
+        store.insert(0, new Message("alice", 1, 0, "hello", null));
+        String huge = content(2 * SLAB_SIZE);
+        long large = store.insert(1, new Message("alice", 2, 0, huge, null));
+        long next = store.insert(2, new Message("bob", 3, 0, "hi", null));
+
+        assertEquals(handle(1, 0), large);
+        assertEquals(handle(2, 0), next);
+        assertEquals(huge, store.resolve(large).getContent());
+    }
+
+    @Test
+    public void handlesDoNotChangeWhenMessagesAreInsertedBefore() {
+        OffHeapMessageStore store = new OffHeapMessageStore();
+        long later = store.insert(0, new Message("alice", 20, 1, "later", null));
+        long earlier = store.insert(0, new Message("bob", 10, 2, "earlier", null));
+
+        assertEquals(earlier, store.getHandle(0));
+        assertEquals(later, store.getHandle(1));
+        assertEquals(10, store.getTimestamp(0));
+        assertEquals(2, store.getNodeId(0));
+        assertEquals(20, store.getTimestampOf(later));
+        assertEquals(1, store.getNodeIdOf(later));
+        assertEquals(MessageStore.MESSAGE_OVERHEAD_BYTES + 2 * "alice".length() + "later".length(),
+                store.estimateSizeOf(later));
+    }
+
+    @Test
+    public void contentIsStoredInUtf8() {
+        OffHeapMessageStore store = new OffHeapMessageStore();
+        String content = "zażółć 😀";
+        long first = store.insert(0, new Message("łukasz", 1, 0, content, null));
+        long second = store.insert(1, new Message("bob", 2, 0, "hi", null));
+
+        int bytes = content.getBytes(StandardCharsets.UTF_8).length;
+        assertEquals(handle(0, HEADER_BYTES + bytes), second);
+        assertEquals(content, store.resolve(first).getContent());
+        assertEquals("łukasz", store.resolve(first).getAuthor());
+    }
+
+    @Test
+    public void tracesAreReadByIndexButNotByHandle() {
+        OffHeapMessageStore store = new OffHeapMessageStore();
+        store.insert(0, new Message("alice", 1, 0, "traced", new MessageTrace(5, 6, 7)));
+        long handle = store.insert(1, new Message("bob", 2, 0, "plain", null));
+
+        assertNotNull(store.get(0).getTrace());
+        assertEquals(5, store.get(0).getTrace().getClientSendTime());
+        assertNull(store.get(1).getTrace());
+        assertNull(store.resolve(store.getHandle(0)).getTrace());
+        assertEquals("plain", store.resolve(handle).getContent());
+    }
+}
@@ -0,0 +1,113 @@
+package model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import model.ReceivedMessages.RenderBatch;
+
+/**
+ * Tests of merging and forgetting of messages received by a client
+ *
+ * @author Michal
+ */
+public class ReceivedMessagesTest {
+    /**
+     * maximum number of messages kept by a client
+     */
+    private static final int MAX_SIZE = 1000;
+
+    /**
+     * Method that creates message with given timestamp
+     *
+     * @param timestamp timestamp of the message
+     * @return message of node 0
+     */
+    private static Message message(long timestamp) {
+        return new Message("alice", timestamp, 0, "m" + timestamp, null);
+    }
+
+    /**
+     * Method that creates messages with timestamps from a range
+     *
+     * @param from the first timestamp
+     * @param to   timestamp after the last one
+     * @return messages in order of timestamps
+     */
+    private static List<Message> messages(long from, long to) {
+        List<Message> messages = new ArrayList<>();
+        for (long timestamp = from; timestamp < to; ++timestamp)
+            messages.add(message(timestamp));
+        return messages;
+    }
+
+    @Test
+    public void messagesReceivedAgainAreMergedOnce() {
+        ReceivedMessages receivedMessages = new ReceivedMessages();
+        assertEquals(3, receivedMessages.merge(messages(1, 4)));
+        assertEquals(1, receivedMessages.merge(messages(2, 5)));
+        assertEquals(0, receivedMessages.merge(messages(1, 5)));
+        assertTrue(receivedMessages.contains(new Cursor(4, 0)));
+        assertFalse(receivedMessages.contains(new Cursor(5, 0)));
+        assertFalse(receivedMessages.contains(new Cursor(4, 1)));
+    }
+
+    @Test
+    public void unrenderedMessagesAreTakenOnceInOrderOfPositions() {
+        ReceivedMessages receivedMessages = new ReceivedMessages();
+        List<Message> late = new ArrayList<>();
+        late.add(message(10));
+        late.add(message(5));
+        receivedMessages.merge(late);
+        receivedMessages.merge(messages(5, 7));
+
+        RenderBatch batch = receivedMessages.takeUnrendered();
+        assertFalse(batch.isReplacing());
+        List<Long> timestamps = new ArrayList<>();
+        for (Message message : batch.getMessages())
+            timestamps.add(message.getTimestamp());
+        assertEquals(List.of(5L, 6L, 10L), timestamps);
+        assertTrue(receivedMessages.takeUnrendered().getMessages().isEmpty());
+    }
+
+    @Test
+    public void replacedMessagesAreForgotten() {
+        ReceivedMessages receivedMessages = new ReceivedMessages();
+        receivedMessages.merge(messages(1, 4));
+        receivedMessages.takeUnrendered();
+        receivedMessages.replace(messages(100, 102));
+
+        assertFalse(receivedMessages.contains(new Cursor(1, 0)));
+        assertTrue(receivedMessages.contains(new Cursor(100, 0)));
+        RenderBatch batch = receivedMessages.takeUnrendered();
+        assertTrue(batch.isReplacing());
+        assertEquals(2, batch.getMessages().size());
+        assertFalse(receivedMessages.takeUnrendered().isReplacing());
+    }
+
+    @Test
+    public void oldestMessagesAreForgottenButCountAsReceived() {
+        ReceivedMessages receivedMessages = new ReceivedMessages();
+        assertEquals(MAX_SIZE + 10, receivedMessages.merge(messages(1, MAX_SIZE + 11)));
+
+        // the first ten are forgotten, but are older than the kept ones
+        assertTrue(receivedMessages.contains(new Cursor(1, 0)));
+        assertTrue(receivedMessages.contains(new Cursor(MAX_SIZE + 10, 0)));
+        assertFalse(receivedMessages.contains(new Cursor(MAX_SIZE + 11, 0)));
+
+        // a forgotten message received again isn't merged
+        receivedMessages.takeUnrendered();
+        assertEquals(0, receivedMessages.merge(messages(1, 2)));
+        assertTrue(receivedMessages.takeUnrendered().getMessages().isEmpty());
+
+        // a newer message makes the oldest kept one forgotten
+        assertEquals(1, receivedMessages.merge(messages(MAX_SIZE + 11, MAX_SIZE + 12)));
+        assertTrue(receivedMessages.contains(new Cursor(11, 0)));
+        assertEquals(0, receivedMessages.merge(messages(11, 12)));
+    }
+}